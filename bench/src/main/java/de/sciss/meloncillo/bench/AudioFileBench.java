@@ -0,0 +1,122 @@
+/*
+ *  AudioFileBench.java
+ *  Meloncillo
+ *
+ *  Copyright (c) 2004-2008 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This software is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU General Public License
+ *	as published by the Free Software Foundation; either
+ *	version 2, june 1991 of the License, or (at your option) any later version.
+ *
+ *	This software is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *	General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public
+ *	License (gpl.txt) along with this software; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.meloncillo.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import de.sciss.io.AudioFile;
+import de.sciss.io.AudioFileDescr;
+
+/**
+ *	Measures the sample format conversion of the
+ *	<code>AudioFile</code> buffer handlers by reading
+ *	and overwriting blocks of a temporary file which
+ *	is small enough to stay in the OS file cache.
+ *	The <code>format</code> parameter selects the
+ *	buffer handler (16/24/32 bit integer, 32 bit float).
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.75, 17-Oct-26
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( value = 1, jvmArgsAppend = { "-Djava.awt.headless=true" })
+public class AudioFileBench
+{
+	private static final int	NUM_FRAMES	= 1 << 18;
+
+	@Param( { "int16", "int24", "int32", "float32" })
+	public String	format;
+
+	@Param( { "1", "2", "8" })
+	public int		channels;
+
+	@Param( { "256", "4096" })
+	public int		blockSize;
+
+	private AudioFile	af;
+	private float[][]	buf;
+	private long		pos;
+
+	@Setup
+	public void setup()
+	throws IOException
+	{
+		final boolean isFloat = format.startsWith( "float" );
+
+		af	= BenchUtil.createTestFile( channels, NUM_FRAMES, Integer.parseInt( format.substring( isFloat ? 5 : 3 )),
+										isFloat ? AudioFileDescr.FORMAT_FLOAT : AudioFileDescr.FORMAT_INT );
+		buf	= new float[ channels ][ blockSize ];
+		pos	= 0;
+	}
+
+	@TearDown
+	public void tearDown()
+	throws IOException
+	{
+		af.cleanUp();
+		af.getFile().delete();
+	}
+
+	private void advance()
+	throws IOException
+	{
+		if( pos + blockSize > NUM_FRAMES ) pos = 0;
+		af.seekFrame( pos );
+		pos += blockSize;
+	}
+
+	@Benchmark
+	public float readFrames()
+	throws IOException
+	{
+		advance();
+		af.readFrames( buf, 0, blockSize );
+		return buf[ 0 ][ 0 ];
+	}
+
+	@Benchmark
+	public void writeFrames()
+	throws IOException
+	{
+		advance();
+		af.writeFrames( buf, 0, blockSize );
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ *  AudioTrailReadBench.java
+ *  Meloncillo
+ *
+ *  Copyright (c) 2004-2008 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This software is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU General Public License
+ *	as published by the Free Software Foundation; either
+ *	version 2, june 1991 of the License, or (at your option) any later version.
+ *
+ *	This software is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *	General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public
+ *	License (gpl.txt) along with this software; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.meloncillo.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import de.sciss.io.AudioFile;
+import de.sciss.io.AudioFileDescr;
+import de.sciss.io.Span;
+import de.sciss.meloncillo.io.AudioTrail;
+import de.sciss.meloncillo.io.InterleavedAudioStake;
+
+/**
+ *	Measures <code>AudioTrail.readFrames</code> on a trail
+ *	which has been fragmented into many stakes, as happens
+ *	after a lot of editing. The stakes refer to shuffled
+ *	regions of one temporary file, so consecutive stakes
+ *	require a seek unless the file is memory mapped.
+ *	Read positions are pseudo random but identical across runs.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.75, 17-Oct-26
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( value = 1, jvmArgsAppend = { "-Djava.awt.headless=true" })
+public class AudioTrailReadBench
+{
+	private static final int	NUM_FRAMES	= 1 << 18;
+	private static final int	NUM_READS	= 1024;
+
+	@Param( { "1", "64", "4096" })
+	public int		stakes;
+
+	@Param( { "2", "8" })
+	public int		channels;
+
+	@Param( { "256", "4096" })
+	public int		blockSize;
+
+	@Param( { "false", "true" })
+	public boolean	mapped;
+
+	private AudioFile	af;
+	private AudioTrail	at;
+	private float[][]	buf;
+	private Span[]		readSpans;
+	private int			readIdx;
+
+	@Setup
+	public void setup()
+	throws IOException
+	{
+		final Random			rnd			= new Random( 0L );
+		final int				stakeLen	= NUM_FRAMES / stakes;
+		final List				collRegions	= new ArrayList( stakes );
+		final List				collStakes	= new ArrayList( stakes );
+		long					start;
+
+		af	= BenchUtil.createTestFile( channels, NUM_FRAMES, 32, AudioFileDescr.FORMAT_FLOAT );
+		if( mapped ) {
+			af.close();
+			af = AudioFile.openAsRead( af.getFile(), true );
+		}
+		at	= AudioTrail.newFrom( af.getDescr() );	// empty trail, stakes are added below
+
+		for( int i = 0; i < stakes; i++ ) {
+			collRegions.add( new Long( (long) i * stakeLen ));
+		}
+		Collections.shuffle( collRegions, rnd );
+		for( int i = 0; i < stakes; i++ ) {
+			start = ((Long) collRegions.get( i )).longValue();
+			collStakes.add( new InterleavedAudioStake( new Span( (long) i * stakeLen, (long) (i + 1) * stakeLen ),
+													   af, new Span( start, start + stakeLen )));
+		}
+		at.addAll( null, collStakes );
+
+		readSpans = new Span[ NUM_READS ];
+		for( int i = 0; i < NUM_READS; i++ ) {
+			start = rnd.nextInt( stakes * stakeLen - blockSize );
+			readSpans[ i ] = new Span( start, start + blockSize );
+		}
+		buf		= new float[ channels ][ blockSize ];
+		readIdx	= 0;
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		af.cleanUp();
+		af.getFile().delete();
+	}
+
+	@Benchmark
+	public float readFrames()
+	throws IOException
+	{
+		at.readFrames( buf, 0, readSpans[ readIdx ]);
+		readIdx = (readIdx + 1) % NUM_READS;
+		return buf[ 0 ][ 0 ];
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ *  BenchUtil.java
+ *  Meloncillo
+ *
+ *  Copyright (c) 2004-2008 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This software is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU General Public License
+ *	as published by the Free Software Foundation; either
+ *	version 2, june 1991 of the License, or (at your option) any later version.
+ *
+ *	This software is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *	General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public
+ *	License (gpl.txt) along with this software; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.meloncillo.bench;
+
+import java.io.IOException;
+import java.util.Random;
+
+import de.sciss.io.AudioFile;
+import de.sciss.io.AudioFileDescr;
+import de.sciss.io.IOUtil;
+
+/**
+ *	Helpers shared by the benchmarks, mainly
+ *	the creation of reproducible test material.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.75, 17-Oct-26
+ */
+final class BenchUtil
+{
+	private BenchUtil() { /* no instantiation */ }
+
+	/**
+	 *	Creates a temporary AIFF file filled with a
+	 *	random walk in the unit square (seeded, so
+	 *	repeated runs see identical data). The file is
+	 *	flagged for deletion on exit and returned open
+	 *	for reading and writing, positioned at frame zero.
+	 *
+	 *	@param	numChannels		number of interleaved channels
+	 *	@param	numFrames		file length in sample frames
+	 *	@param	bitsPerSample	resolution (16, 24, 32)
+	 *	@param	sampleFormat	<code>AudioFileDescr.FORMAT_INT</code>
+	 *							or <code>AudioFileDescr.FORMAT_FLOAT</code>
+	 */
+	static AudioFile createTestFile( int numChannels, int numFrames, int bitsPerSample, int sampleFormat )
+	throws IOException
+	{
+		final AudioFileDescr	afd		= new AudioFileDescr();
+		final Random			rnd		= new Random( 0L );
+		final float[][]			buf		= new float[ numChannels ][ 8192 ];
+		final float[]			pos		= new float[ numChannels ];
+		final AudioFile			af;
+		int						chunkLen;
+
+		afd.type			= AudioFileDescr.TYPE_AIFF;
+		afd.channels		= numChannels;
+		afd.rate			= 1000;
+		afd.bitsPerSample	= bitsPerSample;
+		afd.sampleFormat	= sampleFormat;
+		afd.file			= IOUtil.createTempFile();
+		afd.file.deleteOnExit();
+
+		for( int ch = 0; ch < numChannels; ch++ ) {
+			pos[ ch ] = 0.5f;
+		}
+		af = AudioFile.openAsWrite( afd );
+		try {
+			for( int framesWritten = 0; framesWritten < numFrames; framesWritten += chunkLen ) {
+				chunkLen = Math.min( buf[ 0 ].length, numFrames - framesWritten );
+				for( int ch = 0; ch < numChannels; ch++ ) {
+					for( int i = 0; i < chunkLen; i++ ) {
+						pos[ ch ] = Math.max( 0.0f, Math.min( 1.0f, pos[ ch ] + (rnd.nextFloat() - 0.5f) * 0.01f ));
+						buf[ ch ][ i ] = pos[ ch ];
+					}
+				}
+				af.writeFrames( buf, 0, chunkLen );
+			}
+			af.truncate();
+			af.seekFrame( 0 );
+		}
+		catch( IOException e1 ) {
+			af.cleanUp();
+			throw e1;
+		}
+		return af;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ *  FourierBench.java
+ *  Meloncillo
+ *
+ *  Copyright (c) 2004-2008 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This software is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU General Public License
+ *	as published by the Free Software Foundation; either
+ *	version 2, june 1991 of the License, or (at your option) any later version.
+ *
+ *	This software is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *	General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public
+ *	License (gpl.txt) along with this software; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.meloncillo.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.sciss.meloncillo.math.Fourier;
+
+/**
+ *	Measures the forward real valued FFT.
+ *	Each invocation transforms one block for
+ *	every channel, the input is copied into the
+ *	transform buffer first as the transform works in place.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.75, 17-Oct-26
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( value = 1, jvmArgsAppend = { "-Djava.awt.headless=true" })
+public class FourierBench
+{
+	@Param( { "1", "8" })
+	public int		channels;
+
+	@Param( { "256", "1024", "4096", "16384" })
+	public int		blockSize;
+
+	private float[][]	fftIn, fftBuf;
+
+	@Setup
+	public void setup()
+	{
+		final Random rnd = new Random( 0L );
+
+		fftIn	= new float[ channels ][ blockSize ];
+		fftBuf	= new float[ channels ][ blockSize + 2 ];
+		for( int ch = 0; ch < channels; ch++ ) {
+			for( int i = 0; i < blockSize; i++ ) {
+				fftIn[ ch ][ i ] = rnd.nextFloat() * 2.0f - 1.0f;
+			}
+		}
+	}
+
+	@Benchmark
+	public float realTransform()
+	{
+		float[] a;
+
+		for( int ch = 0; ch < channels; ch++ ) {
+			a = fftBuf[ ch ];
+			System.arraycopy( fftIn[ ch ], 0, a, 0, blockSize );
+			a[ blockSize ]		= 0.0f;
+			a[ blockSize + 1 ]	= 0.0f;
+			Fourier.realTransform( a, blockSize, Fourier.FORWARD );
+		}
+		return fftBuf[ 0 ][ 0 ];
+	}
+}
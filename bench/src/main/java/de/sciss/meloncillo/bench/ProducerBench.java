@@ -0,0 +1,176 @@
+/*
+ *  ProducerBench.java
+ *  Meloncillo
+ *
+ *  Copyright (c) 2004-2008 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This software is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU General Public License
+ *	as published by the Free Software Foundation; either
+ *	version 2, june 1991 of the License, or (at your option) any later version.
+ *
+ *	This software is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *	General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public
+ *	License (gpl.txt) along with this software; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.meloncillo.bench;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import de.sciss.io.AudioFile;
+import de.sciss.io.AudioFileDescr;
+import de.sciss.io.Span;
+import de.sciss.meloncillo.io.AudioTrail;
+import de.sciss.meloncillo.realtime.RealtimeConsumerRequest;
+import de.sciss.meloncillo.realtime.RealtimeContext;
+import de.sciss.meloncillo.realtime.RealtimeProducer;
+import de.sciss.meloncillo.receiver.SigmaReceiver;
+import de.sciss.meloncillo.transmitter.SimpleTransmitter;
+
+/**
+ *	Measures one block production of the
+ *	<code>RealtimeProducer</code>, i.e. reading the
+ *	trajectories of all transmitters and calculating
+ *	the full transmitter-receiver sensitivity matrix
+ *	at full rate. Each transmitter reads a random walk
+ *	from its own temporary file; the receivers are sigma
+ *	receivers spread across the unit square. No application
+ *	instance exists, so the producer uses one sense thread
+ *	per processor.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.75, 17-Oct-26
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( value = 1, jvmArgsAppend = { "-Djava.awt.headless=true" })
+public class ProducerBench
+{
+	private static final int	NUM_FRAMES	= 1 << 16;
+
+	@Param( { "1", "8" })
+	public int		transmitters;
+
+	@Param( { "8", "32" })
+	public int		receivers;
+
+	@Param( { "512", "4096" })
+	public int		blockSize;
+
+	private RealtimeProducer	producer;
+	private AudioFile[]			afs;
+	private long				pos;
+	private boolean				even;
+
+	@Setup
+	public void setup()
+	throws IOException
+	{
+		final Random					rnd			= new Random( 0L );
+		final List						collRcv		= new ArrayList( receivers );
+		final List						collTrns	= new ArrayList( transmitters );
+		final RealtimeContext			context;
+		final RealtimeConsumerRequest	request;
+		SigmaReceiver					rcv;
+
+		afs = new AudioFile[ transmitters ];
+		for( int i = 0; i < transmitters; i++ ) {
+			afs[ i ] = BenchUtil.createTestFile( 2, NUM_FRAMES, 32, AudioFileDescr.FORMAT_FLOAT );
+			collTrns.add( new FileTransmitter( afs[ i ]));
+		}
+		for( int i = 0; i < receivers; i++ ) {
+			rcv = new SigmaReceiver();
+			rcv.setAnchor( new Point2D.Double( rnd.nextDouble(), rnd.nextDouble() ));
+			collRcv.add( rcv );
+		}
+
+		context = new RealtimeContext( null, collRcv, collTrns, new Span( 0, NUM_FRAMES ), 1000 );
+		context.setSourceBlockSize( blockSize );
+		producer = new RealtimeProducer();
+		producer.changeContext( context );
+
+		request = new RealtimeConsumerRequest( null, context );
+		request.frameStep = 1;
+		for( int i = 0; i < transmitters; i++ ) {
+			request.trajRequest[ i ] = true;
+			for( int j = 0; j < receivers; j++ ) {
+				request.senseRequest[ i ][ j ] = true;
+			}
+		}
+		producer.addConsumerRequestsNow( Collections.singletonList( request ));
+		pos		= 0;
+		even	= true;
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		for( int i = 0; i < afs.length; i++ ) {
+			afs[ i ].cleanUp();
+			afs[ i ].getFile().delete();
+		}
+	}
+
+	@Benchmark
+	public float produce()
+	{
+		final int bufSizeH = producer.source.bufSizeH;
+
+		if( pos + bufSizeH > NUM_FRAMES ) pos = 0;
+		producer.produceNow( new Span( pos, pos + bufSizeH ), even );
+		pos	   += bufSizeH;
+		even	= !even;
+		return producer.source.senseBlockBuf[ 0 ][ 0 ][ 0 ];
+	}
+
+	/*
+	 *	A transmitter whose trajectory is
+	 *	read directly from a given file.
+	 */
+	private static class FileTransmitter
+	extends SimpleTransmitter
+	{
+		private final AudioTrail at;
+
+		private FileTransmitter( AudioFile af )
+		throws IOException
+		{
+			super();
+			at = AudioTrail.newFrom( af );
+		}
+
+		public AudioTrail getAudioTrail()
+		{
+			return at;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ *  ReceiverSenseBench.java
+ *  Meloncillo
+ *
+ *  Copyright (c) 2004-2008 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This software is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU General Public License
+ *	as published by the Free Software Foundation; either
+ *	version 2, june 1991 of the License, or (at your option) any later version.
+ *
+ *	This software is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *	General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public
+ *	License (gpl.txt) along with this software; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.meloncillo.bench;
+
+import java.awt.geom.Point2D;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.sciss.meloncillo.receiver.SectorReceiver;
+import de.sciss.meloncillo.receiver.SigmaReceiver;
+import de.sciss.meloncillo.receiver.TableLookupReceiver;
+
+/**
+ *	Compares the exact table lookup sensitivity
+ *	calculation with the interpolated sensitivity grid
+ *	for both table lookup receiver types. The points
+ *	are spread uniformly across an area slightly larger
+ *	than the receiver's bounding box, so that both the
+ *	early rejection and the full calculation are exercised.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.75, 17-Oct-26
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( value = 1, jvmArgsAppend = { "-Djava.awt.headless=true" })
+public class ReceiverSenseBench
+{
+	@Param( { "sigma", "sector" })
+	public String	receiver;
+
+	@Param( { "exact", "fast" })
+	public String	mode;
+
+	@Param( { "256", "4096" })
+	public int		blockSize;
+
+	private TableLookupReceiver	rcv;
+	private float[][]			points;
+	private float[]				sense;
+
+	@Setup
+	public void setup()
+	{
+		final Random rnd = new Random( 0L );
+
+		rcv		= receiver.equals( "sigma" ) ? (TableLookupReceiver) new SigmaReceiver() :
+											   (TableLookupReceiver) new SectorReceiver();
+		rcv.setAnchor( new Point2D.Double( 0.5, 0.5 ));
+		points	= new float[ 2 ][ blockSize ];
+		sense	= new float[ blockSize ];
+		for( int i = 0; i < blockSize; i++ ) {
+			points[ 0 ][ i ] = rnd.nextFloat() * 2.0f - 0.5f;
+			points[ 1 ][ i ] = rnd.nextFloat() * 2.0f - 0.5f;
+		}
+		TableLookupReceiver.setFastSensitivities( mode.equals( "fast" ));
+		rcv.getSensitivities( points, sense, 0, blockSize, 1 );	// builds the grid outside the measurement
+	}
+
+	@Benchmark
+	public float getSensitivities()
+	{
+		rcv.getSensitivities( points, sense, 0, blockSize, 1 );
+		return sense[ blockSize - 1 ];
+	}
+}
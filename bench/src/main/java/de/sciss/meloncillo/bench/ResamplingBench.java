@@ -0,0 +1,100 @@
+/*
+ *  ResamplingBench.java
+ *  Meloncillo
+ *
+ *  Copyright (c) 2004-2008 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This software is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU General Public License
+ *	as published by the Free Software Foundation; either
+ *	version 2, june 1991 of the License, or (at your option) any later version.
+ *
+ *	This software is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *	General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public
+ *	License (gpl.txt) along with this software; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.meloncillo.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.sciss.meloncillo.math.BandLimitedResampling;
+
+/**
+ *	Measures <code>BandLimitedResampling</code> for
+ *	down sampling, fractional delay and up sampling
+ *	at each of the three filter qualities.
+ *	Each invocation resamples one block for every channel
+ *	in a single multi channel call.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.75, 17-Oct-26
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( value = 1, jvmArgsAppend = { "-Djava.awt.headless=true" })
+public class ResamplingBench
+{
+	@Param( { "1", "8" })
+	public int		channels;
+
+	@Param( { "256", "4096" })
+	public int		blockSize;
+
+	@Param( { "0", "1", "2" })
+	public int		quality;
+
+	@Param( { "0.5", "1.0", "2.0" })
+	public double	factor;
+
+	private BandLimitedResampling	rsmp;
+	private int						wing;
+	private float[][]				rsmpIn, rsmpOut;
+
+	@Setup
+	public void setup()
+	{
+		final Random	rnd		= new Random( 0L );
+		final int		inLen;
+
+		rsmp	= new BandLimitedResampling( quality );
+		wing	= (int) Math.ceil( rsmp.getWingSize( factor )) + 1;
+		inLen	= (int) Math.ceil( blockSize / factor ) + 2 * wing + 1;
+		rsmpIn	= new float[ channels ][ inLen ];
+		rsmpOut	= new float[ channels ][ blockSize ];
+		for( int ch = 0; ch < channels; ch++ ) {
+			for( int i = 0; i < inLen; i++ ) {
+				rsmpIn[ ch ][ i ] = rnd.nextFloat() * 2.0f - 1.0f;
+			}
+		}
+	}
+
+	@Benchmark
+	public float resample()
+	{
+		rsmp.resample( rsmpIn, wing + 0.25, rsmpOut, 0, blockSize, factor );
+		return rsmpOut[ 0 ][ 0 ];
+	}
+}
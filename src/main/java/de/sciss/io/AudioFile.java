@@ -40,19 +40,21 @@
  *		27-Mar-07	separate APPCODE reader, not requiring Application class; separate markers reading;
  *					fixed AIFF output file endian bug
  *		06-Jan-07	added static retrieveType method
+ *		17-Oct-26	optional memory mapped read mode with positional, lock free reads
+ *		17-Oct-26	copyFrames transfers raw bytes between files of identical format
+ *		17-Oct-26	multi-byte buffer handlers en/decode directly in the byte buffer
+ *					; configurable, larger buffer size
  */
 
 package de.sciss.io;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.DoubleBuffer;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.nio.ShortBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -118,6 +120,14 @@ implements InterleavedStreamFile
 	private static final int MODE_READONLY   = 0;
 	private static final int MODE_READWRITE  = 1;
 
+	// maximum size in bytes of one memory mapped region.
+	// longer files are mapped in several chunks
+	private static final int MAP_CHUNK_SIZE	 = 0x40000000;
+
+	// size in bytes of the buffer through which frames are
+	// read and written. applies to files opened afterwards
+	private static int		 bufferSize		 = 0x40000;
+
 	protected final RandomAccessFile	raf;
 	protected final FileChannel			fch;
 	private final int					mode;
@@ -137,6 +147,10 @@ implements InterleavedStreamFile
 	private long						updateLen;
 	private long						updateStep;
 
+	private MappedByteBuffer[]			mappedBufs		= null;		// non-null in mapped read mode
+	private int							mapChunkFrames;
+	private long						mappedFrames;
+
 	private static final String			NAME_LOOP		= "loop";
 	private static final String			NAME_MARK		= "mark";
 	private static final String			NAME_REGION		= "region";
@@ -156,6 +170,37 @@ implements InterleavedStreamFile
 	 */
 	public static AudioFile openAsRead( File f )
 	throws IOException
+	{
+		return openAsRead( f, false );
+	}
+
+	/**
+	 *  Opens an audio file for reading, optionally mapping
+	 *	the sample data into memory. In mapped mode, the positional
+	 *	<code>readFrames( long, float[][], int, int )</code> method
+	 *	neither seeks nor locks, so several threads may read
+	 *	the file at the same time. Files longer than one gigabyte
+	 *	are mapped in chunks. If the mapping fails (e.g. due to
+	 *	lack of address space), the file is opened in normal mode.
+	 *	<p>
+	 *	Note that the mapping covers the sample frames present
+	 *	at the time of opening, therefore the file must not
+	 *	be modified by other parties while it is open.
+	 *
+	 *  @param		f		the path name of the file
+	 *	@param		map		whether to memory map the sample data
+	 *  @return		a new <code>AudioFile</code> object
+	 *				whose header is already parsed and can
+	 *				be obtained through the <code>getDescr</code> method.
+	 *
+	 *  @throws IOException if the file was not found, could not be read
+	 *						or has an unknown or unsupported format
+	 *
+	 *	@see	#isMapped()
+	 *	@see	#readFrames( long, float[][], int, int )
+	 */
+	public static AudioFile openAsRead( File f, boolean map )
+	throws IOException
 	{
 		final AudioFile af	= new AudioFile( f, MODE_READONLY );
 		af.afd				= new AudioFileDescr();
@@ -165,6 +210,7 @@ implements InterleavedStreamFile
 		af.afh.readHeader( af.afd );
 		af.init();
 		af.seekFrame( 0 );
+		if( map ) af.map();
 		return af;
 	}
 	
@@ -267,12 +313,41 @@ implements InterleavedStreamFile
 		return afd.file;
 	}
 	
+	/**
+	 *	Sets the size of the I/O buffer used by audio files
+	 *	opened after this call. Frames are read and written
+	 *	in chunks of this size, and decoded directly from
+	 *	the buffer. The default is 256 KB.
+	 *
+	 *	@param	bytes	the buffer size in bytes. it is rounded
+	 *					down to a multiple of the frame size,
+	 *					but holds at least one frame
+	 */
+	public static void setBufferSize( int bytes )
+	{
+		if( bytes <= 0 ) throw new IllegalArgumentException( String.valueOf( bytes ));
+		bufferSize = bytes;
+	}
+
+	/**
+	 *	Queries the size of the I/O buffer
+	 *	used by newly opened audio files.
+	 *
+	 *	@return	the buffer size in bytes
+	 *
+	 *	@see	#setBufferSize( int )
+	 */
+	public static int getBufferSize()
+	{
+		return bufferSize;
+	}
+
 	private void init()
 	throws IOException
 	{
 		channels		= afd.channels;
 		bytesPerFrame	= (afd.bitsPerSample >> 3) * channels;
-		frameBufCapacity= Math.max( 1, 65536 / Math.max( 1, bytesPerFrame ));
+		frameBufCapacity= Math.max( 1, bufferSize / Math.max( 1, bytesPerFrame ));
 		byteBufCapacity = frameBufCapacity * bytesPerFrame;
 		byteBuf			= ByteBuffer.allocateDirect( byteBufCapacity );
 		byteBuf.order( afh.getByteOrder() );
@@ -316,6 +391,37 @@ implements InterleavedStreamFile
 		if( bh == null) throw new IOException( getResourceString( "errAudioFileEncoding" ));
 	}
 
+	/*
+	 *	Maps the sample data into memory. Each chunk
+	 *	holds an integer number of frames, so a frame never
+	 *	straddles two chunks. Falls back to normal mode on failure.
+	 */
+	private void map()
+	{
+		final long					start		= afh.getSampleDataOffset();
+		final int					chunkFrames	= MAP_CHUNK_SIZE / bytesPerFrame;
+		final long					numFrames;
+		final MappedByteBuffer[]	bufs;
+		long						frame		= 0;
+
+		try {
+			numFrames	= Math.max( 0, Math.min( afd.length, (fch.size() - start) / bytesPerFrame ));
+			bufs		= new MappedByteBuffer[ (int) ((numFrames + chunkFrames - 1) / chunkFrames) ];
+			for( int i = 0; i < bufs.length; i++, frame += chunkFrames ) {
+				bufs[ i ] = fch.map( FileChannel.MapMode.READ_ONLY, start + frame * bytesPerFrame,
+									 Math.min( chunkFrames, numFrames - frame ) * bytesPerFrame );
+				bufs[ i ].order( afh.getByteOrder() );
+			}
+		}
+		catch( IOException e1 ) {
+			System.err.println( "AudioFile.map : " + e1 );
+			return;
+		}
+		mapChunkFrames	= chunkFrames;
+		mappedFrames	= numFrames;
+		mappedBufs		= bufs;
+	}
+
 	private AudioFileHeader createHeader()
 	throws IOException
 	{
@@ -470,6 +576,71 @@ implements InterleavedStreamFile
 		framePosition += length;
 	}
 
+	/**
+	 *	Reads sample frames from a given position, leaving
+	 *	the current file position untouched. In mapped read mode
+	 *	the frames are decoded straight from the mapped memory
+	 *	without any locking, otherwise the method synchronizes
+	 *	on this file and performs a seek and a regular read.
+	 *	It is thus safe to call this method concurrently,
+	 *	as long as any other access synchronizes on the file.
+	 *
+	 *	@param	frame	the sample frame index to start reading at
+	 *  @param  data	buffer to hold the frames read from harddisc,
+	 *					as in <code>readFrames( float[][], int, int )</code>
+	 *  @param  offset  offset in the buffer in sample frames
+	 *  @param  length  number of continuous frames to read.
+	 *
+	 *  @throws IOException if a read error occurs or the frames
+	 *						lie beyond the end of the file
+	 *
+	 *	@see	#openAsRead( File, boolean )
+	 */
+	public void readFrames( long frame, float[][] data, int offset, int length )
+	throws IOException
+	{
+		final MappedByteBuffer[] bufs = mappedBufs;
+	
+		if( bufs == null ) {
+			synchronized( this ) {
+				if( framePosition != frame ) seekFrame( frame );
+				readFrames( data, offset, length );
+			}
+			return;
+		}
+		
+		if( (frame < 0) || (frame + length > mappedFrames) ) {
+			throw new EOFException( frame + " ... " + (frame + length) + " not within 0 ... " + mappedFrames );
+		}
+		
+		int				chunkIdx	= (int) (frame / mapChunkFrames);
+		int				chunkOff	= (int) (frame % mapChunkFrames);
+		int				chunkLength;
+
+		while( length > 0 ) {
+			chunkLength	= Math.min( length, mapChunkFrames - chunkOff );
+			bh.readFrames( bufs[ chunkIdx ], chunkOff * bytesPerFrame, data, offset, chunkLength );
+			length	   -= chunkLength;
+			offset	   += chunkLength;
+			chunkIdx++;
+			chunkOff	= 0;
+		}
+	}
+	
+	/**
+	 *	Queries whether the file was opened
+	 *	in memory mapped read mode.
+	 *
+	 *	@return	<code>true</code> if positional reads are
+	 *			served from mapped memory
+	 *
+	 *	@see	#openAsRead( File, boolean )
+	 */
+	public boolean isMapped()
+	{
+		return mappedBufs != null;
+	}
+
 	/**
 	 *	Writes sample frames to the file starting at the current position.
 	 *  If you write past the previous end of the file, the <code>length</code>
@@ -576,6 +747,9 @@ implements InterleavedStreamFile
 	 *	or any other class implementing the
 	 *	<code>InterleavedStreamFile</code> interface).
 	 *	Both files must have the same number of channels.
+	 *	If the target is an audio file with the same sample format
+	 *	and byte order, the sample data is transferred between the
+	 *	file channels without decoding it.
 	 *
 	 *	@param	target	to file to copy to from this audio file
 	 *	@param	length	the number of frames to copy. Reading
@@ -589,29 +763,54 @@ implements InterleavedStreamFile
 	{
 		int chunkLength;
 
-//		if( (target instanceof AudioFile) && ((AudioFile) target).bh.getClass().equals( this.bh.getClass() ) &&
-//			(((AudioFile) target).channels == this.channels) ) {
-//		
-//			while( length > 0 ) {
-//				chunkLength = Math.min( frameBufCapacity, length );
-//				byteBuf.clear();
-//					...
-//				byteBuf.flip();
-//				fch.write( byteBuf );
-//				length -= chunkLength;
-//			}
-//
-//		} else {
-			int			tempBufSize	= (int) Math.min( length, 8192 );
-			float[][]	tempBuf		= new float[ channels ][ tempBufSize ];
-			
-			while( length > 0 ) {
-				chunkLength	= (int) Math.min( length, tempBufSize );
-				this.readFrames( tempBuf, 0, chunkLength );
-				target.writeFrames( tempBuf, 0, chunkLength );
-				length -= chunkLength;
+		if( (target instanceof AudioFile) && ((AudioFile) target).isSameFormat( this )) {
+			copyFramesRaw( (AudioFile) target, length );
+			return;
+		}
+
+		int			tempBufSize	= (int) Math.min( length, 8192 );
+		float[][]	tempBuf		= new float[ channels ][ tempBufSize ];
+		
+		while( length > 0 ) {
+			chunkLength	= (int) Math.min( length, tempBufSize );
+			this.readFrames( tempBuf, 0, chunkLength );
+			target.writeFrames( tempBuf, 0, chunkLength );
+			length -= chunkLength;
+		}
+	}
+
+	private boolean isSameFormat( AudioFile af )
+	{
+		return( (af.channels == this.channels) && (af.bh.getClass() == this.bh.getClass()) &&
+				(af.afh.getByteOrder() == this.afh.getByteOrder()) );
+	}
+
+	// transfers the sample bytes from the current position of
+	// this file to the current position of the target, advancing both
+	private void copyFramesRaw( AudioFile target, long length )
+	throws IOException
+	{
+		long		readPos		= fch.position();
+		long		remaining	= length * bytesPerFrame;
+		long		n;
+	
+		while( remaining > 0 ) {
+			n = fch.transferTo( readPos, remaining, target.fch );
+			if( n <= 0 ) throw new EOFException( getFile().getName() );
+			readPos	   += n;
+			remaining  -= n;
+		}
+		fch.position( readPos );
+		framePosition		   += length;
+		target.framePosition   += length;
+
+		if( target.framePosition > target.afd.length ) {
+			if( (target.framePosition > target.updateLen) || (System.currentTimeMillis() > target.updateTime) ) {
+				target.flush();
+			} else {
+				target.afd.length = target.framePosition;
 			}
-//		}
+		}
 	}
 
 	/**
@@ -627,6 +826,7 @@ implements InterleavedStreamFile
 			fch.force( true );
 			afh.updateHeader( afd );
 		}
+		mappedBufs = null;	// regions are released when garbage collected
 		raf.close();
 
 	}
@@ -694,6 +894,9 @@ implements InterleavedStreamFile
 		protected BufferHandler() { /* empty */ }
 		protected abstract void writeFrames( float[][] frames, int off, int len ) throws IOException;
 		protected abstract void readFrames( float[][] frames, int off, int len ) throws IOException;
+		// decodes from src, starting at byte index pos, using absolute gets only.
+		// must not use the handler's buffers, because it is called without synchronization
+		protected abstract void readFrames( ByteBuffer src, int pos, float[][] frames, int off, int len );
 	}
 	
 	private class ByteBufferHandler
@@ -754,6 +957,21 @@ implements InterleavedStreamFile
 				offset += chunkLength;
 			}
 		}
+
+		protected void readFrames( ByteBuffer src, int pos, float[][] frames, int offset, int length )
+		{
+			final int	stop	= offset + length;
+			int			i, j, ch;
+			float[]		b;
+
+			for( ch = 0; ch < channels; ch++ ) {
+				b = frames[ ch ];
+				if( b == null ) continue;
+				for( i = pos + ch, j = offset; j < stop; i += channels, j++ ) {
+					b[ j ]	= (float) src.get( i ) / 0x7F;
+				}
+			}
+		}
 	}
 
 	// float to byte = f*0x7F+0x80 (-1 ... +1 becomes 0x01 to 0xFF)
@@ -820,21 +1038,26 @@ implements InterleavedStreamFile
 				offset += chunkLength;
 			}
 		}
+
+		protected void readFrames( ByteBuffer src, int pos, float[][] frames, int offset, int length )
+		{
+			final int	stop	= offset + length;
+			int			i, j, ch;
+			float[]		b;
+
+			for( ch = 0; ch < channels; ch++ ) {
+				b = frames[ ch ];
+				if( b == null ) continue;
+				for( i = pos + ch, j = offset; j < stop; i += channels, j++ ) {
+					b[ j ]	= (float) ((src.get( i ) & 0xFF) - 0x80) / 0x7F;
+				}
+			}
+		}
 	}
 
 	private class ShortBufferHandler
 	extends BufferHandler
 	{
-		private final ShortBuffer	viewBuf;
-		private final short[]		arrayBuf;
-	
-		protected ShortBufferHandler()
-		{
-			byteBuf.clear();
-			viewBuf		= byteBuf.asShortBuffer();
-			arrayBuf	= new short[ viewBuf.capacity() ];
-		}
-
 		protected void writeFrames( float[][] frames, int offset, int length )
 		throws IOException
 		{
@@ -843,17 +1066,16 @@ implements InterleavedStreamFile
 
 			while( length > 0 ) {
 				chunkLength = Math.min( frameBufCapacity, length );
-				m			= chunkLength * channels;
+				m			= chunkLength * bytesPerFrame;
+				byteBuf.clear();
 				for( ch = 0; ch < channels; ch++ ) {
 					b = frames[ ch ];
 					if( b == null ) continue;
-					for( i = ch, j = offset; i < m; i += channels, j++ ) {
-						arrayBuf[ i ] = (short) (b[ j ] * 0x7FFF);
+					for( i = ch * 2, j = offset; i < m; i += bytesPerFrame, j++ ) {
+						byteBuf.putShort( i, (short) (b[ j ] * 0x7FFF) );
 					}
 				}
-				viewBuf.clear();
-				viewBuf.put( arrayBuf, 0, m );
-				byteBuf.rewind().limit( chunkLength * bytesPerFrame );
+				byteBuf.limit( m );
 				fch.write( byteBuf );
 				length -= chunkLength;
 				offset += chunkLength;
@@ -863,27 +1085,32 @@ implements InterleavedStreamFile
 		protected void readFrames( float[][] frames, int offset, int length )
 		throws IOException
 		{
-			int		i, j, m, ch, chunkLength;
-			float[]	b;
+			int chunkLength;
 		
 			while( length > 0 ) {
 				chunkLength = Math.min( frameBufCapacity, length );
-				m			= chunkLength * channels;
 				byteBuf.rewind().limit( chunkLength * bytesPerFrame );
 				fch.read( byteBuf );
-				viewBuf.clear();
-				viewBuf.get( arrayBuf, 0, m );
-				for( ch = 0; ch < channels; ch++ ) {
-					b = frames[ ch ];
-					if( b == null ) continue;
-					for( i = ch, j = offset; i < m; i += channels, j++ ) {
-						b[ j ]	= (float) arrayBuf[ i ] / 0x7FFF;
-					}
-				}
+				readFrames( byteBuf, 0, frames, offset, chunkLength );
 				length -= chunkLength;
 				offset += chunkLength;
 			}
 		}
+
+		protected void readFrames( ByteBuffer src, int pos, float[][] frames, int offset, int length )
+		{
+			final int	stop	= offset + length;
+			int			i, j, ch;
+			float[]		b;
+
+			for( ch = 0; ch < channels; ch++ ) {
+				b = frames[ ch ];
+				if( b == null ) continue;
+				for( i = pos + ch * 2, j = offset; j < stop; i += bytesPerFrame, j++ ) {
+					b[ j ]	= (float) src.getShort( i ) / 0x7FFF;
+				}
+			}
+		}
 	}
 
 	/*
@@ -892,38 +1119,26 @@ implements InterleavedStreamFile
 	private class ThreeByteBufferHandler
 	extends BufferHandler
 	{
-		private final byte[]		arrayBuf;
-		private final int			chStep = (channels - 1) * 3;
-	
-		protected ThreeByteBufferHandler()
-		{
-			// note : it's *not* faster to use ByteBuffer.allocate()
-			// and ByteBuffer.array() than this implementation
-			// (using ByteBuffer.allocateDirect() and bulk get into a separate arrayBuf)
-			arrayBuf	= new byte[ byteBuf.capacity() ];
-		}
-
 		protected void writeFrames( float[][] frames, int offset, int length )
 		throws IOException
 		{
-			int		i, j, k, m, ch, chunkLength;
+			int		i, j, m, ch, chunkLength, k;
 			float[]	b;
 
 			while( length > 0 ) {
 				chunkLength = Math.min( frameBufCapacity, length );
 				m			= chunkLength * bytesPerFrame;
+				byteBuf.clear();
 				for( ch = 0; ch < channels; ch++ ) {
 					b = frames[ ch ];
-					for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
-						k				= (int)  (b[ j ] * 0x7FFFFF);
-						arrayBuf[ i++ ] = (byte) (k >> 16);
-						arrayBuf[ i++ ] = (byte) (k >> 8);
-						arrayBuf[ i++ ] = (byte)  k;
+					if( b == null ) continue;
+					for( i = ch * 3, j = offset; i < m; i += bytesPerFrame, j++ ) {
+						k = (int) (b[ j ] * 0x7FFFFF);
+						byteBuf.putShort( i, (short) (k >> 8) );
+						byteBuf.put( i + 2, (byte) k );
 					}
 				}
-				byteBuf.clear();
-				byteBuf.put( arrayBuf, 0, m );
-				byteBuf.flip();
+				byteBuf.limit( m );
 				fch.write( byteBuf );
 				length -= chunkLength;
 				offset += chunkLength;
@@ -933,29 +1148,32 @@ implements InterleavedStreamFile
 		protected void readFrames( float[][] frames, int offset, int length )
 		throws IOException
 		{
-			int		i, j, m, ch, chunkLength;
-			float[]	b;
+			int chunkLength;
 		
 			while( length > 0 ) {
 				chunkLength = Math.min( frameBufCapacity, length );
-				m			= chunkLength * bytesPerFrame;
-				byteBuf.rewind().limit( m );
+				byteBuf.rewind().limit( chunkLength * bytesPerFrame );
 				fch.read( byteBuf );
-				byteBuf.flip();
-				byteBuf.get( arrayBuf, 0, m );
-				for( ch = 0; ch < channels; ch++ ) {
-					b = frames[ ch ];
-					if( b == null ) continue;
-					for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
-						b[ j ]	= (float) ((arrayBuf[ i++ ] << 16 ) |
-										  ((arrayBuf[ i++ ] & 0xFF) << 8) |
-										   (arrayBuf[ i++ ] & 0xFF)) / 0x7FFFFF;
-					}
-				}
+				readFrames( byteBuf, 0, frames, offset, chunkLength );
 				length -= chunkLength;
 				offset += chunkLength;
 			}
 		}
+
+		protected void readFrames( ByteBuffer src, int pos, float[][] frames, int offset, int length )
+		{
+			final int	stop	= offset + length;
+			int			i, j, ch;
+			float[]		b;
+
+			for( ch = 0; ch < channels; ch++ ) {
+				b = frames[ ch ];
+				if( b == null ) continue;
+				for( i = pos + ch * 3, j = offset; j < stop; i += bytesPerFrame, j++ ) {
+					b[ j ]	= (float) ((src.getShort( i ) << 8) | (src.get( i + 2 ) & 0xFF)) / 0x7FFFFF;
+				}
+			}
+		}
 	}
 
 	/*
@@ -964,39 +1182,26 @@ implements InterleavedStreamFile
 	private class ThreeLittleByteBufferHandler
 	extends BufferHandler
 	{
-		private final byte[]		arrayBuf;
-		private final int			chStep = (channels - 1) * 3;
-	
-		protected ThreeLittleByteBufferHandler()
-		{
-			// note : it's *not* faster to use ByteBuffer.allocate()
-			// and ByteBuffer.array() than this implementation
-			// (using ByteBuffer.allocateDirect() and bulk get into a separate arrayBuf)
-			arrayBuf	= new byte[ byteBuf.capacity() ];
-		}
-		
 		protected void writeFrames( float[][] frames, int offset, int length )
 		throws IOException
 		{
-			int		i, j, k, m, ch, chunkLength;
+			int		i, j, m, ch, chunkLength, k;
 			float[]	b;
 
 			while( length > 0 ) {
 				chunkLength = Math.min( frameBufCapacity, length );
 				m			= chunkLength * bytesPerFrame;
+				byteBuf.clear();
 				for( ch = 0; ch < channels; ch++ ) {
 					b = frames[ ch ];
 					if( b == null ) continue;
-					for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
-						k				= (int)  (b[ j ] * 0x7FFFFF);
-						arrayBuf[ i++ ] = (byte)  k;
-						arrayBuf[ i++ ] = (byte) (k >> 8);
-						arrayBuf[ i++ ] = (byte) (k >> 16);
+					for( i = ch * 3, j = offset; i < m; i += bytesPerFrame, j++ ) {
+						k = (int) (b[ j ] * 0x7FFFFF);
+						byteBuf.put( i, (byte) k );
+						byteBuf.putShort( i + 1, (short) (k >> 8) );
 					}
 				}
-				byteBuf.clear();
-				byteBuf.put( arrayBuf, 0, m );
-				byteBuf.flip();
+				byteBuf.limit( m );
 				fch.write( byteBuf );
 				length -= chunkLength;
 				offset += chunkLength;
@@ -1006,44 +1211,37 @@ implements InterleavedStreamFile
 		protected void readFrames( float[][] frames, int offset, int length )
 		throws IOException
 		{
-			int		i, j, m, ch, chunkLength;
-			float[]	b;
+			int chunkLength;
 		
 			while( length > 0 ) {
 				chunkLength = Math.min( frameBufCapacity, length );
-				m			= chunkLength * bytesPerFrame;
-				byteBuf.rewind().limit( m );
+				byteBuf.rewind().limit( chunkLength * bytesPerFrame );
 				fch.read( byteBuf );
-				byteBuf.flip();
-				byteBuf.get( arrayBuf, 0, m );
-				for( ch = 0; ch < channels; ch++ ) {
-					b = frames[ ch ];
-					if( b == null ) continue;
-					for( i = ch * 3, j = offset; i < m; i += chStep, j++ ) {
-						b[ j ]	= (float) ((arrayBuf[ i++ ] & 0xFF) |
-										  ((arrayBuf[ i++ ] & 0xFF) << 8) |
-										   (arrayBuf[ i++ ] << 16 )) / 0x7FFFFF;
-					}
-				}
+				readFrames( byteBuf, 0, frames, offset, chunkLength );
 				length -= chunkLength;
 				offset += chunkLength;
 			}
 		}
+
+		protected void readFrames( ByteBuffer src, int pos, float[][] frames, int offset, int length )
+		{
+			final int	stop	= offset + length;
+			int			i, j, ch;
+			float[]		b;
+
+			for( ch = 0; ch < channels; ch++ ) {
+				b = frames[ ch ];
+				if( b == null ) continue;
+				for( i = pos + ch * 3, j = offset; j < stop; i += bytesPerFrame, j++ ) {
+					b[ j ]	= (float) ((src.get( i ) & 0xFF) | (src.getShort( i + 1 ) << 8)) / 0x7FFFFF;
+				}
+			}
+		}
 	}
 
 	private class IntBufferHandler
 	extends BufferHandler
 	{
-		private final IntBuffer		viewBuf;
-		private final int[]			arrayBuf;
-	
-		protected IntBufferHandler()
-		{
-			byteBuf.clear();
-			viewBuf		= byteBuf.asIntBuffer();
-			arrayBuf	= new int[ viewBuf.capacity() ];
-		}
-
 		protected void writeFrames( float[][] frames, int offset, int length )
 		throws IOException
 		{
@@ -1052,16 +1250,16 @@ implements InterleavedStreamFile
 
 			while( length > 0 ) {
 				chunkLength = Math.min( frameBufCapacity, length );
-				m			= chunkLength * channels;
+				m			= chunkLength * bytesPerFrame;
+				byteBuf.clear();
 				for( ch = 0; ch < channels; ch++ ) {
 					b = frames[ ch ];
-					for( i = ch, j = offset; i < m; i += channels, j++ ) {
-						arrayBuf[ i ] = (int) (b[ j ] * 0x7FFFFFFF);
+					if( b == null ) continue;
+					for( i = ch * 4, j = offset; i < m; i += bytesPerFrame, j++ ) {
+						byteBuf.putInt( i, (int) (b[ j ] * 0x7FFFFFFF) );
 					}
 				}
-				viewBuf.clear();
-				viewBuf.put( arrayBuf, 0, m );
-				byteBuf.rewind().limit( chunkLength * bytesPerFrame );
+				byteBuf.limit( m );
 				fch.write( byteBuf );
 				length -= chunkLength;
 				offset += chunkLength;
@@ -1071,60 +1269,55 @@ implements InterleavedStreamFile
 		protected void readFrames( float[][] frames, int offset, int length )
 		throws IOException
 		{
-			int		i, j, m, ch, chunkLength;
-			float[]	b;
+			int chunkLength;
 		
 			while( length > 0 ) {
 				chunkLength = Math.min( frameBufCapacity, length );
-				m			= chunkLength * channels;
 				byteBuf.rewind().limit( chunkLength * bytesPerFrame );
 				fch.read( byteBuf );
-				viewBuf.clear();
-				viewBuf.get( arrayBuf, 0, m );
-				for( ch = 0; ch < channels; ch++ ) {
-					b = frames[ ch ];
-					if( b == null ) continue;
-					for( i = ch, j = offset; i < m; i += channels, j++ ) {
-						b[ j ]	= (float) arrayBuf[ i ] / 0x7FFFFFFF;
-					}
-				}
+				readFrames( byteBuf, 0, frames, offset, chunkLength );
 				length -= chunkLength;
 				offset += chunkLength;
 			}
 		}
+
+		protected void readFrames( ByteBuffer src, int pos, float[][] frames, int offset, int length )
+		{
+			final int	stop	= offset + length;
+			int			i, j, ch;
+			float[]		b;
+
+			for( ch = 0; ch < channels; ch++ ) {
+				b = frames[ ch ];
+				if( b == null ) continue;
+				for( i = pos + ch * 4, j = offset; j < stop; i += bytesPerFrame, j++ ) {
+					b[ j ]	= (float) src.getInt( i ) / 0x7FFFFFFF;
+				}
+			}
+		}
 	}
 
 	private class FloatBufferHandler
 	extends BufferHandler
 	{
-		private final FloatBuffer	viewBuf;
-		private final float[]		arrayBuf;
-	
-		protected FloatBufferHandler()
-		{
-			byteBuf.clear();
-			viewBuf		= byteBuf.asFloatBuffer();
-			arrayBuf	= new float[ viewBuf.capacity() ];
-		}
-
 		protected void writeFrames( float[][] frames, int offset, int length )
 		throws IOException
 		{
 			int		i, j, m, ch, chunkLength;
 			float[]	b;
-		
+
 			while( length > 0 ) {
 				chunkLength = Math.min( frameBufCapacity, length );
-				m			= chunkLength * channels;
+				m			= chunkLength * bytesPerFrame;
+				byteBuf.clear();
 				for( ch = 0; ch < channels; ch++ ) {
 					b = frames[ ch ];
-					for( i = ch, j = offset; i < m; i += channels, j++ ) {
-						arrayBuf[ i ] = b[ j ];
+					if( b == null ) continue;
+					for( i = ch * 4, j = offset; i < m; i += bytesPerFrame, j++ ) {
+						byteBuf.putFloat( i, b[ j ] );
 					}
 				}
-				viewBuf.clear();
-				viewBuf.put( arrayBuf, 0, m );
-				byteBuf.rewind().limit( chunkLength * bytesPerFrame );
+				byteBuf.limit( m );
 				fch.write( byteBuf );
 				length -= chunkLength;
 				offset += chunkLength;
@@ -1134,60 +1327,55 @@ implements InterleavedStreamFile
 		protected void readFrames( float[][] frames, int offset, int length )
 		throws IOException
 		{
-			int		i, j, m, ch, chunkLength;
-			float[]	b;
+			int chunkLength;
 		
 			while( length > 0 ) {
 				chunkLength = Math.min( frameBufCapacity, length );
-				m			= chunkLength * channels;
 				byteBuf.rewind().limit( chunkLength * bytesPerFrame );
 				fch.read( byteBuf );
-				viewBuf.clear();
-				viewBuf.get( arrayBuf, 0, m );
-				for( ch = 0; ch < channels; ch++ ) {
-					b = frames[ ch ];
-					if( b == null ) continue;
-					for( i = ch, j = offset; i < m; i += channels, j++ ) {
-						b[ j ]	= arrayBuf[ i ];
-					}
-				}
+				readFrames( byteBuf, 0, frames, offset, chunkLength );
 				length -= chunkLength;
 				offset += chunkLength;
 			}
 		}
+
+		protected void readFrames( ByteBuffer src, int pos, float[][] frames, int offset, int length )
+		{
+			final int	stop	= offset + length;
+			int			i, j, ch;
+			float[]		b;
+
+			for( ch = 0; ch < channels; ch++ ) {
+				b = frames[ ch ];
+				if( b == null ) continue;
+				for( i = pos + ch * 4, j = offset; j < stop; i += bytesPerFrame, j++ ) {
+					b[ j ]	= src.getFloat( i );
+				}
+			}
+		}
 	}
 
 	private class DoubleBufferHandler
 	extends BufferHandler
 	{
-		private final DoubleBuffer	viewBuf;
-		private final double[]		arrayBuf;
-	
-		protected DoubleBufferHandler()
-		{
-			byteBuf.clear();
-			viewBuf		= byteBuf.asDoubleBuffer();
-			arrayBuf	= new double[ viewBuf.capacity() ];
-		}
-
 		protected void writeFrames( float[][] frames, int offset, int length )
 		throws IOException
 		{
 			int		i, j, m, ch, chunkLength;
 			float[]	b;
-		
+
 			while( length > 0 ) {
 				chunkLength = Math.min( frameBufCapacity, length );
-				m			= chunkLength * channels;
+				m			= chunkLength * bytesPerFrame;
+				byteBuf.clear();
 				for( ch = 0; ch < channels; ch++ ) {
 					b = frames[ ch ];
-					for( i = ch, j = offset; i < m; i += channels, j++ ) {
-						arrayBuf[ i ] = b[ j ];
+					if( b == null ) continue;
+					for( i = ch * 8, j = offset; i < m; i += bytesPerFrame, j++ ) {
+						byteBuf.putDouble( i, b[ j ] );
 					}
 				}
-				viewBuf.clear();
-				viewBuf.put( arrayBuf, 0, m );
-				byteBuf.rewind().limit( chunkLength * bytesPerFrame );
+				byteBuf.limit( m );
 				fch.write( byteBuf );
 				length -= chunkLength;
 				offset += chunkLength;
@@ -1197,27 +1385,32 @@ implements InterleavedStreamFile
 		protected void readFrames( float[][] frames, int offset, int length )
 		throws IOException
 		{
-			int		i, j, m, ch, chunkLength;
-			float[]	b;
+			int chunkLength;
 		
 			while( length > 0 ) {
 				chunkLength = Math.min( frameBufCapacity, length );
-				m			= chunkLength * channels;
 				byteBuf.rewind().limit( chunkLength * bytesPerFrame );
 				fch.read( byteBuf );
-				viewBuf.clear();
-				viewBuf.get( arrayBuf, 0, m );
-				for( ch = 0; ch < channels; ch++ ) {
-					b = frames[ ch ];
-					if( b == null ) continue;
-					for( i = ch, j = offset; i < m; i += channels, j++ ) {
-						b[ j ]	= (float) arrayBuf[ i ];
-					}
-				}
+				readFrames( byteBuf, 0, frames, offset, chunkLength );
 				length -= chunkLength;
 				offset += chunkLength;
 			}
 		}
+
+		protected void readFrames( ByteBuffer src, int pos, float[][] frames, int offset, int length )
+		{
+			final int	stop	= offset + length;
+			int			i, j, ch;
+			float[]		b;
+
+			for( ch = 0; ch < channels; ch++ ) {
+				b = frames[ ch ];
+				if( b == null ) continue;
+				for( i = pos + ch * 8, j = offset; j < stop; i += bytesPerFrame, j++ ) {
+					b[ j ]	= (float) src.getDouble( i );
+				}
+			}
+		}
 	}
 
 // -------- AudioFileHeader Klassen --------
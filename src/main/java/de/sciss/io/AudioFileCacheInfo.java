@@ -25,6 +25,7 @@
  *
  *  Changelog:
  *		28-Jul-07	extracted from de.sciss.eisenkraut.io.DecimatedTrail
+ *		17-Oct-26	identifies the reference by content key instead of name and date
  */
 
 package de.sciss.io;
@@ -36,48 +37,53 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 
 /**
+ *	Describes the reference of a cache file, encoded
+ *	as the cache file's application code. The reference
+ *	is identified by its content key (as returned by
+ *	<code>CacheManager.getContentKey</code>) rather than
+ *	its name and modification date, so renaming the
+ *	reference does not invalidate the cache.
+ *
  *  @author		Hanns Holger Rutz
- *  @version	0.70, 26-Sep-07
+ *  @version	0.75, 17-Oct-26
  */
 public class AudioFileCacheInfo
 {
-	private static final int VERSION = 1;
+	private static final int VERSION = 2;
 	
 	private final int		model, numChannels;
-	private final long		lastModified, numFrames;
-	private final String	name;
+	private final long		numFrames;
+	private final String	contentKey;
 	
-	private AudioFileCacheInfo( String name, long lastModified, int model, int numChannels, long numFrames )
+	private AudioFileCacheInfo( String contentKey, int model, int numChannels, long numFrames )
 	{
-		this.name			= name;
-		this.lastModified	= lastModified;
+		this.contentKey		= contentKey;
 		this.model			= model;
 		this.numChannels	= numChannels;
 		this.numFrames		= numFrames;
 	}
 	
-	public AudioFileCacheInfo( InterleavedStreamFile f, int model, long numFrames )
+	public AudioFileCacheInfo( InterleavedStreamFile f, String contentKey, int model, long numFrames )
 	throws IOException
 	{
-		this( f.getFile().getName(), f.getFile().lastModified(), model, f.getChannelNum(), numFrames );
+		this( contentKey, model, f.getChannelNum(), numFrames );
 	}
 	
 	public static AudioFileCacheInfo decode( byte[] appCode )
 	{
-		final long				lastModified, numFrames;
+		final long				numFrames;
 		final int				numChannels, model;
-		final String			name;
+		final String			contentKey;
 		final DataInputStream	dis;
 	
 		try {
 			dis				= new DataInputStream( new ByteArrayInputStream( appCode ));
 			if( dis.readInt() != VERSION ) return null;
-			name			= dis.readUTF();
-			lastModified	= dis.readLong();
+			contentKey		= dis.readUTF();
 			model			= dis.readInt();
 			numChannels		= dis.readInt();
 			numFrames		= dis.readLong();
-			return new AudioFileCacheInfo( name, lastModified, model, numChannels, numFrames );
+			return new AudioFileCacheInfo( contentKey, model, numChannels, numFrames );
 		}
 		catch( IOException e1 ) {
 			return null;
@@ -98,7 +104,7 @@ public class AudioFileCacheInfo
 	{
 		if( o instanceof AudioFileCacheInfo ) {
 			AudioFileCacheInfo ci = (AudioFileCacheInfo) o;
-			return( this.name.equals( ci.name ) && (this.lastModified == ci.lastModified) &&
+			return( this.contentKey.equals( ci.contentKey ) &&
 					(this.numChannels == ci.numChannels) && (this.numFrames == ci.numFrames) &&
 					(this.model == ci.model));
 		}
@@ -107,7 +113,7 @@ public class AudioFileCacheInfo
 	
 	public int hashCode()
 	{
-		return( name.hashCode() ^ model ^ -numChannels ^ (int) lastModified ^ (int) numFrames );
+		return( contentKey.hashCode() ^ model ^ -numChannels ^ (int) numFrames );
 	}
 	
 	public byte[] encode()
@@ -117,8 +123,7 @@ public class AudioFileCacheInfo
 		final DataOutputStream		dos		= new DataOutputStream( baos );
 		
 		dos.writeInt( VERSION );
-		dos.writeUTF( name );
-		dos.writeLong( lastModified );
+		dos.writeUTF( contentKey );
 		dos.writeInt( model );
 		dos.writeInt( numChannels );
 		dos.writeLong( numFrames );
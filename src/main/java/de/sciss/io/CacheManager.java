@@ -27,68 +27,250 @@
  *		16-Jul-05	created
  *		23-Sep-05	fixes a problem of cache folder not automatically been generated
  *		28-Jul-07	refactored from de.sciss.eisenkraut.io.CacheManager
+ *		17-Oct-26	content addressed file names, persistent index with
+ *					checksums, least recently used eviction, thread safety
+ *		17-Oct-26	files are written under temporary names and renamed when
+ *					complete ; checksums are verified once ; lazy index saving
  */
 
 package de.sciss.io;
 
 import java.awt.event.ActionEvent;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.zip.CRC32;
 import javax.swing.AbstractAction;
 import javax.swing.Action;
 
 /**
+ *	Manages a folder of cache files with a given capacity.
+ *	Cache files are named after a content key of the
+ *	reference file (see <code>getContentKey</code>), so
+ *	a cache survives renaming or moving the reference.
+ *	All known cache files are kept in an index file
+ *	inside the folder, along with their size and checksum
+ *	and the time they were last accessed. Files whose size
+ *	or checksum do not match the index are considered
+ *	corrupt and deleted upon <code>checkFile</code>. When the
+ *	capacity is exceeded, the least recently accessed files
+ *	are removed.
+ *	<p>
+ *	New cache files are written to a temporary file (see
+ *	<code>createTempFile</code>) which is renamed to its final
+ *	name by <code>commitFile</code> once it is complete, so
+ *	readers never see a file which is still being written.
+ *	A file's checksum is verified when it is written or when
+ *	it is first checked after loading the index. Changes to
+ *	the index are saved with a short delay.
+ *
+ *	@synchronization	all methods may be called from any thread
+ *
  *  @author		Hanns Holger Rutz
- *  @version	0.32, 25-Feb-08
+ *  @version	0.75, 17-Oct-26
  */
 public class CacheManager
 implements FilenameFilter
 {
 	private static final String	CACHE_EXT		= ".cache";
+	private static final String	INDEX_NAME		= "cache.idx";
+	private static final String	TEMP_EXT		= ".part";
 	private static final String	HEX_CHARS		= "0123456789ABCDEF";
+	private static final String	DIGEST_ALGO		= "SHA-1";
+
+	private static final int	INDEX_MAGIC		= 0x43496478;	// 'CIdx'
+	private static final int	INDEX_VERSION	= 1;
+	private static final int	MAX_KEY_MEMOS	= 1024;
+	private static final int	INDEX_SAVE_DELAY = 2000;	// millisecs
+
+	private static final Timer	indexTimer		= new Timer( "CacheManager", true );
 
 	private File				folder			= null;
 	private int					capacity;			// in MB
 	private long				folderSize;			// in Bytes
 	
-	private SortedSet			cacheList		= new TreeSet();
+	// maps file names to CacheEntry objects ; iteration order
+	// is least recently accessed first
+	private final Map			cacheMap		= new LinkedHashMap( 16, 0.75f, true );
+	// maps absolute reference paths to KeyMemo objects
+	private final Map			keyMemos		= new LinkedHashMap( 16, 0.75f, true ) {
+		protected boolean removeEldestEntry( Map.Entry eldest )
+		{
+			return size() > MAX_KEY_MEMOS;
+		}
+	};
+	
+	// names of temporary files which are currently being written
+	private final Set			pendingFiles	= new HashSet();
 	
 	private boolean				active			= false;
+	private boolean				indexDirty		= false;
+	private int					indexSeq		= 0;
+
+	private final Object		indexWriteSync	= new Object();
+	private int					indexSeqWritten	= 0;	// sync: indexWriteSync
 	
 	public CacheManager()
 	{
-		/* empty */
+		Runtime.getRuntime().addShutdownHook( new Thread( new Runnable() {
+			public void run()
+			{
+				flushIndex();
+			}
+		}, "CacheManager" ));
 	}
 	
-	public void setActive( boolean onOff )
+	public synchronized void setActive( boolean onOff )
 	{
 		active = onOff;
 		if( active ) makeSureFolderExists();
 	}
 	
-	public boolean isActive()
+	public synchronized boolean isActive()
 	{
 		return active;
 	}
 
+	/**
+	 *	Registers a completely written cache file.
+	 *	The file's size and checksum are recorded in
+	 *	the index, and the least recently accessed files
+	 *	are purged if the capacity is exceeded. The file
+	 *	must have been closed before.
+	 */
 	public void addFile( File f )
 	{
-		CacheEntry ce = new CacheEntry( f );
-		if( cacheList.add( ce )) {
+		final CacheEntry ce;
+		
+		try {
+			ce = new CacheEntry( f.getName(), f.length(), calcChecksum( f ), System.currentTimeMillis() );
+		}
+		catch( IOException e1 ) {
+			System.err.println( e1 );
+			removeFile( f );
+			return;
+		}
+		ce.verified = true;
+		synchronized( this ) {
+			removeEntry( f.getName() );
+			cacheMap.put( ce.name, ce );
 			folderSize += ce.size;
 			trimToCapacity();
+			indexChanged();
 		}
 	}
 	
-	public void removeFile( File f )
+	/**
+	 *	Creates a new, uniquely named temporary file in the
+	 *	cache folder. A cache file should be written to this
+	 *	temporary file and then be handed to <code>commitFile</code>
+	 *	(or <code>discardTempFile</code> if writing fails). Temporary
+	 *	files are never returned by <code>checkFile</code>.
+	 *
+	 *	@param	f	the cache file which is going to be written
+	 *
+	 *	@throws	IOException	if the file cannot be created
+	 */
+	public synchronized File createTempFile( File f )
+	throws IOException
 	{
-		CacheEntry ce = new CacheEntry( f );
-		if( cacheList.remove( ce )) {
-			folderSize -= ce.size;
+		final File temp;
+		
+		makeSureFolderExists();
+		temp = File.createTempFile( f.getName() + "-", TEMP_EXT, folder );
+		pendingFiles.add( temp.getName() );
+		return temp;
+	}
+	
+	/**
+	 *	Moves a completely written temporary file to its final
+	 *	cache file name and registers it like <code>addFile</code>.
+	 *	If the cache file has been registered in the meantime
+	 *	by a concurrent writer, that file is kept (it might
+	 *	already be in use) and the temporary file is deleted.
+	 *	The temporary file must have been closed before.
+	 *
+	 *	@param	temp	a file returned by <code>createTempFile</code>
+	 *	@param	f		the final cache file name
+	 *	@return	<code>true</code> if <code>f</code> is a valid cache file afterwards
+	 */
+	public boolean commitFile( File temp, File f )
+	{
+		final CacheEntry	ce;
+		final CacheEntry	old;
+		
+		try {
+			ce = new CacheEntry( f.getName(), temp.length(), calcChecksum( temp ), System.currentTimeMillis() );
 		}
+		catch( IOException e1 ) {
+			System.err.println( e1 );
+			discardTempFile( temp );
+			return false;
+		}
+		ce.verified = true;
+		synchronized( this ) {
+			pendingFiles.remove( temp.getName() );
+			old = (CacheEntry) cacheMap.get( ce.name );		// marks access
+			if( (old != null) && f.isFile() ) {
+				old.lastAccess = ce.lastAccess;
+				deleteFile( temp );
+				indexChanged();
+				return true;
+			}
+			removeEntry( ce.name );
+			if( !temp.renameTo( f )) {		// fails on some platforms if f exists
+				f.delete();
+				if( !temp.renameTo( f )) {
+					System.err.println( "CacheManager : cannot rename " + temp.getName() );
+					deleteFile( temp );
+					indexChanged();
+					return false;
+				}
+			}
+			cacheMap.put( ce.name, ce );
+			folderSize += ce.size;
+			trimToCapacity();
+			indexChanged();
+		}
+		return true;
+	}
+	
+	/**
+	 *	Deletes a temporary file which could not
+	 *	be written completely.
+	 *
+	 *	@param	temp	a file returned by <code>createTempFile</code>
+	 */
+	public synchronized void discardTempFile( File temp )
+	{
+		pendingFiles.remove( temp.getName() );
+		deleteFile( temp );
+	}
+	
+	public synchronized void removeFile( File f )
+	{
+		if( removeEntry( f.getName() )) indexChanged();
 		if( f.exists() && !f.delete() ) {
 			final String	refName		= f.getName();
 			final int		suffixIdx	= refName.lastIndexOf( '.' );
@@ -100,6 +282,100 @@ implements FilenameFilter
 		}
 	}
 	
+	/**
+	 *	Verifies that a cache file is known to the index and
+	 *	that its size and checksum match the values recorded
+	 *	when it was added. A valid file is marked as
+	 *	recently accessed, a stale or corrupt one is deleted.
+	 *	The checksum is only calculated if it has not been
+	 *	verified since the index was loaded.
+	 *
+	 *	@return	<code>true</code> if the file can be used
+	 */
+	public boolean checkFile( File f )
+	{
+		final long			length	= f.length();
+		final CacheEntry	ce;
+		final long			crc;
+		
+		synchronized( this ) {
+			ce = (CacheEntry) cacheMap.get( f.getName() );
+			if( (ce != null) && ce.verified && (length == ce.size) ) {
+				ce.lastAccess = System.currentTimeMillis();
+				indexChanged();
+				return true;
+			}
+		}
+		if( ce == null ) {
+			if( f.exists() ) removeFile( f );
+			return false;
+		}
+		try {
+			crc = ((length == ce.size) && f.isFile()) ? calcChecksum( f ) : -1;
+		}
+		catch( IOException e1 ) {
+			removeFile( f );
+			return false;
+		}
+		if( crc != ce.checksum ) {
+			System.err.println( "CacheManager : removing corrupt file " + f.getName() );
+			removeFile( f );
+			return false;
+		}
+		synchronized( this ) {
+			ce.verified		= true;
+			ce.lastAccess	= System.currentTimeMillis();
+			indexChanged();
+		}
+		return true;
+	}
+	
+	/**
+	 *	Calculates a key from the contents of a file. The key
+	 *	is remembered together with the file's path, length and
+	 *	modification date, so the file is only read again
+	 *	when it has changed.
+	 *
+	 *	@param	reference	the file to identify
+	 *	@return	a hexadecimal digest of the file contents
+	 *
+	 *	@throws	IOException	if the file cannot be read
+	 */
+	public String getContentKey( File reference )
+	throws IOException
+	{
+		final String	path			= reference.getAbsolutePath();
+		final long		length			= reference.length();
+		final long		lastModified	= reference.lastModified();
+		final String	key;
+		KeyMemo			memo;
+		
+		synchronized( this ) {
+			memo = (KeyMemo) keyMemos.get( path );
+			if( (memo != null) && (memo.length == length) && (memo.lastModified == lastModified) ) {
+				return memo.key;
+			}
+		}
+
+		key = calcDigest( reference );
+		synchronized( this ) {
+			keyMemos.put( path, new KeyMemo( length, lastModified, key ));
+			indexChanged();
+		}
+		return key;
+	}
+	
+	/**
+	 *	Returns the cache file for a given key.
+	 *
+	 *	@param	key		typically a content key plus
+	 *					a description of the cached representation
+	 */
+	public synchronized File createCacheFileName( String key )
+	{
+		return new File( folder, key + CACHE_EXT );
+	}
+	
 	public File createCacheFileName( File reference )
 	{
 		final StringBuffer	strBuf	= new StringBuffer( 16 );
@@ -108,9 +384,8 @@ implements FilenameFilter
 		for( int i = 0; i < 8; i++, hash >>= 4 ) {
 			strBuf.append( HEX_CHARS.charAt( hash & 0x0F ));
 		}
-		strBuf.append( CACHE_EXT );
 		
-		return new File( folder, strBuf.toString() );
+		return createCacheFileName( strBuf.toString() );
 	}
 	
 	public void setFolder( String folder )
@@ -118,22 +393,22 @@ implements FilenameFilter
 		setFolder( new File( folder ));
 	}
 
-	public void setFolder( File folder )
+	public synchronized void setFolder( File folder )
 	{
 		setFolderAndCapacity( folder, this.capacity );
 	}
 	
-	public File getFolder()
+	public synchronized File getFolder()
 	{
 		return folder;
 	}
 
-	public void setCapacity( int capacity )
+	public synchronized void setCapacity( int capacity )
 	{
 		setFolderAndCapacity( this.folder, capacity );
 	}
 	
-	public int getCapacity()
+	public synchronized int getCapacity()
 	{
 		return capacity;
 	}
@@ -143,8 +418,9 @@ implements FilenameFilter
 		setFolderAndCapacity( new File( folder ), capacity );
 	}
 
-	public void setFolderAndCapacity( File folder, int capacity )
+	public synchronized void setFolderAndCapacity( File folder, int capacity )
 	{
+		flushIndex();	// because updateFileList reads it back
 		if( (folder == null) || !folder.equals( this.folder )) {
 			if( this.folder != null ) {
 				clearCache();
@@ -160,6 +436,7 @@ implements FilenameFilter
 		
 		updateFileList();
 		trimToCapacity();
+		indexChanged();
 	}
 	
 	private void makeSureFolderExists()
@@ -167,49 +444,283 @@ implements FilenameFilter
 		if( folder != null ) folder.mkdirs();
 	}
 	
+	// sync: caller must have lock on this
+	private boolean removeEntry( String name )
+	{
+		final CacheEntry ce = (CacheEntry) cacheMap.remove( name );
+		if( ce != null ) {
+			folderSize -= ce.size;
+			return true;
+		} else {
+			return false;
+		}
+	}
+	
+	/*
+	 *	Reads the index and matches it against the
+	 *	cache files found in the folder. Files unknown to the
+	 *	index (e.g. left over from a crash) cannot be verified
+	 *	and are therefore deleted, just as temporary files
+	 *	which are not being written any more.
+	 */
+	// sync: caller must have lock on this
 	private void updateFileList()
 	{
-		final File[] files = folder == null ? null : folder.listFiles( this );
-		cacheList.clear();
+		final File[]	files	= folder == null ? null : folder.listFiles();
+		final Map		index	= new LinkedHashMap();
+		CacheEntry		ce;
+		String			name;
+		
+		cacheMap.clear();
+		keyMemos.clear();
 		folderSize = 0;
 		if( files == null ) return;
 		
-		CacheEntry ce;
-		
+		loadIndex( index );
 		for( int i = 0; i < files.length; i++ ) {
-			ce			= new CacheEntry( files[ i ]);
-			cacheList.add( ce );
-			folderSize += ce.size;
+			name = files[ i ].getName();
+			if( name.endsWith( TEMP_EXT )) {
+				if( !pendingFiles.contains( name )) deleteFile( files[ i ]);
+				continue;
+			}
+			if( !accept( folder, name )) continue;
+			
+			ce = (CacheEntry) index.remove( name );
+			if( (ce != null) && (ce.size == files[ i ].length()) ) {
+				cacheMap.put( ce.name, ce );
+				folderSize += ce.size;
+			} else if( !files[ i ].delete() ) {
+				files[ i ].deleteOnExit();
+			}
+		}
+	}
+	
+	// sync: caller must have lock on this
+	private void loadIndex( Map index )
+	{
+		final File		f		= new File( folder, INDEX_NAME );
+		final List		entries	= new ArrayList();
+		DataInputStream	dis		= null;
+		int				num;
+		
+		if( !f.isFile() ) return;
+		
+		try {
+			dis = new DataInputStream( new BufferedInputStream( new FileInputStream( f )));
+			if( (dis.readInt() != INDEX_MAGIC) || (dis.readInt() != INDEX_VERSION) ) return;
+			num = dis.readInt();
+			for( int i = 0; i < num; i++ ) {
+				entries.add( new CacheEntry( dis.readUTF(), dis.readLong(), dis.readLong(), dis.readLong() ));
+			}
+			num = dis.readInt();
+			for( int i = 0; i < num; i++ ) {
+				keyMemos.put( dis.readUTF(), new KeyMemo( dis.readLong(), dis.readLong(), dis.readUTF() ));
+			}
+		}
+		catch( IOException e1 ) {
+			System.err.println( "CacheManager : corrupt index (" + e1.getLocalizedMessage() + ")" );
+			entries.clear();
+			keyMemos.clear();
+		}
+		finally {
+			if( dis != null ) try { dis.close(); } catch( IOException e1 ) { /* ignore */ }
+		}
+		
+		// restore access order
+		Collections.sort( entries, CacheEntry.accessComparator );
+		for( int i = 0; i < entries.size(); i++ ) {
+			final CacheEntry ce = (CacheEntry) entries.get( i );
+			index.put( ce.name, ce );
+		}
+	}
+	
+	/**
+	 *	Writes pending changes of the index to disk.
+	 *	This happens automatically shortly after a change
+	 *	and when the virtual machine exits.
+	 */
+	public void flushIndex()
+	{
+		final File		f;
+		final byte[]	data;
+		final int		seq;
+		
+		synchronized( this ) {
+			if( !indexDirty ) return;
+			indexDirty = false;
+			if( (folder == null) || !folder.isDirectory() ) return;
+			f		= new File( folder, INDEX_NAME );
+			data	= encodeIndex();
+			seq		= ++indexSeq;
+		}
+		synchronized( indexWriteSync ) {
+			if( seq < indexSeqWritten ) return;		// a newer index was written meanwhile
+			indexSeqWritten = seq;
+			writeIndex( f, data );
+		}
+	}
+	
+	// sync: caller must have lock on this
+	private void indexChanged()
+	{
+		if( indexDirty ) return;	// save is already scheduled
+		
+		indexDirty = true;
+		indexTimer.schedule( new TimerTask() {
+			public void run()
+			{
+				flushIndex();
+			}
+		}, INDEX_SAVE_DELAY );
+	}
+	
+	// sync: caller must have lock on this
+	private byte[] encodeIndex()
+	{
+		final ByteArrayOutputStream	baos	= new ByteArrayOutputStream();
+		final DataOutputStream		dos		= new DataOutputStream( baos );
+		CacheEntry					ce;
+		KeyMemo						memo;
+		Map.Entry					me;
+		
+		try {
+			dos.writeInt( INDEX_MAGIC );
+			dos.writeInt( INDEX_VERSION );
+			dos.writeInt( cacheMap.size() );
+			for( Iterator iter = cacheMap.values().iterator(); iter.hasNext(); ) {
+				ce = (CacheEntry) iter.next();
+				dos.writeUTF( ce.name );
+				dos.writeLong( ce.size );
+				dos.writeLong( ce.checksum );
+				dos.writeLong( ce.lastAccess );
+			}
+			dos.writeInt( keyMemos.size() );
+			for( Iterator iter = keyMemos.entrySet().iterator(); iter.hasNext(); ) {
+				me		= (Map.Entry) iter.next();
+				memo	= (KeyMemo) me.getValue();
+				dos.writeUTF( (String) me.getKey() );
+				dos.writeLong( memo.length );
+				dos.writeLong( memo.lastModified );
+				dos.writeUTF( memo.key );
+			}
+		}
+		catch( IOException e1 ) { /* cannot happen with a byte array */ }
+		return baos.toByteArray();
+	}
+	
+	/*
+	 *	Writes the index to a temporary file which
+	 *	then replaces the previous index, so a crash
+	 *	cannot leave a truncated index behind.
+	 */
+	private static void writeIndex( File f, byte[] data )
+	{
+		final File			fTemp	= new File( f.getParentFile(), INDEX_NAME + ".tmp" );
+		FileOutputStream	fos		= null;
+		
+		try {
+			fos = new FileOutputStream( fTemp );
+			fos.write( data );
+			fos.close();
+			fos = null;
+			if( !fTemp.renameTo( f )) {		// fails on some platforms if f exists
+				f.delete();
+				if( !fTemp.renameTo( f )) throw new IOException( "Cannot replace " + f.getName() );
+			}
+		}
+		catch( IOException e1 ) {
+			System.err.println( "CacheManager : cannot write index (" + e1.getLocalizedMessage() + ")" );
+		}
+		finally {
+			if( fos != null ) try { fos.close(); } catch( IOException e1 ) { /* ignore */ }
 		}
 	}
 	
+	// sync: caller must have lock on this
 	private void trimToCapacity()
 	{
-		CacheEntry ce;
-		long	capaBytes	= (long) capacity * 0x100000;	// megabyte -> byte
+		final long	capaBytes	= (long) capacity * 0x100000;	// megabyte -> byte
+		CacheEntry	ce;
 	
-		while( folderSize > capaBytes ) {
-			ce = (CacheEntry) cacheList.first();
-			cacheList.remove( ce );
+		for( Iterator iter = cacheMap.values().iterator(); (folderSize > capaBytes) && iter.hasNext(); ) {
+			ce = (CacheEntry) iter.next();	// least recently accessed
+			iter.remove();
 			folderSize -= ce.size;
-			if( !ce.file.delete() ) {
-				ce.file.deleteOnExit();
-			}
+			deleteFile( ce );
 		}
 	}
 	
+	// sync: caller must have lock on this
 	private void clearCache()
 	{
-		CacheEntry ce;
+		for( Iterator iter = cacheMap.values().iterator(); iter.hasNext(); ) {
+			deleteFile( (CacheEntry) iter.next() );
+		}
+		cacheMap.clear();
+		new File( folder, INDEX_NAME ).delete();
+		folderSize = 0;
+	}
+	
+	private void deleteFile( CacheEntry ce )
+	{
+		deleteFile( new File( folder, ce.name ));
+	}
+	
+	private static void deleteFile( File f )
+	{
+		if( !f.delete() ) {
+			f.deleteOnExit();
+		}
+	}
 	
-		while( !cacheList.isEmpty() ) {
-			ce = (CacheEntry) cacheList.last();
-			cacheList.remove( ce );
-			if( !ce.file.delete() ) {
-				ce.file.deleteOnExit();
+	private static long calcChecksum( File f )
+	throws IOException
+	{
+		final CRC32			crc	= new CRC32();
+		final InputStream	is	= new FileInputStream( f );
+		final byte[]		buf	= new byte[ 8192 ];
+		int					len;
+
+		try {
+			while( (len = is.read( buf )) >= 0 ) {
+				crc.update( buf, 0, len );
 			}
 		}
-		folderSize = 0;
+		finally {
+			is.close();
+		}
+		return crc.getValue();
+	}
+	
+	private static String calcDigest( File f )
+	throws IOException
+	{
+		final MessageDigest	md;
+		final InputStream	is	= new FileInputStream( f );
+		final byte[]		buf	= new byte[ 8192 ];
+		final StringBuffer	strBuf;
+		final byte[]		digest;
+		int					len;
+
+		try {
+			md = MessageDigest.getInstance( DIGEST_ALGO );
+			while( (len = is.read( buf )) >= 0 ) {
+				md.update( buf, 0, len );
+			}
+		}
+		catch( NoSuchAlgorithmException e1 ) {
+			throw new IOException( e1.getLocalizedMessage() );
+		}
+		finally {
+			is.close();
+		}
+		digest = md.digest();
+		strBuf = new StringBuffer( digest.length << 1 );
+		for( int i = 0; i < digest.length; i++ ) {
+			strBuf.append( HEX_CHARS.charAt( (digest[ i ] >> 4) & 0x0F ));
+			strBuf.append( HEX_CHARS.charAt( digest[ i ] & 0x0F ));
+		}
+		return strBuf.toString();
 	}
 	
 	/**
@@ -223,15 +734,17 @@ implements FilenameFilter
 		return new ActionDebugDump();
 	}
 	
-	protected void debugDump()
+	protected synchronized void debugDump()
 	{
 		System.err.println( "WaveformCacheManager " + this.hashCode() + "; active ? " + isActive() +
 			"; cache folder = " + (folder == null ? "null" : folder.getAbsolutePath()) +
-			"; listed files = " + cacheList.size() +"; listed size = " + (folderSize / 0x100000) +
+			"; listed files = " + cacheMap.size() +"; listed size = " + (folderSize / 0x100000) +
 			"MB (capacity = " + capacity +" MB)" );
-		if( !cacheList.isEmpty() ) {
-			System.err.println( "Oldest file = " + new Date( ((CacheEntry) cacheList.first()).lastModified ).toString() );
-			System.err.println( "Newest file = " + new Date( ((CacheEntry) cacheList.last()).lastModified ).toString() );
+		if( !cacheMap.isEmpty() ) {
+			final List entries = new ArrayList( cacheMap.values() );
+			Collections.sort( entries, CacheEntry.accessComparator );
+			System.err.println( "Least recently accessed = " + new Date( ((CacheEntry) entries.get( 0 )).lastAccess ).toString() );
+			System.err.println( "Most recently accessed = " + new Date( ((CacheEntry) entries.get( entries.size() - 1 )).lastAccess ).toString() );
 		}
 	}
 	
@@ -259,40 +772,41 @@ implements FilenameFilter
 	}
 	
 	private static class CacheEntry
-	implements Comparable
 	{
-		protected final File	file;
+		protected static final Comparator accessComparator = new Comparator() {
+			public int compare( Object o1, Object o2 )
+			{
+				final long diff = ((CacheEntry) o1).lastAccess - ((CacheEntry) o2).lastAccess;
+				return( diff < 0 ? -1 : (diff > 0 ? 1 : 0) );
+			}
+		};
+
+		protected final String	name;
 		protected final long	size;
-		protected final long	lastModified;
-		
-		protected CacheEntry( File file )
-		{
-			this.file			= file;
-			this.size			= file.length();
-			this.lastModified	= file.lastModified();
-		}
+		protected final long	checksum;
+		protected long			lastAccess;
+		protected boolean		verified	= false;	// checksum has been verified
 		
-		public int hashCode()
+		protected CacheEntry( String name, long size, long checksum, long lastAccess )
 		{
-			return file.hashCode();
-		}
-		
-		public boolean equals( Object o )
-		{
-			if( o != null ) {
-				if( o instanceof CacheEntry ) {
-					return( this.file.equals( ((CacheEntry) o).file ));
-				} else if( o instanceof File ) {
-					return( this.file.equals( o ));
-				}
-			}
-			return false;
+			this.name		= name;
+			this.size		= size;
+			this.checksum	= checksum;
+			this.lastAccess	= lastAccess;
 		}
+	}
+	
+	private static class KeyMemo
+	{
+		protected final long	length;
+		protected final long	lastModified;
+		protected final String	key;
 		
-		public int compareTo( Object o )
+		protected KeyMemo( long length, long lastModified, String key )
 		{
-			long diff = this.lastModified - ((CacheEntry) o).lastModified;
-			return( diff < 0 ? -1 : (diff > 0 ? 1 : 0) );
+			this.length			= length;
+			this.lastModified	= lastModified;
+			this.key			= key;
 		}
 	}
 }
\ No newline at end of file
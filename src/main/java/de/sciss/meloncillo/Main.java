@@ -71,7 +71,9 @@ import de.sciss.meloncillo.gui.WelcomeScreen;
 import de.sciss.meloncillo.io.BlendContext;
 import de.sciss.meloncillo.plugin.PlugInManager;
 import de.sciss.meloncillo.realtime.RealtimeFrame;
+import de.sciss.meloncillo.realtime.RealtimeMetricsPalette;
 import de.sciss.meloncillo.realtime.TransportPalette;
+import de.sciss.meloncillo.receiver.TableLookupReceiver;
 import de.sciss.meloncillo.render.BounceDialog;
 import de.sciss.meloncillo.render.FilterDialog;
 import de.sciss.meloncillo.session.Session;
@@ -247,6 +249,13 @@ implements PreferenceChangeListener, TimelineListener, ProgressComponent
 	 *  @see	de.sciss.meloncillo.realtime.TransportPalette
 	 */
 	public static final Object COMP_TRANSPORT		= TransportPalette.class.getName();
+	/**
+	 *  Value for add/getComponent(): the realtime metrics palette
+	 *
+	 *  @see	#getComponent( Object )
+	 *  @see	de.sciss.meloncillo.realtime.RealtimeMetricsPalette
+	 */
+	public static final Object COMP_RTMETRICS		= RealtimeMetricsPalette.class.getName();
 	/**
 	 *  Value for add/getComponent(): the bounce-to-disk dialog
 	 *
@@ -395,6 +404,8 @@ implements PreferenceChangeListener, TimelineListener, ProgressComponent
 		}
         lookAndFeelUpdate( className );
 
+		TableLookupReceiver.setFastSensitivities( prefs.getBoolean( PrefsUtil.KEY_FASTRCVSENSE, false ));
+
 		// ---- init infrastructure ----
         
 		doc			= new Session();
@@ -425,6 +436,7 @@ implements PreferenceChangeListener, TimelineListener, ProgressComponent
 		// ---- component views ----
 
 		new TransportPalette( doc );
+		new RealtimeMetricsPalette( doc );
 		new SurfaceFrame( this, doc );
 		new ObserverPalette();
 		new MeterFrame( this, doc );
@@ -793,6 +805,8 @@ implements PreferenceChangeListener, TimelineListener, ProgressComponent
 			bc = null;
 		} else if( key.equals( PrefsUtil.KEY_LOOKANDFEEL )) {
             lookAndFeelUpdate( e.getNewValue() );
+        } else if( key.equals( PrefsUtil.KEY_FASTRCVSENSE )) {
+        	TableLookupReceiver.setFastSensitivities( Boolean.valueOf( e.getNewValue() ).booleanValue() );
         }
  	}
 	
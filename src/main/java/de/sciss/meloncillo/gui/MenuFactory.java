@@ -155,7 +155,7 @@ extends BasicMenuFactory
 					actionRemoveTransmitters, actionRemoveGroups, actionFilter,
 					actionBounce, actionSelectionBackwards,
 					actionShowSurface, actionShowTimeline, actionShowTransport,
-					actionShowMeter, actionShowRealtime;
+					actionShowMeter, actionShowRealtime, actionShowRTMetrics;
 	
 	private Action  actionDebugDumpUndo,
 					actionDebugDumpPrefs, actionJathaDiddler,
@@ -304,6 +304,7 @@ extends BasicMenuFactory
 		mg.add( new MenuItem( "observer", new ActionObserver( getResourceString( "paletteObserver" ), KeyStroke.getKeyStroke( KeyEvent.VK_NUMPAD3, MENU_SHORTCUT ))), 4 );
 		mg.add( new MenuItem( "showMeter", actionShowMeter ), 5 );
 		mg.add( new MenuItem( "showRealtime", actionShowRealtime ), 6 );
+		mg.add( new MenuItem( "showRTMetrics", actionShowRTMetrics ), 7 );
 
 		// --- debug menu ---
 		mg   = new MenuGroup( "debug", "Debug" );
@@ -367,6 +368,8 @@ extends BasicMenuFactory
 										KeyEvent.VK_NUMPAD4, MENU_SHORTCUT ), Main.COMP_METER );
 		actionShowRealtime		= new ActionShowWindow( app.getResourceString( "frameRealtime" ), KeyStroke.getKeyStroke( 
 										KeyEvent.VK_NUMPAD2, MENU_SHORTCUT ), Main.COMP_REALTIME );
+		actionShowRTMetrics		= new ActionShowWindow( app.getResourceString( "paletteRealtimeMetrics" ), null,
+										Main.COMP_RTMETRICS );
 
 		// --- extras menu ---
 		actionJathaDiddler		= JathaDiddler.getMenuAction();
@@ -30,6 +30,7 @@
  *      24-Dec-04   support for intruding-grow-box prefs.
  *                  extends BasicPalette
  *      26-Dec-04   added online help
+ *		17-Oct-26	reads collection snapshots instead of copies
  */
 
 package de.sciss.meloncillo.gui;
@@ -298,8 +299,8 @@ implements  DynamicListening, RealtimeConsumer, SessionCollection.Listener
 			request.notifyTicks		= true;
 			request.notifyOffhand	= true;
 
-			collRcv					= doc.getActiveReceivers().getAll();
-			collTrns				= doc.getActiveTransmitters().getAll();
+			collRcv					= doc.getActiveReceivers().getSnapshot();
+			collTrns				= doc.getActiveTransmitters().getSnapshot();
 			numRcv					= collRcv.size();
 			numTrns					= collTrns.size();
 
@@ -160,6 +160,16 @@ implements SwingConstants, TimelineListener, DynamicListening
 //        HelpGlassPane.setHelp( ggCheckBox, key2 );	// EEE
 		tab.gridAdd( ggCheckBox, 1, row );
 		
+		row++;
+		key		= PrefsUtil.KEY_FASTRCVSENSE;
+		key2	= "prefsFastRcvSense";
+		lb		= new JLabel( getResourceString( key2 ), JLabel.TRAILING );
+		tab.gridAdd( lb, 0, row );
+		ggCheckBox  = new PrefCheckBox();
+		ggCheckBox.setPreferences( prefs, key );
+//        HelpGlassPane.setHelp( ggCheckBox, key2 );	// EEE
+		tab.gridAdd( ggCheckBox, 1, row );
+		
 		row++;
 		prefs   = app.getUserPrefs();
         key     = PrefsUtil.KEY_LOOKANDFEEL;
@@ -348,6 +358,38 @@ implements SwingConstants, TimelineListener, DynamicListening
 //        HelpGlassPane.setHelp( ggNumber, key2 );	// EEE
 		tab.gridAdd( ggNumber, 1, row );
 
+		row++;
+		key		= PrefsUtil.KEY_RTDEADLINECLOCK;
+		key2	= "prefsRTDeadlineClock";
+		lb		= new JLabel( getResourceString( key2 ), JLabel.TRAILING );
+		tab.gridAdd( lb, 0, row );
+		ggCheckBox  = new PrefCheckBox();
+		ggCheckBox.setPreferences( prefs, key );
+//        HelpGlassPane.setHelp( ggCheckBox, key2 );	// EEE
+		tab.gridAdd( ggCheckBox, 1, row );
+
+		row++;
+		key		= PrefsUtil.KEY_RTPARALLELISM;
+		key2	= "prefsRTParallelism";
+		lb		= new JLabel( getResourceString( key2 ), JLabel.TRAILING );
+		tab.gridAdd( lb, 0, row );
+		ggNumber  = new PrefNumberField();
+		ggNumber.setSpace( NumberSpace.createIntSpace( 0, 256 ));
+		ggNumber.setPreferences( prefs, key );
+//        HelpGlassPane.setHelp( ggNumber, key2 );	// EEE
+		tab.gridAdd( ggNumber, 1, row );
+
+		row++;
+		key		= PrefsUtil.KEY_RTOSCBUNDLESIZE;
+		key2	= "prefsRTOSCBundleSize";
+		lb		= new JLabel( getResourceString( key2 ), JLabel.TRAILING );
+		tab.gridAdd( lb, 0, row );
+		ggNumber  = new PrefNumberField();
+		ggNumber.setSpace( NumberSpace.createIntSpace( 0, 65507 ));
+		ggNumber.setPreferences( prefs, key );
+//        HelpGlassPane.setHelp( ggNumber, key2 );	// EEE
+		tab.gridAdd( ggNumber, 1, row );
+
 		row++;
 		key		= PrefsUtil.KEY_OLSENSEBUFSIZE;
 		key2	= "prefsOLSenseBufSize";
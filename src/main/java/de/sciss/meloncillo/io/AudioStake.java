@@ -100,6 +100,22 @@ extends BasicStake
 		
 	// in anlehnung an InterleavedStreamFile
 	public abstract int readFrames( float[][] data, int dataOffset, Span readSpan ) throws IOException;
+
+	/**
+	 *	Reads frames like <code>readFrames( float[][], int, Span )</code>,
+	 *	but takes the span bounds as primitives. Subclasses should
+	 *	override this so that it does not allocate any objects, as it is
+	 *	used by the realtime read path.
+	 *
+	 *	@param	readStart	first frame to read (inclusive)
+	 *	@param	readStop	last frame to read (exclusive)
+	 */
+	public int readFrames( float[][] data, int dataOffset, long readStart, long readStop )
+	throws IOException
+	{
+		return readFrames( data, dataOffset, new Span( readStart, readStop ));
+	}
+
 	// XXX writeSpan should be replaced by framesWritten internally for simplicity
 	public abstract int writeFrames( float[][] data, int dataOffset, Span writeSpan ) throws IOException;
 	public abstract long copyFrames( InterleavedStreamFile target, Span readSpan ) throws IOException;
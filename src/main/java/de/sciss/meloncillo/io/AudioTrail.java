@@ -26,6 +26,11 @@
  *  Changelog:
  *		22-Dec-05	created from MultirateTrackEditor
  *		30-Jun-08	copied from EisK
+ *		17-Oct-26	flatten copies whole stakes when the channels are not remapped
+ *		17-Oct-26	can be created from any InterleavedStreamFile (e.g. TrajectoryFile)
+ *		17-Oct-26	drops the files from the FrameCache when closing them
+ *		17-Oct-26	the stake index is published once per modification instead of once per stake
+ *		17-Oct-26	the stake index is also published when compound edits are undone or redone
  */
 
 package de.sciss.meloncillo.io;
@@ -39,6 +44,8 @@ import de.sciss.meloncillo.session.Session;
 
 import de.sciss.app.AbstractApplication;
 import de.sciss.app.AbstractCompoundEdit;
+import de.sciss.app.BasicUndoableEdit;
+import de.sciss.app.PerformableEdit;
 import de.sciss.common.ProcessingThread;
 import de.sciss.io.AudioFile;
 import de.sciss.io.AudioFileDescr;
@@ -46,6 +53,7 @@ import de.sciss.io.IOUtil;
 import de.sciss.io.InterleavedStreamFile;
 import de.sciss.io.Span;
 import de.sciss.timebased.BasicTrail;
+import de.sciss.timebased.Stake;
 import de.sciss.timebased.Trail;
 
 /**
@@ -107,25 +115,49 @@ extends BasicTrail
 	private final boolean			singleFile;
     private AudioFile[]				tempF				= null;
 	
-	private final AudioFile[]		audioFiles;
+	private final InterleavedStreamFile[]	audioFiles;
 
 	private int						numDepDec			= 0;
+
+	// immutable snapshot of the committed stakes, replaced
+	// whenever they change. used by the lock free read path
+	private volatile StakeIndex		index				= StakeIndex.EMPTY;
+	// the thread which modified the committed stakes since index
+	// was built, or null. that thread reads its own modifications
+	// (e.g. when dependants are updated), all other threads keep
+	// reading the previous index until the modification is complete
+	private volatile Thread			indexModifier		= null;
 	
 
 	public static AudioTrail newFrom( AudioFile af )
 	throws IOException
 	{
-		final AudioFileDescr	afd			= af.getDescr();
-		final int[][]			channelMaps = new int[ 1 ][ afd.channels ];
+		return newFrom( af, af.getDescr().rate );
+	}
+
+	/**
+	 *	Creates a trail consisting of the whole
+	 *	content of a file. This works with any kind of
+	 *	<code>InterleavedStreamFile</code>, such as
+	 *	a <code>TrajectoryFile</code>. The file is
+	 *	closed when the trail is disposed.
+	 *
+	 *	@param	f		the file to read from
+	 *	@param	rate	the file's sample rate
+	 */
+	public static AudioTrail newFrom( InterleavedStreamFile f, double rate )
+	throws IOException
+	{
+		final int[][]			channelMaps = new int[ 1 ][ f.getChannelNum() ];
 		final AudioTrail		at;
-		final Span				span		= new Span( 0, afd.length );
+		final Span				span		= new Span( 0, f.getFrameNum() );
 
-		for( int i = 0; i < afd.channels; i++ ) {
+		for( int i = 0; i < channelMaps[ 0 ].length; i++ ) {
 			channelMaps[ 0 ][ i ] = i;
 		}
 
-		at = new AudioTrail( channelMaps, afd.rate, new AudioFile[] { af });
-		at.add( null, new InterleavedAudioStake( span, af, span ));
+		at = new AudioTrail( channelMaps, rate, new InterleavedStreamFile[] { f });
+		at.add( null, new InterleavedAudioStake( span, f, span ));
 		return at;
 	}
 	
@@ -180,7 +212,7 @@ extends BasicTrail
 		return new AudioTrail( this.channelMaps, this.getRate(), new AudioFile[ 0 ]);
 	}
 
-	private AudioTrail( int[][] channelMaps, double rate, AudioFile[] audioFiles )
+	private AudioTrail( int[][] channelMaps, double rate, InterleavedStreamFile[] audioFiles )
 	{
 		super();
 		
@@ -206,7 +238,7 @@ extends BasicTrail
 //		return cacheFs;
 //	}
 	
-	protected AudioFile[] getAudioFiles()
+	protected InterleavedStreamFile[] getAudioFiles()
 	{
 		return audioFiles;
 	}
@@ -215,7 +247,10 @@ extends BasicTrail
 	throws IOException
 	{
 		for( int i = 0; i < audioFiles.length; i++ ) {
-			if( audioFiles[ i ] != null ) audioFiles[ i ].close();
+			if( audioFiles[ i ] != null ) {
+				FrameCache.getInstance().removeAll( audioFiles[ i ]);
+				audioFiles[ i ].close();
+			}
 		}
 	}
 	
@@ -274,10 +309,16 @@ extends BasicTrail
 	
 	public void dispose()
 	{
+		// readers must not reach the stakes disposed below
+		index			= StakeIndex.EMPTY;
+		indexModifier	= null;
 		// call this first because dependants might rely on open audio files!
 		super.dispose();
 		for( int i = 0; i < audioFiles.length; i++ ) {
-			if( audioFiles[ i ] != null ) audioFiles[ i ].cleanUp();
+			if( audioFiles[ i ] != null ) {
+				FrameCache.getInstance().removeAll( audioFiles[ i ]);
+				try { audioFiles[ i ].close(); } catch( IOException e1 ) { /* ignore */ }
+			}
 		}
 		deleteTempFiles();
 	}
@@ -1579,13 +1620,11 @@ extends BasicTrail
 
 		AudioStake	stake;
 		int			chunkLen;
-		Span		subSpan;
 		
 		while( (dataOffset < dataStop) && (idx < num) ) {
 			stake		= (AudioStake) stakesByStart.get( idx );
-			subSpan		= new Span( Math.max( stake.getSpan().start, readSpan.start ),
-									Math.min( stake.getSpan().stop, readSpan.stop ));
-			chunkLen	= stake.readFrames( data, dataOffset, subSpan );
+			chunkLen	= stake.readFrames( data, dataOffset, Math.max( stake.getSpan().start, readSpan.start ),
+											Math.min( stake.getSpan().stop, readSpan.stop ));
 			dataOffset += chunkLen;
 //			len		   -= chunkLen;
 			idx++;
@@ -1605,13 +1644,149 @@ System.err.println( "WARNING: trying to read beyond the trail's stop" );
 	protected void readFrames( float[][] data, int dataOffset, Span readSpan, AbstractCompoundEdit ce )
     throws IOException
     {
-		AudioTrail.readFrames( editGetCollByStart( ce ), data, dataOffset, readSpan );
+		if( ce == null ) {
+			readFrames( data, dataOffset, readSpan );
+		} else {
+			AudioTrail.readFrames( editGetCollByStart( ce ), data, dataOffset, readSpan );
+		}
 	}
 
+	/**
+	 *	Reads frames from the committed stakes. This uses an
+	 *	immutable snapshot of the stakes, therefore it neither locks
+	 *	nor allocates objects and may be called from any thread,
+	 *	even while the trail is being edited. Edits become visible
+	 *	to readers as soon as they are committed.
+	 *
+	 *	@param	data		target buffer, may contain <code>null</code> channels
+	 *	@param	dataOffset	offset in the target buffer
+	 *	@param	readSpan	the span to read
+	 */
     public void readFrames( float[][] data, int dataOffset, Span readSpan )
     throws IOException
     {
-		readFrames( data, dataOffset, readSpan, null );
+		if( indexModifier == Thread.currentThread() ) publishIndex();
+		index.readFrames( data, dataOffset, readSpan.start, readSpan.stop );
+	}
+
+	// the committed stakes are modified here (ce == null), one stake
+	// at a time. the index is rebuilt once the whole modification is
+	// done (publishIndex), so readers never see intermediate states
+	protected void sortAddStake( Stake stake, AbstractCompoundEdit ce )
+	{
+		super.sortAddStake( stake, ce );
+		if( ce == null ) indexModifier = Thread.currentThread();
+	}
+
+	protected void sortRemoveStake( Stake stake, AbstractCompoundEdit ce )
+	{
+		super.sortRemoveStake( stake, ce );
+		if( ce == null ) indexModifier = Thread.currentThread();
+	}
+
+	private void publishIndex()
+	{
+		if( indexModifier != null ) {
+			indexModifier	= null;
+			index			= new StakeIndex( editGetCollByStart( null ));
+		}
+	}
+
+	// called after an edit is performed or undone,
+	// and after direct modifications with a source
+	protected void dispatchModification( Object source, Span span )
+	{
+		publishIndex();
+		super.dispatchModification( source, span );
+	}
+
+	// with a compound edit, the trail's stake edits are framed by two
+	// index edits. compound edits are performed in order and undone
+	// in reverse order, so the index is published after the stake
+	// edits in either direction, with or without a dispatch edit
+	private void addIndexEdit( AbstractCompoundEdit ce )
+	{
+		if( ce != null ) ce.addPerform( new IndexEdit() );
+	}
+
+	// the following methods modify the committed
+	// stakes directly when ce is null
+
+	public void editAddAll( Object source, List stakes, AbstractCompoundEdit ce )
+	throws IOException
+	{
+		addIndexEdit( ce );
+		super.editAddAll( source, stakes, ce );
+		addIndexEdit( ce );
+		publishIndex();
+	}
+
+	public void editRemoveAll( Object source, List stakes, AbstractCompoundEdit ce )
+	throws IOException
+	{
+		addIndexEdit( ce );
+		super.editRemoveAll( source, stakes, ce );
+		addIndexEdit( ce );
+		publishIndex();
+	}
+
+	public void editInsert( Object source, Span span, int touchMode, AbstractCompoundEdit ce )
+	{
+		addIndexEdit( ce );
+		super.editInsert( source, span, touchMode, ce );
+		addIndexEdit( ce );
+		publishIndex();
+	}
+
+	public void editRemove( Object source, Span span, int touchMode, AbstractCompoundEdit ce )
+	{
+		addIndexEdit( ce );
+		super.editRemove( source, span, touchMode, ce );
+		addIndexEdit( ce );
+		publishIndex();
+	}
+
+	public void editClear( Object source, Span span, int touchMode, AbstractCompoundEdit ce )
+	{
+		addIndexEdit( ce );
+		super.editClear( source, span, touchMode, ce );
+		addIndexEdit( ce );
+		publishIndex();
+	}
+
+	protected void addIgnoreDependants( Stake stake )
+	{
+		super.addIgnoreDependants( stake );
+		publishIndex();
+	}
+
+	protected void clearIgnoreDependants()
+	{
+		super.clearIgnoreDependants();
+		indexModifier	= null;
+		index			= StakeIndex.EMPTY;
+	}
+
+	private class IndexEdit
+	extends BasicUndoableEdit
+	{
+		public PerformableEdit perform()
+		{
+			publishIndex();
+			return this;
+		}
+
+		public void undo()
+		{
+			super.undo();
+			publishIndex();
+		}
+
+		public void redo()
+		{
+			super.redo();
+			publishIndex();
+		}
 	}
 
 //    private InterleavedStreamFile prepareTempFile()
@@ -1657,6 +1832,7 @@ System.err.println( "WARNING: trying to read beyond the trail's stop" );
 		if( tempF != null ) {
 			for( int i = 0; i < tempF.length; i++ ) {
 				if( tempF[ i ] != null ) {
+					FrameCache.getInstance().removeAll( tempF[ i ]);
 					tempF[ i ].cleanUp();
 					tempF[ i ].getFile().delete();
 				}
@@ -1687,9 +1863,28 @@ System.err.println( "WARNING: trying to read beyond the trail's stop" );
 //		ste[0].insert( f, offset, totalSpan );
 //	}
 
+	/**
+	 *	Writes the trail's frames within a given span
+	 *	to a file, beginning at the file's current position.
+	 *	When the channels are written in their original
+	 *	order, each stake copies its frames to the file itself,
+	 *	which for stakes backed by an audio file of the same
+	 *	format means the sample data is not decoded at all.
+	 *
+	 *	@param	f			the file to write to
+	 *	@param	span		the span of the trail to write
+	 *	@param	channelMap	for each channel of the file the trail channel
+	 *						to write, or <code>null</code> to write
+	 *						all channels in their original order
+	 */
 	public void flatten( InterleavedStreamFile f, Span span, int[] channelMap )
     throws IOException
 	{
+		if( (f.getChannelNum() == numChannels) && isIdentityMap( channelMap )) {
+			flattenStakes( f, span );
+			return;
+		}
+	
 		final Span			fileSpan	= new Span( f.getFramePosition(), span.getLength() );
 		final AudioStake	stake		= new InterleavedAudioStake( span, f, fileSpan );
 		
@@ -1701,6 +1896,45 @@ System.err.println( "WARNING: trying to read beyond the trail's stop" );
 		}
 	}
 
+	private static boolean isIdentityMap( int[] channelMap )
+	{
+		if( channelMap == null ) return true;
+		for( int i = 0; i < channelMap.length; i++ ) {
+			if( channelMap[ i ] != i ) return false;
+		}
+		return true;
+	}
+
+	private void flattenStakes( InterleavedStreamFile f, Span span )
+    throws IOException
+	{
+		if( span.isEmpty() ) return;
+
+		final double			progWeight	= 1.0 / span.getLength();
+		final int				num			= getNumStakes();
+		int						idx			= indexOf( span.start, true );
+		if( idx < 0 )			idx			= Math.max( 0, -(idx + 2) );
+		long					readOff		= span.start;
+		AudioStake				source;
+		long					readStop;
+		
+		while( (readOff < span.stop) && (idx < num) ) {
+			source		= (AudioStake) get( idx, true );
+			readStop	= Math.min( source.getSpan().stop, span.stop );
+			if( readOff < readStop ) {
+				source.copyFrames( f, new Span( readOff, readStop ));
+				readOff = readStop;
+				setProgression( readOff - span.start, progWeight );
+			}
+			idx++;
+		}
+		if( readOff < span.stop ) {	// trail ends before span, pad with silence
+			new SilentAudioStake( new Span( readOff, span.stop ), numChannels ).copyFrames( f,
+				new Span( readOff, span.stop ));
+			setProgression( span.getLength(), progWeight );
+		}
+	}
+
 	public void flatten( InterleavedStreamFile[] fs, Span span, int[] channelMap )
     throws IOException
 	{
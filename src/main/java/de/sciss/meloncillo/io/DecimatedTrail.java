@@ -26,6 +26,7 @@
  *  Changelog:
  *		15-Apr-08	extracted back from DecimatedWaveTrail
  *		30-Jun-08	copied from EisK
+ *		17-Oct-26	shared bounded pool for asynchronous decimation
  */
 
 package de.sciss.meloncillo.io;
@@ -38,6 +39,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.undo.CompoundEdit;
 
@@ -108,6 +112,12 @@ extends BasicTrail
 	protected volatile boolean		keepAsyncRunning		= false;
 
 	protected EventManager			asyncManager			= null;
+
+	// number of worker threads computing asynchronous decimation chunks.
+	// the pool is shared by all trails, so the overview calculation
+	// of many transmitters never occupies more than these threads
+	protected static final int		DECIM_PARALLELISM		= Math.max( 1, Runtime.getRuntime().availableProcessors() - 1 );
+	private static ExecutorService	decimPool				= null;	// lazy
 	
 	protected static final double	TWENTYBYLOG10			= 20 / MathUtil.LN10; // 8.685889638065;
 	protected static final double	TENBYLOG10				= 10 / MathUtil.LN10;
@@ -147,6 +157,32 @@ extends BasicTrail
 		ProcessingThread.flushProgression();
 	}
 
+	/**
+	 *	Returns the thread pool on which the asynchronous
+	 *	decimation chunks are calculated. The pool has
+	 *	<code>DECIM_PARALLELISM</code> low priority daemon threads
+	 *	and is created upon the first invocation.
+	 *
+	 *	@synchronization	may be called from any thread
+	 */
+	protected static synchronized ExecutorService getDecimationPool()
+	{
+		if( decimPool == null ) {
+			decimPool = Executors.newFixedThreadPool( DECIM_PARALLELISM, new ThreadFactory() {
+				private int count = 0;
+
+				public Thread newThread( Runnable r )
+				{
+					final Thread t = new Thread( r, "Decimation-" + (++count) );
+					t.setDaemon( true );
+					t.setPriority( Thread.NORM_PRIORITY - 2 );
+					return t;
+				}
+			});
+		}
+		return decimPool;
+	}
+
 	protected final void killAsyncThread()
 	{
 		if( threadAsync != null ) {
@@ -30,6 +30,10 @@
  *		18-Feb-08	renamed from DecimatedTrail to DecimatedWaveTrail
  *		15-Apr-08	subclassing DecimatedTrail
  *		30-Jun-08	copied from EisK
+ *		17-Oct-26	asynchronous decimation runs in parallel chunks
+ *		17-Oct-26	cache files are named after the content of the audio files
+ *		17-Oct-26	cache files are written under temporary names
+ *		17-Oct-26	the full scale trail may read from any InterleavedStreamFile
  */
 
 package de.sciss.meloncillo.io;
@@ -45,6 +49,10 @@ import java.awt.geom.AffineTransform;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import de.sciss.app.AbstractApplication;
 import de.sciss.app.AbstractCompoundEdit;
@@ -54,6 +62,7 @@ import de.sciss.io.AudioFile;
 import de.sciss.io.AudioFileCacheInfo;
 import de.sciss.io.AudioFileDescr;
 import de.sciss.io.CacheManager;
+import de.sciss.io.InterleavedStreamFile;
 import de.sciss.io.Span;
 import de.sciss.util.MutableInt;
 
@@ -71,8 +80,11 @@ public class DecimatedWaveTrail
 extends DecimatedTrail
 {
 	private static final int		UPDATE_PERIOD			= 2000; // millisecs in async overview calculation
+	private static final int		CHUNK_FRAMES			= 0x10000;	// fullrate frames per async decimation chunk
+	private static final int		ASYNC_WINDOW			= DECIM_PARALLELISM + 1; // max. pending chunks per trail
 
 	private final Decimator			decimator;
+	private final int				CHUNK_BUFS;	// MAXCOARSE buffers per async decimation chunk
 
 	// waveform drawing
 	// private static final Stroke strkLine = new BasicStroke( 0.5f );
@@ -115,6 +127,7 @@ extends DecimatedTrail
 		MAXCOARSE		= 1 << MAXSHIFT;
 		MAXMASK			= -MAXCOARSE;
 		MAXCEILADD		= MAXCOARSE - 1;
+		CHUNK_BUFS		= Math.max( 1, CHUNK_FRAMES >> MAXSHIFT );
 
 		tmpBufSize		= Math.max( 4096, MAXCOARSE << 1 );
 		// tmpBuf = new float[channels][tmpBufSize];
@@ -642,6 +655,8 @@ extends DecimatedTrail
 		final Object				source		= null; // XXX
 		final AudioStake			cacheReadAS;
 		final AudioStake			cacheWriteAS;
+		final File[]				cacheFiles;
+		final File[]				cacheTempFiles;
 
 		synchronized( fileSync ) {
 			das			= allocAsync( union );
@@ -655,12 +670,16 @@ extends DecimatedTrail
 		if( cacheReadAS == null ) {
 			// cacheWriteAS = fullScale.openCacheForWrite( model,
 			// decimHelps[ 0 ].fullrateToSubsample( union.getLength() ));
-			cacheWriteAS = openCacheForWrite( model, (fullrateLen + MAXCEILADD) & MAXMASK );
-			numFullBuf	= (int) (fullrateLen >> MAXSHIFT);
+			cacheFiles		= createCacheFileNames();
+			cacheTempFiles	= cacheFiles == null ? null : new File[ cacheFiles.length ];
+			cacheWriteAS	= openCacheForWrite( model, (fullrateLen + MAXCEILADD) & MAXMASK, cacheFiles, cacheTempFiles );
+			numFullBuf		= (int) (fullrateLen >> MAXSHIFT);
 		} else {
 			// cached files always have integer fullBufs!
-			numFullBuf	= (int) ((fullrateLen + MAXCEILADD) >> MAXSHIFT);
-			cacheWriteAS = null;
+			numFullBuf		= (int) ((fullrateLen + MAXCEILADD) >> MAXSHIFT);
+			cacheWriteAS	= null;
+			cacheFiles		= null;
+			cacheTempFiles	= null;
 		}
 
 		synchronized( bufSync ) {
@@ -673,52 +692,56 @@ extends DecimatedTrail
 		threadAsync = new Thread( new Runnable() {
 			public void run()
 			{
-final int pri = Thread.currentThread().getPriority();
-//System.out.println( "pri was " + pri );
-Thread.currentThread().setPriority( pri - 2 );
-				final int			minCoarse;
-				final CacheManager	cm					= PrefCacheManager.getInstance();
-				long				pos;
-				// long framesWritten = 0;
-				long				framesWrittenCache	= 0;
-				boolean				cacheWriteComplete	= false;
-				Span				tag2;
-				float				f1;
-				int					len;
-				long				time;
-				long				nextTime			= System.currentTimeMillis() + UPDATE_PERIOD;
+				final int				minCoarse			= MAXCOARSE >> decimHelps[ 0 ].shift;
+				final CacheManager		cm					= PrefCacheManager.getInstance();
+				final int				numBufs;
+				final int				numChunks;
+				final Future[]			futures;
+				final ExecutorService	pool				= getDecimationPool();
+				long					pos;
+				long					framesWrittenCache	= 0;
+				boolean					cacheWriteComplete	= false;
+				float[][][]				levels;
+				int						submitted			= 0;
+				int						numChunkBufs;
+				int						len;
+				long					time;
+				long					nextTime			= System.currentTimeMillis() + UPDATE_PERIOD;
 
 				if( cacheReadAS != null ) {
-					pos = decimHelps[ 0 ].fullrateToSubsample( extSpan.getStart() );
+					pos		= decimHelps[ 0 ].fullrateToSubsample( extSpan.getStart() );
+					numBufs	= numFullBuf;
 				} else {
-					pos = extSpan.getStart();
+					pos		= extSpan.getStart();
+					// the last buffer is padded with the last frame
+					numBufs	= numFullBuf + (fullrateLen > ((long) numFullBuf << MAXSHIFT) ? 1 : 0);
 				}
-				minCoarse = MAXCOARSE >> decimHelps[ 0 ].shift;
+				numChunks	= (numBufs + CHUNK_BUFS - 1) / CHUNK_BUFS;
+				futures		= new Future[ numChunks ];
 
+				// chunks are calculated in parallel, but must be written in order,
+				// because DecimatedStake.continueWrite appends to the level files.
+				// at most ASYNC_WINDOW chunks of this trail are pending at any time
 				try {
-					for( int i = 0; (i < numFullBuf) && keepAsyncRunning; i++ ) {
-						synchronized( bufSync ) {
-							if( cacheReadAS != null ) {
-								// System.out.println( "tmpBuf2.length = "+tmpBuf2.length+"; fullChannels = "+fullChannels + "; decimChannels = "+decimChannels );
-								tag2 = new Span( pos, pos + minCoarse );
-								cacheReadAS.readFrames( tmpBuf2, 0, tag2 );
-								das.continueWrite( 0, tmpBuf2, 0, minCoarse );
-								subsampleWrite2( tmpBuf2, das, minCoarse );
-								pos += minCoarse;
-							} else {
-								tag2 = new Span(pos, pos + MAXCOARSE);
-								// fullScale.readFrames( tmpBuf, 0, tag2, ce );
-								fullScale.readFrames(tmpBuf, 0, tag2, null);
-								// for( int k = 0; k < tmpBuf.length; k++ ) {
-								// for( int j = 0; j < MAXCOARSE; j++ ) {
-								// tmpBuf[ k ][ j ] = 0.125f; }}
-								subsampleWrite( tmpBuf, tmpBuf2, das, MAXCOARSE,
-								                cacheWriteAS, framesWrittenCache );
-								pos += MAXCOARSE;
-								framesWrittenCache += minCoarse;
-							}
-							// framesWritten += MAXCOARSE;
+					for( int i = 0; (i < numChunks) && keepAsyncRunning; i++ ) {
+						while( (submitted < numChunks) && (submitted - i < ASYNC_WINDOW) ) {
+							numChunkBufs	= Math.min( CHUNK_BUFS, numBufs - submitted * CHUNK_BUFS );
+							futures[ submitted++ ] = pool.submit( new DecimationChunk( cacheReadAS, pos, numChunkBufs, fullrateStop ));
+							pos			   += (long) numChunkBufs * (cacheReadAS != null ? minCoarse : MAXCOARSE);
+						}
+						levels = (float[][][]) futures[ i ].get();
+						if( levels == null ) break;	// aborted
+
+						len = levels[ 0 ][ 0 ].length;
+						das.continueWrite( 0, levels[ 0 ], 0, len );
+						if( cacheWriteAS != null ) {
+							cacheWriteAS.writeFrames( levels[ 0 ], 0, new Span( framesWrittenCache, framesWrittenCache + len ));
+							framesWrittenCache += len;
+						}
+						for( int j = 1; j < SUBNUM; j++ ) {
+							das.continueWrite( j, levels[ j ], 0, levels[ j ][ 0 ].length );
 						}
+
 						time = System.currentTimeMillis();
 						if( time >= nextTime ) {
 							nextTime = time + UPDATE_PERIOD;
@@ -729,35 +752,25 @@ Thread.currentThread().setPriority( pri - 2 );
 						}
 					}
 
-					 // cached files always have integer fullBufs!
-					if( (cacheReadAS == null) && keepAsyncRunning ) {
-						len = (int) (fullrateStop - pos);
-						if( len > 0 ) {
-							synchronized( bufSync ) {
-								tag2 = new Span( pos, pos + len );
-								// fullScale.readFrames( tmpBuf, 0, tag2, ce );
-								fullScale.readFrames( tmpBuf, 0, tag2, null );
-								for( int ch = 0; ch < fullChannels; ch++ ) {
-									f1 = tmpBuf[ch][len - 1];
-									for( int i = len; i < MAXCOARSE; i++ ) {
-										tmpBuf[ch][i] = f1;
-									}
-								}
-								subsampleWrite( tmpBuf, tmpBuf2, das, MAXCOARSE,
-								                cacheWriteAS, framesWrittenCache );
-								pos += MAXCOARSE;
-								// framesWritten += MAXCOARSE;
-								framesWrittenCache += minCoarse;
-							}
-						}
-					}
-					if( keepAsyncRunning ) {
-						cacheWriteComplete = true;
-						if( cacheWriteAS != null ) cacheWriteAS.addToCache( cm );
-					}
+					cacheWriteComplete = keepAsyncRunning;
+				} catch( InterruptedException e1 ) {
+					System.err.println( e1 );
+				} catch( ExecutionException e1 ) {
+					e1.getCause().printStackTrace();
 				} catch( IOException e1 ) {
 					e1.printStackTrace();
 				} finally {
+					// chunks which are still queued or running return immediately
+					// once keepAsyncRunning is cleared ; they must be finished
+					// before the cache stakes are disposed
+					keepAsyncRunning = false;
+					for( int i = 0; i < submitted; i++ ) {
+						try {
+							futures[ i ].get();
+						}
+						catch( InterruptedException e1 ) { /* ignored */ }
+						catch( ExecutionException e1 ) { /* ignored */ }
+					}
 					if( cacheReadAS != null ) {
 						cacheReadAS.cleanUp();
 						cacheReadAS.dispose(); // !!!
@@ -765,14 +778,13 @@ Thread.currentThread().setPriority( pri - 2 );
 					if( cacheWriteAS != null ) {
 						cacheWriteAS.cleanUp();
 						cacheWriteAS.dispose(); // !!!
-						if( !cacheWriteComplete ) { // indicates process was aborted ...
-							final File[] f = createCacheFileNames();
-							 // ... therefore delete incomplete cache files!
-							if( f != null ) {
-								for( int i = 0; i < f.length; i++ ) {
-									if( !f[i].delete() ) f[i].deleteOnExit();
-									// cm.removeFile( f[ i ]);
-								}
+						// the closed files are moved to their final names ;
+						// if the process was aborted, they are incomplete and deleted
+						for( int i = 0; i < cacheTempFiles.length; i++ ) {
+							if( cacheWriteComplete ) {
+								cm.commitFile( cacheTempFiles[ i ], cacheFiles[ i ]);
+							} else {
+								cm.discardTempFile( cacheTempFiles[ i ]);
 							}
 						}
 					}
@@ -787,7 +799,7 @@ Thread.currentThread().setPriority( pri - 2 );
 					}
 				}
 			}
-		});
+		}, "DecimatedWaveTrail" );
 
 		keepAsyncRunning = true;
 		threadAsync.start();
@@ -863,17 +875,40 @@ Thread.currentThread().setPriority( pri - 2 );
 
 	protected File[] createCacheFileNames()
 	{
-		final AudioFile[] audioFiles = fullScale.getAudioFiles();
+		final String[] keys = createCacheKeys();
+		if( keys == null ) return null;
+
+		final CacheManager cm = PrefCacheManager.getInstance();
+		final File[] f = new File[ keys.length ];
+		for( int i = 0; i < f.length; i++ ) {
+			f[i] = cm.createCacheFileName( keys[i] + "-" + model + "-" + decimHelps[ 0 ].shift );
+		}
+		return f;
+	}
+
+	/*
+	 * @returns the content keys of the audio files or null if
+	 * the cache is not available
+	 */
+	private String[] createCacheKeys()
+	{
+		final InterleavedStreamFile[] audioFiles = fullScale.getAudioFiles();
 		if( (audioFiles.length == 0) || (audioFiles[0] == null) ) return null;
 
 		final CacheManager cm = PrefCacheManager.getInstance();
 		if( (cm == null) || !cm.isActive() ) return null;
 
-		final File[] f = new File[ audioFiles.length ];
-		for( int i = 0; i < f.length; i++ ) {
-			f[i] = cm.createCacheFileName( audioFiles[i].getFile() );
+		final String[] keys = new String[ audioFiles.length ];
+		try {
+			for( int i = 0; i < keys.length; i++ ) {
+				keys[i] = cm.getContentKey( audioFiles[i].getFile() );
+			}
 		}
-		return f;
+		catch( IOException e1 ) {
+			System.err.println( e1 );
+			return null;
+		}
+		return keys;
 	}
 
 	/*
@@ -882,10 +917,12 @@ Thread.currentThread().setPriority( pri - 2 );
 	private AudioStake openCacheForRead( int decimModel )
 	throws IOException
 	{
+		final String[]		keys		= createCacheKeys();
 		final File[]		f			= createCacheFileNames();
-		if( f == null ) return null;
+		if( (keys == null) || (f == null) ) return null;
 
-		final AudioFile[]	audioFiles	= fullScale.getAudioFiles();
+		final CacheManager	cm			= PrefCacheManager.getInstance();
+		final InterleavedStreamFile[]	audioFiles	= fullScale.getAudioFiles();
 		final Span[]		fileSpans	= new Span[ audioFiles.length ];
 		final AudioFile[]	cacheAFs	= new AudioFile[ audioFiles.length ];
 		final String		ourCode		= AbstractApplication.getApplication().getMacOSCreator();
@@ -899,7 +936,7 @@ Thread.currentThread().setPriority( pri - 2 );
 			for( int i = 0; i < cacheAFs.length; i++ ) {
 // System.out.println( "openCacheForRead checking '" + f[ i ].getAbsolutePath() + "'" );
 				
-				if( !f[ i ].isFile() ) return null;
+				if( !f[ i ].isFile() || !cm.checkFile( f[ i ])) return null;
 				cacheAFs[ i ] = AudioFile.openAsRead( f[ i ]);
 				cacheAFs[ i ].readAppCode();
 				afd = cacheAFs[ i ].getDescr();
@@ -917,7 +954,7 @@ Thread.currentThread().setPriority( pri - 2 );
 				if( ourCode.equals( afd.appCode ) && (appCode != null) ) {
 					infoA = AudioFileCacheInfo.decode( appCode );
 					if( infoA != null ) {
-						infoB = new AudioFileCacheInfo( audioFiles[ i ], decimModel, audioFiles[ i ].getFrameNum() );
+						infoB = new AudioFileCacheInfo( audioFiles[ i ], keys[ i ], decimModel, audioFiles[ i ].getFrameNum() );
 						if( !infoA.equals( infoB )) {
 							// System.err.println( "info mismatch!" );
 							return null;
@@ -953,13 +990,20 @@ Thread.currentThread().setPriority( pri - 2 );
 		}
 	}
 
-	private AudioStake openCacheForWrite( int decimModel, long decimFrameNum )
+	/*
+	 * Opens temporary files for the cache files f, which
+	 * are stored in temp. The cache manager's commitFile
+	 * must be called for each of them once they are complete.
+	 *
+	 * @returns the cache stake or null if the cache is not available
+	 */
+	private AudioStake openCacheForWrite( int decimModel, long decimFrameNum, File[] f, File[] temp )
 	throws IOException
 	{
-		final File[]			f			= createCacheFileNames();
-		if( f == null ) return null;
+		final String[]			keys		= createCacheKeys();
+		if( (keys == null) || (f == null) ) return null;
 
-		final AudioFile[]		audioFiles	= fullScale.getAudioFiles();
+		final InterleavedStreamFile[]		audioFiles	= fullScale.getAudioFiles();
 		final AudioFileDescr	afdProto	= new AudioFileDescr();
 		final CacheManager		cm			= PrefCacheManager.getInstance();
 		final Span[]			fileSpans	= new Span[ audioFiles.length ];
@@ -978,13 +1022,13 @@ Thread.currentThread().setPriority( pri - 2 );
 
 		try {
 			for( int i = 0; i < f.length; i++ ) {
-				cm.removeFile( f[ i ]); // in case it existed
 // System.out.println( "openCacheForWrite doing '" + f[ i ].getAbsolutePath() + "'" );
+				temp[ i ]		= cm.createTempFile( f[ i ]);
 				afd				= new AudioFileDescr( afdProto );
 				afd.channels	= channelMaps[ i ].length;
 				// System.out.println( "channels = " + afd.channels );
-				afd.file		= f[ i ];
-				info			= new AudioFileCacheInfo( audioFiles[ i ], decimModel, audioFiles[ i ].getFrameNum() );
+				afd.file		= temp[ i ];
+				info			= new AudioFileCacheInfo( audioFiles[ i ], keys[ i ], decimModel, audioFiles[ i ].getFrameNum() );
 				afd.setProperty( AudioFileDescr.KEY_APPCODE, info.encode() );
 				cacheAFs[ i ]	= AudioFile.openAsWrite( afd );
 				fileSpans[ i ]	= new Span( 0, decimFrameNum );
@@ -1000,12 +1044,8 @@ Thread.currentThread().setPriority( pri - 2 );
 		} finally {
 			if( result == null ) {
 				for( int i = 0; i < cacheAFs.length; i++ ) {
-					if( cacheAFs[ i ] != null ) {
-						cacheAFs[ i ].cleanUp();
-						if( !cacheAFs[ i ].getFile().delete() ) {
-							cacheAFs[ i ].getFile().deleteOnExit();
-						}
-					}
+					if( cacheAFs[ i ] != null ) cacheAFs[ i ].cleanUp();
+					if( temp[ i ] != null ) cm.discardTempFile( temp[ i ]);
 				}
 			}
 		}
@@ -1060,6 +1100,87 @@ Thread.currentThread().setPriority( pri - 2 );
 		} // for( SUBNUM )
 	}
 
+	// ---------------------- async decimation chunk ----------------------
+
+	/*
+	 *	Calculates all decimation levels for a run of
+	 *	MAXCOARSE buffers. The full rate frames (or the cached
+	 *	first level) are read once, each further level is derived
+	 *	from the preceding one. The call returns the levels
+	 *	as float[ SUBNUM ][ decimChannels ][], or null if
+	 *	the async process was aborted. Chunks use private buffers
+	 *	and can therefore run concurrently on the decimation pool.
+	 */
+	private class DecimationChunk
+	implements Callable
+	{
+		private final AudioStake	cacheReadAS;
+		private final long			start;
+		private final int			numBufs;
+		private final long			fullrateStop;
+
+		/*
+		 *	@param	cacheReadAS		if non-null, the first level is read from
+		 *							this stake, and start is given in its frames
+		 */
+		protected DecimationChunk( AudioStake cacheReadAS, long start, int numBufs, long fullrateStop )
+		{
+			this.cacheReadAS	= cacheReadAS;
+			this.start			= start;
+			this.numBufs		= numBufs;
+			this.fullrateStop	= fullrateStop;
+		}
+
+		public Object call()
+		throws IOException
+		{
+			if( !keepAsyncRunning ) return null;
+
+			final int			shift0		= decimHelps[ 0 ].shift;
+			final int			minCoarse	= MAXCOARSE >> shift0;
+			final float[][][]	levels		= new float[ SUBNUM ][][];
+			final float[][]		fullBuf;
+			int					len			= numBufs * minCoarse;
+			int					decim;
+			long				pos;
+			float				f1;
+
+			levels[ 0 ] = new float[ decimChannels ][ len ];
+			if( cacheReadAS != null ) {
+				cacheReadAS.readFrames( levels[ 0 ], 0, new Span( start, start + len ));
+			} else {
+				fullBuf = new float[ fullChannels ][ MAXCOARSE ];
+				pos		= start;
+				for( int i = 0, off = 0; i < numBufs; i++, off += minCoarse, pos += MAXCOARSE ) {
+					if( !keepAsyncRunning ) return null;
+
+					len = (int) Math.min( MAXCOARSE, fullrateStop - pos );
+					fullScale.readFrames( fullBuf, 0, new Span( pos, pos + len ), null );
+					if( len < MAXCOARSE ) {
+						for( int ch = 0; ch < fullChannels; ch++ ) {
+							f1 = fullBuf[ ch ][ len - 1 ];
+							for( int j = len; j < MAXCOARSE; j++ ) {
+								fullBuf[ ch ][ j ] = f1;
+							}
+						}
+					}
+					decimator.decimatePCM( fullBuf, levels[ 0 ], off, minCoarse, 1 << shift0 );
+				}
+				len = numBufs * minCoarse;
+			}
+
+			// calculate remaining decimations from preceding ones
+			for( int i = 1; i < SUBNUM; i++ ) {
+				decim		= decimHelps[ i ].shift - decimHelps[ i - 1 ].shift;
+				len		  >>= decim;
+				levels[ i ]	= new float[ decimChannels ][ len ];
+				decimator.decimate( levels[ i - 1 ], levels[ i ], 0, len, 1 << decim );
+			}
+
+			return levels;
+		}
+	} // class DecimationChunk
+
 	// ---------------------- decimation subclasses ----------------------
 
 	private abstract class Decimator
@@ -0,0 +1,444 @@
+/*
+ *  FrameCache.java
+ *  Meloncillo
+ *
+ *  Copyright (c) 2004-2008 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This software is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU General Public License
+ *	as published by the Free Software Foundation; either
+ *	version 2, june 1991 of the License, or (at your option) any later version.
+ *
+ *	This software is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *	General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public
+ *	License (gpl.txt) along with this software; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.meloncillo.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.sciss.io.AudioFile;
+import de.sciss.io.InterleavedStreamFile;
+
+/**
+ *	A bounded cache of decoded sample frames, shared by
+ *	all <code>InterleavedAudioStake</code>s and
+ *	<code>MultiMappedAudioStake</code>s. Files are divided
+ *	into blocks of 4096 frames which are decoded once and
+ *	then served from memory, so the realtime producer, the
+ *	renderers, the waveform display and the editing
+ *	functions don't read the same regions over and over.
+ *	When a file is read sequentially (as during playback),
+ *	the following blocks are loaded ahead of time by
+ *	a background thread.
+ *	<p>
+ *	Blocks are evicted following the CLOCK algorithm, i.e.
+ *	blocks which were not accessed since the clock hand
+ *	last passed them are dropped first. Looking up a cached
+ *	block neither locks nor allocates. Whoever writes to
+ *	a file read through the cache (i.e. the stakes' <code>writeFrames</code>
+ *	methods) must call <code>invalidate</code>.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.75, 17-Oct-26
+ *
+ *	@synchronization	all methods may be called from any thread
+ */
+public class FrameCache
+{
+	private static final int		BLOCK_SHIFT		= 12;
+	private static final int		BLOCK_FRAMES	= 1 << BLOCK_SHIFT;
+	private static final long		CAPACITY		= 8L << 20;		// floats, i.e. 32 MB
+	private static final int		READ_AHEAD		= 2;			// blocks
+
+	private static FrameCache		instance		= null;
+
+	// maps InterleavedStreamFile (by identity) to FileEntry
+	private final Map				entries			= new ConcurrentHashMap();
+	private final List				clock			= new ArrayList();	// sync: this
+	private int						hand			= 0;				// sync: this
+	private long					numFloats		= 0;				// sync: this
+	private final ExecutorService	readAheadPool;
+
+	private final AtomicLong		hits			= new AtomicLong();
+	private final AtomicLong		misses			= new AtomicLong();
+	private final AtomicLong		readAheads		= new AtomicLong();
+	private final AtomicLong		evictions		= new AtomicLong();
+
+	private FrameCache()
+	{
+		readAheadPool = Executors.newSingleThreadExecutor( new ThreadFactory() {
+			public Thread newThread( Runnable r )
+			{
+				final Thread t = new Thread( r, "FrameCache-ReadAhead" );
+				t.setDaemon( true );
+				return t;
+			}
+		});
+	}
+
+	/**
+	 *	Returns the application wide cache.
+	 */
+	public static synchronized FrameCache getInstance()
+	{
+		if( instance == null ) instance = new FrameCache();
+		return instance;
+	}
+
+	/**
+	 *	Reads frames of a file through the cache. The
+	 *	file position is not touched. Reads which
+	 *	exceed the file's length go straight to the file,
+	 *	so they fail just like uncached reads.
+	 *
+	 *	@param	f		the file to read from
+	 *	@param	frame	the file frame index to start reading at
+	 *	@param	data	target buffer, may contain <code>null</code> channels
+	 *	@param	offset	offset in the target buffer
+	 *	@param	length	number of frames to read
+	 */
+	public void readFrames( InterleavedStreamFile f, long frame, float[][] data, int offset, int length )
+	throws IOException
+	{
+		final long	numFrames	= f.getFrameNum();
+		if( (frame < 0) || (frame + length > numFrames) ) {
+			readFile( f, frame, data, offset, length );
+			return;
+		}
+		if( length == 0 ) return;
+
+		final FileEntry	e			= getEntry( f );
+		final int		numChannels	= Math.min( data.length, f.getChannelNum() );
+		final int		firstIdx	= (int) (frame >> BLOCK_SHIFT);
+		int				idx			= firstIdx;
+		int				blockOff	= (int) (frame - ((long) idx << BLOCK_SHIFT));
+		int				chunkLength;
+		Block			b;
+		float[]			src;
+
+		while( true ) {
+			b = e.get( idx );
+			if( (b == null) || (b.frames < Math.min( BLOCK_FRAMES, numFrames - ((long) idx << BLOCK_SHIFT) ))) {
+				misses.incrementAndGet();
+				b = load( e, idx, numFrames );		// (the latter case: the file grew)
+			} else {
+				hits.incrementAndGet();
+				b.referenced = true;
+			}
+			chunkLength	= Math.min( length, b.frames - blockOff );
+			for( int ch = 0; ch < numChannels; ch++ ) {
+				if( data[ ch ] == null ) continue;
+				src = b.data[ ch ];
+				System.arraycopy( src, blockOff, data[ ch ], offset, chunkLength );
+			}
+			length	   -= chunkLength;
+			if( length == 0 ) break;
+			offset	   += chunkLength;
+			blockOff	= 0;
+			idx++;
+		}
+
+		// sequential access continues at the block where the previous read ended.
+		// in that case keep READ_AHEAD blocks ahead of the reader
+		if( (e.lastIdx == firstIdx) || (e.lastIdx + 1 == firstIdx) ) {
+			scheduleReadAhead( e, Math.max( idx + 1, e.aheadIdx ), idx + 1 + READ_AHEAD, numFrames );
+		} else {
+			e.aheadIdx = 0;
+		}
+		e.lastIdx = idx;
+	}
+
+	/**
+	 *	Discards the cached blocks covering a
+	 *	region of a file. This must be called after
+	 *	writing to a file which is read through the cache.
+	 *
+	 *	@param	f		the file which was modified
+	 *	@param	frame	the first modified frame
+	 *	@param	length	the number of modified frames
+	 */
+	public void invalidate( InterleavedStreamFile f, long frame, long length )
+	{
+		final FileEntry e = (FileEntry) entries.get( f );
+		if( (e == null) || (length <= 0) ) return;
+
+		final int stopIdx = (int) ((frame + length - 1) >> BLOCK_SHIFT);
+
+		synchronized( this ) {
+			e.modCount++;
+			for( int idx = (int) (frame >> BLOCK_SHIFT); idx <= stopIdx; idx++ ) {
+				remove( e.get( idx ));
+			}
+		}
+	}
+
+	/**
+	 *	Discards all cached blocks of a file.
+	 *	This should be called when the file is closed.
+	 *
+	 *	@param	f		the file to forget
+	 */
+	public void removeAll( InterleavedStreamFile f )
+	{
+		final FileEntry e = (FileEntry) entries.get( f );
+		if( e == null ) return;
+
+		synchronized( this ) {
+			e.modCount++;
+			for( int idx = 0; idx < e.blocks.length; idx++ ) {
+				remove( e.get( idx ));
+			}
+			entries.remove( f );
+		}
+	}
+
+	/**
+	 *	Returns the number of block accesses which
+	 *	were served from memory.
+	 */
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	/**
+	 *	Returns the number of block accesses which
+	 *	required reading the file.
+	 */
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 *	Returns the number of blocks which were
+	 *	read ahead of time.
+	 */
+	public long getReadAheads()
+	{
+		return readAheads.get();
+	}
+
+	/**
+	 *	Returns the number of blocks which were
+	 *	dropped to make room for others.
+	 */
+	public long getEvictions()
+	{
+		return evictions.get();
+	}
+
+	/**
+	 *	Returns the memory currently occupied
+	 *	by the cached frames.
+	 *
+	 *	@return	the size in bytes
+	 */
+	public synchronized long getSize()
+	{
+		return numFloats << 2;
+	}
+
+	/**
+	 *	Clears the hit, miss, read-ahead and eviction counts.
+	 */
+	public void resetStatistics()
+	{
+		hits.set( 0 );
+		misses.set( 0 );
+		readAheads.set( 0 );
+		evictions.set( 0 );
+	}
+
+	private FileEntry getEntry( InterleavedStreamFile f )
+	{
+		FileEntry e = (FileEntry) entries.get( f );
+		if( e == null ) {
+			synchronized( this ) {
+				e = (FileEntry) entries.get( f );
+				if( e == null ) {
+					e = new FileEntry( f );
+					entries.put( f, e );
+				}
+			}
+		}
+		return e;
+	}
+
+	private Block load( FileEntry e, int idx, long numFrames )
+	throws IOException
+	{
+		final long		start		= (long) idx << BLOCK_SHIFT;
+		final int		frames		= (int) Math.min( BLOCK_FRAMES, numFrames - start );
+		final float[][]	buf			= new float[ e.f.getChannelNum() ][ frames ];
+		final int		modCount;
+		final Block		b;
+
+		synchronized( this ) {
+			modCount = e.modCount;
+		}
+		readFile( e.f, start, buf, 0, frames );
+		b = new Block( e, idx, buf, frames );
+		synchronized( this ) {
+			// don't insert if the file was written to or removed meanwhile
+			if( (e.modCount == modCount) && (entries.get( e.f ) == e) ) {
+				remove( e.get( idx ));
+				insert( b );
+			}
+		}
+		return b;
+	}
+
+	private void scheduleReadAhead( final FileEntry e, final int firstIdx, int stopIdx, final long numFrames )
+	{
+		final int stop = (int) Math.min( stopIdx, (numFrames + BLOCK_FRAMES - 1) >> BLOCK_SHIFT );
+		if( firstIdx >= stop ) return;
+
+		e.aheadIdx = stop;
+		readAheadPool.execute( new Runnable() {
+			public void run()
+			{
+				try {
+					for( int idx = firstIdx; idx < stop; idx++ ) {
+						if( e.get( idx ) == null ) {
+							load( e, idx, numFrames );
+							readAheads.incrementAndGet();
+						}
+					}
+				}
+				catch( IOException e1 ) { /* ignored, the next regular read reports it */ }
+				catch( RuntimeException e1 ) { /* e.g. file was closed meanwhile */ }
+			}
+		});
+	}
+
+	// sync: caller must have sync on this
+	private void insert( Block b )
+	{
+		b.entry.set( b.idx, b );
+		b.slot		= clock.size();
+		clock.add( b );
+		numFloats  += b.numFloats;
+
+		Block victim;
+		while( (numFloats > CAPACITY) && (clock.size() > 1) ) {
+			if( hand >= clock.size() ) hand = 0;
+			victim = (Block) clock.get( hand );
+			if( victim.referenced ) {
+				victim.referenced = false;	// second chance
+				hand++;
+			} else {
+				remove( victim );
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	// sync: caller must have sync on this
+	private void remove( Block b )
+	{
+		if( b == null ) return;
+	
+		final int	lastSlot	= clock.size() - 1;
+		final Block	last		= (Block) clock.remove( lastSlot );
+		if( last != b ) {
+			clock.set( b.slot, last );
+			last.slot = b.slot;
+		}
+		numFloats -= b.numFloats;
+		b.entry.set( b.idx, null );
+	}
+
+	private static void readFile( InterleavedStreamFile f, long frame, float[][] data, int offset, int length )
+	throws IOException
+	{
+		if( f instanceof AudioFile ) {
+			((AudioFile) f).readFrames( frame, data, offset, length );	// does its own sync unless mapped
+		} else {
+			synchronized( f ) {
+				if( f.getFramePosition() != frame ) {
+					f.seekFrame( frame );
+				}
+				f.readFrames( data, offset, length );
+			}
+		}
+	}
+
+// ---------------- internal classes ---------------- 
+
+	private static class FileEntry
+	{
+		protected final InterleavedStreamFile	f;
+		// readers access the array without sync, the blocks
+		// are immutable apart from the referenced flag
+		protected volatile Block[]				blocks		= new Block[ 16 ];
+		protected int							modCount	= 0;	// sync: FrameCache
+		protected volatile int					lastIdx		= -2;	// block where the last read ended
+		protected volatile int					aheadIdx	= 0;	// blocks before this were scheduled for read-ahead
+
+		protected FileEntry( InterleavedStreamFile f )
+		{
+			this.f = f;
+		}
+
+		protected Block get( int idx )
+		{
+			final Block[] b = blocks;
+			return idx < b.length ? b[ idx ] : null;
+		}
+
+		// sync: caller must have sync on FrameCache
+		protected void set( int idx, Block b )
+		{
+			Block[] a = blocks;
+			if( idx >= a.length ) {
+				if( b == null ) return;
+				final Block[] a2 = new Block[ Math.max( idx + 1, a.length << 1 )];
+				System.arraycopy( a, 0, a2, 0, a.length );
+				a = a2;
+			}
+			a[ idx ]	= b;
+			blocks		= a;	// volatile write publishes the element
+		}
+	}
+
+	private static class Block
+	{
+		protected final FileEntry	entry;
+		protected final int			idx;
+		protected final float[][]	data;
+		protected final int			frames;
+		protected final int			numFloats;
+		protected boolean			referenced	= true;	// races are harmless
+		protected int				slot;				// index in the clock list, sync: FrameCache
+
+		protected Block( FileEntry entry, int idx, float[][] data, int frames )
+		{
+			this.entry		= entry;
+			this.idx		= idx;
+			this.data		= data;
+			this.frames		= frames;
+			numFloats		= data.length * frames;
+		}
+	}
+}
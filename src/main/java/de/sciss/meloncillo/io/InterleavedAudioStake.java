@@ -26,6 +26,8 @@
  *  Changelog:
  *		22-Dec-05	created
  *		30-Jun-08	copied from EisK
+ *		17-Oct-26	reads through the FrameCache
+ *		17-Oct-26	drops the file from the FrameCache when closing it
  */
 
 package de.sciss.meloncillo.io;
@@ -44,6 +46,8 @@ import de.sciss.timebased.Stake;
 public class InterleavedAudioStake
 extends AudioStake
 {
+	private static final FrameCache		cache	= FrameCache.getInstance();
+
 	private final InterleavedStreamFile f;
 	private final Span					fileSpan;
 	private final Span					maxFileSpan;
@@ -68,6 +72,7 @@ extends AudioStake
 	public void close()
 	throws IOException
 	{
+		cache.removeAll( f );
 		f.close();
 	}
 	
@@ -116,20 +121,21 @@ extends AudioStake
 	public int readFrames( float[][] data, int dataOffset, Span readSpan )
 	throws IOException
 	{
-		final int	len				= (int) readSpan.getLength();
+		return readFrames( data, dataOffset, readSpan.start, readSpan.stop );
+	}
+
+	public int readFrames( float[][] data, int dataOffset, long readStart, long readStop )
+	throws IOException
+	{
+		final int	len				= (int) (readStop - readStart);
 		if( len == 0 ) return 0;
-		final long	fOffset			= fileSpan.start + readSpan.start - span.start;
+		final long	fOffset			= fileSpan.start + readStart - span.start;
 
 		if( (fOffset < fileSpan.start) || ((fOffset + len) > fileSpan.stop) ) {
 			throw new IllegalArgumentException( fOffset + " ... " + (fOffset + len) + " not within " + fileSpan.toString() );
 		}
 
-		synchronized( f ) {
-			if( f.getFramePosition() != fOffset ) {
-				f.seekFrame( fOffset );
-			}
-			f.readFrames( data, dataOffset, len );
-		}		
+		cache.readFrames( f, fOffset, data, dataOffset, len );
 		return len;
 	}
 
@@ -150,6 +156,7 @@ extends AudioStake
 			}
 			f.writeFrames( data, dataOffset, len );
 		}
+		cache.invalidate( f, fOffset, len );
 		return len;
 	}
 
@@ -26,6 +26,8 @@
  *  Changelog:
  *		14-Jan-06	created
  *		01-Jul-08	copied from EisK
+ *		17-Oct-26	reads through the FrameCache
+ *		17-Oct-26	drops the files from the FrameCache when closing them
  */
 
 package de.sciss.meloncillo.io;
@@ -54,6 +56,7 @@ extends AudioStake
 	private final String[]					fileNames;
 
 	private final static int				BUFSIZE	= 8192;
+	private static final FrameCache			cache	= FrameCache.getInstance();
 
 	public MultiMappedAudioStake( Span span, InterleavedStreamFile[] fs, Span[] fileSpans )
 	{
@@ -89,12 +92,16 @@ extends AudioStake
 	public void close()
 	throws IOException
 	{
-		for( int i = 0; i < fs.length; i++ ) fs[ i ].close();
+		for( int i = 0; i < fs.length; i++ ) {
+			cache.removeAll( fs[ i ]);
+			fs[ i ].close();
+		}
 	}
 
 	public void cleanUp()
 	{
 		for( int i = 0; i < fs.length; i++ ) {
+			cache.removeAll( fs[ i ]);
 			try { fs[ i ].close(); } catch( IOException e1 ) { /* ignore */ }
 		}
 	}
@@ -198,15 +205,10 @@ extends AudioStake
 					throw new IllegalArgumentException( fOffset + " ... " + (fOffset + len) + " not within " + fileSpans[ i ].toString() );
 				}
 
-				synchronized( f ) {
-					if( f.getFramePosition() != fOffset ) {
-						f.seekFrame( fOffset );
-					}
-					for( int k = 0; k < channelMap.length; k++, j++ ) {
-						mappedData[ channelMap[ k ]] = data[ j ];
-					}
-					f.readFrames( mappedData, offset, len );
+				for( int k = 0; k < channelMap.length; k++, j++ ) {
+					mappedData[ channelMap[ k ]] = data[ j ];
 				}
+				cache.readFrames( f, fOffset, mappedData, offset, len );
 			}
 			clearMappedData();	// avoid memory footprint
 		}
@@ -244,6 +246,7 @@ extends AudioStake
 					}
 					f.writeFrames( mappedData, offset, len );
 				}
+				cache.invalidate( f, fOffset, len );
 			}
 			clearMappedData();	// avoid memory footprint
 		}
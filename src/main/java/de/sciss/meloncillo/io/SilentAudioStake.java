@@ -93,7 +93,13 @@ extends AudioStake
 	public int readFrames( float[][] data, int dataOffset, Span readSpan )
 	throws IOException
 	{
-		final int	len		= (int) readSpan.getLength();
+		return readFrames( data, dataOffset, readSpan.start, readSpan.stop );
+	}
+
+	public int readFrames( float[][] data, int dataOffset, long readStart, long readStop )
+	throws IOException
+	{
+		final int	len		= (int) (readStop - readStart);
 		final int	stop	= dataOffset + len;
 		float[]		temp;
 		
@@ -0,0 +1,137 @@
+/*
+ *  StakeIndex.java
+ *  Meloncillo
+ *
+ *  Copyright (c) 2004-2008 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This software is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU General Public License
+ *	as published by the Free Software Foundation; either
+ *	version 2, june 1991 of the License, or (at your option) any later version.
+ *
+ *	This software is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *	General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public
+ *	License (gpl.txt) along with this software; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.meloncillo.io;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ *	An immutable snapshot of the stakes of an
+ *	<code>AudioTrail</code>, sorted by start position.
+ *	The stake spans are held in primitive arrays,
+ *	so looking up and reading a span requires
+ *	neither boxing nor locking nor any other allocation.
+ *	The trail publishes a new snapshot whenever its
+ *	stake list changes, readers simply keep using the
+ *	snapshot they obtained.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.75, 17-Oct-26
+ *
+ *	@see	AudioTrail#readFrames( float[][], int, de.sciss.io.Span )
+ */
+final class StakeIndex
+{
+	static final StakeIndex		EMPTY	= new StakeIndex();
+
+	private final AudioStake[]	stakes;
+	private final long[]		starts;
+	private final long[]		stops;
+
+	private StakeIndex()
+	{
+		stakes	= new AudioStake[ 0 ];
+		starts	= new long[ 0 ];
+		stops	= new long[ 0 ];
+	}
+
+	/**
+	 *	@param	stakesByStart	list of <code>AudioStake</code>s
+	 *							sorted by start position. the list is
+	 *							copied, hence may be modified afterwards
+	 */
+	StakeIndex( List stakesByStart )
+	{
+		final int num = stakesByStart.size();
+		AudioStake stake;
+		
+		stakes	= new AudioStake[ num ];
+		starts	= new long[ num ];
+		stops	= new long[ num ];
+		for( int i = 0; i < num; i++ ) {
+			stake		= (AudioStake) stakesByStart.get( i );
+			stakes[ i ]	= stake;
+			starts[ i ]	= stake.getSpan().start;
+			stops[ i ]	= stake.getSpan().stop;
+		}
+	}
+
+	/*
+	 *	Index of the last stake starting at or
+	 *	before pos, or zero if there is none
+	 */
+	private int indexOf( long pos )
+	{
+		int low		= 0;
+		int high	= starts.length - 1;
+		int mid;
+
+		while( low <= high ) {
+			mid = (low + high) >>> 1;
+			if( starts[ mid ] < pos ) {
+				low = mid + 1;
+			} else if( starts[ mid ] > pos ) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return Math.max( 0, low - 1 );
+	}
+
+	/**
+	 *	Reads frames from the stakes of this snapshot.
+	 *	Parts not covered by stakes are zeroed.
+	 *
+	 *	@param	data		target buffer, may contain <code>null</code> channels
+	 *	@param	dataOffset	offset in the target buffer
+	 *	@param	readStart	first frame to read (inclusive)
+	 *	@param	readStop	last frame to read (exclusive)
+	 */
+	void readFrames( float[][] data, int dataOffset, long readStart, long readStop )
+	throws IOException
+	{
+		final int	num			= stakes.length;
+		final int	dataStop	= (int) (readStop - readStart) + dataOffset;
+		int			idx			= indexOf( readStart );
+
+		while( (dataOffset < dataStop) && (idx < num) ) {
+			dataOffset += stakes[ idx ].readFrames( data, dataOffset, Math.max( starts[ idx ], readStart ),
+													Math.min( stops[ idx ], readStop ));
+			idx++;
+		}
+		if( dataOffset < dataStop ) {
+System.err.println( "WARNING: trying to read beyond the trail's stop" );
+			for( int ch = 0; ch < data.length; ch++ ) {
+				if( data[ ch ] != null ) {
+					for( int i = dataOffset; i < dataStop; i++ ) {
+						data[ ch ][ i ] = 0f;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,474 @@
+/*
+ *  TrajectoryFile.java
+ *  Meloncillo
+ *
+ *  Copyright (c) 2004-2008 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This software is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU General Public License
+ *	as published by the Free Software Foundation; either
+ *	version 2, june 1991 of the License, or (at your option) any later version.
+ *
+ *	This software is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *	General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public
+ *	License (gpl.txt) along with this software; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.meloncillo.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import de.sciss.io.IOUtil;
+import de.sciss.io.InterleavedStreamFile;
+
+/**
+ *	A compact, lossless file format for trajectories.
+ *	Trajectories usually move slowly or rest, so storing
+ *	them as plain 32 bit float sound files is very redundant.
+ *	Here, the frames are grouped into blocks of 4096 frames.
+ *	Within a block, each channel's samples are predicted linearly
+ *	from the two preceding samples (working on the raw
+ *	bit patterns, so the floats are restored exactly), and the
+ *	residuals are stored as variable length integers, with runs
+ *	of perfect predictions collapsed into a single count.
+ *	An index of block offsets at the end of the file makes
+ *	every block directly seekable.
+ *	<p>
+ *	Files are written strictly sequentially and become
+ *	readable once they are closed. Like <code>AudioFile</code>,
+ *	an instance is not thread safe; concurrent readers
+ *	must synchronize on it (as <code>InterleavedAudioStake</code> does).
+ *	The most recently decoded block is kept, so sequential
+ *	reads decode each block only once.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.75, 17-Oct-26
+ *
+ *	@see	AudioTrail#newFrom( InterleavedStreamFile, double )
+ */
+public class TrajectoryFile
+implements InterleavedStreamFile
+{
+	private static final int	MAGIC			= 0x4D544A31;	// 'MTJ1'
+	private static final int	HEADER_SIZE		= 32;
+	private static final int	BLOCK_SHIFT		= 12;
+	private static final int	BLOCK_FRAMES	= 1 << BLOCK_SHIFT;
+	private static final int	BLOCK_MASK		= BLOCK_FRAMES - 1;
+	private static final int	MAX_TOKEN_SIZE	= 5;			// 33 bit tokens
+
+	private final File				f;
+	private final RandomAccessFile	raf;
+	private final boolean			writeMode;
+	private final int				numChannels;
+	private final double			rate;
+
+	private long					numFrames;
+	private long					framePosition	= 0;
+	// byte offsets of the blocks, plus one trailing entry for the end of the last block
+	private long[]					blockOffsets;
+	private int						numBlocks;
+
+	private final float[][]			blockBuf;		// decoded block (read mode) resp. pending block (write mode)
+	private int						blockIdx		= -1;
+	private byte[]					byteBuf;
+
+	private TrajectoryFile( File f, RandomAccessFile raf, boolean writeMode, int numChannels, double rate )
+	{
+		this.f				= f;
+		this.raf			= raf;
+		this.writeMode		= writeMode;
+		this.numChannels	= numChannels;
+		this.rate			= rate;
+		blockBuf			= new float[ numChannels ][ BLOCK_FRAMES ];
+		byteBuf				= new byte[ writeMode ? numChannels * BLOCK_FRAMES * MAX_TOKEN_SIZE : 256 ];
+	}
+
+	/**
+	 *	Opens a trajectory file for reading.
+	 *
+	 *	@param	f	the path name of the file
+	 *	@return	the opened file, positioned at the first frame
+	 *
+	 *	@throws	IOException	if the file could not be read or is
+	 *						not a trajectory file
+	 */
+	public static TrajectoryFile openAsRead( File f )
+	throws IOException
+	{
+		final RandomAccessFile	raf		= new RandomAccessFile( f, "r" );
+		final TrajectoryFile	tf;
+		final long				indexOffset;
+		
+		try {
+			if( (raf.length() < HEADER_SIZE) || (raf.readInt() != MAGIC) ) {
+				throw new IOException( f.getName() + " : " + IOUtil.getResourceString( "errAudioFileType" ));
+			}
+			tf				= new TrajectoryFile( f, raf, false, raf.readInt(), raf.readDouble() );
+			tf.numFrames	= raf.readLong();
+			indexOffset		= raf.readLong();
+			tf.numBlocks	= (int) ((tf.numFrames + BLOCK_MASK) >> BLOCK_SHIFT);
+			tf.blockOffsets	= new long[ tf.numBlocks + 1 ];
+			if( (indexOffset < HEADER_SIZE) || (indexOffset + (tf.numBlocks + 1) * 8L > raf.length()) ) {
+				throw new IOException( f.getName() + " : " + IOUtil.getResourceString( "errAudioFileIncomplete" ));
+			}
+			raf.seek( indexOffset );
+			for( int i = 0; i <= tf.numBlocks; i++ ) {
+				tf.blockOffsets[ i ] = raf.readLong();
+			}
+			return tf;
+		}
+		catch( IOException e1 ) {
+			raf.close();
+			throw e1;
+		}
+	}
+
+	/**
+	 *	Creates a new trajectory file for writing. An existing
+	 *	file of the same name is replaced.
+	 *
+	 *	@param	f			the path name of the file
+	 *	@param	numChannels	the number of channels
+	 *	@param	rate		the sense rate in frames per second
+	 *	@return	the opened file, to which frames can be appended
+	 *
+	 *	@throws	IOException	if the file could not be created
+	 */
+	public static TrajectoryFile openAsWrite( File f, int numChannels, double rate )
+	throws IOException
+	{
+		if( f.exists() ) f.delete();
+		final TrajectoryFile tf = new TrajectoryFile( f, new RandomAccessFile( f, "rw" ), true, numChannels, rate );
+		tf.blockOffsets		= new long[ 16 ];
+		tf.blockOffsets[ 0 ]= HEADER_SIZE;
+		tf.writeHeader( 0L );
+		return tf;
+	}
+
+	/**
+	 *	Queries whether a file is a trajectory file,
+	 *	judging by its header.
+	 *
+	 *	@param	f	the file to check
+	 *	@return	<code>true</code> if the file can be opened
+	 *			using <code>openAsRead</code>
+	 *
+	 *	@throws	IOException	if the file could not be read
+	 */
+	public static boolean isTrajectoryFile( File f )
+	throws IOException
+	{
+		final RandomAccessFile raf = new RandomAccessFile( f, "r" );
+		try {
+			return( (raf.length() >= HEADER_SIZE) && (raf.readInt() == MAGIC) );
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private void writeHeader( long indexOffset )
+	throws IOException
+	{
+		raf.seek( 0L );
+		raf.writeInt( MAGIC );
+		raf.writeInt( numChannels );
+		raf.writeDouble( rate );
+		raf.writeLong( numFrames );
+		raf.writeLong( indexOffset );
+	}
+
+	/**
+	 *	Returns the sense rate of the trajectory.
+	 *
+	 *	@return	the rate in frames per second
+	 */
+	public double getRate()
+	{
+		return rate;
+	}
+
+// ---------------- InterleavedStreamFile interface ---------------- 
+
+	/**
+	 *	Closes the file. In write mode, the
+	 *	pending frames and the block index are written
+	 *	first, so the file becomes readable.
+	 */
+	public void close()
+	throws IOException
+	{
+		try {
+			if( writeMode ) {
+				final int pending = (int) (numFrames & BLOCK_MASK);
+				if( pending > 0 ) writeBlock( pending );
+				final long indexOffset = blockOffsets[ numBlocks ];
+				raf.seek( indexOffset );
+				for( int i = 0; i <= numBlocks; i++ ) {
+					raf.writeLong( blockOffsets[ i ]);
+				}
+				raf.setLength( raf.getFilePointer() );
+				writeHeader( indexOffset );
+			}
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 *	Does nothing, since frames can only be
+	 *	appended, so there is never anything beyond
+	 *	the current position.
+	 */
+	public void truncate()
+	throws IOException
+	{
+		if( framePosition != numFrames ) throw new IOException( "Truncation not supported" );
+	}
+
+	public void readFrames( float[][] data, int offset, int length )
+	throws IOException
+	{
+		if( writeMode ) throw new IOException( "File opened for writing" );
+		if( framePosition + length > numFrames ) {
+			throw new EOFException( framePosition + " ... " + (framePosition + length) + " not within 0 ... " + numFrames );
+		}
+
+		int blockOff, chunkLength;
+		float[] b;
+
+		while( length > 0 ) {
+			decodeBlock( (int) (framePosition >> BLOCK_SHIFT) );
+			blockOff	= (int) (framePosition & BLOCK_MASK);
+			chunkLength	= Math.min( length, BLOCK_FRAMES - blockOff );
+			for( int ch = 0; ch < numChannels; ch++ ) {
+				b = data[ ch ];
+				if( b != null ) System.arraycopy( blockBuf[ ch ], blockOff, b, offset, chunkLength );
+			}
+			framePosition  += chunkLength;
+			offset		   += chunkLength;
+			length		   -= chunkLength;
+		}
+	}
+
+	/**
+	 *	Appends frames to the file. The file position
+	 *	must be at the end of the file.
+	 */
+	public void writeFrames( float[][] data, int offset, int length )
+	throws IOException
+	{
+		if( !writeMode ) throw new IOException( "File opened for reading" );
+
+		int blockOff, chunkLength;
+
+		while( length > 0 ) {
+			blockOff	= (int) (framePosition & BLOCK_MASK);
+			chunkLength	= Math.min( length, BLOCK_FRAMES - blockOff );
+			for( int ch = 0; ch < numChannels; ch++ ) {
+				System.arraycopy( data[ ch ], offset, blockBuf[ ch ], blockOff, chunkLength );
+			}
+			framePosition  += chunkLength;
+			numFrames		= framePosition;
+			offset		   += chunkLength;
+			length		   -= chunkLength;
+			if( (framePosition & BLOCK_MASK) == 0 ) writeBlock( BLOCK_FRAMES );
+		}
+	}
+
+	public void copyFrames( InterleavedStreamFile target, long length )
+	throws IOException
+	{
+		final float[][]	tempBuf	= new float[ numChannels ][ (int) Math.min( length, BLOCK_FRAMES )];
+		int				chunkLength;
+
+		while( length > 0 ) {
+			chunkLength	= (int) Math.min( length, tempBuf[ 0 ].length );
+			readFrames( tempBuf, 0, chunkLength );
+			target.writeFrames( tempBuf, 0, chunkLength );
+			length	   -= chunkLength;
+		}
+	}
+
+	/**
+	 *	Moves the file position. In write mode,
+	 *	the only valid position is the end of the file.
+	 */
+	public void seekFrame( long position )
+	throws IOException
+	{
+		if( (position < 0) || (position > numFrames) || (writeMode && (position != numFrames)) ) {
+			throw new IOException( "Illegal seek position " + position );
+		}
+		framePosition = position;
+	}
+
+	public long getFrameNum()
+	{
+		return numFrames;
+	}
+
+	/**
+	 *	Only supported as long as the number
+	 *	of frames doesn't change.
+	 */
+	public void setFrameNum( long n )
+	throws IOException
+	{
+		if( n != numFrames ) throw new IOException( "Changing the length not supported" );
+	}
+
+	public int getChannelNum()
+	{
+		return numChannels;
+	}
+
+	public long getFramePosition()
+	{
+		return framePosition;
+	}
+
+	/**
+	 *	Does nothing. Frames written so far
+	 *	only become readable when the file is closed.
+	 */
+	public void flush()
+	{
+		/* empty */
+	}
+
+	public File getFile()
+	{
+		return f;
+	}
+
+// ---------------- coding ---------------- 
+
+	// residual tokens: literal residuals are zigzag encoded and
+	// shifted left by one, runs of zero residuals are stored
+	// as (count << 1) | 1
+	private void writeBlock( int frames )
+	throws IOException
+	{
+		final byte[]	b	= byteBuf;
+		int				pos	= 0;
+		int				run, prev, prev2, bits, resid;
+		float[]			x;
+
+		for( int ch = 0; ch < numChannels; ch++ ) {
+			x		= blockBuf[ ch ];
+			run		= 0;
+			prev	= 0;
+			prev2	= 0;
+			for( int i = 0; i < frames; i++ ) {
+				bits	= Float.floatToRawIntBits( x[ i ]);
+				resid	= bits - (i < 2 ? prev : (prev << 1) - prev2);
+				if( resid == 0 ) {
+					run++;
+				} else {
+					if( run > 0 ) {
+						pos	= putToken( b, pos, ((long) run << 1) | 1 );
+						run	= 0;
+					}
+					pos = putToken( b, pos, (((resid << 1) ^ (resid >> 31)) & 0xFFFFFFFFL) << 1 );
+				}
+				prev2	= prev;
+				prev	= bits;
+			}
+			if( run > 0 ) pos = putToken( b, pos, ((long) run << 1) | 1 );
+		}
+
+		raf.seek( blockOffsets[ numBlocks ]);
+		raf.write( b, 0, pos );
+		numBlocks++;
+		if( numBlocks == blockOffsets.length ) {
+			final long[] newOffsets = new long[ numBlocks << 1 ];
+			System.arraycopy( blockOffsets, 0, newOffsets, 0, numBlocks );
+			blockOffsets = newOffsets;
+		}
+		blockOffsets[ numBlocks ] = blockOffsets[ numBlocks - 1 ] + pos;
+	}
+
+	private static int putToken( byte[] b, int pos, long token )
+	{
+		while( token >= 0x80 ) {
+			b[ pos++ ]	= (byte) (token | 0x80);
+			token	  >>>= 7;
+		}
+		b[ pos++ ] = (byte) token;
+		return pos;
+	}
+
+	private void decodeBlock( int idx )
+	throws IOException
+	{
+		if( idx == blockIdx ) return;
+
+		final int	frames	= (int) Math.min( BLOCK_FRAMES, numFrames - ((long) idx << BLOCK_SHIFT) );
+		final int	numBytes= (int) (blockOffsets[ idx + 1 ] - blockOffsets[ idx ]);
+		final byte[] b;
+		int			pos		= 0;
+		int			prev, prev2, bits, run, shift, i;
+		long		token;
+		float[]		x;
+		
+		blockIdx = -1;	// invalid until decoded completely
+		if( byteBuf.length < numBytes ) byteBuf = new byte[ numBytes ];
+		b = byteBuf;
+		raf.seek( blockOffsets[ idx ]);
+		raf.readFully( b, 0, numBytes );
+
+		try {
+			for( int ch = 0; ch < numChannels; ch++ ) {
+				x		= blockBuf[ ch ];
+				prev	= 0;
+				prev2	= 0;
+				for( i = 0; i < frames; ) {
+					token	= 0;
+					shift	= 0;
+					do {
+						token  |= (long) (b[ pos ] & 0x7F) << shift;
+						shift  += 7;
+					} while( b[ pos++ ] < 0 );
+					
+					if( (token & 1) == 0 ) {
+						token >>>= 1;
+						bits	= (i < 2 ? prev : (prev << 1) - prev2) +
+								  ((int) (token >>> 1) ^ -((int) token & 1));
+						x[ i++ ]= Float.intBitsToFloat( bits );
+						prev2	= prev;
+						prev	= bits;
+					} else {
+						for( run = (int) (token >>> 1); run > 0; run-- ) {
+							bits	= i < 2 ? prev : (prev << 1) - prev2;
+							x[ i++ ]= Float.intBitsToFloat( bits );
+							prev2	= prev;
+							prev	= bits;
+						}
+					}
+				}
+			}
+		}
+		catch( ArrayIndexOutOfBoundsException e1 ) {
+			throw new IOException( f.getName() + " : " + IOUtil.getResourceString( "errAudioFileIncomplete" ));
+		}
+		if( pos != numBytes ) {
+			throw new IOException( f.getName() + " : " + IOUtil.getResourceString( "errAudioFileIncomplete" ));
+		}
+		blockIdx = idx;
+	}
+}
@@ -26,6 +26,8 @@
  *  Changelog:
  *		03-Aug-04   commented
  *		15-Jan-05	added options map
+ *		17-Oct-26	added KEY_DEFERRED
+ *		17-Oct-26	KEY_DEFERRED applies to toXML as well ; added KEY_BACKUPPATH
  */
 
 package de.sciss.meloncillo.io;
@@ -61,6 +63,33 @@ public interface XMLRepresentation
 	 */
 	public static final String KEY_WARNING = "warn";
 
+	/**
+	 *	This key may be present in the options map passed
+	 *	to <code>fromXML</code> or <code>toXML</code>. Its value
+	 *	is a <code>List</code> to which the implementing class may add
+	 *	<code>java.util.concurrent.Callable</code>s for
+	 *	costly work which doesn't touch the XML document,
+	 *	such as reading or writing data files. The invoking
+	 *	method runs these jobs concurrently in other threads
+	 *	and waits for their completion before the objects are
+	 *	used. Exceptions thrown by a job are passed on as if
+	 *	thrown by <code>fromXML</code> resp. <code>toXML</code>.
+	 *	When the key is absent, all work must be done inside
+	 *	the method itself.
+	 */
+	public static final String KEY_DEFERRED = "deferred";
+
+	/**
+	 *	This key may be present in the options map passed
+	 *	to <code>toXML</code>, when the previous contents
+	 *	of the base directory were moved aside before saving.
+	 *	The value is of class <code>File</code> and denotes the
+	 *	directory where those contents can be found until
+	 *	saving has completed, so that unchanged data files
+	 *	may be taken from there instead of being rewritten.
+	 */
+	public static final String KEY_BACKUPPATH = "backup";
+
 	/**
 	 *  Requests the object to attach a XML
 	 *  representation of its serialized fields
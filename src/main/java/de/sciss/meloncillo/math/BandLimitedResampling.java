@@ -26,10 +26,15 @@
  *  Changelog:
  *		27-May-04	created
  *		04-Aug-04   commented
+ *		17-Oct-26	polyphase filter banks, cached per factor and quality;
+ *					multi channel resampling
  */
  
 package de.sciss.meloncillo.math;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  *  Bandlimited resampling using a
  *  windowed sinc as interpolation
@@ -42,9 +47,16 @@ package de.sciss.meloncillo.math;
  *  the sake of speed a rather large
  *  function table is used by not interpolated
  *  by itself as proposed in the original paper.
+ *  <p>
+ *  For each resampling factor the filter taps are
+ *  rearranged into a polyphase bank, i.e. for each
+ *  possible filter offset the coefficients which are
+ *  visited while calculating one target sample are
+ *  stored contiguously. The banks and the coefficient
+ *  tables are shared by all instances of the same quality.
  *
  *  @author		Hanns Holger Rutz
- *  @version	0.6, 04-Aug-04
+ *  @version	0.75, 17-Oct-26
  */
 public class BandLimitedResampling
 extends Resampling
@@ -52,7 +64,25 @@ extends Resampling
 	private final float[]	coeff;				// FIR Koeffizienten (rechte Haelfte eines gefensterten Sinc-Lowpasses)
 	private final int		numCoeff;			// Zahl der Koeffizient (=flt.length)
 	private final int		coeffPerCrossing;	// Zahl der Samples zwischen zwei Nulldurchgaengen
-	private double			gain;				// Gain to be applied during filtering
+	private final double	gain;				// Gain to be applied during filtering
+	private final int		quality;
+
+	private static final int	MAX_BANKS		= 16;
+
+	// coefficient tables and gains per quality
+	// sync: synchronized( BandLimitedResampling.class )
+	private static final float[][]	coeffCache	= new float[ 3 ][];
+	private static final double[]	gainCache	= new double[ 3 ];
+	// BankKey to PolyphaseBank, least recently used first
+	// sync: synchronized( bankCache )
+	private static final Map		bankCache	= new LinkedHashMap( MAX_BANKS, 0.75f, true ) {
+		protected boolean removeEldestEntry( Map.Entry eldest )
+		{
+			return size() > MAX_BANKS;
+		}
+	};
+
+	private PolyphaseBank	lastBank		= null;		// saves the map look-up for successive blocks
 
 	/**
 	 *  Creates a new <code>BandLimitedResampling</code>
@@ -75,8 +105,8 @@ extends Resampling
 	 */
 	public BandLimitedResampling( int quality )
 	{
-		int		i, numCrossings;
-		float	rollOff, kaiserBeta;
+		final int	numCrossings;
+		final float	rollOff, kaiserBeta;
 
 		// im Gegensatz zum Algorithmus von J.O.Smith
 		// verwenden wir keine lineare Interpolation zwischen benachbarten
@@ -94,6 +124,8 @@ extends Resampling
 		// Kaiser-Fenster-Parameter sind empirisch ermittelt, so dass
 		// insgesamt eine moeglichst optimale Uebertragungsfunktion
 		// gegen ist.
+		if( (quality < 0) || (quality > 2) ) quality = 2;
+		this.quality = quality;
 		switch( quality ) {
 		case 0:
 			rollOff			= 0.70f;
@@ -113,15 +145,22 @@ extends Resampling
 		}
 
 		numCoeff	= (int) ((float) (coeffPerCrossing * numCrossings) / rollOff + 0.5f);
-		coeff		= new float[ numCoeff ];
-		createLPF( coeff, rollOff / 2, numCoeff, kaiserBeta, coeffPerCrossing );
+		synchronized( BandLimitedResampling.class ) {
+			if( coeffCache[ quality ] == null ) {
+				final float[]	c	= new float[ numCoeff ];
+				double			g	= 0.0;
+				createLPF( c, rollOff / 2, numCoeff, kaiserBeta, coeffPerCrossing );
 
-		// account for the gain introduced by the filter
-		gain = 0.0;
-		for( i = coeffPerCrossing; i < numCoeff; i+= coeffPerCrossing ) {
-			gain += coeff[ i ];
+				// account for the gain introduced by the filter
+				for( int i = coeffPerCrossing; i < numCoeff; i+= coeffPerCrossing ) {
+					g += c[ i ];
+				}
+				coeffCache[ quality ]	= c;
+				gainCache[ quality ]	= 1.0 / Math.abs( 2 * g + c[0] );
+			}
+			coeff	= coeffCache[ quality ];
+			gain	= gainCache[ quality ];
 		}
-		gain = 1.0 / Math.abs( 2 * gain + coeff[0] );
 	}
 	
 	/**
@@ -178,56 +217,111 @@ extends Resampling
 	 */
 	public double resample( float src[], double srcOff, float dest[], int destOff, int length, double factor )
 	{
-		double	srcIncr				= 1.0 / factor;
-		int		i, fltOffI, srcOffI;
-		double	q, val, fltIncr, fltOff, rsmpGain;
-		double	phase				= srcOff;
+		final PolyphaseBank	bank	= getBank( factor );
+		final double		srcIncr	= 1.0 / factor;
+		final int			taps	= bank.taps;
+		final float[]		tbl		= bank.coeff;
+		int					i, k, n, tapOff, srcOffI;
+		double				q, val;
+		double				phase	= srcOff;
 
-//		int		srcLen				= src.length;
-		
-		if( srcIncr > 1.0 ) {
-			fltIncr		= (double) coeffPerCrossing * factor;
-			rsmpGain	= gain;							// XXX nachpruefen
-		} else {
-			fltIncr		= (double) coeffPerCrossing;	// effectively we realize a fractional sample delay
-//			rsmpGain	= gain * srcIncr;
-			rsmpGain	= gain;
-//System.err.println( "gain "+gain+"; srcIncr "+srcIncr+"; rsmpGain "+rsmpGain );
-		}
-		
 		for( i = 0; i < length; i++, phase = srcOff + i * srcIncr ) {
 
 			q		= phase % 1.0;
 			val		= 0.0;
 
 			srcOffI	= (int) phase;
-			fltOff	= q * fltIncr + 0.5f;	// wenn wir schon keine interpolation mehr benutzen...
-			fltOffI	= (int) fltOff;
-			while( fltOffI < numCoeff ) {
-//			while( fltOffI < fltLen && srcOffI >= 0 ) {
-				val	   += src[ srcOffI ] * coeff[ fltOffI ];
-				srcOffI--;
-				fltOff += fltIncr;
-				fltOffI	= (int) fltOff;
+			k		= (int) (q * bank.fltIncr + 0.5);
+			n		= bank.numTaps[ k ];
+			for( k *= taps, n += k; k < n; k++ ) {
+				val += src[ srcOffI-- ] * tbl[ k ];
 			}
 
 			srcOffI	= (int) phase + 1;
-			fltOff	= (1.0 - q) * fltIncr;
-			fltOffI	= (int) fltOff;
-			while( fltOffI < numCoeff ) {
-//			while( fltOffI < fltLen && srcOffI < srcLen ) {
-				val	   += src[ srcOffI ] * coeff[ fltOffI ];
-				srcOffI++;
-				fltOff += fltIncr;
-				fltOffI	= (int) fltOff;
+			k		= (int) ((1.0 - q) * bank.fltIncr);
+			n		= bank.numTaps[ k ];
+			for( k *= taps, n += k; k < n; k++ ) {
+				val += src[ srcOffI++ ] * tbl[ k ];
 			}
 
-			dest[ destOff++ ] = (float) (val * rsmpGain);
+			dest[ destOff++ ] = (float) (val * gain);
+		}
+		
+		return phase;
+	}
+
+	/**
+	 *	Resamples all channels in one pass, so the filter
+	 *	phases are calculated only once per target sample.
+	 */
+	public double resample( float[][] src, double srcOff, float[][] dest, int destOff, int length, double factor )
+	{
+		final PolyphaseBank	bank	= getBank( factor );
+		final double		srcIncr	= 1.0 / factor;
+		final int			taps	= bank.taps;
+		final float[]		tbl		= bank.coeff;
+		final int			numCh	= src.length;
+		int					i, ch, k, n, kl, nl, kr, nr, srcOffI;
+		double				q, val;
+		float[]				chSrc;
+		double				phase	= srcOff;
+
+		for( i = 0; i < length; i++, destOff++, phase = srcOff + i * srcIncr ) {
+
+			q		= phase % 1.0;
+			kl		= (int) (q * bank.fltIncr + 0.5);
+			nl		= bank.numTaps[ kl ];
+			kl	   *= taps;
+			nl	   += kl;
+			kr		= (int) ((1.0 - q) * bank.fltIncr);
+			nr		= bank.numTaps[ kr ];
+			kr	   *= taps;
+			nr	   += kr;
+
+			for( ch = 0; ch < numCh; ch++ ) {
+				chSrc	= src[ ch ];
+				val		= 0.0;
+				srcOffI	= (int) phase;
+				for( k = kl, n = nl; k < n; k++ ) {
+					val += chSrc[ srcOffI-- ] * tbl[ k ];
+				}
+				srcOffI	= (int) phase + 1;
+				for( k = kr, n = nr; k < n; k++ ) {
+					val += chSrc[ srcOffI++ ] * tbl[ k ];
+				}
+				dest[ ch ][ destOff ] = (float) (val * gain);
+			}
 		}
 		
 		return phase;
 	}
 
+	/*
+	 *	Returns the polyphase bank for the given
+	 *	factor, creating it if necessary. Up sampling
+	 *	factors all use the same bank, since the filter
+	 *	is not stretched in that case.
+	 */
+	private PolyphaseBank getBank( double factor )
+	{
+		final double	fltIncr	= factor < 1.0 ? (double) coeffPerCrossing * factor : (double) coeffPerCrossing;
+		final BankKey	key;
+		PolyphaseBank	bank	= lastBank;
+
+		if( (bank != null) && (bank.fltIncr == fltIncr) ) return bank;
+
+		key = new BankKey( quality, fltIncr );
+		synchronized( bankCache ) {
+			bank = (PolyphaseBank) bankCache.get( key );
+			if( bank == null ) {
+				bank = new PolyphaseBank( coeff, fltIncr );
+				bankCache.put( key, bank );
+			}
+		}
+		lastBank = bank;
+		return bank;
+	}
+
 	/*
 	 *	@param	impResp				Ziel-Array der Groesse 'halfWinSize' fuer Impulsantwort
 	 *	@param	freq				Grenzfrequenz
@@ -279,4 +373,71 @@ extends Resampling
 		
 		return sum;
 	}
-}
\ No newline at end of file
+
+	// ------------- internal classes -------------
+
+	/*
+	 *	The filter taps visited for each integer filter offset k,
+	 *	starting at coefficient k and fltIncr coefficients apart.
+	 *	Left and right wing only differ in their offsets, so they
+	 *	share the table. Each phase occupies <code>taps</code>
+	 *	entries of the flat table, of which the first numTaps[ k ]
+	 *	are used. For an integer fltIncr (up sampling) this
+	 *	reproduces exactly the taps of the direct table look-up.
+	 */
+	private static class PolyphaseBank
+	{
+		protected final double	fltIncr;
+		protected final int		taps;
+		protected final float[]	coeff;
+		protected final int[]	numTaps;
+
+		protected PolyphaseBank( float[] lpf, double fltIncr )
+		{
+			final int	numPhases	= (int) Math.ceil( fltIncr ) + 1;
+			double		fltOff;
+			int			fltOffI, n;
+
+			this.fltIncr	= fltIncr;
+			taps			= (int) Math.ceil( lpf.length / fltIncr ) + 1;
+			coeff			= new float[ numPhases * taps ];
+			numTaps			= new int[ numPhases ];
+
+			for( int k = 0, off = 0; k < numPhases; k++, off += taps ) {
+				fltOff	= k;
+				fltOffI	= k;
+				for( n = 0; fltOffI < lpf.length; n++ ) {
+					coeff[ off + n ]	= lpf[ fltOffI ];
+					fltOff			   += fltIncr;
+					fltOffI				= (int) fltOff;
+				}
+				numTaps[ k ] = n;
+			}
+		}
+	}
+
+	private static class BankKey
+	{
+		private final int		quality;
+		private final double	fltIncr;
+
+		protected BankKey( int quality, double fltIncr )
+		{
+			this.quality	= quality;
+			this.fltIncr	= fltIncr;
+		}
+
+		public boolean equals( Object o )
+		{
+			if( !(o instanceof BankKey) ) return false;
+			final BankKey k = (BankKey) o;
+			return( (k.quality == quality) && (k.fltIncr == fltIncr) );
+		}
+
+		public int hashCode()
+		{
+			final long bits = Double.doubleToLongBits( fltIncr );
+			return (int) (bits ^ (bits >>> 32)) * 3 + quality;
+		}
+	}
+}
@@ -87,4 +87,32 @@ public abstract class Resampling
 	 */
 	public abstract double resample( float src[], double srcOff, float dest[], int destOff,
 									 int length, double factor );
+
+	/**
+	 *	Resamples several channels of data with the same
+	 *	offset and factor. The default implementation calls
+	 *	<code>resample</code> for each channel, subclasses
+	 *	may override this to share per sample calculations.
+	 *
+	 *  @param  src			Original vectors at source rate, one per channel
+	 *	@param	srcOff		where to begin in each <code>src</code> vector
+	 *	@param	dest		target vectors, one per channel
+	 *	@param	destOff		where to begin in each <code>dest</code> vector
+	 *	@param	length		number of <strong>target</strong> samples to calculate
+	 *	@param	factor		target rate divided by source rate
+	 *  @return				the offset in src which would be the new offset
+	 *						of a successive block resampling operation
+	 *
+	 *	@see	#resample( float[], double, float[], int, int, double )
+	 */
+	public double resample( float[][] src, double srcOff, float[][] dest, int destOff,
+							int length, double factor )
+	{
+		double newOff = srcOff + length / factor;
+	
+		for( int ch = 0; ch < src.length; ch++ ) {
+			newOff = resample( src[ ch ], srcOff, dest[ ch ], destOff, length, factor );
+		}
+		return newOff;
+	}
 }
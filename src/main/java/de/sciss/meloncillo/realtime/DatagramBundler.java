@@ -0,0 +1,189 @@
+/*
+ *  DatagramBundler.java
+ *  Meloncillo
+ *
+ *  Copyright (c) 2004-2008 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This software is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU General Public License
+ *	as published by the Free Software Foundation; either
+ *	version 2, june 1991 of the License, or (at your option) any later version.
+ *
+ *	This software is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *	General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public
+ *	License (gpl.txt) along with this software; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.meloncillo.realtime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ *	Packs consecutive OSC messages addressed to the same
+ *	datagram channel into OSC bundles of a given maximum
+ *	size. The messages are not copied: the bundle header
+ *	and the element size fields live in one reusable direct
+ *	buffer, and each bundle is sent with a single gathering
+ *	write. With a maximum size of zero, each message is
+ *	written as a datagram of its own. Counts the number of
+ *	datagrams and bytes sent.
+ *	<p>
+ *	The messages passed to <code>add</code> must not be
+ *	modified until the next <code>flush</code>.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.75, 17-Oct-26
+ *
+ *	@synchronization	not thread safe, except for the counters
+ */
+class DatagramBundler
+{
+	// "#bundle\0" followed by the time tag 'immediately'
+	private static final byte[]		BUNDLE_HEAD	= {
+		0x23, 0x62, 0x75, 0x6E, 0x64, 0x6C, 0x65, 0x00, 0, 0, 0, 0, 0, 0, 0, 1 };
+
+	private final int				maxSize;
+	private ByteBuffer				head		= null;
+	private ByteBuffer[]			sizeFields	= new ByteBuffer[ 0 ];
+	// [ head, size0, msg0, size1, msg1, ... ]
+	private ByteBuffer[]			srcs		= new ByteBuffer[ 1 ];
+	private int						numMsgs		= 0;
+	private int						bundleSize	= BUNDLE_HEAD.length;
+	private DatagramChannel			dch			= null;
+
+	private volatile long			numPackets	= 0;
+	private volatile long			numBytes	= 0;
+
+	/**
+	 *	@param	maxSize	the maximum size of a bundle in bytes,
+	 *					or zero to send messages individually
+	 */
+	protected DatagramBundler( int maxSize )
+	{
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 *	Adds a message. Its remaining bytes are sent
+	 *	with the next bundle, unless the message is too
+	 *	large to be bundled, in which case the pending bundle
+	 *	and the message are sent immediately.
+	 */
+	protected void add( DatagramChannel ch, ByteBuffer msg )
+	throws IOException
+	{
+		final int msgSize = msg.remaining();
+	
+		if( (ch != dch) || (bundleSize + msgSize + 4 > maxSize) ) {
+			flush();
+			if( BUNDLE_HEAD.length + msgSize + 4 > maxSize ) {
+				written( ch.write( msg ));
+				return;
+			}
+			dch = ch;
+		}
+		if( numMsgs == sizeFields.length ) grow();
+		sizeFields[ numMsgs ].clear();
+		sizeFields[ numMsgs ].putInt( 0, msgSize );
+		srcs[ (numMsgs << 1) + 1 ]	= sizeFields[ numMsgs ];
+		srcs[ (numMsgs << 1) + 2 ]	= msg;
+		numMsgs++;
+		bundleSize += msgSize + 4;
+	}
+
+	/**
+	 *	Sends the pending messages and then the given
+	 *	message as a datagram of its own. This is used for
+	 *	messages which are modified again before the
+	 *	next flush.
+	 */
+	protected void send( DatagramChannel ch, ByteBuffer msg )
+	throws IOException
+	{
+		flush();
+		written( ch.write( msg ));
+	}
+
+	/**
+	 *	Sends the pending messages. A single pending
+	 *	message is sent without the bundle wrapper.
+	 */
+	protected void flush()
+	throws IOException
+	{
+		try {
+			if( numMsgs == 1 ) {
+				written( dch.write( srcs[ 2 ]));
+			} else if( numMsgs > 1 ) {
+				head.clear();
+				written( dch.write( srcs, 0, (numMsgs << 1) + 1 ));
+			}
+		}
+		finally {
+			for( int i = 1; i <= (numMsgs << 1); i++ ) srcs[ i ] = null;
+			numMsgs		= 0;
+			bundleSize	= BUNDLE_HEAD.length;
+			dch			= null;
+		}
+	}
+
+	/**
+	 *	Returns the number of datagrams sent so far.
+	 */
+	public long getNumPackets()
+	{
+		return numPackets;
+	}
+
+	/**
+	 *	Returns the number of bytes sent so far.
+	 */
+	public long getNumBytes()
+	{
+		return numBytes;
+	}
+
+	private void written( long n )
+	{
+		numPackets++;
+		numBytes += n;
+	}
+
+	// the size fields are slices of one direct buffer following the header
+	private void grow()
+	{
+		final int			newNum	= Math.max( 16, sizeFields.length << 1 );
+		final ByteBuffer	b		= ByteBuffer.allocateDirect( BUNDLE_HEAD.length + (newNum << 2) );
+		final ByteBuffer[]	newSrcs	= new ByteBuffer[ (newNum << 1) + 1 ];
+
+		System.arraycopy( srcs, 0, newSrcs, 0, srcs.length );
+		sizeFields = new ByteBuffer[ newNum ];
+		b.put( BUNDLE_HEAD );
+		for( int i = 0; i < newNum; i++ ) {
+			b.limit( b.position() + 4 );
+			sizeFields[ i ] = b.slice();
+			b.position( b.limit() );
+			b.limit( b.capacity() );
+		}
+		b.clear().limit( BUNDLE_HEAD.length );
+		head		= b.slice();
+		newSrcs[ 0 ]= head;
+		srcs		= newSrcs;
+		// entries already added refer to the old fields
+		for( int i = 0; i < numMsgs; i++ ) {
+			sizeFields[ i ].putInt( 0, srcs[ (i << 1) + 2 ].remaining() );
+			srcs[ (i << 1) + 1 ] = sizeFields[ i ];
+		}
+	}
+}
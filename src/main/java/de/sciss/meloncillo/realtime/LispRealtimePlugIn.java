@@ -28,6 +28,10 @@
  *		22-Aug-04	trajectory request implemented
  *		01-Sep-04	commented
  *		25-Apr-08	fixed to work with current NetUtil version
+ *		17-Oct-26	triggers are served by a dedicated thread instead of the event thread
+ *		17-Oct-26	optional OSC bundling of the stream messages
+ *		17-Oct-26	the trigger server reads a consistent source snapshot ;
+ *					missed triggers are shown in the realtime metrics palette
  */
 
 package de.sciss.meloncillo.realtime;
@@ -50,6 +54,7 @@ import de.sciss.app.BasicEvent;
 import de.sciss.app.EventManager;
 import de.sciss.io.IOUtil;
 import de.sciss.io.Span;
+import de.sciss.meloncillo.Main;
 import de.sciss.meloncillo.lisp.AdvancedJatha;
 import de.sciss.meloncillo.plugin.LispPlugIn;
 import de.sciss.meloncillo.plugin.PlugInContext;
@@ -102,6 +107,8 @@ implements RealtimePlugIn, RealtimeConsumer, TransportListener, OSCListener,
 	private RealtimeProducer		rt_producer = null;
 	private RealtimeConsumerRequest	rt_request	= null;
 	
+	private volatile TriggerServer	trigServer	= null;
+	
 	/**
 	 *	Empty constructor called 
 	 *	through Class.newInstance(). Basic
@@ -170,6 +177,7 @@ implements RealtimePlugIn, RealtimeConsumer, TransportListener, OSCListener,
 			
 			if( cmdStr.equals( "SEND" )) {
 				bt.cmd[ i ] = BT_SEND;
+				bt.numSends++;
 				id			= cmdList.second().toJava();
 				o			= jatha.getObject( id);
 				if( o == null ) {
@@ -223,14 +231,21 @@ implements RealtimePlugIn, RealtimeConsumer, TransportListener, OSCListener,
 		return bt;
 	}
 
-	private static void processBufferTemplate( BufferTemplate bt, float[] streamBuf, int bufOff, int bufLength )
+	// messages are handed to the bundler, hence the caller must flush it
+	// after the last template has been processed
+	private static void processBufferTemplate( BufferTemplate bt, float[] streamBuf, int bufOff, int bufLength,
+											   DatagramBundler bundler )
 	throws IOException
 	{
 		for( int i = 0; i < bt.numCmds; i++ ) {
 			switch( bt.cmd[ i ]) {
 			case BT_SEND:
 				bt.byteBuf.clear();
-				bt.dch.write( bt.byteBuf );
+				if( bt.numSends == 1 ) {
+					bundler.add( bt.dch, bt.byteBuf );
+				} else {	// buffer is modified again after this send
+					bundler.send( bt.dch, bt.byteBuf );
+				}
 				break;
 			case BT_STREAM:
 				bt.floatBuf.position( bt.offset[ i ] >> 2 );
@@ -333,6 +348,8 @@ implements RealtimePlugIn, RealtimeConsumer, TransportListener, OSCListener,
 				rt_info.streamBufCreation= new long[3];
 // BBB
 //				rt_info.bufSendThread   = new BufferSenderThread();
+				rt_info.bundler			= new DatagramBundler( AbstractApplication.getApplication().getUserPrefs().node(
+											PrefsUtil.NODE_PLUGINS ).getInt( PrefsUtil.KEY_RTOSCBUNDLESIZE, 0 ));
 				prefsHash.setf_gethash( jatha.makeString( "SENSERATE" ), jatha.makeReal( senseRate ));
 				prefsHash.setf_gethash( jatha.makeString( "SENSEBUFSIZE" ),
 										jatha.makeInteger( rt_info.streamSenseBufSize << 1 ));
@@ -427,6 +444,9 @@ implements RealtimePlugIn, RealtimeConsumer, TransportListener, OSCListener,
 					}
 				} // for collRequests.length
 
+				trigServer = new TriggerServer( rt_info );
+				trigServer.start();
+
 				wasRunning = transport.isRunning();
 				if( wasRunning ) {
 					transport.stop();
@@ -500,6 +520,10 @@ implements RealtimePlugIn, RealtimeConsumer, TransportListener, OSCListener,
 //					rt_info.bufSendThread.interrupt();
 					if( rt_info.syncOSC != null ) rt_info.syncOSC.removeOSCListener( this );
 					rt_info.syncOSC			= null;
+					if( trigServer != null ) {
+						trigServer.quit();		// waits for a trigger being served
+						trigServer			= null;
+					}
 					rt_info.streamSenseBuf  = null;
 					rt_info.streamTrajBuf   = null;
 					rt_info					= null;
@@ -527,10 +551,43 @@ implements RealtimePlugIn, RealtimeConsumer, TransportListener, OSCListener,
 	 *	depending on the third OSC command
 	 *	(trigger value). the requested frame offset
 	 *	is calculated as startFrame + triggerValue * senseBufSize/2
+	 *
+	 *	@synchronization	called in the OSC receiver thread ;
+	 *						the trigger is handed over to the
+	 *						trigger server thread, the event
+	 *						thread is not involved
 	 */
 	public void messageReceived( OSCMessage msg, SocketAddress sender, long time )
 	{
-		elm.dispatchEvent( new OSCEvent( sender, 0, time, msg ));
+		if( VERBOSEOSC ) System.err.println( "got OSC: " + msg.getName() );
+        if( !(msg.getName().equals( "/tr" ) && (msg.getArgCount() >= 3)) ) return;
+
+		final TriggerServer ts = trigServer;
+		if( ts != null ) ts.trigger( ((Number) msg.getArg( 2 )).intValue(), System.nanoTime() );
+	}
+
+	/**
+	 *	Returns the number of stream datagrams
+	 *	sent since the plug-in was enabled.
+	 *
+	 *	@return	the number of datagrams, or zero if the plug-in is disabled
+	 */
+	public long getNumPacketsSent()
+	{
+		final RealtimeInfo info = rt_info;
+		return( info == null || info.bundler == null ? 0 : info.bundler.getNumPackets() );
+	}
+
+	/**
+	 *	Returns the number of stream bytes
+	 *	sent since the plug-in was enabled.
+	 *
+	 *	@return	the number of bytes, or zero if the plug-in is disabled
+	 */
+	public long getNumBytesSent()
+	{
+		final RealtimeInfo info = rt_info;
+		return( info == null || info.bundler == null ? 0 : info.bundler.getNumBytes() );
 	}
 
 // ---------------- RealtimeConsumer interface ---------------- 
@@ -757,33 +814,57 @@ System.out.println( "lisp realtimeBlock : even = " + even + "; span = " + (even
 
 // -------- EventManager.Processor --------
 	
+	/**
+	 *	Reports triggers which were superseded
+	 *	before they could be served. They have been
+	 *	counted by the producer's metrics already ;
+	 *	the metrics palette, if open, highlights them.
+	 */
 	public void processEvent( BasicEvent e )
 	{
-		final OSCMessage msg = ((OSCEvent) e).msg;
-		if( VERBOSEOSC ) System.err.println( "got OSC: " + msg.getName() );
-        if( !(msg.getName().equals( "/tr" ) && (msg.getArgCount() >= 3)) ) return;
-		if( rt_info == null ) return;
+		final RealtimeMetricsPalette palette = (RealtimeMetricsPalette)
+			AbstractApplication.getApplication().getComponent( Main.COMP_RTMETRICS );
+			
+		if( palette != null ) palette.alertMissedTriggers();
+// EEE
+//		tp.blink();
+	}
 
-		final int		myTrigger	= ((Number) msg.getArg( 2 )).intValue();
-		final long		remoteFrame = rt_info.startFrame + myTrigger * rt_info.senseBufSizeH;
+	// called in the trigger server thread
+	private void serveTrigger( RealtimeInfo info, int myTrigger, long arrival )
+	{
+		final long		remoteFrame = info.startFrame + myTrigger * info.senseBufSizeH;
 		final boolean	even		= (myTrigger & 1) == 0;
 		
-		rt_info.trigToServe  = myTrigger;
+		info.trigToServe  = myTrigger;
 		if( VERBOSEOSC ) {
 			System.err.println( " tr: "+myTrigger+ " = "+remoteFrame );
 		}
 		
-		rt_producer.produceNow( new Span( remoteFrame, remoteFrame + rt_info.senseBufSizeH ), even );
+		// the returned source stays consistent even if
+		// the event thread changes the producer's context
+		final RealtimeProducer.Source	source	= rt_producer.produceNow(
+			new Span( remoteFrame, remoteFrame + info.senseBufSizeH ), even );
 //		rt_producer.produceNow( new Span( rt_pos + rt_producer.source.bufSizeH,
 //										  rt_pos + rt_producer.source.bufSize ),
 //									   (frameCount & rt_producer.source.bufSizeH) != 0 );
 
 		final long						frameStart;
 		final int						bufOff;
-		final RealtimeProducer.Source	source	= rt_producer.source;
+		final RealtimeMetrics			metrics	= rt_producer.getMetrics();
+		final long						copyStart	= System.nanoTime();
 //		final float[][]					convBuf1;
 		float[]							convBuf1, convBuf2, convBuf3;
 		
+		// after a context change the source may not match our
+		// request any more, until the plug-in has been re-enabled
+		if( (source.numTrns != info.numTrns) || (source.numRcv != info.numRcv) ||
+			(source.bufSizeH != info.senseBufSizeH) ) {
+			
+			metrics.addMissedTriggers( 1 );
+			return;
+		}
+		
 		if( even ) {
 			bufOff		= 0;
 			frameStart	= source.firstHalf.getStart();
@@ -792,75 +873,84 @@ System.out.println( "lisp realtimeBlock : even = " + even + "; span = " + (even
 			frameStart	= source.secondHalf.getStart();
 		}
 
-		for( int trnsIdx = 0; trnsIdx < rt_info.numTrns; trnsIdx++ ) {
-			if( rt_info.trajRequest[ trnsIdx ]) {
+		for( int trnsIdx = 0; trnsIdx < info.numTrns; trnsIdx++ ) {
+			if( info.trajRequest[ trnsIdx ]) {
 //				processBufferTemplate( myInfo.btTrajTargets[ trnsIdx ], source.trajBlockBuf[ trnsIdx ],
 //									   myInfo.streamBuf, bufOff, myInfo.frameStep, myInfo.streamSenseBufSize );
-				convBuf1 = rt_info.streamTrajBuf[ trnsIdx ][ rt_info.streamBufCopyIdx ];
+				convBuf1 = info.streamTrajBuf[ trnsIdx ][ info.streamBufCopyIdx ];
 				convBuf2 = source.trajBlockBuf[ trnsIdx ][0];
 				convBuf3 = source.trajBlockBuf[ trnsIdx ][1];
-				for( int i = 0, j = bufOff; i < rt_info.streamTrajBufSize; j += rt_info.frameStep ) {
+				for( int i = 0, j = bufOff; i < info.streamTrajBufSize; j += info.frameStep ) {
 					convBuf1[ i++ ] = convBuf2[ j ];	// x
 					convBuf1[ i++ ] = convBuf3[ j ];	// y
 				}
 			}
-			for( int rcvIdx = 0; rcvIdx < rt_info.numRcv; rcvIdx++ ) {
-				if( rt_info.senseRequest[ trnsIdx ][ rcvIdx ]) {
-					convBuf1 = rt_info.streamSenseBuf[ trnsIdx ][ rcvIdx ][ rt_info.streamBufCopyIdx ];
+			for( int rcvIdx = 0; rcvIdx < info.numRcv; rcvIdx++ ) {
+				if( info.senseRequest[ trnsIdx ][ rcvIdx ]) {
+					convBuf1 = info.streamSenseBuf[ trnsIdx ][ rcvIdx ][ info.streamBufCopyIdx ];
 					convBuf2 = source.senseBlockBuf[ trnsIdx ][ rcvIdx ];
-					for( int i = 0, j = bufOff; i < rt_info.streamSenseBufSize; i++, j += rt_info.frameStep ) {
+					for( int i = 0, j = bufOff; i < info.streamSenseBufSize; i++, j += info.frameStep ) {
 						convBuf1[ i ] = convBuf2[ j ];
 					}
 				}
 			}
 		}
 		
-		rt_info.streamBufStart[ rt_info.streamBufCopyIdx ] = frameStart;
-//		rt_info.streamBufCreation[ rt_info.streamBufCopyIdx ] = System.currentTimeMillis() - rt_info.startTime;
-//		rt_info.streamBufCopyIdx = (rt_info.streamBufCopyIdx + 1) % 3;
+		info.streamBufStart[ info.streamBufCopyIdx ] = frameStart;
+//		info.streamBufCreation[ info.streamBufCopyIdx ] = System.currentTimeMillis() - info.startTime;
+//		info.streamBufCopyIdx = (info.streamBufCopyIdx + 1) % 3;
 		
-		assert rt_info.streamBufStart[ 0 ] == remoteFrame : rt_info.streamBufStart[ 0 ];
+		assert info.streamBufStart[ 0 ] == remoteFrame : info.streamBufStart[ 0 ];
 		final int myBufToSend = 0;
 
-		rt_info.trigServed = myTrigger;
+		info.trigServed = myTrigger;
+		metrics.addConsumerBlock( System.nanoTime() - copyStart );
 
 		// ok go and process the buffer templates
 		try {
-			for( int trnsIdx = 0; trnsIdx < rt_info.numTrns; trnsIdx++ ) {
-				if( rt_info.trajRequest[ trnsIdx ]) {
-					processBufferTemplate( rt_info.btTrajTargets[ trnsIdx ],
-					                       rt_info.streamTrajBuf[ trnsIdx ][ myBufToSend ],
-										   even ? 0 : rt_info.streamTrajBufSize,
-										   rt_info.streamTrajBufSize );
+			for( int trnsIdx = 0; trnsIdx < info.numTrns; trnsIdx++ ) {
+				if( info.trajRequest[ trnsIdx ]) {
+					processBufferTemplate( info.btTrajTargets[ trnsIdx ],
+					                       info.streamTrajBuf[ trnsIdx ][ myBufToSend ],
+										   even ? 0 : info.streamTrajBufSize,
+										   info.streamTrajBufSize, info.bundler );
 				}
-				for( int rcvIdx = 0; rcvIdx < rt_info.numRcv; rcvIdx++ ) {
-					if( rt_info.senseRequest[ trnsIdx ][ rcvIdx ]) {
-						processBufferTemplate( rt_info.btSenseTargets[ trnsIdx ][ rcvIdx ],
-						                       rt_info.streamSenseBuf[ trnsIdx ][ rcvIdx ][ myBufToSend ],
-											   even ? 0 : rt_info.streamSenseBufSize,
-											   rt_info.streamSenseBufSize );
+				for( int rcvIdx = 0; rcvIdx < info.numRcv; rcvIdx++ ) {
+					if( info.senseRequest[ trnsIdx ][ rcvIdx ]) {
+						processBufferTemplate( info.btSenseTargets[ trnsIdx ][ rcvIdx ],
+						                       info.streamSenseBuf[ trnsIdx ][ rcvIdx ][ myBufToSend ],
+											   even ? 0 : info.streamSenseBufSize,
+											   info.streamSenseBufSize, info.bundler );
 					}
 				}
 			}
+			info.bundler.flush();
+			metrics.addOSCSendLatency( System.nanoTime() - arrival );
 		}
 		catch( IOException e1 ) {
 			System.err.println( "[@"+getName()+"]" + e1.getLocalizedMessage() );
 		}
+
+		// have the producer's worker fill the other buffer half ahead of
+		// the next trigger ; the deadline is the expected arrival of that trigger
+		final long nextFrame = remoteFrame + info.senseBufSizeH;
+		rt_producer.requestProduction( new Span( nextFrame, nextFrame + info.senseBufSizeH ), !even,
+			System.currentTimeMillis() + (long) (1000 * info.senseBufSizeH / info.sourceRate) );
 			
 //		// check if we can serve the request
 //		for( int i = 0; i < 3; i++ ) {
-//			if( rt_info.streamBufStart[ i ] == remoteFrame ) {
-//				synchronized( rt_info.bufSendThread ) {
-//					if( rt_info.bufSendThread.bufferToSend != -1 ) {
+//			if( info.streamBufStart[ i ] == remoteFrame ) {
+//				synchronized( info.bufSendThread ) {
+//					if( info.bufSendThread.bufferToSend != -1 ) {
 //						try {
-//							rt_info.bufSendThread.wait();	// wait for the bufSendThread to be finished
+//							info.bufSendThread.wait();	// wait for the bufSendThread to be finished
 //						}
 //						catch( InterruptedException e1 ) {}
 //					}
-//					rt_info.bufSendThread.even			= (myTrigger & 1) == 0;
-//					rt_info.bufSendThread.bufferToSend   = i;
-//					rt_info.bufSendThread.notifyAll();
-//					rt_info.trigServed = myTrigger;
+//					info.bufSendThread.even			= (myTrigger & 1) == 0;
+//					info.bufSendThread.bufferToSend   = i;
+//					info.bufSendThread.notifyAll();
+//					info.trigServed = myTrigger;
 //					return;
 //				}
 //			}
@@ -944,25 +1034,119 @@ System.out.println( "lisp realtimeBlock : even = " + even + "; span = " + (even
 		private FloatBuffer		floatBuf;
 		private DatagramChannel dch;
 		private int				numCmds;
+		private int				numSends	= 0;
 		private int[]			cmd;
 		private int[]			constant;
 		private int[]			offset;
 	}
 	
-	private static class OSCEvent
+	private static class MissedTriggersEvent
 	extends BasicEvent
 	{
-		private final OSCMessage msg;
+		private static final long serialVersionUID = 1L;
+
+		private int numMissed;
 		
-		private OSCEvent( Object source, int id, long when, OSCMessage msg )
+		private MissedTriggersEvent( Object source, int id, long when, int numMissed )
 		{
 			super( source, id, when );
-			this.msg = msg;
+			this.numMissed = numMissed;
 		}
 		
 		public boolean incorporate( BasicEvent e )
 		{
-			return false;
+			if( !(e instanceof MissedTriggersEvent) ) return false;
+			numMissed += ((MissedTriggersEvent) e).numMissed;
+			return true;
+		}
+	}
+	
+	/*
+	 *	Serves the sound server's triggers: produces the
+	 *	requested buffer half, copies the down-sampled stream
+	 *	data and sends the buffer templates. A trigger arriving
+	 *	while the previous one is still being served replaces
+	 *	any other pending trigger, so only the most recent
+	 *	request is answered. Missed triggers are reported
+	 *	to the event thread.
+	 */
+	private class TriggerServer
+	extends Thread
+	{
+		private final RealtimeInfo	info;
+		private boolean				isRunning	= true;
+		private boolean				pending		= false;
+		private int					trigger;
+		private long				arrival;
+		private int					numMissed	= 0;
+	
+		protected TriggerServer( RealtimeInfo info )
+		{
+			super( "LispRealtimeTrigger" );
+			this.info = info;
+			setDaemon( true );
+			setPriority( Thread.MAX_PRIORITY - 1 );
+		}
+		
+		// called in the OSC receiver thread
+		protected synchronized void trigger( int value, long when )
+		{
+			if( pending ) numMissed++;
+			trigger	= value;
+			arrival	= when;
+			pending	= true;
+			notifyAll();
+		}
+		
+		// stops the thread and waits for it to finish
+		protected void quit()
+		{
+			synchronized( this ) {
+				isRunning = false;
+				notifyAll();
+			}
+			if( Thread.currentThread() != this ) {
+				try {
+					join();
+				}
+				catch( InterruptedException e1 ) { /* ignored */ }
+			}
+		}
+		
+		public void run()
+		{
+			int		myTrigger, myMissed;
+			long	myArrival;
+		
+			while( true ) {
+				synchronized( this ) {
+					while( isRunning && !pending ) {
+						try {
+							wait();
+						}
+						catch( InterruptedException e1 ) { /* ignored */ }
+					}
+					if( !isRunning ) return;
+					myTrigger	= trigger;
+					myArrival	= arrival;
+					myMissed	= numMissed;
+					pending		= false;
+					numMissed	= 0;
+				}
+				try {
+					if( myMissed > 0 ) {
+						rt_producer.getMetrics().addMissedTriggers( myMissed );
+						elm.dispatchEvent( new MissedTriggersEvent( LispRealtimePlugIn.this, 0,
+							System.currentTimeMillis(), myMissed ));
+					}
+					serveTrigger( info, myTrigger, myArrival );
+				}
+				// keep serving the following triggers
+				catch( RuntimeException e1 ) {
+					System.err.println( "[@" + LispRealtimePlugIn.this.getName() + "] trigger " + myTrigger + " failed :" );
+					e1.printStackTrace();
+				}
+			}
 		}
 	}
 	
@@ -972,7 +1156,7 @@ System.out.println( "lisp realtimeBlock : even = " + even + "; span = " + (even
 		private BufferTemplate[]		btTrajTargets;
 		private BufferTemplate[][]		btSenseTargets;
 		private OSCReceiver				syncOSC;
-		private long					startFrame;
+		private volatile long			startFrame;	// written in the event thread, read by the trigger server
 		private long					startTime;
 		private double					sourceRate;
 //		private double					trigDur;
@@ -985,6 +1169,7 @@ System.out.println( "lisp realtimeBlock : even = " + even + "; span = " + (even
 		private int						streamBufCopyIdx;
 		private int						senseBufSizeH;
 		private int						trigToServe, trigServed;
+		private DatagramBundler			bundler;
 // BBB
 //		private BufferSenderThread		bufSendThread;
 
@@ -0,0 +1,332 @@
+/*
+ *  RealtimeMetrics.java
+ *  Meloncillo
+ *
+ *  Copyright (c) 2004-2008 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This software is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU General Public License
+ *	as published by the Free Software Foundation; either
+ *	version 2, june 1991 of the License, or (at your option) any later version.
+ *
+ *	This software is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *	General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public
+ *	License (gpl.txt) along with this software; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.meloncillo.realtime;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ *	Collects timing figures of the realtime engine:
+ *	the time the producer spends reading trajectories and
+ *	calculating sensitivities, the time consumers need to
+ *	pick up a block, the number of dropped productions
+ *	and missed triggers, and histograms of the transport
+ *	tick lateness and of the latency between a sound server
+ *	trigger and the completion of the resulting OSC sends. Each
+ *	<code>RealtimeProducer</code> owns one instance which is
+ *	registered as a JMX MBean and shown by the
+ *	<code>RealtimeMetricsPalette</code>.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.75, 17-Oct-26
+ *
+ *	@synchronization	all methods may be called from any thread
+ */
+public class RealtimeMetrics
+implements RealtimeMetricsMBean
+{
+	private static final long[]	LIMITS_MICROS	= {
+		50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 50000, 100000 };
+
+	private static int			numInstances	= 0;
+
+	private ObjectName			objectName		= null;
+
+	private long				numProductions, sumTrailReadNanos, sumSenseNanos, maxProductionNanos;
+	private long				numConsumerBlocks, sumConsumerNanos;
+	private long				numDrops, numPrefetched, numMissedTriggers;
+	private final Histogram		tickLateness	= new Histogram();
+	private final Histogram		oscLatency		= new Histogram();
+
+	protected RealtimeMetrics()
+	{
+		/* empty */
+	}
+
+	/*
+	 *	Registers the metrics with the platform's MBean server.
+	 *	Failure is not fatal, the metrics are still collected.
+	 */
+	protected void register()
+	{
+		try {
+			final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+			final int id;
+			synchronized( RealtimeMetrics.class ) {
+				id = numInstances++;
+			}
+			final ObjectName name = new ObjectName( "de.sciss.meloncillo:type=RealtimeMetrics,id=" + id );
+			mbs.registerMBean( this, name );
+			synchronized( this ) {
+				objectName = name;
+			}
+		}
+		catch( JMException e1 ) {
+			System.err.println( "RealtimeMetrics : " + e1 );
+		}
+		catch( SecurityException e1 ) {
+			System.err.println( "RealtimeMetrics : " + e1 );
+		}
+	}
+
+	/*
+	 *	Removes the metrics from the platform's MBean server.
+	 *	Does nothing if they were not registered.
+	 */
+	protected void unregister()
+	{
+		final ObjectName name;
+		synchronized( this ) {
+			name		= objectName;
+			objectName	= null;
+		}
+		if( name == null ) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean( name );
+		}
+		catch( JMException e1 ) {
+			System.err.println( "RealtimeMetrics : " + e1 );
+		}
+		catch( SecurityException e1 ) {
+			System.err.println( "RealtimeMetrics : " + e1 );
+		}
+	}
+
+	// ------------- recording -------------
+
+	/**
+	 *	Records one block production.
+	 *
+	 *	@param	trailNanos	time spent reading trajectories
+	 *	@param	senseNanos	time spent calculating sensitivities
+	 */
+	public synchronized void addProduction( long trailNanos, long senseNanos )
+	{
+		numProductions++;
+		sumTrailReadNanos	+= trailNanos;
+		sumSenseNanos		+= senseNanos;
+		if( trailNanos + senseNanos > maxProductionNanos ) maxProductionNanos = trailNanos + senseNanos;
+	}
+
+	/**
+	 *	Records the time a consumer spent copying
+	 *	the data of one block.
+	 */
+	public synchronized void addConsumerBlock( long nanos )
+	{
+		numConsumerBlocks++;
+		sumConsumerNanos += nanos;
+	}
+
+	/**
+	 *	Records a dropped production request.
+	 */
+	public synchronized void addDrop()
+	{
+		numDrops++;
+	}
+
+	/**
+	 *	Records a block which was requested synchronously
+	 *	but had already been produced in advance.
+	 */
+	public synchronized void addPrefetched()
+	{
+		numPrefetched++;
+	}
+
+	/**
+	 *	Records triggers which a consumer skipped
+	 *	because it was still busy with an earlier one.
+	 */
+	public synchronized void addMissedTriggers( int num )
+	{
+		numMissedTriggers += num;
+	}
+
+	/**
+	 *	Records the lateness of one transport tick
+	 *	with respect to its deadline.
+	 */
+	public void addTickLateness( long nanos )
+	{
+		tickLateness.add( nanos );
+	}
+
+	/**
+	 *	Records the time between the arrival of a trigger
+	 *	and the completion of the OSC sends answering it.
+	 */
+	public void addOSCSendLatency( long nanos )
+	{
+		oscLatency.add( nanos );
+	}
+
+	// ------------- RealtimeMetricsMBean interface -------------
+
+	public synchronized long getNumProductions()
+	{
+		return numProductions;
+	}
+
+	public synchronized double getTrailReadMillis()
+	{
+		return sumTrailReadNanos * 1.0e-6;
+	}
+
+	public synchronized double getSenseMillis()
+	{
+		return sumSenseNanos * 1.0e-6;
+	}
+
+	public synchronized double getMaxProductionMillis()
+	{
+		return maxProductionNanos * 1.0e-6;
+	}
+
+	public synchronized long getNumConsumerBlocks()
+	{
+		return numConsumerBlocks;
+	}
+
+	public synchronized double getConsumerMillis()
+	{
+		return sumConsumerNanos * 1.0e-6;
+	}
+
+	public synchronized long getNumDrops()
+	{
+		return numDrops;
+	}
+
+	public synchronized long getNumPrefetched()
+	{
+		return numPrefetched;
+	}
+
+	public synchronized long getNumMissedTriggers()
+	{
+		return numMissedTriggers;
+	}
+
+	public long getNumTicks()
+	{
+		return tickLateness.getCount();
+	}
+
+	public double getMaxTickLatenessMillis()
+	{
+		return tickLateness.getMax() * 1.0e-6;
+	}
+
+	public long[] getTickLatenessHistogram()
+	{
+		return tickLateness.getBuckets();
+	}
+
+	public long getNumOSCSends()
+	{
+		return oscLatency.getCount();
+	}
+
+	public double getMaxOSCSendLatencyMillis()
+	{
+		return oscLatency.getMax() * 1.0e-6;
+	}
+
+	public long[] getOSCSendLatencyHistogram()
+	{
+		return oscLatency.getBuckets();
+	}
+
+	public long[] getHistogramLimitsMicros()
+	{
+		return LIMITS_MICROS.clone();
+	}
+
+	public void reset()
+	{
+		synchronized( this ) {
+			numProductions		= 0;
+			sumTrailReadNanos	= 0;
+			sumSenseNanos		= 0;
+			maxProductionNanos	= 0;
+			numConsumerBlocks	= 0;
+			sumConsumerNanos	= 0;
+			numDrops			= 0;
+			numPrefetched		= 0;
+			numMissedTriggers	= 0;
+		}
+		tickLateness.reset();
+		oscLatency.reset();
+	}
+
+	// ------------- internal classes -------------
+
+	private static class Histogram
+	{
+		private final long[]	buckets	= new long[ LIMITS_MICROS.length + 1 ];
+		private long			count	= 0;
+		private long			max		= 0;
+
+		protected Histogram() { /* empty */ }
+
+		protected synchronized void add( long nanos )
+		{
+			final long	micros	= nanos / 1000;
+			int			i;
+
+			for( i = 0; (i < LIMITS_MICROS.length) && (micros >= LIMITS_MICROS[ i ]); i++ ) ;
+			buckets[ i ]++;
+			count++;
+			if( nanos > max ) max = nanos;
+		}
+
+		protected synchronized long getCount()
+		{
+			return count;
+		}
+
+		protected synchronized long getMax()
+		{
+			return max;
+		}
+
+		protected synchronized long[] getBuckets()
+		{
+			return buckets.clone();
+		}
+
+		protected synchronized void reset()
+		{
+			for( int i = 0; i < buckets.length; i++ ) buckets[ i ] = 0;
+			count	= 0;
+			max		= 0;
+		}
+	}
+}
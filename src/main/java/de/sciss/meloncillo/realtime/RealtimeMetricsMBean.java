@@ -0,0 +1,58 @@
+/*
+ *  RealtimeMetricsMBean.java
+ *  Meloncillo
+ *
+ *  Copyright (c) 2004-2008 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This software is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU General Public License
+ *	as published by the Free Software Foundation; either
+ *	version 2, june 1991 of the License, or (at your option) any later version.
+ *
+ *	This software is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *	General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public
+ *	License (gpl.txt) along with this software; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.meloncillo.realtime;
+
+/**
+ *	Management interface of <code>RealtimeMetrics</code>,
+ *	as seen by JMX clients such as jconsole. Times are
+ *	given in milliseconds, histograms as counts per bucket,
+ *	where the buckets are bounded by the values of
+ *	<code>getHistogramLimitsMicros</code> (the last bucket
+ *	collects everything above the last limit).
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.75, 17-Oct-26
+ */
+public interface RealtimeMetricsMBean
+{
+	public long getNumProductions();
+	public double getTrailReadMillis();
+	public double getSenseMillis();
+	public double getMaxProductionMillis();
+	public long getNumConsumerBlocks();
+	public double getConsumerMillis();
+	public long getNumDrops();
+	public long getNumPrefetched();
+	public long getNumMissedTriggers();
+	public long getNumTicks();
+	public double getMaxTickLatenessMillis();
+	public long[] getTickLatenessHistogram();
+	public long getNumOSCSends();
+	public double getMaxOSCSendLatencyMillis();
+	public long[] getOSCSendLatencyHistogram();
+	public long[] getHistogramLimitsMicros();
+	public void reset();
+}
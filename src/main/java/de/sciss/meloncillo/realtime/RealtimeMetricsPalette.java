@@ -0,0 +1,284 @@
+/*
+ *  RealtimeMetricsPalette.java
+ *  Meloncillo
+ *
+ *  Copyright (c) 2004-2008 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This software is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU General Public License
+ *	as published by the Free Software Foundation; either
+ *	version 2, june 1991 of the License, or (at your option) any later version.
+ *
+ *	This software is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *	General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public
+ *	License (gpl.txt) along with this software; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+package de.sciss.meloncillo.realtime;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.geom.Point2D;
+import java.text.MessageFormat;
+import java.util.Locale;
+import javax.swing.AbstractAction;
+import javax.swing.JButton;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.Timer;
+
+import de.sciss.app.AbstractApplication;
+import de.sciss.app.Application;
+import de.sciss.common.AppWindow;
+import de.sciss.gui.SpringPanel;
+import de.sciss.meloncillo.Main;
+import de.sciss.meloncillo.io.FrameCache;
+import de.sciss.meloncillo.session.Session;
+
+/**
+ *	A small palette which displays the figures
+ *	collected by the <code>RealtimeMetrics</code> of the
+ *	session's realtime producer: average production
+ *	and consumer times per half block, drop counts and
+ *	the histograms of tick lateness and OSC send latency,
+ *	as well as the statistics of the <code>FrameCache</code>.
+ *	The display is refreshed twice per second while
+ *	the palette is visible.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.75, 17-Oct-26
+ */
+public class RealtimeMetricsPalette
+extends AppWindow
+implements ActionListener
+{
+	private static final int		REFRESH_MILLIS	= 500;
+	private static final int		ALERT_MILLIS	= 2000;
+
+	private final RealtimeMetrics	metrics;
+	private final FrameCache		cache;
+	private final Timer				timer;
+	private final JLabel			lbTrail, lbSense, lbMaxProd, lbConsumer, lbDrops,
+									lbMaxTick, lbMaxOSC, lbCache;
+	private final HistogramView		ggTickHisto, ggOSCHisto;
+	private final MessageFormat		msgAvg			= new MessageFormat( "{0,number,0.000} ms ({1,number,integer})", Locale.US );
+	private final MessageFormat		msgMax			= new MessageFormat( "{0,number,0.000} ms", Locale.US );
+	private final MessageFormat		msgDrops		= new MessageFormat( "{0,number,integer} / {1,number,integer} / {2,number,integer}", Locale.US );
+	private final MessageFormat		msgCache		= new MessageFormat( "{0,number,integer} / {1,number,integer} / {2,number,integer} ({3,number,0.0} MB)", Locale.US );
+	private final Object[]			msgArgs			= new Object[ 4 ];
+	private final Color				colrNormal;
+	private long					alertTime		= 0;
+
+	/**
+	 *	Creates a new metrics palette.
+	 *
+	 *	@param	doc		Session document whose realtime producer is observed
+	 */
+	public RealtimeMetricsPalette( final Session doc )
+	{
+		super( PALETTE );
+		
+		final Application	app	= AbstractApplication.getApplication();
+		final SpringPanel	p	= new SpringPanel( 4, 2, 4, 2 );
+		final long[]		lim;
+		final JButton		ggReset;
+		int					row	= 0;
+
+		metrics		= doc.getRealtimeProducer().getMetrics();
+		cache		= FrameCache.getInstance();
+		lim			= metrics.getHistogramLimitsMicros();
+
+		setTitle( app.getResourceString( "paletteRealtimeMetrics" ));
+
+		lbTrail		= addRow( p, app, "metricsTrailRead", row++ );
+		lbSense		= addRow( p, app, "metricsSense", row++ );
+		lbMaxProd	= addRow( p, app, "metricsMaxProduction", row++ );
+		lbConsumer	= addRow( p, app, "metricsConsumer", row++ );
+		lbDrops		= addRow( p, app, "metricsDrops", row++ );
+		lbMaxTick	= addRow( p, app, "metricsMaxTickLateness", row++ );
+		ggTickHisto	= new HistogramView( lim );
+		p.gridAdd( ggTickHisto, 1, row++ );
+		lbMaxOSC	= addRow( p, app, "metricsMaxOSCLatency", row++ );
+		ggOSCHisto	= new HistogramView( lim );
+		p.gridAdd( ggOSCHisto, 1, row++ );
+		lbCache		= addRow( p, app, "metricsFrameCache", row++ );
+		p.makeCompactGrid( false, false );
+		colrNormal	= lbDrops.getForeground();
+
+		ggReset		= new JButton( new AbstractAction( app.getResourceString( "buttonReset" )) {
+			public void actionPerformed( ActionEvent e )
+			{
+				metrics.reset();
+				cache.resetStatistics();
+				updateDisplay();
+			}
+		});
+
+		getContentPane().add( p, BorderLayout.CENTER );
+		getContentPane().add( ggReset, BorderLayout.SOUTH );
+
+		timer		= new Timer( REFRESH_MILLIS, this );
+		timer.start();
+		updateDisplay();
+
+		init();
+		app.addComponent( Main.COMP_RTMETRICS, this );
+	}
+
+	private static JLabel addRow( SpringPanel p, Application app, String key, int row )
+	{
+		final JLabel lb = new JLabel();
+
+		p.gridAdd( new JLabel( app.getResourceString( key ), JLabel.RIGHT ), 0, row );
+		p.gridAdd( lb, 1, row );
+		return lb;
+	}
+
+	public void dispose()
+	{
+		timer.stop();
+		AbstractApplication.getApplication().removeComponent( Main.COMP_RTMETRICS );
+		super.dispose();
+	}
+
+	/**
+	 *	Highlights the drop-out figures for a moment
+	 *	and updates the display at once. Consumers call
+	 *	this when they had to skip triggers.
+	 *
+	 *	@synchronization	call in the event thread
+	 */
+	public void alertMissedTriggers()
+	{
+		alertTime = System.currentTimeMillis();
+		lbDrops.setForeground( Color.red );
+		if( isVisible() ) updateDisplay();
+	}
+
+	// called by the timer
+	public void actionPerformed( ActionEvent e )
+	{
+		if( (alertTime != 0) && (System.currentTimeMillis() - alertTime >= ALERT_MILLIS) ) {
+			alertTime = 0;
+			lbDrops.setForeground( colrNormal );
+		}
+		if( isVisible() ) updateDisplay();
+	}
+
+	private void updateDisplay()
+	{
+		final long n	= metrics.getNumProductions();
+		final long m	= metrics.getNumConsumerBlocks();
+
+		msgArgs[ 1 ]	= Long.valueOf( n );
+		msgArgs[ 0 ]	= Double.valueOf( n == 0 ? 0.0 : metrics.getTrailReadMillis() / n );
+		lbTrail.setText( msgAvg.format( msgArgs ));
+		msgArgs[ 0 ]	= Double.valueOf( n == 0 ? 0.0 : metrics.getSenseMillis() / n );
+		lbSense.setText( msgAvg.format( msgArgs ));
+		msgArgs[ 1 ]	= Long.valueOf( m );
+		msgArgs[ 0 ]	= Double.valueOf( m == 0 ? 0.0 : metrics.getConsumerMillis() / m );
+		lbConsumer.setText( msgAvg.format( msgArgs ));
+
+		msgArgs[ 0 ]	= Double.valueOf( metrics.getMaxProductionMillis() );
+		lbMaxProd.setText( msgMax.format( msgArgs ));
+		msgArgs[ 0 ]	= Double.valueOf( metrics.getMaxTickLatenessMillis() );
+		lbMaxTick.setText( msgMax.format( msgArgs ));
+		msgArgs[ 0 ]	= Double.valueOf( metrics.getMaxOSCSendLatencyMillis() );
+		lbMaxOSC.setText( msgMax.format( msgArgs ));
+
+		msgArgs[ 0 ]	= Long.valueOf( metrics.getNumDrops() );
+		msgArgs[ 1 ]	= Long.valueOf( metrics.getNumMissedTriggers() );
+		msgArgs[ 2 ]	= Long.valueOf( metrics.getNumPrefetched() );
+		lbDrops.setText( msgDrops.format( msgArgs ));
+
+		msgArgs[ 0 ]	= Long.valueOf( cache.getHits() );
+		msgArgs[ 1 ]	= Long.valueOf( cache.getMisses() );
+		msgArgs[ 2 ]	= Long.valueOf( cache.getReadAheads() );
+		msgArgs[ 3 ]	= Double.valueOf( cache.getSize() / 1048576.0 );
+		lbCache.setText( msgCache.format( msgArgs ));
+
+		ggTickHisto.setBuckets( metrics.getTickLatenessHistogram() );
+		ggOSCHisto.setBuckets( metrics.getOSCSendLatencyHistogram() );
+	}
+
+	protected boolean autoUpdatePrefs()
+	{
+		return true;
+	}
+
+	protected Point2D getPreferredLocation()
+	{
+		return new Point2D.Float( 0.65f, 0.2f );
+	}
+
+	// ------------- internal classes -------------
+
+	/*
+	 *	Paints one bar per histogram bucket. Bar heights
+	 *	are logarithmic so that rare outliers remain visible
+	 *	next to the bulk of the ticks. The bucket limits
+	 *	are shown as tool tip.
+	 */
+	private static class HistogramView
+	extends JComponent
+	{
+		private static final long	serialVersionUID	= 1L;
+		private static final int	BAR_WIDTH			= 8;
+		private static final int	HEIGHT				= 32;
+		private static final Color	colrBar				= new Color( 0x30, 0x60, 0xA0 );
+
+		private long[] buckets;
+
+		protected HistogramView( long[] limitsMicros )
+		{
+			final StringBuffer sb = new StringBuffer( "<html>" );
+			
+			buckets	= new long[ limitsMicros.length + 1 ];
+			for( int i = 0; i < limitsMicros.length; i++ ) {
+				sb.append( "&lt; " );
+				sb.append( limitsMicros[ i ]);
+				sb.append( " \u00B5s<br>" );
+			}
+			sb.append( "more</html>" );
+			setToolTipText( sb.toString() );
+			setPreferredSize( new Dimension( buckets.length * BAR_WIDTH, HEIGHT ));
+		}
+
+		protected void setBuckets( long[] buckets )
+		{
+			this.buckets = buckets;
+			repaint();
+		}
+
+		public void paintComponent( Graphics g )
+		{
+			final int	h		= getHeight();
+			double		maxLog	= 0.0;
+			int			barH;
+
+			for( int i = 0; i < buckets.length; i++ ) {
+				maxLog = Math.max( maxLog, Math.log( buckets[ i ] + 1 ));
+			}
+			if( maxLog == 0.0 ) return;
+
+			g.setColor( colrBar );
+			for( int i = 0; i < buckets.length; i++ ) {
+				barH = (int) (Math.log( buckets[ i ] + 1 ) / maxLog * h + 0.5);
+				g.fillRect( i * BAR_WIDTH, h - barH, BAR_WIDTH - 1, barH );
+			}
+		}
+	}
+}
@@ -34,12 +34,20 @@ package de.sciss.meloncillo.realtime;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import de.sciss.app.AbstractApplication;
+import de.sciss.app.Application;
 import de.sciss.io.Span;
 import de.sciss.meloncillo.receiver.Receiver;
 import de.sciss.meloncillo.session.Session;
 import de.sciss.meloncillo.transmitter.TrajectoryGenerator;
 import de.sciss.meloncillo.transmitter.Transmitter;
+import de.sciss.meloncillo.util.PrefsUtil;
 
 /**
  *	The RealtimeProducer is the "factory" of
@@ -60,6 +68,20 @@ import de.sciss.meloncillo.transmitter.Transmitter;
  *	produced. Whenever a request is completed,
  *	the host's (transport's) <code>notifyConsumed</code>
  *	method is called.
+ *	<p>
+ *	Asynchronous production requests are carried out
+ *	by a dedicated worker thread, so the requesting thread
+ *	never blocks. A request which cannot be started before
+ *	its deadline is dropped and counted (see <code>getNumDrops</code>).
+ *	Synchronous production (<code>produceNow</code>) will
+ *	not re-produce a buffer half that the worker has already
+ *	filled ahead of time.
+ *	<p>
+ *	The transmitter-receiver sensitivity matrix can be
+ *	partitioned among a pool of threads (see
+ *	<code>PrefsUtil.KEY_RTPARALLELISM</code>). Each matrix
+ *	cell is calculated by exactly one thread, so the results
+ *	are identical to the sequential calculation.
  *
  *  @author		Hanns Holger Rutz
  *  @version	0.75, 15-Jul-08
@@ -94,10 +116,35 @@ public class RealtimeProducer
 	 *	The source contains the stream data
 	 *	buffer and the curr
 	 */
-	public RealtimeProducer.Source source;
+	public volatile RealtimeProducer.Source source;
 	
 	private final List	collInfos			= new ArrayList();  // synced because always in event thread
 	private final List	collReplacements	= new ArrayList();  // synced because always in event thread
+
+	// production requests waiting for the worker. also used as the worker's lock
+	private final List	collPending			= new ArrayList();
+	private Thread		worker				= null;
+	// guards the source's buffers between the worker and synchronous calls
+	private final Object sync				= new Object();
+
+	private final RealtimeMetrics metrics	= new RealtimeMetrics();
+
+	// below this number of requested matrix cells, sense calculation is not parallelized
+	private static final int	MIN_PARALLEL_CELLS	= 8;
+
+	private ExecutorService		sensePool			= null;
+	private int					senseParallelism	= 1;
+
+	// stream buffer rows of previous contexts, handed to the next
+	// context of the same block size so that adding or removing
+	// a receiver does not produce tens of megabytes of garbage.
+	// sync: call inside synchronized( sync )
+	private final List			collSpareRows		= new ArrayList();
+	private int					spareRowSize		= 0;
+	// the source replaced by the last context change. consumers may
+	// still read from it, so its rows are recycled one change later
+	// sync: call inside synchronized( sync )
+	private Source				retiredSource		= null;
 	
 //	private final Session		doc;
 //	private final RealtimeHost	host;
@@ -117,21 +164,58 @@ public class RealtimeProducer
 	{
 //		this.doc	= doc;
 //		this.host   = host;
+		metrics.register();
+	}
+
+	/**
+	 *	Returns the timing figures of this producer.
+	 *	Consumers and the transport may add their
+	 *	own figures to the returned object.
+	 *
+	 *	@return	the metrics, which are also registered as a JMX MBean
+	 */
+	public RealtimeMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 *	Releases the sense thread pool and unregisters
+	 *	the metrics MBean. The producer must not be used
+	 *	afterwards.
+	 */
+	public void dispose()
+	{
+		synchronized( sync ) {
+			if( sensePool != null ) {
+				sensePool.shutdown();
+				sensePool = null;
+			}
+			senseParallelism = 1;
+		}
+		metrics.unregister();
 	}
 	
 	/**
 	 *	Requests are fulfilled here
 	 */
 	public void process( Request r )
+	{
+		synchronized( sync ) {
+			processNoSync( r );
+		}
+	}
+
+	private void processNoSync( Request r )
 	{
 //		Request r			= (Request) o;
 		long	now			= System.currentTimeMillis();
-		long	patience	= (now - r.deadline) >> 1;
+		long	patience	= r.deadline - now;
 		
 		switch( r.type ) {
 		case TYPE_PRODUCE:
 			if( patience <= 0 ) {
-				System.err.println( "drop!" );
+				metrics.addDrop();
 				return;
 			}
 			produce( r.blockSpan, r.even, patience );
@@ -186,12 +270,57 @@ public class RealtimeProducer
 	 *  @synchronization	call only in the event thread!
 	 */
 	public void changeContext( RealtimeContext c )
+	{
+		synchronized( collPending ) {
+			collPending.clear();
+		}
+		synchronized( sync ) {
+			updateParallelism();
+			changeContextNoSync( c );
+		}
+	}
+
+	// reads the parallelism prefs and (re)creates the sense thread pool
+	// sync: call inside synchronized( sync )
+	private void updateParallelism()
+	{
+		final Application	app			= AbstractApplication.getApplication();
+		int					numThreads	= app == null ? 0 : app.getUserPrefs().node(	// null when run headless (benchmarks)
+			PrefsUtil.NODE_PLUGINS ).getInt( PrefsUtil.KEY_RTPARALLELISM, 0 );
+		
+		if( numThreads <= 0 ) numThreads = Runtime.getRuntime().availableProcessors();
+		if( numThreads == senseParallelism ) return;
+
+		if( sensePool != null ) {
+			sensePool.shutdown();
+			sensePool = null;
+		}
+		senseParallelism = numThreads;
+		if( numThreads > 1 ) {
+			// the calling thread computes one share itself
+			sensePool = Executors.newFixedThreadPool( numThreads - 1, new ThreadFactory() {
+				private int count = 0;
+				
+				public Thread newThread( Runnable r )
+				{
+					final Thread t = new Thread( r, "RealtimeSense-" + (++count) );
+					t.setDaemon( true );
+					t.setPriority( Thread.NORM_PRIORITY + 1 );
+					return t;
+				}
+			});
+		}
+	}
+
+	private void changeContextNoSync( RealtimeContext c )
 	{
 		java.util.List  coll;
 		Source			s	= new Source();
 		int				i;
 	
 		collInfos.clear();
+		if( retiredSource != null ) recycleBuffers( retiredSource );
+		retiredSource	= source;
 	
 		s.numTrns		= c.getTransmitters().size();
 		s.numRcv		= c.getReceivers().size();
@@ -208,18 +337,58 @@ public class RealtimeProducer
 		s.bufSize		= c.getSourceBlockSize();
 		s.bufSizeH		= s.bufSize >> 1;
 		s.senseRequest  = new boolean[ s.numTrns ][ s.numRcv ];
-		s.senseBlockBuf = new float[ s.numTrns ][ s.numRcv ][ s.bufSize ];
+		s.senseBlockBuf = new float[ s.numTrns ][ s.numRcv ][];
 		s.senseOffhand  = new float[ s.numTrns ][ s.numRcv ];
 		s.trajRequest   = new boolean[ s.numTrns ];
 		s.trajRplc		= new int[ s.numTrns ];
-		s.trajBlockBuf  = new float[ s.numTrns ][ 2 ][ s.bufSize ];
+		s.trajBlockBuf  = new float[ s.numTrns ][ 2 ][];
 		s.trajOffhand   = new float[ s.numTrns ][ 2 ];
 		s.trnsRequest   = new boolean[ s.numTrns ];
 		s.minSenseStep  = s.bufSizeH;   // max allowed
+		for( i = 0; i < s.numTrns; i++ ) {
+			allocRows( s.senseBlockBuf[ i ], s.bufSize );
+			allocRows( s.trajBlockBuf[ i ], s.bufSize );
+		}
 
+		createSenseJobs( s );
 		reConfigReplacements( s );
 		this.source		= s;
 	}
+
+	// moves the stream buffer rows of a discarded source to the spare list.
+	// rows of a different size than the current spares replace them.
+	// this is only called for the source two generations back, because
+	// consumers may have obtained the previous source before the last
+	// context change and still copy from its rows
+	// sync: call inside synchronized( sync )
+	private void recycleBuffers( Source s )
+	{
+		if( s.bufSize != spareRowSize ) {
+			collSpareRows.clear();
+			spareRowSize = s.bufSize;
+		}
+		for( int i = 0; i < s.numTrns; i++ ) {
+			for( int j = 0; j < s.numRcv; j++ ) {
+				collSpareRows.add( s.senseBlockBuf[ i ][ j ]);
+			}
+			collSpareRows.add( s.trajBlockBuf[ i ][ 0 ]);
+			collSpareRows.add( s.trajBlockBuf[ i ][ 1 ]);
+		}
+	}
+
+	// fills rows with spare buffers of the given size, allocating only
+	// the remainder. note that reused rows keep their old contents
+	// sync: call inside synchronized( sync )
+	private void allocRows( float[][] rows, int size )
+	{
+		for( int i = 0; i < rows.length; i++ ) {
+			if( (size == spareRowSize) && !collSpareRows.isEmpty() ) {
+				rows[ i ] = (float[]) collSpareRows.remove( collSpareRows.size() - 1 );
+			} else {
+				rows[ i ] = new float[ size ];
+			}
+		}
+	}
 	
 	private void reConfig()
 	{
@@ -237,6 +406,8 @@ public class RealtimeProducer
 		}
 		source.doors		= 0;
 		source.minSenseStep = source.bufSizeH;   // max allowed
+		source.firstDone	= null;
+		source.secondDone	= null;
 		
 		// sum individual requests
 		for( cfIdx = 0; cfIdx < collInfos.size(); cfIdx++ ) {
@@ -269,9 +440,41 @@ public class RealtimeProducer
 			}
 		}
 		
+		createSenseJobs( source );
+
 		// shall we produce now?
 	}
 
+	// flattens the requested matrix cells and partitions them into contiguous jobs
+	private void createSenseJobs( Source s )
+	{
+		int numCells = 0, numJobs, cellIdx = 0, start, stop;
+		
+		for( int trnsIdx = 0; trnsIdx < s.numTrns; trnsIdx++ ) {
+			for( int rcvIdx = 0; rcvIdx < s.numRcv; rcvIdx++ ) {
+				if( s.senseRequest[ trnsIdx ][ rcvIdx ]) numCells++;
+			}
+		}
+		s.senseCells = new int[ numCells ];
+		for( int trnsIdx = 0; trnsIdx < s.numTrns; trnsIdx++ ) {
+			for( int rcvIdx = 0; rcvIdx < s.numRcv; rcvIdx++ ) {
+				if( s.senseRequest[ trnsIdx ][ rcvIdx ]) {
+					s.senseCells[ cellIdx++ ] = trnsIdx * s.numRcv + rcvIdx;
+				}
+			}
+		}
+
+		numJobs			= (sensePool == null || numCells < MIN_PARALLEL_CELLS) ? 1 :
+						  Math.min( senseParallelism, numCells );
+		s.senseJobs		= new SenseJob[ numJobs ];
+		s.senseFutures	= new Future[ numJobs ];
+		for( int i = 0; i < numJobs; i++ ) {
+			start				= (int) ((long) numCells * i / numJobs);
+			stop				= (int) ((long) numCells * (i + 1) / numJobs);
+			s.senseJobs[ i ]	= new SenseJob( s, start, stop );
+		}
+	}
+
 	// sync: call in event thread
 	private void reConfigReplacements( Source s )
 	{
@@ -280,6 +483,9 @@ public class RealtimeProducer
 		TrajectoryReplacement tr;
 		Transmitter trns;
 
+		s.firstDone		= null;
+		s.secondDone	= null;
+
 		// reset requests
 trnsLp:	for( int trnsIdx = 0; trnsIdx < s.numTrns; trnsIdx++ ) {
 			trns = s.transmitters[ trnsIdx ];
@@ -299,16 +505,19 @@ trnsLp:	for( int trnsIdx = 0; trnsIdx < s.numTrns; trnsIdx++ ) {
 
 //System.out.println( "produce: blockSpan = " + blockSpan + "; even = " + even + "; patience = " + patience );
 
-		int trnsIdx, rcvIdx, offStart, offStop;
+		int		trnsIdx, offStart, offStop;
+		long	t0, t1;
 		
 		if( even ) {
 			offStart			= 0;
 			offStop				= (int) blockSpan.getLength();
 			source.firstHalf	= blockSpan;
+			source.firstDone	= null;
 		} else {
 			offStart			= source.bufSizeH;
 			offStop				= offStart + (int) blockSpan.getLength();
 			source.secondHalf	= blockSpan;
+			source.secondDone	= null;
 		}
 		
 //		if( !doc.bird.attemptShared( source.doors, patience )) {	// XXX MTE can't be shared
@@ -316,6 +525,7 @@ trnsLp:	for( int trnsIdx = 0; trnsIdx < s.numTrns; trnsIdx++ ) {
 //			return;
 //		}
 		try {
+			t0 = System.nanoTime();
 			for( trnsIdx = 0; trnsIdx < source.numTrns; trnsIdx++ ) {
 				if( !source.trnsRequest[ trnsIdx ]) continue;
 				
@@ -361,16 +571,18 @@ trnsLp:	for( int trnsIdx = 0; trnsIdx < s.numTrns; trnsIdx++ ) {
 						}
 					}
 				}
-				// --- satisfy sensibilities requests ---
-				for( rcvIdx = 0; rcvIdx < source.numRcv; rcvIdx++ ) {
-					if( !source.senseRequest[ trnsIdx ][ rcvIdx ]) continue;
+			} // for( trnsIdx = 0; trnsIdx < numTrns; trnsIdx++ )
 
-					source.receivers[ rcvIdx ].getSensitivities(
-						source.trajBlockBuf[ trnsIdx ], source.senseBlockBuf[ trnsIdx ][ rcvIdx ],
-						offStart, offStop, source.minSenseStep );
-				} // for( rcvIdx = 0; rcvIdx < numRcv; rcvIdx++ )
+			// --- satisfy sensibilities requests ---
+			t1 = System.nanoTime();
+			calcSensitivities( offStart, offStop );
+			metrics.addProduction( t1 - t0, System.nanoTime() - t1 );
 
-			} // for( trnsIdx = 0; trnsIdx < numTrns; trnsIdx++ )
+			if( even ) {
+				source.firstDone	= blockSpan;
+			} else {
+				source.secondDone	= blockSpan;
+			}
 		}
 		catch( IOException e1 ) {
 			System.err.println( e1 );
@@ -380,10 +592,41 @@ trnsLp:	for( int trnsIdx = 0; trnsIdx < s.numTrns; trnsIdx++ ) {
 //		}
 	}
 	
+	// runs the sense jobs, all but the first one in the pool
+	// sync: call inside synchronized( sync )
+	private void calcSensitivities( int offStart, int offStop )
+	{
+		final SenseJob[]	jobs	= source.senseJobs;
+		final Future[]		futures	= source.senseFutures;
+		
+		for( int i = 0; i < jobs.length; i++ ) {
+			jobs[ i ].offStart	= offStart;
+			jobs[ i ].offStop	= offStop;
+		}
+		for( int i = 1; i < jobs.length; i++ ) {
+			futures[ i ] = sensePool.submit( jobs[ i ]);
+		}
+		jobs[ 0 ].run();
+		for( int i = 1; i < jobs.length; i++ ) {
+			try {
+				futures[ i ].get();
+			}
+			catch( InterruptedException e1 ) {
+				System.err.println( e1 );
+			}
+			catch( ExecutionException e1 ) {
+				System.err.println( e1.getCause() );
+			}
+			futures[ i ] = null;
+		}
+	}
+
 	/**
 	 *	Asks the realtime producer to produce some time
 	 *	span of stream data. The actual production is
-	 *	deferred to the event thread.
+	 *	deferred to the producer's worker thread, this
+	 *	method returns immediately. A pending request for
+	 *	the same buffer half is replaced and counted as a drop.
 	 *
 	 *	@param	blockSpan	the time span to produce
 	 *	@param	even		<code>false</code> means the first
@@ -392,18 +635,57 @@ trnsLp:	for( int trnsIdx = 0; trnsIdx < s.numTrns; trnsIdx++ ) {
 	 *						buffer half will be overwritten.
 	 *	@param	deadline	the request must be fulfilled before
 	 *						the current system time reaches this
-	 *						deadline which is an absolute time value.
-	 *						if the deadline is missed, a warning text
-	 *						will be printed to the console.
+	 *						deadline which is an absolute time value
+	 *						(as returned by <code>System.currentTimeMillis</code>).
+	 *						if the worker cannot start production before
+	 *						the deadline, the request is dropped.
+	 *
+	 *	@see	#getNumDrops()
 	 */
 	public void requestProduction( Span blockSpan, boolean even, long deadline )
 	{
 		Request r   = new Request( TYPE_PRODUCE );
 		r.blockSpan = blockSpan;
 		r.even		= even;
+		r.deadline	= deadline;
 		
 //		lim.queue( r );
-		process( r );
+		synchronized( collPending ) {
+			if( removePending( even )) metrics.addDrop();
+			collPending.add( r );
+			if( worker == null ) {
+				worker = new Worker();
+				worker.start();
+			}
+			collPending.notifyAll();
+		}
+	}
+
+	// sync: call inside synchronized( collPending )
+	private boolean removePending( boolean even )
+	{
+		boolean removed = false;
+	
+		for( int i = collPending.size() - 1; i >= 0; i-- ) {
+			if( ((Request) collPending.get( i )).even == even ) {
+				collPending.remove( i );
+				removed = true;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 *	Returns the number of production requests
+	 *	which were dropped because their deadline
+	 *	had passed or because they were superseded
+	 *	by a newer request for the same buffer half.
+	 *
+	 *	@return	the number of dropped production requests
+	 */
+	public long getNumDrops()
+	{
+		return metrics.getNumDrops();
 	}
 
 	/**
@@ -416,12 +698,31 @@ trnsLp:	for( int trnsIdx = 0; trnsIdx < s.numTrns; trnsIdx++ ) {
 	 *						buffer half will be overwritten,
 	 *						<code>true</code> means the second
 	 *						buffer half will be overwritten.
+	 *						if the worker thread has already
+	 *						produced this span into this half,
+	 *						the method returns immediately.
+	 *	@return				the source which holds the produced data.
+	 *						consumers outside the event thread should
+	 *						read from this source rather than the
+	 *						<code>source</code> field, because a context
+	 *						change may replace the field at any time
 	 *
-	 *  @synchronization	call only in the event thread!
+	 *  @synchronization	call only in the event thread or
+	 *						in a consumer's trigger thread
 	 */
-	public void produceNow( Span blockSpan, boolean even )
+	public Source produceNow( Span blockSpan, boolean even )
 	{
-		produce( blockSpan, even, 250 );
+		synchronized( collPending ) {
+			removePending( even );
+		}
+		synchronized( sync ) {
+			if( blockSpan.equals( even ? source.firstDone : source.secondDone )) {
+				metrics.addPrefetched();
+			} else {
+				produce( blockSpan, even, 250 );
+			}
+			return source;
+		}
 	}
 
 	/**
@@ -548,8 +849,10 @@ trnsLp:	for( int trnsIdx = 0; trnsIdx < s.numTrns; trnsIdx++ ) {
 	 */
 	public void addConsumerRequestsNow( java.util.List requests )
 	{
-		collInfos.addAll( requests );
-		reConfig();
+		synchronized( sync ) {
+			collInfos.addAll( requests );
+			reConfig();
+		}
 	}
 
 	/**
@@ -569,6 +872,72 @@ trnsLp:	for( int trnsIdx = 0; trnsIdx < s.numTrns; trnsIdx++ ) {
 		process( r );
 	}
 
+	/*
+	 *	Calculates a contiguous range of the
+	 *	flattened sensitivity matrix cells
+	 */
+	private static class SenseJob
+	implements Runnable
+	{
+		private final Source	s;
+		private final int		start, stop;
+		private int				offStart, offStop;
+		
+		private SenseJob( Source s, int start, int stop )
+		{
+			this.s		= s;
+			this.start	= start;
+			this.stop	= stop;
+		}
+		
+		public void run()
+		{
+			int cell, trnsIdx, rcvIdx;
+		
+			for( int i = start; i < stop; i++ ) {
+				cell	= s.senseCells[ i ];
+				trnsIdx	= cell / s.numRcv;
+				rcvIdx	= cell % s.numRcv;
+				s.receivers[ rcvIdx ].getSensitivities(
+					s.trajBlockBuf[ trnsIdx ], s.senseBlockBuf[ trnsIdx ][ rcvIdx ],
+					offStart, offStop, s.minSenseStep );
+			}
+		}
+	}
+
+	/*
+	 *	Carries out the asynchronous
+	 *	production requests
+	 */
+	private class Worker
+	extends Thread
+	{
+		private Worker()
+		{
+			super( "RealtimeProducer" );
+			setDaemon( true );
+			setPriority( getPriority() + 1 );
+		}
+		
+		public void run()
+		{
+			Request r;
+		
+			while( true ) {
+				synchronized( collPending ) {
+					while( collPending.isEmpty() ) {
+						try {
+							collPending.wait();
+						}
+						catch( InterruptedException e1 ) {}
+					}
+					r = (Request) collPending.remove( 0 );
+				}
+				process( r );
+			}
+		}
+	}
+
 	/**
 	 *	Struct class describing
 	 *	a request made to the producer
@@ -654,7 +1023,10 @@ trnsLp:	for( int trnsIdx = 0; trnsIdx < s.numTrns; trnsIdx++ ) {
 		 *	may only read indices which are a multiple
 		 *	of their personal frameStep and only
 		 *	array fields which they have requested!
-		 *	Array indices are [numTrns][numRcv][bufSize]
+		 *	Array indices are [numTrns][numRcv][bufSize].
+		 *	The rows are handed on to the next context,
+		 *	so consumers must not keep references to them
+		 *	across context changes.
 		 */
 		public float[][][]		senseBlockBuf;
 		/**
@@ -674,6 +1046,8 @@ trnsLp:	for( int trnsIdx = 0; trnsIdx < s.numTrns; trnsIdx++ ) {
 		 *	array fields which they have requested!
 		 *	Array indices are [numTrns][ch][bufSize],
 		 *	whery channel 0 is x and channel 1 is y coordinates.
+		 *	Like <code>senseBlockBuf</code>, the rows are
+		 *	reused by the next context.
 		 */
 		public float[][][]		trajBlockBuf;
 		/**
@@ -702,6 +1076,13 @@ trnsLp:	for( int trnsIdx = 0; trnsIdx < s.numTrns; trnsIdx++ ) {
 		private boolean[]		trnsRequest;
 		private int				minSenseStep;
 		private int				doors			= 0;
+		// flattened (trnsIdx * numRcv + rcvIdx) requested matrix cells and their partition
+		private int[]			senseCells;
+		private SenseJob[]		senseJobs;
+		private Future[]		senseFutures;
+		// spans whose production into the respective half has been completed
+		private Span			firstDone		= null;
+		private Span			secondDone		= null;
 	} // class Source
 
 	public static class TrajectoryReplacement
@@ -35,11 +35,14 @@
  *		02-Feb-05	bugfix : before calling offhandProduction, ensure that
  *					a realtime context exists!
  *		15-Jul-08	created from old cillo transport
+ *		17-Oct-26	the context uses collection snapshots and is not recreated
+ *					if their versions did not change
  */
 
 package de.sciss.meloncillo.realtime;
 
 import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
 import java.util.prefs.PreferenceChangeEvent;
 import java.util.prefs.PreferenceChangeListener;
 import java.util.prefs.Preferences;
@@ -90,6 +93,9 @@ implements RealtimeHost, TimelineListener, PreferenceChangeListener, TransportLi
 	private static final int	CMD_CONFIG_RESUME	= 5;	// go on where we stopped but don't tell the listeners
 	private static final int	CMD_POSITION		= 6;	// go on at the context's timespan start
 
+	// deadline clock : wake-ups later than this (in nanosecs) are counted as late
+	private static final long	LATE_TOLERANCE		= 1000000L;
+
 	// low level threading
     private boolean threadRunning   = false;
 //    private	boolean looping			= false;
@@ -103,6 +109,7 @@ implements RealtimeHost, TimelineListener, PreferenceChangeListener, TransportLi
 
 	// realtime control
 	private RealtimeContext				rt_context;
+	private int							rt_rcvVersion, rt_trnsVersion;	// snapshot versions of rt_context
 	private RealtimeProducer			rt_producer;
 	private RealtimeConsumer[]			rt_consumers		= new RealtimeConsumer[ 4 ];	// array will grow
 	private RealtimeConsumerRequest[]	rt_requests			= new RealtimeConsumerRequest[ 4 ]; // ...automatically
@@ -112,6 +119,13 @@ implements RealtimeHost, TimelineListener, PreferenceChangeListener, TransportLi
 	private long						rt_stopFrame;
 	private long						rt_pos;
 	private int							rt_senseBufSize;
+	private boolean						rt_deadlineClock;
+
+	// deadline clock statistics ; written by the transport thread only
+	private volatile long				stat_numTicks		= 0;
+	private volatile long				stat_numLateTicks	= 0;
+	private volatile long				stat_maxLateNanos	= 0;
+	private volatile long				stat_sumLateNanos	= 0;
 	
 //	private final RealtimeContext		fakeContext = new RealtimeContext( this, Collections.EMPTY_LIST, Collections.EMPTY_LIST,
 //																	   new Span(), 1000 );
@@ -147,7 +161,7 @@ implements RealtimeHost, TimelineListener, PreferenceChangeListener, TransportLi
 			public void sessionCollectionChanged( SessionCollection.Event e )
 			{
 				synchronized( sync ) {
-					createContext();
+					if( !isContextCurrent() ) createContext();
 				}
 			}
 			
@@ -174,7 +188,7 @@ implements RealtimeHost, TimelineListener, PreferenceChangeListener, TransportLi
 			public void sessionCollectionChanged( SessionCollection.Event e )
 			{
 				synchronized( sync ) {
-					createContext();
+					if( !isContextCurrent() ) createContext();
 				}
 			}
 			
@@ -207,9 +221,10 @@ implements RealtimeHost, TimelineListener, PreferenceChangeListener, TransportLi
 		doc.getTransport().addTransportListener( this );
 		
 		plugInPrefs = AbstractApplication.getApplication().getUserPrefs().node( PrefsUtil.NODE_PLUGINS );
+		readDeadlineClock();
 		// fires KEY_SENSEBUFSIZE and thus causes calcSenseBufSize() and createContext() to be invoked
-		new DynamicPrefChangeManager( plugInPrefs, new String[] { PrefsUtil.KEY_RTSENSEBUFSIZE },
-											this ).startListening();
+		new DynamicPrefChangeManager( plugInPrefs, new String[] { PrefsUtil.KEY_RTSENSEBUFSIZE,
+											PrefsUtil.KEY_RTDEADLINECLOCK }, this ).startListening();
 	
         this.setDaemon( true );
         this.setPriority( getPriority() + 1 );
@@ -457,6 +472,11 @@ implements RealtimeHost, TimelineListener, PreferenceChangeListener, TransportLi
 		} // synchronized( sync )
 	}
 	
+	private void readDeadlineClock()
+	{
+		rt_deadlineClock = plugInPrefs.getBoolean( PrefsUtil.KEY_RTDEADLINECLOCK, true );
+	}
+
 	private void calcSenseBufSize()
 	{
 		int optimum, above, below;
@@ -474,6 +494,17 @@ implements RealtimeHost, TimelineListener, PreferenceChangeListener, TransportLi
 		}
 	}
 
+	// whether the context's receivers and transmitters are up to date,
+	// e.g. when several collection events are dispatched for
+	// modifications which were already seen by the first of them.
+	// to be called inside synchronized( sync ) block!
+	private boolean isContextCurrent()
+	{
+		return( (rt_context != null) &&
+				(rt_rcvVersion == doc.getReceivers().getSnapshot().getVersion()) &&
+				(rt_trnsVersion == doc.getTransmitters().getSnapshot().getVersion()) );
+	}
+
 	// will sync shared on timetrnsrcv
 	// to be called inside synchronized( sync ) block!
 	// to be called in event thread
@@ -481,6 +512,7 @@ implements RealtimeHost, TimelineListener, PreferenceChangeListener, TransportLi
 	{
 		final boolean			wasPlaying;
 		final ArrayList			collRequests;
+		final SessionCollection.Snapshot	collRcv, collTrns;
 		RealtimeConsumerRequest	request;
 //		RealtimeContext			newContext;
 	
@@ -516,8 +548,12 @@ implements RealtimeHost, TimelineListener, PreferenceChangeListener, TransportLi
 			}
 
 			// ------------------------- recontext ------------------------- 
-			rt_context		= new RealtimeContext( this, doc.getReceivers().getAll(),
-												   doc.getTransmitters().getAll(),
+			// the snapshots are immutable, so the context can use them directly
+			collRcv			= doc.getReceivers().getSnapshot();
+			collTrns		= doc.getTransmitters().getSnapshot();
+			rt_rcvVersion	= collRcv.getVersion();
+			rt_trnsVersion	= collTrns.getVersion();
+			rt_context		= new RealtimeContext( this, collRcv, collTrns,
 												   new Span( 0, doc.timeline.getLength() ),
 												   doc.timeline.getRate() );
 			rt_context.setSourceBlockSize( rt_senseBufSize );
@@ -607,9 +643,81 @@ implements RealtimeHost, TimelineListener, PreferenceChangeListener, TransportLi
 		}
 	}
 
+	/**
+	 *	Returns the number of ticks delivered
+	 *	since the last start of playback. Only
+	 *	counted when the deadline clock is used.
+	 *
+	 *	@return	the number of delivered ticks
+	 */
+	public long getNumTicks()
+	{
+		return stat_numTicks;
+	}
+
+	/**
+	 *	Returns the number of ticks since the last start
+	 *	of playback whose wake-up missed the deadline by
+	 *	more than one millisecond.
+	 *
+	 *	@return	the number of late ticks
+	 */
+	public long getNumLateTicks()
+	{
+		return stat_numLateTicks;
+	}
+
+	/**
+	 *	Returns the maximum lateness of a tick
+	 *	wake-up since the last start of playback.
+	 *
+	 *	@return	the maximum lateness in nanoseconds
+	 */
+	public long getMaxTickLateness()
+	{
+		return stat_maxLateNanos;
+	}
+
+	/**
+	 *	Returns the mean lateness of tick wake-ups
+	 *	since the last start of playback.
+	 *
+	 *	@return	the mean lateness in nanoseconds
+	 */
+	public long getMeanTickLateness()
+	{
+		final long n = stat_numTicks;
+		return( n == 0 ? 0 : stat_sumLateNanos / n );
+	}
+
+	// sync : call only in the transport thread
+	private void resetTickStatistics()
+	{
+		stat_numTicks		= 0;
+		stat_numLateTicks	= 0;
+		stat_maxLateNanos	= 0;
+		stat_sumLateNanos	= 0;
+	}
+
+	// sync : call only in the transport thread
+	private void registerTick( long lateNanos )
+	{
+		stat_numTicks++;
+		stat_sumLateNanos += lateNanos;
+		if( lateNanos > LATE_TOLERANCE ) stat_numLateTicks++;
+		if( lateNanos > stat_maxLateNanos ) stat_maxLateNanos = lateNanos;
+		rt_producer.getMetrics().addTickLateness( lateNanos );
+	}
+
 	/**
 	 *	The transport core is
-	 *	executed within the thread's run method
+	 *	executed within the thread's run method.
+	 *	Two clocks are available: the legacy clock
+	 *	which estimates the current rate from the
+	 *	millisecond system time and yields until the
+	 *	target rate is reached, and the deadline clock
+	 *	which calculates the absolute nano time of each
+	 *	tick and parks the thread until it is reached.
 	 */
     public void run()
     {
@@ -623,6 +731,8 @@ implements RealtimeHost, TimelineListener, PreferenceChangeListener, TransportLi
         int				currentRate, i;
         double			targetRate	= 1.0; // was: int
         long			deadline	= 0; // was: long
+        long			startNanos	= 0, lateNanos;
+        boolean			deadlineClock = false;
 // EEE
 //		UndoableEdit	edit;
 		RealtimeConsumerRequest	r;
@@ -673,7 +783,10 @@ commandLp:		do {
 						// d.h. bei 1000 Hz und halber buffer size von 512 sind das 256 millisec.
 						deadline		= (long) (500 * rt_producer.source.bufSizeH / targetRate);
 						startTime		= System.currentTimeMillis() - 1;   // division by zero vermeiden
+						startNanos		= System.nanoTime();
+						deadlineClock	= rt_deadlineClock;
 						frameCount		= 0;
+						resetTickStatistics();
 						rt_pos			= rt_startFrame;
 						sync.notifyAll();
 						break commandLp;
@@ -704,12 +817,25 @@ commandLp:		do {
 rt_loop:	while( threadRunning ) {
 				frameCount += rt_notifyTickStep;
 				rt_pos	   += rt_notifyTickStep;
-				sysTime		= System.currentTimeMillis();
-				currentRate = (int) (1000 * frameCount / (sysTime - startTime));
-				while( currentRate > targetRate ) { // wir sind der zeit voraus
-					yield();
+				if( deadlineClock ) {
+					// absolute deadline of this tick ; being late means
+					// we don't park at all and thus catch up
+					lateNanos	= System.nanoTime() - (startNanos + (long) (frameCount * 1.0e9 / targetRate));
+					while( lateNanos < 0 ) { // wir sind der zeit voraus
+						LockSupport.parkNanos( -lateNanos );
+						interrupted();	// parkNanos would not block with a pending interrupt
+						lateNanos = System.nanoTime() - (startNanos + (long) (frameCount * 1.0e9 / targetRate));
+					}
+					registerTick( lateNanos );
+					sysTime		= System.currentTimeMillis();
+				} else {
 					sysTime		= System.currentTimeMillis();
 					currentRate = (int) (1000 * frameCount / (sysTime - startTime));
+					while( currentRate > targetRate ) { // wir sind der zeit voraus
+						Thread.yield();
+						sysTime		= System.currentTimeMillis();
+						currentRate = (int) (1000 * frameCount / (sysTime - startTime));
+					}
 				}
 
 				// handle stop + loop
@@ -763,9 +889,11 @@ rt_loop:	while( threadRunning ) {
 				}
 				
 //				yield();
-				try {
-					sleep( 0, 1 );
-				} catch( InterruptedException e1 ) {}
+				if( !deadlineClock ) {
+					try {
+						sleep( 0, 1 );
+					} catch( InterruptedException e1 ) {}
+				}
 			} // while( threadRunning )
 		} while( true );
     }
@@ -906,11 +1034,14 @@ rt_loop:	while( threadRunning ) {
 	// invoke in event thread!
 	private void invokeRealtimeBlock( boolean even )
 	{
+		final long t0 = System.nanoTime();
+	
 		for( int i = 0; i < rt_numConsumers; i++ ) {
 			if( rt_requests[ i ].notifyBlocks ) {
 				rt_consumers[ i ].realtimeBlock( rt_context, rt_producer.source, even );
 			}
 		}
+		rt_producer.getMetrics().addConsumerBlock( System.nanoTime() - t0 );
 	}
 	
 	// call in event thread
@@ -1012,6 +1143,7 @@ ourLp:		for( i = 0; i < rt_numConsumers; i++ ) {
 	public void transportQuit( Transport transport )
 	{
 		quit();
+		rt_producer.dispose();
 	}
 	
 	public void transportReadjust( Transport transport, long pos, double rate )
@@ -1031,6 +1163,10 @@ ourLp:		for( i = 0; i < rt_numConsumers; i++ ) {
 	public void preferenceChange( PreferenceChangeEvent pce )
 	{
         synchronized( sync ) {
+			if( pce.getKey().equals( PrefsUtil.KEY_RTDEADLINECLOCK )) {
+				readDeadlineClock();	// picked up by the next CMD_PLAY
+				return;
+			}
 			calcSenseBufSize();
 			createContext();
 		}
@@ -202,6 +202,8 @@ extends TableLookupReceiver
 		miny	= bounds.getMinY();
 		maxy	= bounds.getMaxY();
 		outline.transform( AffineTransform.getTranslateInstance( -anchor.getX(), -anchor.getY() ));
+
+		invalidateSenseGrid( minx, miny, maxx, maxy );
 	}
 
 	protected String[] getBoundingKeys()
@@ -257,13 +259,13 @@ extends TableLookupReceiver
 	}
 
 	/**
-	 *  The <code>getSensitivities</code>
-	 *  method uses linear interpolation in
+	 *  The exact sensitivity calculation
+	 *  uses linear interpolation in
 	 *  the table lookup process in order
 	 *  to provide maximum smoothness and
 	 *  avoid zipper noise.
 	 */
-	public void getSensitivities( float[][] points, float[] sense, int off, int stop, int step )
+	protected void getExactSensitivities( float[][] points, float[] sense, int off, int stop, int step )
 	{
 		double		r, theta, dx, dy, dxs, dys, ds, wdist, wrot;
 		int			rotIdx, distIdx, rotIdx2, distIdx2;
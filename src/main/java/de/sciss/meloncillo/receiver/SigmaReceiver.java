@@ -174,6 +174,8 @@ extends TableLookupReceiver
 		bounds.setFrame( minx, miny, width, height );
 		
 		rotNorm = (double) rotationTable.length / PI2;
+
+		invalidateSenseGrid( minx, miny, maxx, maxy );
 	}
 
 	protected String[] getBoundingKeys()
@@ -187,13 +189,13 @@ extends TableLookupReceiver
 	}
 
 	/**
-	 *  The <code>getSensitivities</code>
-	 *  method uses linear interpolation in
+	 *  The exact sensitivity calculation
+	 *  uses linear interpolation in
 	 *  the table lookup process in order
 	 *  to provide maximum smoothness and
 	 *  avoid zipper noise.
 	 */
-	public void getSensitivities( float[][] points, float[] sense, int off, int stop, int step )
+	protected void getExactSensitivities( float[][] points, float[] sense, int off, int stop, int step )
 	{
 		double		r, theta, dx, dy, wdist, wrot;
 		int			rotIdx, distIdx, rotIdx2, distIdx2;
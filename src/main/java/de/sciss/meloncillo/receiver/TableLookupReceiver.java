@@ -25,6 +25,7 @@
  *
  *  Changelog:
  *		04-Apr-05	created
+ *		17-Oct-26	fromXML may defer reading the tables
  */
 
 package de.sciss.meloncillo.receiver;
@@ -36,8 +37,10 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -63,6 +66,17 @@ import de.sciss.meloncillo.util.MapManager;
  *	</pre>
  *	This constructor must call the super constructor
  *	<code>protected TableLookupReceiver( TableLookupReceiver orig )</code>.
+ *	<p>
+ *	Subclasses implement the exact sensitivity calculation in
+ *	<code>getExactSensitivities</code>. When the fast mode is
+ *	enabled (see <code>setFastSensitivities</code>), this class
+ *	instead answers <code>getSensitivities</code> by bilinear
+ *	interpolation of a sensitivity grid that is sampled from the
+ *	exact calculation across the receiver's bounding box. The grid is
+ *	rebuilt lazily after <code>recalcBounds</code> or a table change.
+ *	The error is bounded by the variation of the sensitivity across one
+ *	grid cell (1/<code>SENSE_GRID_SIZE</code> of the bounding box);
+ *	it is largest along discontinuities such as sector borders.
  *
  *  @author		Hanns Holger Rutz
  *  @version	0.75, 10-Jun-08
@@ -97,6 +111,17 @@ implements Transferable
 
 	private static final DataFlavor[] supportedFlavors = { receiverFlavor, DataFlavor.stringFlavor };
 
+	/**
+	 *	Number of grid points along each axis
+	 *	of the cached sensitivity grid
+	 */
+	public static final int		SENSE_GRID_SIZE		= 256;
+
+	private static volatile boolean	fastSensitivities	= false;
+
+	private volatile SenseGrid	senseGrid		= null;	// lazily created
+	private double				gridMinX, gridMinY, gridMaxX, gridMaxY;
+
 	/**
 	 *  Creates a new Receiver with custom tables.
 	 *
@@ -160,6 +185,135 @@ implements Transferable
 	 */
 	protected abstract String[] getBoundingKeys();
 
+	/**
+	 *	Calculates the sensitivities exactly from the
+	 *	distance and rotation tables. The arguments are the
+	 *	same as for <code>getSensitivities</code>.
+	 *
+	 *	@see	Receiver#getSensitivities( float[][], float[], int, int, int )
+	 */
+	protected abstract void getExactSensitivities( float[][] points, float[] sense, int off, int stop, int step );
+
+	/**
+	 *	Switches between the exact calculation and
+	 *	the interpolated sensitivity grid for all
+	 *	table lookup receivers.
+	 *
+	 *	@param	onOff	<code>true</code> to use the (faster but
+	 *					less accurate) sensitivity grid
+	 */
+	public static void setFastSensitivities( boolean onOff )
+	{
+		fastSensitivities = onOff;
+	}
+
+	/**
+	 *	Queries whether the sensitivity
+	 *	grid is used.
+	 *
+	 *	@return	<code>true</code> if the sensitivity grid is used
+	 */
+	public static boolean getFastSensitivities()
+	{
+		return fastSensitivities;
+	}
+
+	/**
+	 *	Subclasses must call this method at the end
+	 *	of <code>recalcBounds</code> to announce the rectangle
+	 *	outside of which the sensitivity is zero. The cached
+	 *	sensitivity grid is discarded.
+	 */
+	protected final void invalidateSenseGrid( double minX, double minY, double maxX, double maxY )
+	{
+		synchronized( this ) {
+			gridMinX	= minX;
+			gridMinY	= minY;
+			gridMaxX	= maxX;
+			gridMaxY	= maxY;
+			senseGrid	= null;
+		}
+	}
+
+	/**
+	 *	Calculates the sensitivities either exactly
+	 *	or from the cached sensitivity grid, depending
+	 *	on the fast mode.
+	 *
+	 *	@see	#setFastSensitivities( boolean )
+	 */
+	public void getSensitivities( float[][] points, float[] sense, int off, int stop, int step )
+	{
+		if( fastSensitivities ) {
+			getGridSensitivities( points, sense, off, stop, step );
+		} else {
+			getExactSensitivities( points, sense, off, stop, step );
+		}
+	}
+
+	private void getGridSensitivities( float[][] points, float[] sense, int off, int stop, int step )
+	{
+		SenseGrid g = senseGrid;
+		if( g == null ) g = createSenseGrid();
+
+		final float[]	data	= g.data;
+		final float[]	px		= points[ 0 ];
+		final float[]	py		= points[ 1 ];
+		final int		last	= SENSE_GRID_SIZE - 2;
+		double			fx, fy, wx, wy;
+		int				ix, iy, i;
+		
+		for( ; off < stop; off += step ) {
+			fx = (px[ off ] - g.minX) * g.scaleX;
+			fy = (py[ off ] - g.minY) * g.scaleY;
+			// the negated comparison also catches NaN (empty bounds)
+			if( !(fx >= 0.0 && fx <= SENSE_GRID_SIZE - 1 && fy >= 0.0 && fy <= SENSE_GRID_SIZE - 1) ) {
+				sense[ off ] = 0.0f;
+				continue;
+			}
+			ix	= Math.min( last, (int) fx );
+			iy	= Math.min( last, (int) fy );
+			wx	= fx - ix;
+			wy	= fy - iy;
+			i	= iy * SENSE_GRID_SIZE + ix;
+			sense[ off ] = (float)
+				((1.0 - wy) * ((1.0 - wx) * data[ i ] + wx * data[ i + 1 ]) +
+				 wy * ((1.0 - wx) * data[ i + SENSE_GRID_SIZE ] + wx * data[ i + SENSE_GRID_SIZE + 1 ]));
+		}
+	}
+
+	// samples the exact calculation row by row
+	private synchronized SenseGrid createSenseGrid()
+	{
+		if( senseGrid != null ) return senseGrid;
+
+		final SenseGrid	g		= new SenseGrid();
+		final float[][]	pts		= new float[ 2 ][ SENSE_GRID_SIZE ];
+		final float[]	row		= new float[ SENSE_GRID_SIZE ];
+		final double	dx		= (gridMaxX - gridMinX) / (SENSE_GRID_SIZE - 1);
+		final double	dy		= (gridMaxY - gridMinY) / (SENSE_GRID_SIZE - 1);
+		
+		g.data		= new float[ SENSE_GRID_SIZE * SENSE_GRID_SIZE ];
+		g.minX		= gridMinX;
+		g.minY		= gridMinY;
+		g.scaleX	= 1.0 / dx;
+		g.scaleY	= 1.0 / dy;
+
+		for( int i = 0; i < SENSE_GRID_SIZE; i++ ) {
+			pts[ 0 ][ i ] = (float) (gridMinX + i * dx);
+		}
+		for( int j = 0; j < SENSE_GRID_SIZE; j++ ) {
+			final float y = (float) (gridMinY + j * dy);
+			for( int i = 0; i < SENSE_GRID_SIZE; i++ ) {
+				pts[ 1 ][ i ] = y;
+			}
+			getExactSensitivities( pts, row, 0, SENSE_GRID_SIZE, 1 );
+			System.arraycopy( row, 0, g.data, j * SENSE_GRID_SIZE, SENSE_GRID_SIZE );
+		}
+		senseGrid = g;
+		return g;
+	}
+
 	/**
 	 *  Gets the table describing the
 	 *  sensitivity as function of the distance.
@@ -227,7 +381,10 @@ implements Transferable
 	 */
 	public void setDistanceTable( float[] distanceTable )
 	{
-		this.distanceTable  = distanceTable;
+		synchronized( this ) {
+			this.distanceTable  = distanceTable;
+			senseGrid			= null;
+		}
 	}
 
 	/**
@@ -243,7 +400,10 @@ implements Transferable
 	 */
 	public void setRotationTable( float[] rotationTable )
 	{
-		this.rotationTable  = rotationTable;
+		synchronized( this ) {
+			this.rotationTable  = rotationTable;
+			senseGrid			= null;
+		}
 	}
 
 // ---------------- Transferable interface ---------------- 
@@ -373,7 +533,8 @@ implements Transferable
 	 *  is used for each table, because table sizes might
 	 *  differ from each other. The file name's are
 	 *  deduced from the receiver's logical name and special
-	 *  suffix.
+	 *  suffix. When the options contain <code>KEY_DEFERRED</code>,
+	 *	the tables are read by a deferred job.
 	 *
 	 *  @see	de.sciss.meloncillo.io.InterleavedStreamFile
 	 */
@@ -382,6 +543,26 @@ implements Transferable
 	{
 		super.fromXML( domDoc, node, options );
 
+		final File dir		= new File( (File) options.get( XMLRepresentation.KEY_BASEPATH ), SUBDIR );
+		final List deferred	= (List) options.get( XMLRepresentation.KEY_DEFERRED );
+
+		if( deferred == null ) {
+			readTables( dir );
+		} else {
+			deferred.add( new Callable() {
+				public Object call()
+				throws IOException
+				{
+					readTables( dir );
+					return null;
+				}
+			});
+		}
+	}
+
+	private void readTables( File dir )
+	throws IOException
+	{
 		InterleavedStreamFile	iff;
 		float[][]				frameBuf	= new float[ 1 ][];
 		int						size;
@@ -390,8 +571,7 @@ implements Transferable
 // File f2 = new File( getDirectory(), getName() + SUFFIX_DISTANCE );
 // System.err.println( "file name : "+f2.getAbsolutePath() );
 
-		iff = AudioFile.openAsRead( new File( new File( (File) options.get(
-				XMLRepresentation.KEY_BASEPATH ), SUBDIR ), getName() + SUFFIX_DISTANCE ));
+		iff = AudioFile.openAsRead( new File( dir, getName() + SUFFIX_DISTANCE ));
 			
 		size = (int) iff.getFrameNum();
 		if( size != distanceTable.length ) {
@@ -401,8 +581,7 @@ implements Transferable
 		iff.readFrames( frameBuf, 0, size );
 		iff.close();
 
-		iff = AudioFile.openAsRead( new File( new File( (File) options.get(
-				XMLRepresentation.KEY_BASEPATH ), SUBDIR ), getName() + SUFFIX_ROTATION ));
+		iff = AudioFile.openAsRead( new File( dir, getName() + SUFFIX_ROTATION ));
 			
 		size = (int) iff.getFrameNum();
 		if( size != rotationTable.length ) {
@@ -411,5 +590,22 @@ implements Transferable
 		frameBuf[ 0 ] = rotationTable;
 		iff.readFrames( frameBuf, 0, size );
 		iff.close();
+		
+		synchronized( this ) {
+			senseGrid = null;
+		}
+	}
+
+// ---------------- internal classes ---------------- 
+
+	/*
+	 *	Immutable once published. Rows of
+	 *	SENSE_GRID_SIZE sensitivities, sampled
+	 *	from minX/minY in steps of 1/scale
+	 */
+	private static class SenseGrid
+	{
+		private float[]	data;
+		private double	minX, minY, scaleX, scaleY;
 	}
 }
\ No newline at end of file
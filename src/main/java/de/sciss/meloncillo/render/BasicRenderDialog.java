@@ -30,6 +30,9 @@
  *					by AbstractPlugInFrame
  *		01-Aug-04   bugfix : didn't register dynamic listener
  *		02-Sep-04	commented
+ *		17-Oct-26	processRun is pipelined : reading, parallel resampling and
+ *					sensitivities, consumer
+ *		17-Oct-26	unexpected exceptions of the reader are passed on to the consumer
  */
 
 package de.sciss.meloncillo.render;
@@ -39,6 +42,13 @@ import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.io.IOException;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -94,6 +104,9 @@ implements  RenderHost, ProcessingThread.Client,
 
 	private boolean renderingRunning = false;
 
+	// number of blocks circulating between the reader, the render pool and the consumer
+	private static final int	NUM_PIPELINE_BLOCKS	= 4;
+
 	private final SessionCollectionListener receiversListener			= new SessionCollectionListener( false );
 	private final SessionCollectionListener selectedReceiversListener	= new SessionCollectionListener( true );
 	private final SessionCollectionListener transmittersListener		= receiversListener;
@@ -287,6 +300,15 @@ implements  RenderHost, ProcessingThread.Client,
  *	<code>invokeProducerBegin</code>, <code>invokeProducerRender</code>,
  *	<code>invokeProducerCancel</code> and <code>invokeProducerFinish</code>.
  *	<p>
+ *	The stream data is produced in a pipeline: a reader thread
+ *	reads the trajectories block by block, the resampling
+ *	and sensitivity calculation of each transmitter is run in
+ *	a pool with one thread per processor, and the finished
+ *	blocks are handed to the consumer in order in the processing
+ *	thread, so the <code>invokeProducer...</code> methods are
+ *	still called from this thread only. A small fixed number of
+ *	blocks circulates, so the reader never gets far ahead of the consumer.
+ *	<p>
  *  If resampling is active, here's the scheme of the
  *  buffer handling:<br>
  *  <PRE>
@@ -350,12 +372,13 @@ implements  RenderHost, ProcessingThread.Client,
 		RenderSource					source;
 		final Application				app			= AbstractApplication.getApplication();
 
-		float[][]						inTrnsFrames, outTrnsFrames;
+		float[][]						outTrnsFrames;
 		int								minBlockSize, maxBlockSize, prefBlockSize;
-		int								i, numTrns, numRcv, trnsIdx, rcvIdx, readLen, writeLen;
-		Transmitter						trns;
-		AudioTrail						at;
+		int								i, numTrns, numRcv, trnsIdx, rcvIdx;
 		boolean[]						trnsRequest;
+		RenderReader					reader		= null;
+		ExecutorService					renderPool	= null;
+		RenderBlock						block;
 		Object							val;
 		long							readOffset, remainingRead, remainingWrite;
 		Set								newOptions;
@@ -370,10 +393,7 @@ implements  RenderHost, ProcessingThread.Client,
 		int						trnsInside  = 0;
 		Resampling				rsmp		= null;
 		double					rsmpFactor  = 1.0;
-		double					inPhase		= 0.0;
-		double					newInPhase  = 0.0;
 		double					fltLen		= 0.0;
-		float[][][]				trnsOverlaps= null;
 
 		// --- init ---
 
@@ -453,16 +473,11 @@ implements  RenderHost, ProcessingThread.Client,
 				}
 				overlapOff		= inTrnsLen - overlapLen;
 				trnsInside		= inTrnsLen - fltLenI - fltLenI;
-				trnsOverlaps	= new float[ numTrns ][2][ overlapLen ];
-				inTrnsFrames	= new float[2][ inTrnsLen ];
-				outTrnsFrames   = new float[2][ outTrnsLen ];
 				remainingWrite  = (long) (remainingRead * rsmpFactor + 0.5);
 //System.err.println( "fltLen "+fltLen+"; inOff "+inOff+"; overlapLen "+overlapLen+"; inTrnsLen "+inTrnsLen+"; outTrnsLen "+outTrnsLen+"; rsmpFactor "+rsmpFactor );
 			} else {
 				inTrnsLen		= prefBlockSize;
 				outTrnsLen		= inTrnsLen;
-				inTrnsFrames	= new float[2][ inTrnsLen ];
-				outTrnsFrames   = inTrnsFrames;
 				inOff			= 0;
 				remainingWrite  = remainingRead;
 			}
@@ -483,64 +498,41 @@ implements  RenderHost, ProcessingThread.Client,
 				}
 			}
 
-			// --- rendering loop ---
+			// --- rendering pipeline ---
+			// the reader fills blocks and hands each requested transmitter
+			// to the render pool for resampling and sensitivities; we
+			// collect the blocks in order and pass them to the consumer
 
-			while( isRunning() && remainingWrite > 0 ) {
-				readLen				= (int) Math.min( inTrnsLen - inOff, remainingRead );
-				source.blockSpan	= new Span( readOffset, readOffset + readLen );
-				if( rsmp != null ) {
-					inPhase			= newInPhase;
-					writeLen		= (int) Math.min( Math.ceil( (trnsInside - inPhase) * rsmpFactor ), remainingWrite );
-				} else {
-					writeLen		= readLen;
-				}
-				source.blockBufLen  = writeLen;
+			renderPool			= createRenderPool();
+			reader				= new RenderReader( context, source, trnsRequest, inTrnsLen, outTrnsLen,
+													inOff, readOffset, remainingRead, remainingWrite, renderPool );
+			if( rsmp != null ) {
+				reader.setResampling( rsmp, rsmpFactor, fltLenI, overlapLen, overlapOff, trnsInside );
+			}
+			reader.start();
+
+			while( isRunning() ) {
+				block = reader.takeReady();
+				if( block == null ) break;		// all blocks delivered
 
+				block.await();
+				source.blockSpan	= block.blockSpan;
+				source.blockBufLen	= block.writeLen;
 				for( trnsIdx = 0; trnsIdx < numTrns; trnsIdx++ ) {
-					if( !trnsRequest[ trnsIdx ]) continue;
-					
-					// --- read transmitter trajectory data ---
-					trns		= (Transmitter) context.getTransmitters().get( trnsIdx );
-					at			= trns.getAudioTrail();
-//					at.read( source.blockSpan, inTrnsFrames, inOff );
-					at.readFrames( inTrnsFrames, inOff, source.blockSpan );
-					for( i = inOff + readLen; i < inTrnsLen; i++ ) {
-						inTrnsFrames[0][i] = 0.0f;		// zero pad in the end 
-						inTrnsFrames[1][i] = 0.0f;		// XXX actually the last sample should be repeated!
-					}
-					
-					// --- resampling ---
-					if( rsmp != null ) {
-						System.arraycopy( trnsOverlaps[trnsIdx][0], 0, inTrnsFrames[0], 0, inOff );
-						System.arraycopy( trnsOverlaps[trnsIdx][1], 0, inTrnsFrames[1], 0, inOff );
-						rsmp.resample( inTrnsFrames[0], fltLenI + inPhase, outTrnsFrames[0], 0, writeLen, rsmpFactor );
-						rsmp.resample( inTrnsFrames[1], fltLenI + inPhase, outTrnsFrames[1], 0, writeLen, rsmpFactor );
-						System.arraycopy( inTrnsFrames[0], overlapOff, trnsOverlaps[trnsIdx][0], 0, overlapLen );
-						System.arraycopy( inTrnsFrames[1], overlapOff, trnsOverlaps[trnsIdx][1], 0, overlapLen );
-					}
-					
 					// --- satisfy trajectory requests ---
 					if( source.trajRequest[ trnsIdx ]) {
-						System.arraycopy( outTrnsFrames[0], 0, source.trajBlockBuf[ trnsIdx ][0], 0, writeLen );
-						System.arraycopy( outTrnsFrames[1], 0, source.trajBlockBuf[ trnsIdx ][1], 0, writeLen );
+						outTrnsFrames = block.outFrames[ trnsIdx ];
+						System.arraycopy( outTrnsFrames[0], 0, source.trajBlockBuf[ trnsIdx ][0], 0, block.writeLen );
+						System.arraycopy( outTrnsFrames[1], 0, source.trajBlockBuf[ trnsIdx ][1], 0, block.writeLen );
 					}
-					
 					// --- satisfy sensibilities requests ---
 					for( rcvIdx = 0; rcvIdx < numRcv; rcvIdx++ ) {
 						if( !source.senseRequest[ trnsIdx ][ rcvIdx ]) continue;
-
-						((Receiver) context.getReceivers().get( rcvIdx )).getSensitivities(
-							outTrnsFrames, source.senseBlockBuf[ trnsIdx ][ rcvIdx ],
-							0, writeLen, 1 );
-					} // for( rcvIdx = 0; rcvIdx < numRcv; rcvIdx++ )
-				} // for( trnsIdx = 0; trnsIdx < numTrns; trnsIdx++ )
-
-				if( rsmp != null ) {
-					inOff		= overlapLen;
-					newInPhase  = (inPhase + writeLen / rsmpFactor) - trnsInside;
-//					newInPhase  = (inPhase + writeLen / rsmpFactor) % 1.0;
+						System.arraycopy( block.sense[ trnsIdx ][ rcvIdx ], 0,
+										  source.senseBlockBuf[ trnsIdx ][ rcvIdx ], 0, block.writeLen );
+					}
 				}
-				remainingRead -= readLen;
+				reader.recycle( block );
 
 				// --- handle thread ---
 				if( !isRunning() ) {
@@ -549,10 +541,7 @@ implements  RenderHost, ProcessingThread.Client,
 
 				// --- producer rendering ---
 				if( !invokeProducerRender( pt, context, source, plugIn )) return FAILED;
-
-				remainingWrite -= writeLen;
-				readOffset     += readLen;
-			} // while( isRunning() && remainingWrite > 0 )
+			} // while( isRunning() )
 
 			// --- finishing ---
 			if( !isRunning() ) {
@@ -565,7 +554,14 @@ implements  RenderHost, ProcessingThread.Client,
 		catch( IOException e1 ) {
 			pt.setException( e1 );
 		}
+		catch( InterruptedException e1 ) {
+			pt.setException( e1 );
+		}
 		finally {
+			// the reader must not touch the trails any more
+			// when the plug-in's edits are undone
+			if( reader != null ) reader.quit();
+			if( renderPool != null ) renderPool.shutdownNow();
 			if( !success ) {	// on failure cancel rendering and undo edits
 				try {
 					invokeProducerCancel( pt, context, source, plugIn );
@@ -579,6 +575,21 @@ implements  RenderHost, ProcessingThread.Client,
 		return success ? DONE : FAILED;
 	}
 	
+	// one thread per core ; the consumer runs in the processing thread
+	private static ExecutorService createRenderPool()
+	{
+		return Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			private int count = 0;
+			
+			public Thread newThread( Runnable r )
+			{
+				final Thread t = new Thread( r, "Render-" + (++count) );
+				t.setDaemon( true );
+				return t;
+			}
+		});
+	}
+
 	public void processCancel( ProcessingThread context ) {}
 
 	/**
@@ -787,4 +798,285 @@ implements  RenderHost, ProcessingThread.Client,
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	// one block of stream data travelling through the render pipeline
+	private static class RenderBlock
+	{
+		private Span				blockSpan;
+		private int					writeLen;
+		private double				inPhase;
+		private final float[][][]	inFrames, outFrames;
+		private final float[][][]	sense;
+		private final Runnable[]	jobs;
+		private final Future[]		futures;
+
+		// creates a marker block
+		protected RenderBlock()
+		{
+			inFrames	= null;
+			outFrames	= null;
+			sense		= null;
+			jobs		= null;
+			futures		= null;
+		}
+
+		protected RenderBlock( RenderReader r )
+		{
+			final int numTrns	= r.trnsRequest.length;
+
+			inFrames	= new float[ numTrns ][][];
+			outFrames	= new float[ numTrns ][][];
+			sense		= new float[ numTrns ][ r.rcvs.length ][];
+			jobs		= new Runnable[ numTrns ];
+			futures		= new Future[ numTrns ];
+
+			for( int trnsIdx = 0; trnsIdx < numTrns; trnsIdx++ ) {
+				if( !r.trnsRequest[ trnsIdx ]) continue;
+				inFrames[ trnsIdx ]		= new float[ 2 ][ r.inTrnsLen ];
+				outFrames[ trnsIdx ]	= r.rsmp == null ? inFrames[ trnsIdx ] : new float[ 2 ][ r.outTrnsLen ];
+				for( int rcvIdx = 0; rcvIdx < r.rcvs.length; rcvIdx++ ) {
+					if( r.senseRequest[ trnsIdx ][ rcvIdx ]) {
+						sense[ trnsIdx ][ rcvIdx ] = new float[ r.outTrnsLen ];
+					}
+				}
+				jobs[ trnsIdx ]			= new TransmitterJob( r, this, trnsIdx );
+			}
+		}
+
+		// waits for all transmitter jobs of this block
+		protected void await()
+		throws InterruptedException
+		{
+			for( int trnsIdx = 0; trnsIdx < futures.length; trnsIdx++ ) {
+				if( futures[ trnsIdx ] == null ) continue;
+				try {
+					futures[ trnsIdx ].get();
+				}
+				catch( ExecutionException e1 ) {	// jobs don't throw checked exceptions
+					if( e1.getCause() instanceof RuntimeException ) throw (RuntimeException) e1.getCause();
+					throw (Error) e1.getCause();
+				}
+				futures[ trnsIdx ] = null;
+			}
+		}
+	}
+
+	// resamples one transmitter of a block and calculates its sensitivities
+	private static class TransmitterJob
+	implements Runnable
+	{
+		private final RenderReader	r;
+		private final RenderBlock	block;
+		private final int			trnsIdx;
+
+		protected TransmitterJob( RenderReader r, RenderBlock block, int trnsIdx )
+		{
+			this.r			= r;
+			this.block		= block;
+			this.trnsIdx	= trnsIdx;
+		}
+
+		public void run()
+		{
+			final float[][] outFrames = block.outFrames[ trnsIdx ];
+		
+			// --- resampling ---
+			if( r.rsmp != null ) {
+				r.rsmp.resample( block.inFrames[ trnsIdx ], r.fltLenI + block.inPhase, outFrames, 0,
+								 block.writeLen, r.rsmpFactor );
+			}
+			
+			// --- sensitivities ---
+			for( int rcvIdx = 0; rcvIdx < r.rcvs.length; rcvIdx++ ) {
+				if( !r.senseRequest[ trnsIdx ][ rcvIdx ]) continue;
+
+				r.rcvs[ rcvIdx ].getSensitivities( outFrames, block.sense[ trnsIdx ][ rcvIdx ], 0, block.writeLen, 1 );
+			}
+		}
+	}
+
+	/*
+	 *	Reads the transmitter trails block by block, handles
+	 *	the resampling overlaps and submits the transmitter jobs
+	 *	of each block to the render pool. Blocks are passed
+	 *	on through the ready queue and come back through
+	 *	the free queue once the consumer has copied them.
+	 */
+	private static class RenderReader
+	extends Thread
+	{
+		private final AudioTrail[]		trails;
+		private final Receiver[]		rcvs;
+		private final boolean[]			trnsRequest;
+		private final boolean[][]		senseRequest;
+		private final int				inTrnsLen, outTrnsLen;
+		private final ExecutorService	pool;
+		private final BlockingQueue		freeBlocks		= new ArrayBlockingQueue( NUM_PIPELINE_BLOCKS + 1 );
+		private final BlockingQueue		readyBlocks		= new ArrayBlockingQueue( NUM_PIPELINE_BLOCKS + 1 );
+		private final RenderBlock		endOfBlocks		= new RenderBlock();
+
+		private int						inOff;
+		private long					readOffset, remainingRead, remainingWrite;
+
+		// --- resampling related ---
+		private Resampling				rsmp			= null;
+		private double					rsmpFactor		= 1.0;
+		private int						fltLenI			= 0;
+		private int						overlapLen		= 0;
+		private int						overlapOff		= 0;
+		private int						trnsInside		= 0;
+		private float[][][]				trnsOverlaps	= null;
+
+		private volatile boolean		isRunning		= true;
+		private volatile Throwable		failure			= null;
+
+		protected RenderReader( RenderContext context, RenderSource source, boolean[] trnsRequest, int inTrnsLen,
+								int outTrnsLen, int inOff, long readOffset, long remainingRead,
+								long remainingWrite, ExecutorService pool )
+		{
+			super( "RenderReader" );
+			setDaemon( true );
+
+			this.trnsRequest	= trnsRequest;
+			this.inTrnsLen		= inTrnsLen;
+			this.outTrnsLen		= outTrnsLen;
+			this.inOff			= inOff;
+			this.readOffset		= readOffset;
+			this.remainingRead	= remainingRead;
+			this.remainingWrite	= remainingWrite;
+			this.pool			= pool;
+
+			senseRequest		= source.senseRequest;
+			trails				= new AudioTrail[ trnsRequest.length ];
+			rcvs				= new Receiver[ context.getReceivers().size() ];
+			for( int trnsIdx = 0; trnsIdx < trails.length; trnsIdx++ ) {
+				trails[ trnsIdx ] = ((Transmitter) context.getTransmitters().get( trnsIdx )).getAudioTrail();
+			}
+			for( int rcvIdx = 0; rcvIdx < rcvs.length; rcvIdx++ ) {
+				rcvs[ rcvIdx ] = (Receiver) context.getReceivers().get( rcvIdx );
+			}
+		}
+
+		protected void setResampling( Resampling rsmp, double rsmpFactor, int fltLenI, int overlapLen,
+									  int overlapOff, int trnsInside )
+		{
+			this.rsmp		= rsmp;
+			this.rsmpFactor	= rsmpFactor;
+			this.fltLenI	= fltLenI;
+			this.overlapLen	= overlapLen;
+			this.overlapOff	= overlapOff;
+			this.trnsInside	= trnsInside;
+			trnsOverlaps	= new float[ trnsRequest.length ][ 2 ][ overlapLen ];
+		}
+
+		/*
+		 *	Returns the next block in time order, or <code>null</code>
+		 *	after the last block. If the reader has failed, its
+		 *	exception is thrown instead.
+		 */
+		protected RenderBlock takeReady()
+		throws IOException, InterruptedException
+		{
+			final RenderBlock	block	= (RenderBlock) readyBlocks.take();
+			final Throwable		t		= failure;
+			
+			if( block == endOfBlocks ) {
+				readyBlocks.offer( endOfBlocks );	// repeated calls keep returning null
+			}
+			if( t != null ) {
+				if( t instanceof IOException ) throw (IOException) t;
+				if( t instanceof RuntimeException ) throw (RuntimeException) t;
+				if( t instanceof Error ) throw (Error) t;
+				throw new IOException( t.toString() );
+			}
+			return( block == endOfBlocks ? null : block );
+		}
+
+		protected void recycle( RenderBlock block )
+		{
+			freeBlocks.offer( block );
+		}
+
+		/*
+		 *	Stops the reader and waits until it has finished
+		 *	reading the current block. The thread is not
+		 *	interrupted, because that would close file channels
+		 *	that it may be reading from.
+		 */
+		protected void quit()
+		{
+			isRunning = false;
+			freeBlocks.offer( endOfBlocks );
+			try {
+				join();
+			}
+			catch( InterruptedException e1 ) { /* ignored */ }
+		}
+
+		public void run()
+		{
+			RenderBlock	block;
+			float[][]	inFrames;
+			int			readLen;
+			double		newInPhase	= 0.0;
+			
+			for( int i = 0; i < NUM_PIPELINE_BLOCKS; i++ ) {
+				freeBlocks.offer( new RenderBlock( this ));
+			}
+
+			try {
+				while( isRunning && remainingWrite > 0 ) {
+					block				= (RenderBlock) freeBlocks.take();
+					if( block == endOfBlocks ) return;
+					
+					readLen				= (int) Math.min( inTrnsLen - inOff, remainingRead );
+					block.blockSpan		= new Span( readOffset, readOffset + readLen );
+					if( rsmp != null ) {
+						block.inPhase	= newInPhase;
+						block.writeLen	= (int) Math.min( Math.ceil( (trnsInside - block.inPhase) * rsmpFactor ), remainingWrite );
+					} else {
+						block.writeLen	= readLen;
+					}
+
+					for( int trnsIdx = 0; trnsIdx < trails.length; trnsIdx++ ) {
+						if( !trnsRequest[ trnsIdx ]) continue;
+						
+						// --- read transmitter trajectory data ---
+						inFrames = block.inFrames[ trnsIdx ];
+						trails[ trnsIdx ].readFrames( inFrames, inOff, block.blockSpan );
+						for( int i = inOff + readLen; i < inTrnsLen; i++ ) {
+							inFrames[0][i] = 0.0f;		// zero pad in the end 
+							inFrames[1][i] = 0.0f;		// XXX actually the last sample should be repeated!
+						}
+						
+						// --- overlap handling ---
+						if( rsmp != null ) {
+							System.arraycopy( trnsOverlaps[trnsIdx][0], 0, inFrames[0], 0, inOff );
+							System.arraycopy( trnsOverlaps[trnsIdx][1], 0, inFrames[1], 0, inOff );
+							System.arraycopy( inFrames[0], overlapOff, trnsOverlaps[trnsIdx][0], 0, overlapLen );
+							System.arraycopy( inFrames[1], overlapOff, trnsOverlaps[trnsIdx][1], 0, overlapLen );
+						}
+						
+						block.futures[ trnsIdx ] = pool.submit( block.jobs[ trnsIdx ]);
+					}
+
+					if( rsmp != null ) {
+						inOff		= overlapLen;
+						newInPhase  = (block.inPhase + block.writeLen / rsmpFactor) - trnsInside;
+					}
+					remainingRead	-= readLen;
+					remainingWrite	-= block.writeLen;
+					readOffset		+= readLen;
+					readyBlocks.offer( block );
+				}
+			}
+			catch( InterruptedException e1 ) { /* ignored */ }
+			catch( Throwable e1 ) {
+				failure = e1;
+			}
+			finally {
+				readyBlocks.offer( endOfBlocks );
+			}
+		}
+	}
+}
@@ -27,6 +27,7 @@
  *		13-May-05	created from de.sciss.meloncillo.session.SessionCollection
  *		27-Jan-06	allows null sources ; lazy EventManager creation
  *		13-Jul-08	copied back from EisK ; converted to BasicSessionCollection
+ *		17-Oct-26	read methods use an immutable snapshot which is replaced upon modification
  */
 
 package de.sciss.meloncillo.session;
@@ -43,14 +44,19 @@ import de.sciss.meloncillo.util.MapManager;
 
 /**
  *  @author		Hanns Holger Rutz
- *  @version	0.71, 13-Jul-08
+ *  @version	0.75, 17-Oct-26
  */
 public class BasicSessionCollection
 extends AbstractSessionObject
 implements MutableSessionCollection, EventManager.Processor
 {
+	// modifications must be followed by a call to collectionModified()
 	protected final List			collObjects			= new ArrayList();
 	protected final MapManager.Listener	objectListener;
+
+	// replaced by collectionModified(), so readers
+	// neither copy nor see partial modifications
+	private volatile Snapshot		snapshot			= Snapshot.EMPTY;
 	
 //	private final Set	dynamicSet	= new HashSet();
 
@@ -131,7 +137,7 @@ implements MutableSessionCollection, EventManager.Processor
 	 */
 	public SessionObject get( int index )
 	{
-		return (SessionObject) collObjects.get( index );
+		return (SessionObject) snapshot.get( index );
 	}
 
 	/**
@@ -143,11 +149,26 @@ implements MutableSessionCollection, EventManager.Processor
 	 *			the elements (session objects) reference of course
 	 *			the same objects.
 	 *
-	 *	@todo	should return Collections.immutableList instead
+	 *	@see	#getSnapshot()
 	 */
 	public List getAll()
 	{
-		return new ArrayList( collObjects );
+		return new ArrayList( snapshot );
+	}
+
+	public Snapshot getSnapshot()
+	{
+		return snapshot;
+	}
+
+	/**
+	 *  Replaces the snapshot after <code>collObjects</code>
+	 *  was modified. Subclasses modifying <code>collObjects</code>
+	 *  directly must call this method before dispatching events.
+	 */
+	protected void collectionModified()
+	{
+		snapshot = new Snapshot( collObjects, snapshot.getVersion() + 1 );
 	}
 
 	/**
@@ -166,6 +187,7 @@ implements MutableSessionCollection, EventManager.Processor
 	public void add( Object source, SessionObject so )
 	{
 		collObjects.add( so );
+		collectionModified();
 		so.getMap().addListener( objectListener );
 		if( source != null ) {
 			dispatchCollectionChange( source, Collections.singletonList( so ), Event.ACTION_ADDED );
@@ -188,6 +210,7 @@ implements MutableSessionCollection, EventManager.Processor
 	public void add( Object source, int idx, SessionObject so )
 	{
 		collObjects.add( idx, so );
+		collectionModified();
 		so.getMap().addListener( objectListener );
 		if( source != null ) {
 			dispatchCollectionChange( source, Collections.singletonList( so ), Event.ACTION_ADDED );
@@ -214,6 +237,7 @@ implements MutableSessionCollection, EventManager.Processor
 	{
 		final boolean result = collObjects.addAll( c );
 		if( result ) {
+			collectionModified();
 			for( int i = 0; i < c.size(); i++ ) {
 				((SessionObject) c.get( i )).getMap().addListener( objectListener );
 			}
@@ -241,6 +265,7 @@ implements MutableSessionCollection, EventManager.Processor
 	{
 		final boolean result = collObjects.remove( so );
 		if( result ) {
+			collectionModified();
 			so.getMap().removeListener( objectListener );
 			if( source != null ) {
 				dispatchCollectionChange( source, Collections.singletonList( so ), Event.ACTION_REMOVED );
@@ -269,6 +294,7 @@ implements MutableSessionCollection, EventManager.Processor
 	{
 		boolean result = collObjects.removeAll( c );
 		if( result ) {
+			collectionModified();
 			for( int i = 0; i < c.size(); i++ ) {
 				((SessionObject) c.get( i )).getMap().removeListener( objectListener );
 			}
@@ -287,7 +313,7 @@ implements MutableSessionCollection, EventManager.Processor
 	 */
 	public boolean contains( SessionObject so )
 	{
-		return collObjects.contains( so );
+		return snapshot.contains( so );
 	}
 
 	/**
@@ -301,7 +327,7 @@ implements MutableSessionCollection, EventManager.Processor
 	 */
 	public int indexOf( SessionObject so )
 	{
-		return collObjects.indexOf( so );
+		return snapshot.indexOf( so );
 	}
 	
 	/**
@@ -313,7 +339,7 @@ implements MutableSessionCollection, EventManager.Processor
 	 */
 	public boolean isEmpty()
 	{
-		return collObjects.isEmpty();
+		return snapshot.isEmpty();
 	}
 	
 	/**
@@ -324,7 +350,7 @@ implements MutableSessionCollection, EventManager.Processor
 	 */
 	public int size()
 	{
-		return collObjects.size();
+		return snapshot.size();
 	}
 
 	/**
@@ -348,6 +374,7 @@ implements MutableSessionCollection, EventManager.Processor
 				((SessionObject) collObjects.get( i )).getMap().removeListener( objectListener );
 			}
 			collObjects.clear();
+			collectionModified();
 			if( source != null ) dispatchCollectionChange( source, c, Event.ACTION_REMOVED );
 		}
 	}
@@ -410,7 +437,7 @@ implements MutableSessionCollection, EventManager.Processor
 	 */
 	public SessionObject findByName( String name )
 	{
-		return findByName( collObjects, name );
+		return findByName( snapshot, name );
 	}
 
 	public static SessionObject findByName( List coll, String name )
@@ -468,6 +468,7 @@ extends AppWindow
 						throw new IOException( tempDir.getAbsolutePath() + " : " +
 											   IOUtil.getResourceString( "errMakeDir" ));
 					}
+					options.put( XMLRepresentation.KEY_BACKUPPATH, tempDir );
 				}
 				if( !dir.mkdirs() ) {
 //System.err.println( "mkdir failed : "+dir.getAbsolutePath() );
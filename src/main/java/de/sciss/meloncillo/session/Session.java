@@ -31,6 +31,8 @@
  *		04-Apr-05	filters frame bounds prefs if recall-frames is disabled
  *		23-Apr-05	bugfix in fromXML()
  *		26-May-05	implements de.sciss.app.Documents
+ *		17-Oct-26	fromXML reads the objects' data files concurrently
+ *		17-Oct-26	toXML writes the objects' data files concurrently
  */
 
 package de.sciss.meloncillo.session;
@@ -50,6 +52,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.prefs.BackingStoreException;
 
 import javax.swing.JOptionPane;
@@ -596,6 +603,7 @@ implements SessionGroup, FilenameFilter, EntityResolver, de.sciss.app.Document
 	public void dispose()
 	{
 		discardEditsAndClipboard();
+		rt_producer.dispose();
 		// XXX
 	}
 
@@ -664,6 +672,11 @@ implements SessionGroup, FilenameFilter, EntityResolver, de.sciss.app.Document
 	/**
 	 *  Encodes the session into XML format
 	 *  for storing onto harddisc.
+	 *	<p>
+	 *	Receivers and transmitters may defer writing their
+	 *	data files (see <code>XMLRepresentation.KEY_DEFERRED</code>).
+	 *	These jobs run concurrently, and the method returns
+	 *	when all of them have finished.
 	 *
 	 *  @param  domDoc		the document containing the XML code
 	 *  @param  node		the root node to which the session
@@ -677,10 +690,12 @@ implements SessionGroup, FilenameFilter, EntityResolver, de.sciss.app.Document
 	{
 		Element							childElement, child2;
 		SessionObject					so;
-		final de.sciss.app.Application	app	= AbstractApplication.getApplication();
+		final de.sciss.app.Application	app			= AbstractApplication.getApplication();
+		final List						deferred	= new ArrayList();
 
 		try {
 			bird.waitShared( DOOR_ALL );
+			options.put( XMLRepresentation.KEY_DEFERRED, deferred );
 
 			node.setAttribute( XML_ATTR_VERSION, String.valueOf( FILE_VERSION ));
 			node.setAttribute( XML_ATTR_COMPATIBLE, String.valueOf( FILE_VERSION ));
@@ -726,8 +741,10 @@ implements SessionGroup, FilenameFilter, EntityResolver, de.sciss.app.Document
 					((XMLRepresentation) so).toXML( domDoc, child2, options );
 				}
 			}
+			runDeferred( deferred );
 		}
 		finally {
+			options.remove( XMLRepresentation.KEY_DEFERRED );
 			bird.releaseShared( DOOR_ALL );
 		}
 		
@@ -747,6 +764,13 @@ implements SessionGroup, FilenameFilter, EntityResolver, de.sciss.app.Document
 	 *  Clears the sessions
 	 *  and recreates its objects from the
 	 *  passed XML root node.
+	 *	<p>
+	 *	Receivers and transmitters may defer reading their
+	 *	data files (see <code>XMLRepresentation.KEY_DEFERRED</code>).
+	 *	These jobs run concurrently, and the objects are added
+	 *	to their collections once all jobs have finished, before
+	 *	any element which might refer to them (such as groups)
+	 *	is examined.
 	 *
 	 *  @param  domDoc		the document containing the XML code
 	 *  @param  node		the document root node ("ichnogram")
@@ -762,11 +786,14 @@ implements SessionGroup, FilenameFilter, EntityResolver, de.sciss.app.Document
 		String				val, val2;
 		SessionObject		so;
 		Object				o;
-		final List			soList		= new ArrayList();
+		List				soList;
+		final List			deferred	= new ArrayList();
+		final List			pendingAdds	= new ArrayList();	// pairs of collection and object list
 		final NodeList		rootNL		= node.getChildNodes();
 		final Application	app			= AbstractApplication.getApplication();
 
 		options.put( OPTIONS_KEY_SESSION, this );
+		options.put( XMLRepresentation.KEY_DEFERRED, deferred );
 
 //		updateFileAttr( domDoc, node );
 		try {
@@ -804,6 +831,10 @@ implements SessionGroup, FilenameFilter, EntityResolver, de.sciss.app.Document
 				elem	= (Element) rootNL.item( k );
 				val		= elem.getTagName();
 
+				if( !val.equals( XML_ELEM_COLL ) || elem.getAttribute( XML_ATTR_NAME ).equals( XML_VALUE_GROUPS )) {
+					completeDeferred( deferred, pendingAdds );
+				}
+
 				// zero or one "map" element
 				if( val.equals( XML_ELEM_MAP )) {
 					getMap().fromXML( domDoc, elem, options );
@@ -820,7 +851,7 @@ implements SessionGroup, FilenameFilter, EntityResolver, de.sciss.app.Document
 				} else if( val.equals( XML_ELEM_COLL )) {
 					val		= elem.getAttribute( XML_ATTR_NAME );
 					if( val.equals( XML_VALUE_RECEIVERS )) {
-						soList.clear();
+						soList = new ArrayList();
 						nl = elem.getChildNodes();
 						for( int m = 0; m < nl.getLength(); m++ ) {
 							elem2	= (Element) nl.item( m );
@@ -840,10 +871,11 @@ implements SessionGroup, FilenameFilter, EntityResolver, de.sciss.app.Document
 															 MapManager.Context.NONE_EXCLUSIVE, so.getMap() );
 							soList.add( so );
 						}
-						receivers.addAll( this, soList );
+						pendingAdds.add( receivers );
+						pendingAdds.add( soList );
 
 					} else if( val.equals( XML_VALUE_TRANSMITTERS )) {
-						soList.clear();
+						soList = new ArrayList();
 						nl = elem.getChildNodes();
 						for( int m = 0; m < nl.getLength(); m++ ) {
 							elem2	= (Element) nl.item( m );
@@ -863,11 +895,12 @@ implements SessionGroup, FilenameFilter, EntityResolver, de.sciss.app.Document
 																MapManager.Context.NONE_EXCLUSIVE, so.getMap() );
 							soList.add( so );
 						}
-						tracks.addAll( this, soList );
+						pendingAdds.add( tracks );
+						pendingAdds.add( soList );
 //						transmitters.addAll( this, soList );
 
 					} else if( val.equals( XML_VALUE_GROUPS )) {
-						soList.clear();
+						soList = new ArrayList();
 						nl = elem.getChildNodes();
 						for( int m = 0; m < nl.getLength(); m++ ) {
 							elem2	= (Element) nl.item( m );
@@ -921,6 +954,7 @@ implements SessionGroup, FilenameFilter, EntityResolver, de.sciss.app.Document
 					System.err.println( "Warning: unknown session node: '"+val+"'" );
 				}
 			} // for root-nodes
+			completeDeferred( deferred, pendingAdds );
 		}
 		catch( ClassNotFoundException e1 ) {
 			throw IOUtil.map( e1 );
@@ -938,6 +972,7 @@ implements SessionGroup, FilenameFilter, EntityResolver, de.sciss.app.Document
 			throw IOUtil.map( e5 );
 		}
 		finally {
+			options.remove( XMLRepresentation.KEY_DEFERRED );
 			receivers.resumeDispatcher();
 			selectedReceivers.resumeDispatcher();
 			tracks.resumeDispatcher();
@@ -950,6 +985,69 @@ implements SessionGroup, FilenameFilter, EntityResolver, de.sciss.app.Document
 		}
 	}
 
+	/*
+	 *	Runs the jobs deferred by the objects' fromXML methods
+	 *	and waits for all of them. Then adds the pending objects
+	 *	to their collections.
+	 */
+	private void completeDeferred( List deferred, List pendingAdds )
+	throws IOException
+	{
+		runDeferred( deferred );
+		for( int i = 0; i < pendingAdds.size(); i += 2 ) {
+			((BasicSessionCollection) pendingAdds.get( i )).addAll( this, (List) pendingAdds.get( i + 1 ));
+		}
+		pendingAdds.clear();
+	}
+
+	/*
+	 *	Runs the jobs deferred by the objects' fromXML or toXML
+	 *	methods, waits for all of them, and clears the list.
+	 */
+	private static void runDeferred( List deferred )
+	throws IOException
+	{
+		if( !deferred.isEmpty() ) {
+			final int				numThreads	= Math.min( deferred.size(),
+				Math.max( 2, Runtime.getRuntime().availableProcessors() * 2 ));	// mostly waiting for the disk
+			final ExecutorService	pool		= Executors.newFixedThreadPool( numThreads, new ThreadFactory() {
+				private int count = 0;
+				
+				public Thread newThread( Runnable r )
+				{
+					final Thread t = new Thread( r, "SessionIO-" + (++count) );
+					t.setDaemon( true );
+					return t;
+				}
+			});
+			final List				futures;
+			Throwable				t;
+
+			try {
+				futures = pool.invokeAll( deferred );
+				for( int i = 0; i < futures.size(); i++ ) {
+					try {
+						((Future) futures.get( i )).get();
+					}
+					catch( ExecutionException e1 ) {
+						t = e1.getCause();
+						if( t instanceof IOException ) throw (IOException) t;
+						if( t instanceof RuntimeException ) throw (RuntimeException) t;
+						if( t instanceof Error ) throw (Error) t;
+						throw IOUtil.map( (Exception) t );
+					}
+				}
+			}
+			catch( InterruptedException e1 ) {
+				throw IOUtil.map( e1 );
+			}
+			finally {
+				pool.shutdown();
+				deferred.clear();
+			}
+		}
+	}
+
 // ---------------- FilenameFilter interface ---------------- 
 
 	/**
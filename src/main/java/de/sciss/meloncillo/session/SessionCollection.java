@@ -1,10 +1,14 @@
 package de.sciss.meloncillo.session;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EventListener;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Set;
 
 import de.sciss.app.BasicEvent;
@@ -37,6 +41,20 @@ extends SessionObject
 	 */
 	public List getAll();
 
+	/**
+	 *  Gets an immutable snapshot of the collection.
+	 *  Unlike <code>getAll</code>, this does not copy the
+	 *  collection: the same snapshot is returned until
+	 *  the collection is modified, so it is cheap to call
+	 *  from painting or realtime code. Later modifications
+	 *  of the collection are not reflected in the snapshot.
+	 *
+	 *  @return a list of all session objects which throws an
+	 *			<code>UnsupportedOperationException</code>
+	 *			when trying to modify it
+	 */
+	public Snapshot getSnapshot();
+
 	/**
 	 *  Tests if the collection is empty.
 	 *
@@ -112,6 +130,80 @@ extends SessionObject
 	public void removeListener( SessionCollection.Listener listener );
 
 	public void debugDump();
+
+	// -------------------------- inner Snapshot class --------------------------
+
+	/**
+	 *  An immutable list of the session objects
+	 *  of a collection at a certain moment. <code>indexOf</code>
+	 *  and <code>contains</code> use a hash table and compare
+	 *  identities, which is equivalent to <code>equals</code> for
+	 *  session objects. The version is incremented with each
+	 *  modification of the collection, so consumers which cache
+	 *  results derived from the collection can compare the
+	 *  version to see whether they need to recalculate.
+	 */
+	public static class Snapshot
+	extends AbstractList
+	implements RandomAccess
+	{
+		/**
+		 *  An empty snapshot with version zero.
+		 */
+		public static final Snapshot	EMPTY	= new Snapshot( Collections.EMPTY_LIST, 0 );
+
+		private final Object[]			objects;
+		private final Map				index;	// key = element, value = Integer( index )
+		private final int				version;
+
+		/**
+		 *  Creates a new snapshot.
+		 *
+		 *  @param  coll		the session objects, which are copied
+		 *  @param  version		the modification count of the collection
+		 */
+		public Snapshot( List coll, int version )
+		{
+			this.objects	= coll.toArray();
+			this.version	= version;
+			index			= new IdentityHashMap( objects.length << 1 );
+			for( int i = objects.length - 1; i >= 0; i-- ) {	// indexOf returns the first occurence
+				index.put( objects[ i ], Integer.valueOf( i ));
+			}
+		}
+
+		/**
+		 *  Returns the version of the collection
+		 *  at the moment the snapshot was taken.
+		 *  Two snapshots of the same collection
+		 *  with equal versions have the same contents.
+		 */
+		public int getVersion()
+		{
+			return version;
+		}
+
+		public Object get( int idx )
+		{
+			return objects[ idx ];
+		}
+
+		public int size()
+		{
+			return objects.length;
+		}
+
+		public int indexOf( Object o )
+		{
+			final Integer idx = (Integer) index.get( o );
+			return( idx == null ? -1 : idx.intValue() );
+		}
+
+		public boolean contains( Object o )
+		{
+			return index.containsKey( o );
+		}
+	}
 	
 	// -------------------------- inner Event class --------------------------
 
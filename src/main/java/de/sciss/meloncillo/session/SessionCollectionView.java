@@ -27,6 +27,7 @@
  *		13-May-05	created from de.sciss.meloncillo.session.SessionCollection
  *		27-Jan-06	allows null sources ; lazy EventManager creation
  *		13-Jul-08	copied back from EisK
+ *		17-Oct-26	read methods use an immutable snapshot which is replaced upon modification
  */
 
 package de.sciss.meloncillo.session;
@@ -40,13 +41,14 @@ import de.sciss.app.EventManager;
 
 /**
  *  @author		Hanns Holger Rutz
- *  @version	0.70, 07-Dec-07
+ *  @version	0.75, 17-Oct-26
  */
 public class SessionCollectionView
 extends AbstractSessionObject
 implements SessionCollection, EventManager.Processor
 {
 	private final List					collObjects			= new ArrayList();
+	private volatile Snapshot			snapshot			= Snapshot.EMPTY;
 //	private final MapManager.Listener	objectListener;
 	
 	// --- event handling ---
@@ -95,6 +97,7 @@ implements SessionCollection, EventManager.Processor
 //					System.out.println( " View (" + SessionCollectionView.this + ") : ACTION_ADDED " + c.size() );
 					if( !c.isEmpty() ) {
 						collObjects.addAll( c );
+						collectionModified();
 						dispatchCollectionChange( e.getSource(), c, e.getModificationType() );
 					}
 					break;
@@ -110,6 +113,7 @@ implements SessionCollection, EventManager.Processor
 //					System.out.println( " View (" + SessionCollectionView.this + ") : ACTION_REMOVED " + c.size() );
 					if( !c.isEmpty() ) {
 						collObjects.removeAll( c );
+						collectionModified();
 						dispatchCollectionChange( e.getSource(), c, e.getModificationType() );
 					}
 					break;
@@ -121,14 +125,14 @@ implements SessionCollection, EventManager.Processor
 			
 			public void sessionObjectChanged( SessionCollection.Event e )
 			{
-				if( (elm != null) && collObjects.contains( e.getCollection().get( 0 ))) {
+				if( (elm != null) && snapshot.contains( e.getCollection().get( 0 ))) {
 					elm.dispatchEvent( e );
 				}
 			}
 
 			public void sessionObjectMapChanged( SessionCollection.Event e )
 			{
-				if( (elm != null) && collObjects.contains( e.getCollection().get( 0 ))) {
+				if( (elm != null) && snapshot.contains( e.getCollection().get( 0 ))) {
 					elm.dispatchEvent( e );
 				}
 			}
@@ -140,6 +144,7 @@ implements SessionCollection, EventManager.Processor
 	{
 		full.removeListener( fullListener );
 		collObjects.clear();
+		collectionModified();
 //		clear( null );
 		super.dispose();
 	}
@@ -175,7 +180,7 @@ implements SessionCollection, EventManager.Processor
 	 */
 	public SessionObject get( int index )
 	{
-		return (SessionObject) collObjects.get( index );
+		return (SessionObject) snapshot.get( index );
 	}
 
 	/**
@@ -186,10 +191,22 @@ implements SessionCollection, EventManager.Processor
 	 *			so that changes do not influence each other.
 	 *			the elements (session objects) reference of course
 	 *			the same objects.
+	 *
+	 *	@see	#getSnapshot()
 	 */
 	public List getAll()
 	{
-		return new ArrayList( collObjects );
+		return new ArrayList( snapshot );
+	}
+
+	public Snapshot getSnapshot()
+	{
+		return snapshot;
+	}
+
+	private void collectionModified()
+	{
+		snapshot = new Snapshot( collObjects, snapshot.getVersion() + 1 );
 	}
 
 	/**
@@ -202,7 +219,7 @@ implements SessionCollection, EventManager.Processor
 	 */
 	public boolean contains( SessionObject so )
 	{
-		return collObjects.contains( so );
+		return snapshot.contains( so );
 	}
 
 	/**
@@ -216,7 +233,7 @@ implements SessionCollection, EventManager.Processor
 	 */
 	public int indexOf( SessionObject so )
 	{
-		return collObjects.indexOf( so );
+		return snapshot.indexOf( so );
 	}
 	
 	/**
@@ -228,7 +245,7 @@ implements SessionCollection, EventManager.Processor
 	 */
 	public boolean isEmpty()
 	{
-		return collObjects.isEmpty();
+		return snapshot.isEmpty();
 	}
 	
 	/**
@@ -239,7 +256,7 @@ implements SessionCollection, EventManager.Processor
 	 */
 	public int size()
 	{
-		return collObjects.size();
+		return snapshot.size();
 	}
 
 	/**
@@ -257,7 +274,7 @@ implements SessionCollection, EventManager.Processor
 	 */
 	public SessionObject findByName( String name )
 	{
-		return BasicSessionCollection.findByName( collObjects, name );
+		return BasicSessionCollection.findByName( snapshot, name );
 	}
 
 	// --- listener registration ---
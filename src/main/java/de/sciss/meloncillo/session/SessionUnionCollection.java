@@ -25,6 +25,7 @@
  *
  *  Changelog:
  *		03-Feb-05	created
+ *		17-Oct-26	updates the snapshot after modifications
  */
 
 package de.sciss.meloncillo.session;
@@ -33,7 +34,7 @@ import java.util.List;
 
 /**
  *  @author		Hanns Holger Rutz
- *  @version	0.75, 13-Jul-08
+ *  @version	0.75, 17-Oct-26
  */
 public class SessionUnionCollection
 extends BasicSessionCollection
@@ -178,10 +179,11 @@ extends BasicSessionCollection
 		
 		collRemoved	= getAll();
 		collRemoved.removeAll( collNew );
-		collNew.removeAll( collObjects );
+		collNew.removeAll( getSnapshot() );
 
 		if( !collRemoved.isEmpty() ) {
 			collObjects.removeAll( collRemoved );
+			collectionModified();
 			for( i = 0; i < collRemoved.size(); i++ ) {
 //System.err.println( "removed "+((SessionObject) collRemoved.get( i )).getName() );
 				((SessionObject) collRemoved.get( i )).getMap().removeListener( objectListener );
@@ -190,6 +192,7 @@ extends BasicSessionCollection
 		}
 		if( !collNew.isEmpty() ) {
 			collObjects.addAll( collNew );
+			collectionModified();
 			for( i = 0; i < collNew.size(); i++ ) {
 //System.err.println( "added "+((SessionObject) collNew.get( i )).getName() );
 				((SessionObject) collNew.get( i )).getMap().addListener( objectListener );
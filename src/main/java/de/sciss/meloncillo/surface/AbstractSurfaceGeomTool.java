@@ -27,6 +27,8 @@
  *		05-May-04   created
  *		31-Jul-04   commented
  *		15-Jan-05	moved to separate package
+ *		17-Oct-26	the shape is evaluated once per block and written to the
+ *					transmitters in parallel ; adaptive block size
  */
 
 package de.sciss.meloncillo.surface;
@@ -40,6 +42,12 @@ import java.awt.event.MouseEvent;
 import java.awt.geom.Point2D;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import de.sciss.app.AbstractApplication;
 import de.sciss.app.AbstractCompoundEdit;
@@ -66,7 +74,7 @@ import de.sciss.meloncillo.transmitter.Transmitter;
  *  the rendering process (<code>run</code> method).
  *
  *  @author		Hanns Holger Rutz
- *  @version	0.75, 10-Jun-08
+ *  @version	0.75, 17-Oct-26
  *  
  *  @see		SurfacePane
  */
@@ -76,6 +84,14 @@ implements ProcessingThread.Client
 {
 	// --- rendering ---
 	private ProcessingThread renderThread   = null;		// this is the thread responsible for rendering the finished gesture
+
+	// the block size adapts to the span length, so that
+	// progress is reported about a hundred times
+	private static final int	MIN_BLOCKSIZE	= 4096;
+	private static final int	MAX_BLOCKSIZE	= 65536;
+	private static final int	NUM_PROGRESS	= 100;
+
+	private static ExecutorService	writePool		= null;	// lazy ; sync: AbstractSurfaceGeomTool.class
 	
 	// --- shapes and drawing ---
 	private static final Color	colrSolidLine   = SurfacePane.colrSelection;
@@ -276,77 +292,154 @@ implements ProcessingThread.Client
 		final AbstractCompoundEdit		edit		= (AbstractCompoundEdit) context.getClientArg( "edit" ); 
 		final List						collTrns	= (List) context.getClientArg( "trns" );
 		final BlendContext				bc			= (BlendContext) context.getClientArg( "blend" );
-		final float[][]					srcBuf		= bc == null ? null : new float[ 2 ][ 4096 ];
-		final float[][]					interpBuf;
-		Transmitter						trns;
-		AudioTrail						at;
+		final ExecutorService			pool		= getWritePool();
+		final int						numTrns		= collTrns.size();
+		final int						numJobs		= Math.min( numTrns, Runtime.getRuntime().availableProcessors() );
+		final AudioTrail[]				trails		= new AudioTrail[ numTrns ];
+		final AudioStake[]				stakes		= new AudioStake[ numTrns ];
+		final WriteJob[]				jobs		= new WriteJob[ numJobs ];
+		final Future[]					futures		= new Future[ numJobs ];
+		final int						blockSize;
+		boolean							success		= false;
 		float[]							warpedTime;
-		int								i, len;
+		float[][]						interpBuf, nextInterpBuf, swap;
+		int								i, len, nextLen;
 		double							t_norm;
-//		BlendSpan						bs;
 		// interpLen entspricht 'T' in der Formel (Gesamtzeit), interpOff entspricht 't' (aktueller Zeitpunkt)
-		long							start, interpOff, interpLen, progressLen;
-		long							progress	= 0;
-//		boolean							success		= false;
-		AudioStake						as;
+		long							start, interpOff, interpLen;
 
 //		if( span.getLength() < 2 ) return DONE;
 		if( !initFunctionEvaluation( (Point2D[]) context.getClientArg( "points" ))) return FAILED;
 
 		interpLen		= span.getLength();
-		warpedTime		= new float[(int) Math.min( interpLen, 4096 )];
-		interpBuf		= new float[2][ warpedTime.length ];
+		blockSize		= (int) Math.min( interpLen, Math.max( MIN_BLOCKSIZE, Math.min( MAX_BLOCKSIZE, interpLen / NUM_PROGRESS )));
+		warpedTime		= new float[ blockSize ];
+		interpBuf		= new float[ 2 ][ blockSize ];
+		nextInterpBuf	= new float[ 2 ][ blockSize ];
 		// '-1' because the last sample shall really equal the end point of the shape
 		t_norm			= 1.0 / (interpLen - 1);
 
-		progressLen		= interpLen*collTrns.size();
-
 		try {
-			for( i = 0; i < collTrns.size(); i++ ) {
-				trns	= (Transmitter) collTrns.get( i );
-				at		= trns.getAudioTrail();
-				as		= at.alloc( span );
-//				bs = at.beginOverwrite( span, bc, edit );
-				for( start = span.getStart(), interpOff = 0; start < span.getStop();
-					 start += len, interpOff += len ) {
-
-					len = (int) Math.min( 4096, span.getStop() - start );
-					calcWarpedTime( warpedTime, interpOff * t_norm, t_norm, len );
-					evaluateFunction( warpedTime, interpBuf, len );
-//					at.continueWrite( bs, interpBuf, 0, len );
-					if( bc != null ) {
-						at.readFrames( srcBuf, 0, new Span( start, start + len ));
-						if( interpOff < bc.getLen() ) {	// EEE getLen?
-							bc.blend( interpOff, srcBuf, 0, interpBuf, 0, interpBuf, 0, len );
-						}
-						if( interpLen - (interpOff + len) < bc.getLen() ) {	// EEE getLen?
-							bc.blend( interpOff - (interpLen - bc.getLen()), interpBuf, 0, srcBuf, 0, interpBuf, 0, len );
-						}
-					}
-					as.writeFrames( interpBuf, 0, new Span( start, start + len ));
-					progress += len;
-					context.setProgression( (float) progress / (float) progressLen );
+			for( i = 0; i < numTrns; i++ ) {
+				trails[ i ]	= ((Transmitter) collTrns.get( i )).getAudioTrail();
+				stakes[ i ]	= trails[ i ].alloc( span );
+			}
+			// each job writes every numJobs'th transmitter
+			for( i = 0; i < numJobs; i++ ) {
+				jobs[ i ] = new WriteJob( trails, stakes, i, numJobs, bc, interpLen, blockSize );
+			}
+
+			len = (int) Math.min( blockSize, interpLen );
+			calcWarpedTime( warpedTime, 0.0, t_norm, len );
+			evaluateFunction( warpedTime, interpBuf, len );
+
+			// the shape is evaluated once per block for all transmitters. while
+			// the jobs write one block, the next block is evaluated
+			for( start = span.getStart(), interpOff = 0; start < span.getStop();
+				 start += len, interpOff += len, len = nextLen ) {
+
+				for( i = 0; i < numJobs; i++ ) {
+					jobs[ i ].setBlock( interpBuf, start, interpOff, len );
+					futures[ i ] = pool.submit( jobs[ i ]);
+				}
+				nextLen = (int) Math.min( blockSize, span.getStop() - start - len );
+				if( nextLen > 0 ) {
+					calcWarpedTime( warpedTime, (interpOff + len) * t_norm, t_norm, nextLen );
+					evaluateFunction( warpedTime, nextInterpBuf, nextLen );
 				}
-//				at.finishWrite( bs, edit );
-				at.editBegin( edit );
-				at.editClear( this, span, edit );
-				at.editAdd( this, as, edit );
-				at.editEnd( edit );
-			} // for( i = 0; i < collTransmitters.size(); i++ )
+				awaitJobs( futures );
+				
+				swap			= interpBuf;
+				interpBuf		= nextInterpBuf;
+				nextInterpBuf	= swap;
+				context.setProgression( (float) (interpOff + len) / (float) interpLen );
+			}
+			for( i = 0; i < numTrns; i++ ) {
+				trails[ i ].editBegin( edit );
+				trails[ i ].editClear( this, span, edit );
+				trails[ i ].editAdd( this, stakes[ i ], edit );
+				stakes[ i ] = null;	// disposed by the edit from now on
+				trails[ i ].editEnd( edit );
+			} // for( i = 0; i < numTrns; i++ )
 			
-//			edit.perform();
-//			edit.end(); // fires doc.tc.modified()
-//			doc.getUndoManager().addEdit( edit );
-//			success = true;
+			success = true;
 			return DONE;
 		}
 		catch( IOException e1 ) {
-//			edit.cancel();
 			context.setException( e1 );
 			return FAILED;
 		}
+		finally {
+			// also when a job threw a runtime exception or error,
+			// the other jobs must be done with the stakes before they are disposed
+			if( !success ) {
+				waitForJobs( futures );
+				for( i = 0; i < numTrns; i++ ) {
+					if( stakes[ i ] != null ) stakes[ i ].dispose();
+				}
+			}
+		}
 	} // run()
 
+	// waits for the write jobs of a block and rethrows the first failure
+	private static void awaitJobs( Future[] futures )
+	throws IOException
+	{
+		final Throwable failure = waitForJobs( futures );
+		
+		if( failure == null ) return;
+		if( failure instanceof IOException ) throw (IOException) failure;
+		if( failure instanceof RuntimeException ) throw (RuntimeException) failure;
+		throw (Error) failure;
+	}
+
+	// waits for all submitted jobs, even after one of them has failed,
+	// because the others are still using the buffers and stakes.
+	// returns the first failure or null
+	private static Throwable waitForJobs( Future[] futures )
+	{
+		Throwable	failure		= null;
+		boolean		interrupted	= false;
+	
+		for( int i = 0; i < futures.length; i++ ) {
+			if( futures[ i ] == null ) continue;
+			try {
+				futures[ i ].get();
+				futures[ i ] = null;
+			}
+			catch( InterruptedException e1 ) {
+				interrupted = true;
+				i--;	// keep waiting, the job is still using the buffers
+			}
+			catch( ExecutionException e1 ) {
+				futures[ i ] = null;
+				if( failure == null ) failure = e1.getCause();
+			}
+		}
+		if( interrupted ) Thread.currentThread().interrupt();
+		return failure;
+	}
+
+	// one thread per core, shared by all tools
+	private static ExecutorService getWritePool()
+	{
+		synchronized( AbstractSurfaceGeomTool.class ) {
+			if( writePool == null ) {
+				writePool = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+					private int count = 0;
+
+					public Thread newThread( Runnable r )
+					{
+						final Thread t = new Thread( r, "GeomTool-" + (++count) );
+						t.setDaemon( true );
+						return t;
+					}
+				});
+			}
+			return writePool;
+		}
+	}
+
 	/**
 	 *  Invoked by the <code>ProcessingThread</code> upon
 	 *  processing completion. This implementation does not nothing
@@ -365,4 +458,71 @@ implements ProcessingThread.Client
 	}
 
 	public void processCancel( ProcessingThread context ) {}
+
+// -------- internal classes ---------
+
+	// blends the evaluated shape of a block with the
+	// transmitters' trajectories and writes it into their stakes
+	private static class WriteJob
+	implements Callable
+	{
+		private final AudioTrail[]		trails;
+		private final AudioStake[]		stakes;
+		private final int				firstTrns, trnsStep;
+		private final BlendContext		bc;
+		private final long				interpLen;
+		private final float[][]			srcBuf, blendBuf;
+
+		// the current block ; set before submission, hence
+		// visible to the pool thread (happens-before)
+		private float[][]				interpBuf;
+		private long					start, interpOff;
+		private int						len;
+
+		protected WriteJob( AudioTrail[] trails, AudioStake[] stakes, int firstTrns, int trnsStep,
+							BlendContext bc, long interpLen, int blockSize )
+		{
+			this.trails		= trails;
+			this.stakes		= stakes;
+			this.firstTrns	= firstTrns;
+			this.trnsStep	= trnsStep;
+			this.bc			= bc;
+			this.interpLen	= interpLen;
+			srcBuf			= bc == null ? null : new float[ 2 ][ blockSize ];
+			blendBuf		= bc == null ? null : new float[ 2 ][ blockSize ];
+		}
+
+		protected void setBlock( float[][] interpBuf, long start, long interpOff, int len )
+		{
+			this.interpBuf	= interpBuf;
+			this.start		= start;
+			this.interpOff	= interpOff;
+			this.len		= len;
+		}
+
+		public Object call()
+		throws IOException
+		{
+			final Span	writeSpan	= new Span( start, start + len );
+			final boolean	blendIn		= (bc != null) && (interpOff < bc.getLen());	// EEE getLen?
+			final boolean	blendOut	= (bc != null) && (interpLen - (interpOff + len) < bc.getLen());
+			float[][]	outBuf;
+
+			for( int i = firstTrns; i < trails.length; i += trnsStep ) {
+				outBuf = interpBuf;		// shared, hence read only
+				if( blendIn || blendOut ) {
+					trails[ i ].readFrames( srcBuf, 0, writeSpan );
+					outBuf = blendBuf;
+					if( blendIn ) {
+						bc.blend( interpOff, srcBuf, 0, interpBuf, 0, outBuf, 0, len );
+					}
+					if( blendOut ) {
+						bc.blend( interpOff - (interpLen - bc.getLen()), blendIn ? outBuf : interpBuf, 0, srcBuf, 0, outBuf, 0, len );
+					}
+				}
+				stakes[ i ].writeFrames( outBuf, 0, writeSpan );
+			}
+			return null;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,490 @@
+/*
+ *  SurfaceImageRenderer.java
+ *  Meloncillo
+ *
+ *  Copyright (c) 2004-2008 Hanns Holger Rutz. All rights reserved.
+ *
+ *	This software is free software; you can redistribute it and/or
+ *	modify it under the terms of the GNU General Public License
+ *	as published by the Free Software Foundation; either
+ *	version 2, june 1991 of the License, or (at your option) any later version.
+ *
+ *	This software is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *	General Public License for more details.
+ *
+ *	You should have received a copy of the GNU General Public
+ *	License (gpl.txt) along with this software; if not, write to the Free Software
+ *	Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ *
+ *
+ *	For further information, please contact Hanns Holger Rutz at
+ *	contact@sciss.de
+ */
+
+
+package de.sciss.meloncillo.surface;
+
+import java.awt.EventQueue;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.sciss.meloncillo.receiver.Receiver;
+import de.sciss.meloncillo.session.Session;
+
+/**
+ *	Calculates the receiver sensitivity image of the
+ *	<code>SurfacePane</code> in the background. The image is
+ *	divided into square tiles which are calculated in parallel,
+ *	and only the tiles intersecting an invalidated region are
+ *	recalculated. Each tile is first calculated at a coarse
+ *	resolution, so that a moved receiver is visible almost
+ *	immediately, then refined to the full resolution. Finished
+ *	tiles are copied into the image as a whole while holding
+ *	the image's monitor, hence painters should synchronize on
+ *	the image as well.
+ *	<p>
+ *	Each tile caches the sensitivities of the receivers
+ *	overlapping it, along with the sum of all contributions.
+ *	When receivers are invalidated, only their old contributions
+ *	are subtracted and their new contributions added, so moving
+ *	one receiver among many costs one receiver's calculation.
+ *	The sums are kept in fixed point, hence they don't drift
+ *	no matter how often contributions are exchanged. The cached
+ *	sensitivities are limited to the receivers' bounds, outside
+ *	of which they are assumed to be zero.
+ *	<p>
+ *	When a tile is invalidated again before its calculation
+ *	is finished, the outdated results are dropped.
+ *
+ *  @author		Hanns Holger Rutz
+ *  @version	0.75, 17-Oct-26
+ *
+ *	@synchronization	all methods may be called from any thread.
+ *						the update runnable is invoked on the event thread
+ */
+class SurfaceImageRenderer
+{
+	private static final int			TILE_SIZE	= 32;	// pixels
+	private static final int			COARSE_STEP	= 4;	// sub sampling of the first pass
+	private static final double			FIXED_ONE	= 4294967296.0;	// 2^32, fixed point unity
+
+	// shared by all surfaces
+	private static ExecutorService		pool		= null;
+	
+	private final Session				doc;
+	private final BufferedImage			img;
+	private final int					extent;
+	private final float					scaleDown;
+	private final int					numTiles;			// per row resp. column
+	private final Tile[]				tiles;
+	private final Runnable				updater;
+	private final AtomicBoolean			updatePending	= new AtomicBoolean( false );
+	private volatile boolean			equalPower		= false;
+
+	// a receiver's cached contributions are valid as long as
+	// its stamp and the epoch are unchanged
+	private final Map					stamps			= new WeakHashMap();	// sync: stamps
+	private volatile int				epoch			= 0;
+
+	/**
+	 *	@param	doc		the session whose active receivers are displayed
+	 *	@param	img		a square 8-bit grayscale image
+	 *	@param	updater	invoked on the event thread after tiles
+	 *					were copied into the image
+	 */
+	SurfaceImageRenderer( Session doc, BufferedImage img, Runnable updater )
+	{
+		int x, y;
+	
+		this.doc		= doc;
+		this.img		= img;
+		this.updater	= updater;
+		extent			= img.getWidth();
+		scaleDown		= 2.0f / (float) extent;
+		numTiles		= (extent + TILE_SIZE - 1) / TILE_SIZE;
+		tiles			= new Tile[ numTiles * numTiles ];
+		for( y = 0; y < numTiles; y++ ) {
+			for( x = 0; x < numTiles; x++ ) {
+				tiles[ y * numTiles + x ] = new Tile( x * TILE_SIZE, y * TILE_SIZE,
+					Math.min( TILE_SIZE, extent - x * TILE_SIZE ), Math.min( TILE_SIZE, extent - y * TILE_SIZE ));
+			}
+		}
+		
+		synchronized( SurfaceImageRenderer.class ) {
+			if( pool == null ) {
+				pool = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+					private int count = 0;
+
+					public Thread newThread( Runnable r )
+					{
+						final Thread t = new Thread( r, "SurfaceRender-" + (++count) );
+						t.setDaemon( true );
+						t.setPriority( Thread.NORM_PRIORITY - 1 );	// the event thread comes first
+						return t;
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 *	Chooses between the equal power and the linear
+	 *	sum of the receivers' sensitivities. This does
+	 *	not invalidate the image, but the cached
+	 *	sensitivities are reused once it is invalidated.
+	 */
+	void setEqualPower( boolean onOff )
+	{
+		equalPower = onOff;
+	}
+
+	/**
+	 *	Schedules the recalculation of all tiles
+	 *	intersecting the given region. The given receivers'
+	 *	sensitivities are recalculated, the contributions
+	 *	of all other receivers are reused.
+	 *
+	 *	@param	collRcv	the receivers which have changed, e.g. moved,
+	 *					or were added to or removed from the active receivers
+	 *	@param	x1	the leftmost pixel column (inclusive)
+	 *	@param	y1	the topmost pixel row (inclusive)
+	 *	@param	x2	the rightmost pixel column (exclusive)
+	 *	@param	y2	the bottommost pixel row (exclusive)
+	 */
+	void invalidate( List collRcv, int x1, int y1, int x2, int y2 )
+	{
+		final int tx1 = Math.max( 0, x1 / TILE_SIZE );
+		final int ty1 = Math.max( 0, y1 / TILE_SIZE );
+		final int tx2 = Math.min( numTiles, (x2 + TILE_SIZE - 1) / TILE_SIZE );
+		final int ty2 = Math.min( numTiles, (y2 + TILE_SIZE - 1) / TILE_SIZE );
+		Tile		t;
+		Object		rcv;
+
+		synchronized( stamps ) {
+			for( int i = 0; i < collRcv.size(); i++ ) {
+				rcv = collRcv.get( i );
+				stamps.put( rcv, Integer.valueOf( getStamp( rcv ) + 1 ));
+			}
+		}
+
+		for( int ty = ty1; ty < ty2; ty++ ) {
+			for( int tx = tx1; tx < tx2; tx++ ) {
+				t = tiles[ ty * numTiles + tx ];
+				t.version.incrementAndGet();
+				t.schedule();
+			}
+		}
+	}
+
+	/**
+	 *	Drops all cached sensitivities and schedules
+	 *	the recalculation of the whole image.
+	 */
+	void invalidateAll()
+	{
+		epoch++;
+		invalidate( Collections.EMPTY_LIST, 0, 0, extent, extent );
+	}
+
+	// sync: caller must have sync on stamps
+	private int getStamp( Object rcv )
+	{
+		final Integer stamp = (Integer) stamps.get( rcv );
+		return( stamp == null ? 0 : stamp.intValue() );
+	}
+
+	// brings the contributions of the active receivers up to date and
+	// renders the tile's pixels. the fine pass (step == 1) updates
+	// the tile's cache, a coarse pass works on a copy of the sums
+	// and calculates new contributions at a lower resolution.
+	//
+	// sync: syncs on the tile, attemptShared on DOOR_RCV | DOOR_GRP
+	// ; returns false if the lock could not be obtained
+	private boolean calcTile( Tile t, int step, byte[] pix )
+	{
+		final boolean	eqP		= equalPower;
+		final int		ep		= epoch;
+		final long[]	sum;
+		final int[]		nonZero;
+		final Map		contribs;
+		List			collRcv;
+		Receiver		rcv;
+		Contribution	c;
+		Map.Entry		entry;
+		float			f1;
+
+		synchronized( t ) {
+			if( step == 1 ) {
+				sum			= t.sum;
+				nonZero		= t.nonZero;
+				contribs	= t.contribs;
+			} else {
+				sum			= t.sum.clone();
+				nonZero		= t.nonZero.clone();
+				contribs	= new HashMap( t.contribs );
+			}
+
+			if( t.eqP != eqP ) {	// rebuild the sums in the other mode
+				for( int i = 0; i < sum.length; i++ ) {
+					sum[ i ]		= 0;
+					nonZero[ i ]	= 0;
+				}
+				for( Iterator iter = contribs.values().iterator(); iter.hasNext(); ) {
+					add( (Contribution) iter.next(), sum, nonZero, eqP, 1 );
+				}
+				if( step == 1 ) t.eqP = eqP;
+			}
+
+			if( !doc.bird.attemptShared( Session.DOOR_RCV | Session.DOOR_GRP, 250 )) return false;
+			try {
+				collRcv = doc.getActiveReceivers().getSnapshot();
+
+				// subtract outdated contributions
+				for( Iterator iter = contribs.entrySet().iterator(); iter.hasNext(); ) {
+					entry	= (Map.Entry) iter.next();
+					c		= (Contribution) entry.getValue();
+					if( !collRcv.contains( entry.getKey() ) || (c.epoch != ep) || (c.stamp != stamp( entry.getKey() ))) {
+						add( c, sum, nonZero, eqP, -1 );
+						iter.remove();
+					}
+				}
+				// add missing contributions
+				for( int rcvIdx = 0; rcvIdx < collRcv.size(); rcvIdx++ ) {
+					rcv = (Receiver) collRcv.get( rcvIdx );
+					if( contribs.containsKey( rcv )) continue;
+					c = calcContribution( t, rcv, step, ep );
+					if( c == null ) continue;	// receiver doesn't overlap the tile
+					add( c, sum, nonZero, eqP, 1 );
+					contribs.put( rcv, c );
+				}
+			}
+			finally {
+				doc.bird.releaseShared( Session.DOOR_RCV | Session.DOOR_GRP );
+			}
+
+			for( int y = 0, k = 0; y < t.h; y++ ) {
+				for( int x = 0, i = y * TILE_SIZE; x < t.w; x++, i++, k++ ) {
+					if( nonZero[ i ] == 0 ) {
+						pix[ k ] = (byte) 255;
+						continue;
+					}
+					// non zero sensitivities never appear fully white
+					f1 = (float) (sum[ i ] / FIXED_ONE);
+					if( eqP ) {
+						pix[ k ] = (byte) (f1 >= 1.0f ? 0 : Math.min( 254, (int) (float) ((1.0 - Math.sqrt( f1 )) * 255) ));
+					} else {
+						pix[ k ] = (byte) Math.min( 254, (int) (float) ((1.0 - Math.min( 1.0f, f1 )) * 255) );
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private int stamp( Object rcv )
+	{
+		synchronized( stamps ) {
+			return getStamp( rcv );
+		}
+	}
+
+	// calculates the sensitivities of a receiver for those pixels of
+	// a tile which lie within the receiver's bounds. returns null
+	// if there are no such pixels.
+	//
+	// sync: caller must have shared lock on DOOR_RCV
+	private Contribution calcContribution( Tile t, Receiver rcv, int step, int ep )
+	{
+		final Rectangle2D	r		= rcv.getBounds();
+		final Contribution	c		= new Contribution( stamp( rcv ), ep );
+		final int			cols, rows, n, w;
+		final float[][]		pt;
+		final float[]		sense;
+		float				f1;
+		int					i, x, y, row;
+
+		// one pixel margin against rounding
+		c.x1	= Math.max( 0, (int) ((r.getMinX() + 1.0) / 2 * extent) - 1 - t.x );
+		c.y1	= Math.max( 0, (int) ((r.getMaxY() - 1.0) / 2 * -extent) - 1 - t.y );
+		c.x2	= Math.min( t.w, (int) Math.ceil( (r.getMaxX() + 1.0) / 2 * extent ) + 1 - t.x );
+		c.y2	= Math.min( t.h, (int) Math.ceil( (r.getMinY() - 1.0) / 2 * -extent ) + 1 - t.y );
+		if( (c.x1 >= c.x2) || (c.y1 >= c.y2) ) return null;
+
+		w		= c.x2 - c.x1;
+		cols	= (w + step - 1) / step;
+		rows	= (c.y2 - c.y1 + step - 1) / step;
+		n		= cols * rows;
+		pt		= new float[ 2 ][ n ];
+		sense	= new float[ n ];
+
+		for( y = 0, i = 0; y < rows; y++ ) {
+			f1 = 1f - ((t.y + c.y1 + y * step) * scaleDown);
+			for( x = 0; x < cols; x++, i++ ) {
+				pt[ 0 ][ i ] = (t.x + c.x1 + x * step) * scaleDown - 1.0f;
+				pt[ 1 ][ i ] = f1;
+			}
+		}
+		rcv.getSensitivities( pt, sense, 0, n, 1 );
+
+		// each calculated point covers a step x step block of pixels
+		c.sense = new float[ w * (c.y2 - c.y1) ];
+		for( y = 0, i = 0; y < c.y2 - c.y1; y++ ) {
+			row = (y / step) * cols;
+			for( x = 0; x < w; x++, i++ ) {
+				c.sense[ i ] = sense[ row + x / step ];
+			}
+		}
+		return c;
+	}
+
+	// adds (sign == 1) or subtracts (sign == -1) a contribution.
+	// the conversion to fixed point is deterministic, hence
+	// subtraction exactly cancels a preceding addition
+	private static void add( Contribution c, long[] sum, int[] nonZero, boolean eqP, int sign )
+	{
+		final int	w		= c.x2 - c.x1;
+		final int	scan	= TILE_SIZE;
+		float		f1;
+		int			i, j, x, y;
+		
+		for( y = c.y1, j = 0; y < c.y2; y++ ) {
+			for( x = c.x1, i = y * scan + x; x < c.x2; x++, i++, j++ ) {
+				f1 = c.sense[ j ];
+				if( f1 == 0.0f ) continue;
+				sum[ i ]		+= sign * Math.round( (eqP ? f1 * f1 : f1) * FIXED_ONE );
+				nonZero[ i ]	+= sign;
+			}
+		}
+	}
+
+	// copies the pixels into the image, unless the tile was invalidated
+	// in the meantime, and triggers a display update
+	private void publish( Tile t, int version, byte[] pix )
+	{
+		synchronized( img ) {
+			if( t.version.get() != version ) return;
+			final WritableRaster rast = img.getRaster();
+			rast.setDataElements( t.x, t.y, t.w, t.h, pix );
+		}
+		if( updatePending.compareAndSet( false, true )) {
+			EventQueue.invokeLater( new Runnable() {
+				public void run()
+				{
+					updatePending.set( false );
+					updater.run();
+				}
+			});
+		}
+	}
+
+// ---------------- internal classes ---------------- 
+
+	private class Tile
+	{
+		protected final int				x, y, w, h;
+		// incremented upon each invalidation
+		protected final AtomicInteger	version	= new AtomicInteger( 0 );
+		// true while a coarse pass is queued but not yet started
+		private final AtomicBoolean		pending	= new AtomicBoolean( false );
+
+		// the following are only used by the fine pass. sync: this
+		// ; sums and non zero counts are TILE_SIZE pixels per row
+		protected final long[]			sum			= new long[ TILE_SIZE * TILE_SIZE ];
+		protected final int[]			nonZero		= new int[ TILE_SIZE * TILE_SIZE ];
+		protected final Map				contribs	= new HashMap();	// Receiver to Contribution
+		protected boolean				eqP			= false;
+	
+		protected Tile( int x, int y, int w, int h )
+		{
+			this.x	= x;
+			this.y	= y;
+			this.w	= w;
+			this.h	= h;
+		}
+		
+		protected void schedule()
+		{
+			if( pending.compareAndSet( false, true )) {
+				pool.execute( new Pass( this, COARSE_STEP, 0 ));
+			}
+		}
+		
+		protected void started()
+		{
+			pending.set( false );
+		}
+	}
+
+	// the sensitivities of one receiver within one tile
+	private static class Contribution
+	{
+		protected final int		stamp;
+		protected final int		epoch;
+		// tile relative pixel bounds, x2 and y2 exclusive
+		protected int			x1, y1, x2, y2;
+		protected float[]		sense;
+
+		protected Contribution( int stamp, int epoch )
+		{
+			this.stamp	= stamp;
+			this.epoch	= epoch;
+		}
+	}
+
+	private class Pass
+	implements Runnable
+	{
+		private final Tile	t;
+		private final int	step;
+		private int			version;
+
+		// version is ignored for the coarse pass
+		protected Pass( Tile t, int step, int version )
+		{
+			this.t			= t;
+			this.step		= step;
+			this.version	= version;
+		}
+		
+		public void run()
+		{
+			final byte[] pix;
+		
+			if( step > 1 ) {
+				t.started();		// invalidations from now on need a new pass
+				version = t.version.get();
+			} else if( t.version.get() != version ) {
+				return;				// outdated, a newer coarse pass is scheduled
+			}
+
+			pix = new byte[ t.w * t.h ];
+			if( !calcTile( t, step, pix )) {	// lock not available, try again later
+				if( step > 1 ) {
+					t.schedule();
+				} else {
+					pool.execute( this );
+				}
+				return;
+			}
+			publish( t, version, pix );
+			if( step > 1 ) {
+				// queued behind the coarse passes of the other tiles
+				pool.execute( new Pass( t, 1, version ));
+			}
+		}
+	}
+}
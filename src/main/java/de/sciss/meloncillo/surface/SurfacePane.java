@@ -37,6 +37,9 @@
  *		02-Feb-05	pencil tool will automatically start/stop transport
  *		19-Mar-05	only active transmitters are displayed
  *		18-Apr-05	fixed arc tool
+ *		17-Oct-26	sensitivity image is calculated in the background by SurfaceImageRenderer
+ *		17-Oct-26	only the contributions of changed receivers are recalculated
+ *		17-Oct-26	reads collection snapshots instead of copies where possible
  *
  *  XXX TO-DO : dragging multiple receivers should collapse into a compound edit!
  */
@@ -225,9 +228,7 @@ implements  VirtualSurface, TimelineListener, TransportListener,
 
 	private final BufferedImage bufImg;
 	private final int bufImgExtent			= 256;  // XXX user prefs
-	private final float[] bufImgRow			= new float[ bufImgExtent ];
-	private final float[] bufImgRow2		= new float[ bufImgExtent ];
-	private final float[][] bufImgPt		= new float[ 2 ][ bufImgExtent ];
+	private final SurfaceImageRenderer bufImgRenderer;
 	private Image				image		= null;
 	private Dimension			recentSize;
 	
@@ -326,6 +327,15 @@ implements  VirtualSurface, TimelineListener, TransportListener,
 		ColorModel cm		= new ComponentColorModel( colrSpace, cbits, false, false, Transparency.OPAQUE,
 													   DataBuffer.TYPE_BYTE );
 		bufImg				= new BufferedImage( cm, rast, false, new Hashtable() );
+		bufImgRenderer		= new SurfaceImageRenderer( doc, bufImg, new Runnable() {
+			public void run()
+			{
+				if( prefRcvSense ) {
+					redrawImage();
+					repaint();
+				}
+			}
+		});
 		recentSize			= getMinimumSize();
 	
 		// --- Tools ---
@@ -387,7 +397,7 @@ implements  VirtualSurface, TimelineListener, TransportListener,
 					
 					case SessionObject.OWNER_VISUAL:
 						updateReceiverShapes();
-						updateSurfacePaneImage( null );
+						updateSurfacePaneImage( null, null );
 						redrawImage();
 						repaint();
 						break;
@@ -402,7 +412,7 @@ implements  VirtualSurface, TimelineListener, TransportListener,
 //					
 //					// cannot use 'update( e )' because we would need the previous union rect ;-( XXX
 //					updateReceiverShapes();
-//					updateSurfacePaneImage( null );
+//					updateSurfacePaneImage( null, null );
 //					redrawImage();
 //					repaint();
 //				}
@@ -522,7 +532,7 @@ implements  VirtualSurface, TimelineListener, TransportListener,
 						
 		setOpaque( true );
 		setFocusable( true );		// required for the tools to hear key presses
-		updateSurfacePaneImage( null );
+		updateSurfacePaneImage( null, null );
 //        HelpGlassPane.setHelp( this, "Surface" );	// EEE
     }
 	
@@ -559,127 +569,30 @@ implements  VirtualSurface, TimelineListener, TransportListener,
 	
 	/**
 	 *  Recalculates the surface buffered image, e.g. after a receiver movement.
+	 *	The calculation is carried out asynchronously, the image
+	 *	is redrawn and repainted as the affected tiles are finished.
 	 *
 	 *  @param  clipRect	the part of the image that needs update
 	 *						or null to update the complete image
+	 *	@param	collRcv		the receivers whose sensitivities have changed
+	 *						or which were added or removed. ignored
+	 *						if <code>clipRect</code> is <code>null</code>,
+	 *						in which case all sensitivities are recalculated
 	 *
-	 *  @synchronization	attemptShared on DOOR_RCV | DOOR_GRP
-	 *  @todo				increase calculation speed
+	 *  @see	SurfaceImageRenderer
 	 */
-	private void updateSurfacePaneImage( Rectangle2D clipRect )
+	private void updateSurfacePaneImage( Rectangle2D clipRect, List collRcv )
 	{
 		if( !prefRcvSense ) return;
 	
-		WritableRaster  rast		= bufImg.getRaster();
-		float			scaleDown	= 2.0f / (float) bufImgExtent;
-		int				x, y, i, rcvIdx, x1, x2, y1, y2, numRcv;
-		float			f1;
-		List			collRcv;
-
 		if( clipRect == null ) {
-			x1  = 0;
-			y1  = 0;
-			x2  = bufImgExtent;
-			y2  = bufImgExtent;
+			bufImgRenderer.invalidateAll();
 		} else {
-			x1  = Math.max( 0, (int) ((clipRect.getMinX() + 1.0) / 2 * bufImgExtent) );
-			y1  = Math.max( 0, (int) ((clipRect.getMaxY() - 1.0) / 2 * -bufImgExtent) );
-			x2  = Math.min( bufImgExtent, (int) Math.ceil( (clipRect.getMaxX() + 1.0) / 2 * bufImgExtent ));
-			y2  = Math.min( bufImgExtent, (int) Math.ceil( (clipRect.getMinY() - 1.0) / 2 * -bufImgExtent ));
-		}
-
-		// we calculate full rows at once, hence
-		// we can precalc the x coords for all rows
-		for( x = x1; x < x2; x++ ) {
-			bufImgPt[ 0 ][ x ] = x * scaleDown - 1.0f;
-		}
-
-		if( !doc.bird.attemptShared( Session.DOOR_RCV | Session.DOOR_GRP, 250 )) return;
-		try {
-			collRcv	= doc.getActiveReceivers().getAll();
-			numRcv	= collRcv.size();
-
-			if( numRcv == 0 ) {
-				for( i = x2 - x1 - 1; i >= 0; i-- ) {
-					bufImgRow2[ i ] = 255f;
-				}
-				for( y = y1; y < y2; y++ ) {
-					rast.setPixels( x1, y, x2 - x1, 1, bufImgRow2 );
-				}
-				return;
-			}
-
-			if( prefRcvEqP ) {		// ----------------------- equal power -----------------------
-//System.err.println( "here! x1 "+x1+" x2 "+x2+" y1 "+y1+" y2 "+y2+" numRcv "+numRcv );
-//System.err.println( "rcv 1 : anchor "+((Receiver) collRcv.get( 0 )).getAnchor().getX()+","+
-//					((Receiver) collRcv.get( 0 )).getAnchor().getY()+" size "+
-//					((Receiver) collRcv.get( 0 )).getSize().getWidth()+","+
-//					((Receiver) collRcv.get( 0 )).getSize().getHeight() );
-
-				for( y = y1; y < y2; y++ ) {
-					f1 = 1f - (y * scaleDown);
-					// all points in a row share the same y coord
-					for( x = x1; x < x2; x++ ) {
-						bufImgPt[ 1 ][ x ] = f1;
-					}
-
-					
-					((Receiver) collRcv.get( 0 )).getSensitivities(
-						bufImgPt, bufImgRow, x1, x2, 1 );
-					for( x = x1, i = 0; x < x2; x++, i++ ) {
-						bufImgRow2[ i ] = bufImgRow[ x ] * bufImgRow[ x ];
-					}
-					for( rcvIdx = 1; rcvIdx < numRcv; rcvIdx++ ) {
-						((Receiver) collRcv.get( rcvIdx )).getSensitivities(
-							bufImgPt, bufImgRow, x1, x2, 1 );
-						for( x = x1, i = 0; x < x2; x++, i++ ) {
-							bufImgRow2[ i ] += bufImgRow[ x ] * bufImgRow[ x ];
-						}
-					}
-
-					for( i = x2 - x1 - 1; i >= 0; i-- ) {
-						f1 = bufImgRow2[ i ];
-						if( f1 == 0.0f ) {
-							bufImgRow2[ i ] = 255f;
-						} else if( f1 >= 1.0f ) {
-							bufImgRow2[ i ] = 0f;
-						} else {
-							bufImgRow2[ i ] = (float) ((1.0 - Math.sqrt( bufImgRow2[ i ])) * 255);
-						}
-					}
-					rast.setPixels( x1, y, x2 - x1, 1, bufImgRow2 );
-				}
-			} else {		// ----------------------- linear ----------------------- 
-				for( y = y1; y < y2; y++ ) {
-					f1 = 1f - (y * scaleDown);
-					// all points in a row share the same y coord
-					for( x = x1; x < x2; x++ ) {
-						bufImgPt[ 1 ][ x ] = f1;
-					}
-
-					((Receiver) collRcv.get( 0 )).getSensitivities(
-						bufImgPt, bufImgRow, x1, x2, 1 );
-					for( x = x1, i = 0; x < x2; x++, i++ ) {
-						bufImgRow2[ i ] = bufImgRow[ x ];
-					}
-					for( rcvIdx = 1; rcvIdx < numRcv; rcvIdx++ ) {
-						((Receiver) collRcv.get( rcvIdx )).getSensitivities(
-							bufImgPt, bufImgRow, x1, x2, 1 );
-						for( x = x1, i = 0; x < x2; x++, i++ ) {
-							bufImgRow2[ i ] += bufImgRow[ x ];
-						}
-					}
-
-					for( i = x2 - x1 - 1; i >= 0; i-- ) {
-						f1 = bufImgRow2[ i ];
-						bufImgRow2[ i ] = (float) ((1.0 - Math.min( 1.0f, bufImgRow2[ i ])) * 255);
-					}
-					rast.setPixels( x1, y, x2 - x1, 1, bufImgRow2 );
-				}
-			}
-		}
-		finally {
-			doc.bird.releaseShared( Session.DOOR_RCV | Session.DOOR_GRP );
+			bufImgRenderer.invalidate( collRcv,
+				(int) ((clipRect.getMinX() + 1.0) / 2 * bufImgExtent),
+				(int) ((clipRect.getMaxY() - 1.0) / 2 * -bufImgExtent),
+				(int) Math.ceil( (clipRect.getMaxX() + 1.0) / 2 * bufImgExtent ),
+				(int) Math.ceil( (clipRect.getMinY() - 1.0) / 2 * -bufImgExtent ));
 		}
 	}
 	
@@ -839,7 +752,9 @@ implements  VirtualSurface, TimelineListener, TransportListener,
 		
 		// --- surface image ---
 		if( prefRcvSense ) {
-			g2.drawImage( bufImg, 0, 0, diam, diam, this );
+			synchronized( bufImg ) {	// tiles are copied in by the renderer
+				g2.drawImage( bufImg, 0, 0, diam, diam, this );
+			}
 		} else {
 			g2.setColor( Color.white );
 			g2.fillRect( 0, 0, recentSize.width, recentSize.height );
@@ -903,14 +818,15 @@ implements  VirtualSurface, TimelineListener, TransportListener,
 	 *
 	 *  @param  clipRect		first clipping rectangle in virtual coords
 	 *  @param  clipRect2		second clipping rectangle in virtual coords
-	 *  @param  updateSurfacePane	whether the surface image needs to be recalculated. if true,
-	 *							the offscreen image will be redrawn as well. if true, redrawImage()
+	 *  @param  collRcv			the receivers whose change requires the surface image to be
+	 *							recalculated, or null if the image is up to date. if not null,
+	 *							the offscreen image will be redrawn as well, i.e. redrawImage()
 	 *							is invoked right after the update
 	 *
-	 *  @synchronization	waitShared on DOOR_RCV if <code>updateSurfacePane</code> is <code>true</code>
-	 *						since in this case <code>updateSurfacePaneImage</code> is called
+	 *  @synchronization	must be called in the event thread. the surface image
+	 *						is recalculated in the background, which syncs on DOOR_RCV
 	 */
-	private void efficientUpdateAndRepaint( Rectangle2D clipRect, Rectangle2D clipRect2, boolean updateSurfacePane )
+	private void efficientUpdateAndRepaint( Rectangle2D clipRect, Rectangle2D clipRect2, List collRcv )
 	{
 		Rectangle2D clipRect3;
 
@@ -920,30 +836,30 @@ implements  VirtualSurface, TimelineListener, TransportListener,
 				if( clipRect3.getWidth() * clipRect3.getHeight() <
 					(clipRect.getWidth() * clipRect.getHeight() + clipRect2.getWidth() * clipRect2.getHeight()) ) {
 					
-					if( updateSurfacePane ) {
-						updateSurfacePaneImage( clipRect3 );
+					if( collRcv != null ) {
+						updateSurfacePaneImage( clipRect3, collRcv );
 						redrawImage();
 					}
 					repaint( virtualToScreenClip( clipRect3 ));
 				} else {
-					if( updateSurfacePane ) {
-						updateSurfacePaneImage( clipRect );
-						updateSurfacePaneImage( clipRect2 );
+					if( collRcv != null ) {
+						updateSurfacePaneImage( clipRect, collRcv );
+						updateSurfacePaneImage( clipRect2, collRcv );
 						redrawImage();
 					}
 					repaint( virtualToScreenClip( clipRect ));
 					repaint( virtualToScreenClip( clipRect2 ));
 				}
 			} else {
-				if( updateSurfacePane ) {
-					updateSurfacePaneImage( clipRect );
+				if( collRcv != null ) {
+					updateSurfacePaneImage( clipRect, collRcv );
 					redrawImage();
 				}
 				repaint( virtualToScreenClip( clipRect ));
 			}
 		} else if( clipRect2 != null ) {
-			if( updateSurfacePane ) {
-				updateSurfacePaneImage( clipRect2 );
+			if( collRcv != null ) {
+				updateSurfacePaneImage( clipRect2, collRcv );
 				redrawImage();
 			}
 			repaint( virtualToScreenClip( clipRect2 ));
@@ -1072,8 +988,8 @@ trns.getAudioTrail().readFrames( frames, 0, new Span( info.span.start, info.span
         final List		collRcv;
 		final List		collRcvSel;
 
-		collRcvSel	= doc.getSelectedReceivers().getAll();
-		collRcv		= doc.getActiveReceivers().getAll();
+		collRcvSel	= doc.getSelectedReceivers().getSnapshot();
+		collRcv		= doc.getActiveReceivers().getSnapshot();
 		collReceiverShapes.clear();
 		for( int i = 0; i < collRcv.size(); i++ ) {
 			rcv = (Receiver) collRcv.get( i );
@@ -1139,7 +1055,7 @@ trns.getAudioTrail().readFrames( frames, 0, new Span( info.span.start, info.span
 	private void update( SessionCollection.Event e )
 	{
 		updateReceiverShapes();
-		updateSurfacePaneImage( getUnionRect( e.getCollection() ));
+		updateSurfacePaneImage( getUnionRect( e.getCollection() ), e.getCollection() );
 		redrawImage();
 		repaint();
 	}
@@ -1335,7 +1251,7 @@ trns.getAudioTrail().readFrames( frames, 0, new Span( info.span.start, info.span
 	
 		if( !doc.bird.attemptShared( Session.DOOR_TRNS | Session.DOOR_GRP, 250 )) return;
 		try {
-			collTrns	= doc.getActiveTransmitters().getAll();
+			collTrns	= doc.getActiveTransmitters().getSnapshot();
 			numTrns		= Math.min( rt_trnsNames.length, collTrns.size() );
 			for( trnsIdx = 0; trnsIdx < numTrns; trnsIdx++ ) {
 				rt_trnsNames[ trnsIdx ] = ((SessionObject) collTrns.get( trnsIdx )).getName();
@@ -1364,14 +1280,16 @@ trns.getAudioTrail().readFrames( frames, 0, new Span( info.span.start, info.span
 		} else if( key.equals( PrefsUtil.KEY_VIEWRCVSENSE )) {
 			prefRcvSense= Boolean.valueOf( value ).booleanValue();
 			if( prefRcvSense ) {
-				updateSurfacePaneImage( null );
+				updateSurfacePaneImage( null, null );
 			}
 			redrawImage();
 			repaint();
 		} else if( key.equals( PrefsUtil.KEY_VIEWEQPRECEIVER )) {
 			prefRcvEqP	= Boolean.valueOf( value ).booleanValue();
+			bufImgRenderer.setEqualPower( prefRcvEqP );
 			if( prefRcvSense ) {
-				updateSurfacePaneImage( null );
+				// the cached sensitivities remain valid, only the sums are rebuilt
+				updateSurfacePaneImage( new Rectangle2D.Double( -1.0, -1.0, 2.0, 2.0 ), Collections.EMPTY_LIST );
 				redrawImage();
 				repaint();
 			}
@@ -1425,7 +1343,7 @@ trns.getAudioTrail().readFrames( frames, 0, new Span( info.span.start, info.span
 		final int	numTrns;
 		
 		rt_valid				= false;
-		collTrns				= doc.getActiveTransmitters().getAll();
+		collTrns				= doc.getActiveTransmitters().getSnapshot();
 		numTrns					= collTrns.size();
 		if( rt_trnsNames.length != numTrns ) {
 			rt_trnsNames= new String[ numTrns ];
@@ -1474,7 +1392,7 @@ trns.getAudioTrail().readFrames( frames, 0, new Span( info.span.start, info.span
 			request.notifyTicks		= true;
 			request.notifyOffhand	= true;
 //			collTrns				= context.getTransmitters();
-			collTrns				= doc.getActiveTransmitters().getAll();
+			collTrns				= doc.getActiveTransmitters().getSnapshot();
 			numTrns					= collTrns.size();
 			if( rt_peak.length != numTrns ) {
 				rt_trnsNames= new String[ numTrns ];
@@ -1793,7 +1711,7 @@ trns.getAudioTrail().readFrames( frames, 0, new Span( info.span.start, info.span
 						doc.getUndoManager().addEdit( edit.perform() );
 						updateReceiverShapes();
 						redrawImage();
-						efficientUpdateAndRepaint( clipRect, clipRect2, false );
+						efficientUpdateAndRepaint( clipRect, clipRect2, null );
 					}
 				}
 			}
@@ -1827,7 +1745,7 @@ trns.getAudioTrail().readFrames( frames, 0, new Span( info.span.start, info.span
 							edit = new EditSetSessionObjects( this, doc.getMutableSelectedReceivers(), coll );
 							doc.getUndoManager().addEdit( edit.perform() );
 							clipRect = rcv.getBounds();
-							updateSurfacePaneImage( clipRect );
+							updateSurfacePaneImage( clipRect, Collections.singletonList( rcv ));
 							updateReceiverShapes();
 							redrawImage();
 							repaint( virtualToScreenClip( clipRect ));
@@ -1922,7 +1840,7 @@ trns.getAudioTrail().readFrames( frames, 0, new Span( info.span.start, info.span
 			}
 			dndCurrentRect  = getUnionRect( dndColl );
 			updateReceiverShapes();
-			efficientUpdateAndRepaint( dndRecentRect, dndCurrentRect, true );
+			efficientUpdateAndRepaint( dndRecentRect, dndCurrentRect, dndColl );
 			dndRecentRect   = dndCurrentRect;
 		} // mouseDragged( MouseEvent e )
 	} // class SurfacePanePointerTool
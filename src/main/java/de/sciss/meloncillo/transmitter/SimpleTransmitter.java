@@ -25,12 +25,18 @@
  *
  *  Changelog:
  *		02-Sep-04	commented
+ *		17-Oct-26	fromXML may defer opening the trajectory file
+ *		17-Oct-26	toXML only rewrites modified trajectories, possibly deferred
+ *		17-Oct-26	trajectories are saved as compressed TrajectoryFiles
+ *		17-Oct-26	unmodified trajectories are linked under the current name
  */
 
 package de.sciss.meloncillo.transmitter;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.Callable;
 import org.w3c.dom.*;
 
 import de.sciss.meloncillo.io.*;
@@ -51,7 +57,8 @@ import de.sciss.io.*;
 public class SimpleTransmitter
 extends AbstractTransmitter
 {
-	private static final String SUFFIX_TRAJECTORY	= "-trj.aif";
+	private static final String SUFFIX_TRAJECTORY	= "-trj.aif";	// AIFF, older sessions
+	private static final String SUFFIX_COMPRESSED	= "-trj.mtj";	// TrajectoryFile
 	private static final String SUFFIX_TEMP			= "-trj.tmp";
 
 	private static final Class	defaultEditor		= SimpleTransmitterEditor.class;
@@ -63,6 +70,13 @@ extends AbstractTransmitter
 //	private static final int[] decimations	= { 2, 4, 6, 8, 10, 12 };
 	private static final int[] decimations	= { 4, 8, 12 };
 
+	// the file which the trajectory was last read from or written to,
+	// and the trail's stakes at that time. edits replace stakes, hence
+	// the file is up to date as long as the trail consists of exactly these.
+	// sync: caller must have sync on mte
+	private File	trajFile	= null;
+	private List	trajStakes	= null;
+
 	/**
 	 *  Creates a new SimpleTransmitter with defaults
 	 */
@@ -98,6 +112,20 @@ extends AbstractTransmitter
 	{
 		return dwt;
 	}
+	
+	/**
+	 *	Queries whether the trajectory was edited
+	 *	since it was last read from or written to its file.
+	 *
+	 *	@return	<code>true</code> if the trajectory was modified,
+	 *			or if it was never read or written
+	 *
+	 *	@synchronization	caller must have sync on mte
+	 */
+	public boolean isTrajectoryModified()
+	{
+		return( (trajFile == null) || !at.getAll( true ).equals( trajStakes ));
+	}
 
 // ---------------- Track imterface ---------------- 
 
@@ -111,12 +139,18 @@ extends AbstractTransmitter
 	/** 
 	 *  Additionally saves the trajectory data
 	 *  to an extra file in the folder specified through
-	 *  <code>setDirectory</code>. One two channel <code>InterleavedStreamFile</code>
+	 *  <code>setDirectory</code>. One two channel <code>TrajectoryFile</code>
 	 *  is used to store the full rate cartesian coordinates.
 	 *	Subsampled files are not stored at the moment.
 	 *	The file name is
 	 *  deduced from the transmitter's logical name and special
 	 *  suffix.
+	 *	<p>
+	 *	If the trajectory was not modified since it was last read
+	 *	or written, the existing file is kept resp. linked or copied
+	 *	(see <code>XMLRepresentation.KEY_BACKUPPATH</code>) instead
+	 *	of flattening the trail again. When the options contain
+	 *	<code>KEY_DEFERRED</code>, the file is written by a deferred job.
 	 *
 	 *  @see	de.sciss.meloncillo.io.InterleavedStreamFile
 	 *
@@ -131,43 +165,111 @@ extends AbstractTransmitter
 	{
 		super.toXML( domDoc, node, options );
 
-		File					f, f2;
-		InterleavedStreamFile	iff;
-		File					dir;
-		AudioFileDescr			afd;
+		final File	dir			= new File( (File) options.get( XMLRepresentation.KEY_BASEPATH ), SUBDIR );
+		final List	stakes		= at.getAll( true );
+		final List	deferred	= (List) options.get( XMLRepresentation.KEY_DEFERRED );
+		File		source		= getUnmodifiedFile( options );
+		File		f;
+
+		// fromXML finds the file by the transmitter's name,
+		// which may have changed since the file was written
+		if( (source != null) && source.getName().endsWith( SUFFIX_TRAJECTORY )) {
+			f = new File( dir, getName() + SUFFIX_TRAJECTORY );
+		} else {
+			f = new File( dir, getName() + SUFFIX_COMPRESSED );
+		}
+		if( (source != null) && source.getParentFile().getAbsoluteFile().equals( dir.getAbsoluteFile() )) {
+			if( source.getName().equals( f.getName() )) return;	// up to date
+			// renamed in place : the old file may be the target of another
+			// transmitter (e.g. when names were swapped), so don't link it
+			source	= null;
+			f		= new File( dir, getName() + SUFFIX_COMPRESSED );
+		}
+
+		if( !dir.isDirectory() ) IOUtil.createEmptyDirectory( dir );
 
-		// flatten trajectory in a file named getName() in the directory getDirectory()
+		if( deferred == null ) {
+			writeTrajectory( f, source, stakes );
+		} else {
+			final File	fF		= f;
+			final File	sourceF	= source;
+			deferred.add( new Callable() {
+				public Object call()
+				throws IOException
+				{
+					writeTrajectory( fF, sourceF, stakes );
+					return null;
+				}
+			});
+		}
+	}
+
+	// returns the file holding the unmodified trajectory,
+	// or null if the trajectory was modified or the file is gone
+	private File getUnmodifiedFile( Map options )
+	{
+		if( isTrajectoryModified() ) return null;
+
+		final File	backupDir	= (File) options.get( XMLRepresentation.KEY_BACKUPPATH );
+		final File	baseDir		= (File) options.get( XMLRepresentation.KEY_BASEPATH );
+		File		f			= trajFile;
+		
+		if( (backupDir != null) && baseDir.getAbsoluteFile().equals(
+			f.getParentFile().getParentFile().getAbsoluteFile() )) {
+			
+			f = new File( new File( backupDir, SUBDIR ), f.getName() );
+		}
+		return f.isFile() ? f : null;
+	}
+	
+	// flattens the trajectory into f, unless source is given,
+	// which is an unmodified trajectory file that is linked or copied
+	private void writeTrajectory( File f, File source, List stakes )
+	throws IOException
+	{
+		File					f2;
+		TrajectoryFile			tf;
 
 		// as soon as the old file is still used for reading, we
 		// need to backup it first
-		dir	= new File( (File) options.get( XMLRepresentation.KEY_BASEPATH ), SUBDIR );
-		if( !dir.isDirectory() ) IOUtil.createEmptyDirectory( dir );
-		f   = new File( dir, getName() + SUFFIX_TRAJECTORY );
 		f2  = null;
 		if( f.exists() ) {
-			f2 = new File( dir, getName() + SUFFIX_TEMP );
+			f2 = new File( f.getParentFile(), getName() + SUFFIX_TEMP );
 			f2.delete();
 			if( !f.renameTo( f2 )) throw new IOException(
 				AbstractApplication.getApplication().getResourceString( "errBackupTraj" ));
-			f = new File( dir, getName() + SUFFIX_TRAJECTORY );
 		}
-		afd					= new AudioFileDescr();
-		afd.type			= AudioFileDescr.TYPE_AIFF;
-		afd.rate			= at.getRate();
-		afd.channels		= at.getChannelNum();
-		afd.bitsPerSample	= 32;
-		afd.sampleFormat	= AudioFileDescr.FORMAT_FLOAT;
-		afd.file			= f;
 
-		iff					= AudioFile.openAsWrite( afd );
-		
-		final int[] chanMap = new int[ at.getChannelNum() ];
-		for( int i = 0; i < chanMap.length; i++ ) chanMap[ i ] = i;
-		at.flatten( iff, at.getSpan(), chanMap );
-		iff.truncate();
-		iff.close();
+		if( source != null ) {
+			try {
+				Files.createLink( f.toPath(), source.toPath() );
+			}
+			catch( IOException e1 ) {	// e.g. different file systems
+				Files.copy( source.toPath(), f.toPath() );
+			}
+			catch( UnsupportedOperationException e1 ) {
+				Files.copy( source.toPath(), f.toPath() );
+			}
+			// a compressed trajectory would be preferred by fromXML
+			if( !f.getName().endsWith( SUFFIX_COMPRESSED )) {
+				new File( f.getParentFile(), getName() + SUFFIX_COMPRESSED ).delete();
+			}
+		} else {
+			tf = TrajectoryFile.openAsWrite( f, at.getChannelNum(), at.getRate() );
+			try {
+				at.flatten( tf, at.getSpan(), null );
+			}
+			finally {
+				tf.close();
+			}
+			// a trajectory of an older session is replaced by the compressed one
+			new File( f.getParentFile(), getName() + SUFFIX_TRAJECTORY ).delete();
+		}
 		
 		if( f2 != null ) f2.delete();
+		
+		trajFile	= f;
+		trajStakes	= stakes;
 	}
 
 	/** 
@@ -182,6 +284,9 @@ extends AbstractTransmitter
 	 *
 	 *	@synchronization	caller must have sync on mte
 	 *	
+	 *	When the options contain <code>KEY_DEFERRED</code>, the
+	 *	trajectory file is opened by a deferred job.
+	 *
 	 *	@todo				this method should attempt a sync itself
 	 *	@todo				the file name should be stored in the session
 	 *						as well and relative path names should be used
@@ -191,14 +296,46 @@ extends AbstractTransmitter
 	{
 		super.fromXML( domDoc, node, options );
 
-		final AudioFile af = AudioFile.openAsRead( new File( new File(
-			(File) options.get( XMLRepresentation.KEY_BASEPATH ), SUBDIR ), getName() + SUFFIX_TRAJECTORY ));
+		final File dir			= new File( (File) options.get( XMLRepresentation.KEY_BASEPATH ), SUBDIR );
+		final File fc			= new File( dir, getName() + SUFFIX_COMPRESSED );
+		final File f			= fc.isFile() ? fc : new File( dir, getName() + SUFFIX_TRAJECTORY );
+		final List deferred		= (List) options.get( XMLRepresentation.KEY_DEFERRED );
+
+		if( deferred == null ) {
+			openTrajectory( f );
+		} else {
+			deferred.add( new Callable() {
+				public Object call()
+				throws IOException
+				{
+					openTrajectory( f );
+					return null;
+				}
+			});
+		}
+	}
+	
+	private void openTrajectory( File f )
+	throws IOException
+	{
+		final AudioTrail newAT;
+
+		if( TrajectoryFile.isTrajectoryFile( f )) {
+			final TrajectoryFile tf = TrajectoryFile.openAsRead( f );
+			newAT = AudioTrail.newFrom( tf, tf.getRate() );
+		} else {
+			// mapped, since the trajectory is re-read constantly by the realtime producer,
+			// the renderers and the display, possibly from several threads at once
+			newAT = AudioTrail.newFrom( AudioFile.openAsRead( f, true ));
+		}
 			
 		at.dispose();
 		dwt.dispose();
 //		at.clear( null );
 //		at.insert( iff, 0, new Span( 0, iff.getFrameNum() ), null, 0.0f, 1.0f );		// XXX edit ?
-		at	= AudioTrail.newFrom( af );
+		at	= newAT;
 		dwt	= new DecimatedWaveTrail( at, DecimatedWaveTrail.MODEL_FULLWAVE_PEAKRMS, decimations );
+		trajFile	= f;
+		trajStakes	= at.getAll( true );
 	}
 }
\ No newline at end of file
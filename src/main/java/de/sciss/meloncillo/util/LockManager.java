@@ -29,11 +29,17 @@
  *					the method would return successless after the inner-most nest
  *					exclusive lock was released. now, the delta-wait time is calculated
  *					and method carries on waiting!
+ *		17-Oct-26	rewritten with separate monitors per door, per thread shared
+ *					counters instead of owner lists, nano second timeouts,
+ *					writer preference, optimistic reads and contention statistics
  */
 
 package de.sciss.meloncillo.util;
 
-import java.util.*;
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import sun.misc.Unsafe;
 
 /**
  *  A LockManager keeps track of a number of doors.
@@ -53,19 +59,41 @@ import java.util.*;
  *      lockManager.releaseExclusive( theDoors );
  *  }
  *  </pre>
- *  However, it was not tested yet, if the population of all the
- *  source codes with try / finally blocks will degrade performance.
+ *  Each door has its own monitor, so threads using different doors
+ *  never contend. When several doors are requested, they are
+ *  locked all at once or not at all: if one of them is
+ *  unavailable, the doors obtained so far are released again
+ *  while waiting, so a waiting thread never holds on to doors.
+ *  Doors are fair towards writers: while a thread waits for an
+ *  exclusive lock, other threads cannot newly lock the door
+ *  shared, unless they already hold a lock on it.
+ *  <p>
+ *  Readers which only need a short, consistent glimpse of
+ *  the data may use <code>tryOptimisticRead</code> and
+ *  <code>validate</code> instead of locking, which never
+ *  blocks writers.
+ *  <p>
+ *  Locking and releasing does not allocate objects (apart from
+ *  the first use by each thread), and the number of acquisitions,
+ *  contended acquisitions, failed attempts and the waiting time
+ *  are recorded per door.
  *
  *  @author		Hanns Holger Rutz
- *  @version	0.75, 15-Jul-05
+ *  @version	0.75, 17-Oct-26
  *
  *  @see	de.sciss.meloncillo.session.Session#bird
  *  @see	de.sciss.meloncillo.session.Session#DOOR_RCV
  */
 public class LockManager
 {
-	private final ArrayList[] sharedLocks;		// index is door ID, the vector elements class is Thread
-	private final ArrayList[] exclusiveLocks;	// index is door ID, the vector elements class is Thread
+	private static final int	SUCCESS		= -1;
+
+	// for the load fence in validate, as used by StampedLock.
+	// null if the VM does not provide it
+	private static final Unsafe	UNSAFE		= getUnsafe();
+
+	private final Door[]		doors;
+	private final ThreadLocal	sharedCounts;	// element class is int[], index is door ID
 
 	/**
 	 *  Creates a new LockManager for
@@ -75,14 +103,18 @@ public class LockManager
 	 *  @param  numDoors	the maximum number of doors that can
 	 *						be managed by this instance
 	 */
-	public LockManager( int numDoors )
+	public LockManager( final int numDoors )
 	{
-		sharedLocks		= new ArrayList[ numDoors ];
-		exclusiveLocks  = new ArrayList[ numDoors ];
+		doors = new Door[ numDoors ];
 		for( int i = 0; i < numDoors; i++ ) {
-			sharedLocks[i]		= new ArrayList( 10 );
-			exclusiveLocks[i]   = new ArrayList( 5 );   // unlikely that more than five nested routines will need a door
+			doors[ i ] = new Door();
 		}
+		sharedCounts = new ThreadLocal() {
+			protected Object initialValue()
+			{
+				return new int[ numDoors ];
+			}
+		};
 	}
 
 	/**
@@ -105,29 +137,7 @@ public class LockManager
 	 */
 	public boolean attemptExclusive( int theOnesILove )
 	{
-		int			i, j, k;
-		Thread		newOwner	= Thread.currentThread();
-	
-		synchronized( this ) {
-checkLoop:	for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
-				if( (j & 1) == 1 ) {
-					if( exclusiveLocks[i].contains( newOwner )) continue checkLoop;		// success
-					if( !exclusiveLocks[i].isEmpty() ) return false;					// failure
-					if( !sharedLocks[i].isEmpty() ) {
-						for( k = 0; k < sharedLocks[i].size(); k++ ) {
-							if( sharedLocks[i].get( k ) != newOwner ) return false;		// failure
-						}
-					}
-					// success
-				}
-			}
-			for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
-				if( (j & 1) == 1 ) {
-					exclusiveLocks[i].add( newOwner );
-				}
-			}
-			return true;
-		} // synchronized( this )
+		return acquire( theOnesILove, true, 0L );
 	}
 
 	/**
@@ -143,41 +153,7 @@ checkLoop:	for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
 	 */
 	public void waitExclusive( int theOnesILove )
 	{
-		int			i, j, k;
-		Thread		newOwner	= Thread.currentThread();
-	
-		synchronized( this ) {
-checkLoop:	for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
-				if( (j & 1) == 1 ) {
-waitLoop:			do {
-						if( exclusiveLocks[i].contains( newOwner )) continue checkLoop;   // success
-							
-						if( !exclusiveLocks[i].isEmpty() ) {
-							try {
-								this.wait();
-							} catch( InterruptedException e1 ) {}
-							continue waitLoop;
-						} else if( !sharedLocks[i].isEmpty() ) {
-							for( k = 0; k < sharedLocks[i].size(); k++ ) {
-								if( sharedLocks[i].get( k ) != newOwner ) {
-									try {
-										this.wait();
-									} catch( InterruptedException e1 ) {}
-									continue waitLoop;
-								}
-							}
-						}
-						// success
-						continue checkLoop;
-					} while( true );
-				}
-			}
-			for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
-				if( (j & 1) == 1 ) {
-					exclusiveLocks[i].add( newOwner );
-				}
-			}
-		} // synchronized( this )
+		acquire( theOnesILove, true, Long.MAX_VALUE );
 	}
 
 	/**
@@ -195,48 +171,18 @@ waitLoop:			do {
 	 */
 	public boolean attemptExclusive( int theOnesILove, long timeOut )
 	{
-		int			i, j, k;
-		boolean		retry		= true;
-		Thread		newOwner	= Thread.currentThread();
-	
-		synchronized( this ) {
-checkLoop:	for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
-				if( (j & 1) == 1 ) {
-waitLoop:			do {
-						if( exclusiveLocks[i].contains( newOwner )) continue checkLoop;   // success
-							
-						if( !exclusiveLocks[i].isEmpty() ) {
-							if( !retry ) return false;
-							retry = false;
-							try {
-								this.wait( timeOut );
-							} catch( InterruptedException e1 ) {}
-							continue waitLoop;
-							
-						} else if( !sharedLocks[i].isEmpty() ) {
-							for( k = 0; k < sharedLocks[i].size(); k++ ) {
-								if( sharedLocks[i].get( k ) != newOwner ) {
-									if( !retry ) return false;
-									retry = false;
-									try {
-										this.wait( timeOut );
-									} catch( InterruptedException e1 ) {}
-									continue waitLoop;
-								}
-							}
-						}
-						// success
-						continue checkLoop;
-					} while( true );
-				}
-			}
-			for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
-				if( (j & 1) == 1 ) {
-					exclusiveLocks[i].add( newOwner );
-				}
-			}
-			return true;
-		} // synchronized( this )
+		return acquire( theOnesILove, true, TimeUnit.MILLISECONDS.toNanos( timeOut ));
+	}
+
+	/**
+	 *  Same as attemptExclusive( int, long ),
+	 *  but with the time out given in nanoseconds.
+	 *
+	 *  @param  timeOut			maximum time to wait in nanosecs
+	 */
+	public boolean attemptExclusiveNanos( int theOnesILove, long timeOut )
+	{
+		return acquire( theOnesILove, true, timeOut );
 	}
 
 	/**
@@ -253,25 +199,7 @@ waitLoop:			do {
 	 */
 	public boolean attemptShared( int theOnesILove )
 	{
-		int			i, j;
-		Thread		newOwner	= Thread.currentThread();
-	
-		synchronized( this ) {
-checkLoop:	for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
-				if( (j & 1) == 1 ) {
-					if( exclusiveLocks[i].isEmpty() ||
-						exclusiveLocks[i].contains( newOwner )) continue checkLoop;   // success
-					
-					return false;	// failure
-				}
-			}
-			for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
-				if( (j & 1) == 1 ) {
-					sharedLocks[i].add( newOwner );
-				}
-			}
-			return true;
-		} // synchronized( this )
+		return acquire( theOnesILove, false, 0L );
 	}
 
 	/**
@@ -287,28 +215,7 @@ checkLoop:	for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
 	 */
 	public void waitShared( int theOnesILove )
 	{
-		int				i, j;
-		final Thread	newOwner	= Thread.currentThread();
-	
-		synchronized( this ) {
-checkLoop:	for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
-				if( (j & 1) == 1 ) {
-					do {
-						if( exclusiveLocks[i].isEmpty() ||
-							exclusiveLocks[i].contains( newOwner )) continue checkLoop;   // success
-					
-						try {
-							this.wait();
-						} catch( InterruptedException e1 ) {}
-					} while( true );
-				}
-			}
-			for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
-				if( (j & 1) == 1 ) {
-					sharedLocks[i].add( newOwner );
-				}
-			}
-		} // synchronized( this )
+		acquire( theOnesILove, false, Long.MAX_VALUE );
 	}
 
 	/**
@@ -322,33 +229,18 @@ checkLoop:	for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
 	 */
 	public boolean attemptShared( int theOnesILove, long timeOut )
 	{
-		int				i, j;
-		final Thread	newOwner	= Thread.currentThread();
-		long			n;
-		
-		synchronized( this ) {
-checkLoop:	for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
-				if( (j & 1) == 1 ) {
-					do {
-						if( exclusiveLocks[i].isEmpty() ||
-							exclusiveLocks[i].contains( newOwner )) continue checkLoop;   // success
-					
-						try {
-							if( timeOut <= 0 ) return false;
-							n = System.currentTimeMillis();
-							this.wait( timeOut );
-							timeOut += n - System.currentTimeMillis();	// rest-zeit
-						} catch( InterruptedException e1 ) {}
-					} while( true );
-				}
-			}
-			for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
-				if( (j & 1) == 1 ) {
-					sharedLocks[i].add( newOwner );
-				}
-			}
-			return true;
-		} // synchronized( this )
+		return acquire( theOnesILove, false, TimeUnit.MILLISECONDS.toNanos( timeOut ));
+	}
+
+	/**
+	 *  Same as attemptShared( int, long ),
+	 *  but with the time out given in nanoseconds.
+	 *
+	 *  @param  timeOut		maximum time to wait in nanosecs
+	 */
+	public boolean attemptSharedNanos( int theOnesILove, long timeOut )
+	{
+		return acquire( theOnesILove, false, timeOut );
 	}
 
 	/**
@@ -367,15 +259,7 @@ checkLoop:	for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
 	 */
 	public void releaseExclusive( int theOnesIHate )
 	{
-		int		i, j;
-		Thread  recentOwner = Thread.currentThread();
-
-		synchronized( this ) {
-			for( i = 0, j = theOnesIHate; j > 0; i++, j >>= 1 ) {
-				if( (j & 1) == 1 ) exclusiveLocks[i].remove( recentOwner );
-			}
-			this.notifyAll();
-		} // synchronized( this )
+		release( theOnesIHate, true, Thread.currentThread(), (int[]) sharedCounts.get() );
 	}
 
 	/**
@@ -394,14 +278,307 @@ checkLoop:	for( i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
 	 */
 	public void releaseShared( int theOnesIHate )
 	{
-		int		i, j;
-		Thread  recentOwner = Thread.currentThread();
+		release( theOnesIHate, false, Thread.currentThread(), (int[]) sharedCounts.get() );
+	}
 
-		synchronized( this ) {
-			for( i = 0, j = theOnesIHate; j > 0; i++, j >>= 1 ) {
-				if( (j & 1) == 1 ) sharedLocks[i].remove( recentOwner );
+	/**
+	 *  Begins an optimistic read of doors. Instead of
+	 *  locking, the caller reads the data and afterwards
+	 *  checks with <code>validate</code> whether a writer
+	 *  interfered, in which case the data must be discarded
+	 *  (usually falling back to a shared lock). The data
+	 *  read may be inconsistent before validation, hence
+	 *  the reading code must cope with exceptions.
+	 *  <p>
+	 *  On a VM which does not provide <code>sun.misc.Unsafe</code>,
+	 *  <code>validate</code> cannot fence the reads, so the
+	 *  data read optimistically must then be held in
+	 *  <code>volatile</code> or <code>final</code> fields.
+	 *
+	 *  @param  theOnesILove	a Bitmask of the doors that shall be read
+	 *
+	 *  @return	a stamp to be passed to <code>validate</code>,
+	 *			or zero if one of the doors is currently
+	 *			locked exclusively by a different owner
+	 */
+	public long tryOptimisticRead( int theOnesILove )
+	{
+		final Thread	me		= Thread.currentThread();
+		long			stamp	= 0L;
+		long			version;
+		Door			d;
+
+		for( int i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
+			if( (j & 1) == 1 ) {
+				d		= doors[ i ];
+				version	= d.version;
+				if( ((version & 1) == 1) && (d.exclOwner != me) ) return 0L;
+				stamp  += version;
 			}
-			this.notifyAll();
-		} // synchronized( this )
+		}
+		return stamp;
+	}
+
+	/**
+	 *  Checks whether none of the doors was locked
+	 *  exclusively by a different owner since the
+	 *  stamp was issued.
+	 *
+	 *  @param  theOnesILove	the door bitmask exactly as passed
+	 *							to <code>tryOptimisticRead</code>
+	 *  @param  stamp			the stamp returned by <code>tryOptimisticRead</code>
+	 *
+	 *  @return	<code>true</code> if the data read since the stamp
+	 *			was issued is consistent
+	 */
+	public boolean validate( int theOnesILove, long stamp )
+	{
+		if( stamp == 0L ) return false;
+		// the volatile reads of the versions only acquire, so the data reads
+		// before them could be reordered past them without the fence
+		if( UNSAFE != null ) UNSAFE.loadFence();
+		return( stamp == tryOptimisticRead( theOnesILove ));
+	}
+
+	private static Unsafe getUnsafe()
+	{
+		try {
+			final Field f = Unsafe.class.getDeclaredField( "theUnsafe" );
+			f.setAccessible( true );
+			return (Unsafe) f.get( null );
+		}
+		catch( Exception e1 ) {
+			return null;
+		}
+		catch( LinkageError e1 ) {
+			return null;
+		}
+	}
+
+	/**
+	 *  Returns the number of times a door was successfully locked.
+	 *
+	 *  @param  doorIdx	the door ID, i.e. the bit index
+	 */
+	public long getNumAcquisitions( int doorIdx )
+	{
+		final Door d = doors[ doorIdx ];
+		synchronized( d ) {
+			return d.numAcquisitions;
+		}
+	}
+
+	/**
+	 *  Returns the number of times a thread found
+	 *  a door locked by another thread, whether it
+	 *  waited for it or the attempt failed.
+	 *
+	 *  @param  doorIdx	the door ID, i.e. the bit index
+	 */
+	public long getNumContentions( int doorIdx )
+	{
+		final Door d = doors[ doorIdx ];
+		synchronized( d ) {
+			return d.numContentions;
+		}
+	}
+
+	/**
+	 *  Returns the number of failed attempts
+	 *  (including time outs) due to a door.
+	 *
+	 *  @param  doorIdx	the door ID, i.e. the bit index
+	 */
+	public long getNumFailures( int doorIdx )
+	{
+		final Door d = doors[ doorIdx ];
+		synchronized( d ) {
+			return d.numFailures;
+		}
+	}
+
+	/**
+	 *  Returns the accumulated time threads
+	 *  spent waiting for a door.
+	 *
+	 *  @param  doorIdx	the door ID, i.e. the bit index
+	 *  @return	the waiting time in nanoseconds
+	 */
+	public long getWaitNanos( int doorIdx )
+	{
+		final Door d = doors[ doorIdx ];
+		synchronized( d ) {
+			return d.waitNanos;
+		}
+	}
+
+	/**
+	 *  Resets the statistics of all doors.
+	 */
+	public void resetStatistics()
+	{
+		Door d;
+	
+		for( int i = 0; i < doors.length; i++ ) {
+			d = doors[ i ];
+			synchronized( d ) {
+				d.numAcquisitions	= 0;
+				d.numContentions	= 0;
+				d.numFailures		= 0;
+				d.waitNanos			= 0;
+			}
+		}
+	}
+
+	// tries to lock all doors, releasing them again if one is
+	// unavailable and waiting for that one to change its state.
+	// timeOut is in nanos, Long.MAX_VALUE waits forever
+	private boolean acquire( int theOnesILove, boolean exclusive, long timeOut )
+	{
+		final Thread	me			= Thread.currentThread();
+		final int[]		myShared	= (int[]) sharedCounts.get();
+		final long		start		= timeOut > 0 ? System.nanoTime() : 0L;
+		boolean			contended	= false;
+		long			remaining	= timeOut;
+		long			t1;
+		int				i;
+		Door			d;
+
+		do {
+			i = tryAcquireAll( theOnesILove, exclusive, me, myShared );
+			if( i == SUCCESS ) {
+				if( contended ) {
+					t1 = System.nanoTime();
+					for( int j = 0, k = theOnesILove; k > 0; j++, k >>= 1 ) {
+						if( (k & 1) == 1 ) {
+							d = doors[ j ];
+							synchronized( d ) {
+								d.waitNanos += t1 - start;
+							}
+						}
+					}
+				}
+				return true;
+			}
+			
+			d = doors[ i ];
+			synchronized( d ) {
+				if( !contended ) d.numContentions++;
+				contended = true;
+				if( timeOut != Long.MAX_VALUE ) {
+					remaining = timeOut - (System.nanoTime() - start);
+				}
+				if( remaining <= 0 ) {
+					d.numFailures++;
+					d.waitNanos += timeOut;
+					return false;
+				}
+				// the door may have been released while we rolled back
+				if( !d.isAvailable( exclusive, me, myShared[ i ])) {
+					if( exclusive ) d.exclWaiters++;
+					try {
+						if( timeOut == Long.MAX_VALUE ) {
+							d.wait();
+						} else {
+							TimeUnit.NANOSECONDS.timedWait( d, remaining );
+						}
+					}
+					catch( InterruptedException e1 ) { /* ignored */ }
+					finally {
+						// readers held back by us may proceed when we time out
+						if( exclusive && (--d.exclWaiters == 0) ) d.notifyAll();
+					}
+				}
+			}
+		} while( true );
+	}
+
+	// returns SUCCESS or the index of the first door that
+	// could not be locked, in which case no door is locked
+	private int tryAcquireAll( int theOnesILove, boolean exclusive, Thread me, int[] myShared )
+	{
+		Door d;
+		
+		for( int i = 0, j = theOnesILove; j > 0; i++, j >>= 1 ) {
+			if( (j & 1) == 1 ) {
+				d = doors[ i ];
+				synchronized( d ) {
+					if( !d.isAvailable( exclusive, me, myShared[ i ])) {
+						// roll back the doors obtained so far
+						release( theOnesILove & ((1 << i) - 1), exclusive, me, myShared );
+						return i;
+					}
+					if( exclusive ) {
+						if( d.exclCount++ == 0 ) {
+							d.exclOwner	= me;
+							d.version++;
+						}
+					} else {
+						d.sharedCount++;
+						myShared[ i ]++;
+					}
+					d.numAcquisitions++;
+				}
+			}
+		}
+		return SUCCESS;
+	}
+
+	private void release( int theOnesIHate, boolean exclusive, Thread me, int[] myShared )
+	{
+		Door d;
+
+		for( int i = 0, j = theOnesIHate; j > 0; i++, j >>= 1 ) {
+			if( (j & 1) == 1 ) {
+				d = doors[ i ];
+				synchronized( d ) {
+					if( exclusive ) {
+						if( d.exclOwner != me ) continue;
+						if( --d.exclCount == 0 ) {
+							d.exclOwner	= null;
+							d.version++;
+						}
+					} else {
+						if( myShared[ i ] == 0 ) continue;
+						myShared[ i ]--;
+						d.sharedCount--;
+					}
+					d.notifyAll();
+				}
+			}
+		}
+	}
+
+// ---------------- internal classes ---------------- 
+
+	private static class Door
+	{
+		// all fields sync: this
+		protected Thread		exclOwner		= null;
+		protected int			exclCount		= 0;
+		protected int			sharedCount		= 0;	// of all threads
+		protected int			exclWaiters		= 0;
+		// even while not locked exclusively, odd while locked exclusively.
+		// volatile for the optimistic reads
+		protected volatile long	version			= 2;
+
+		protected long			numAcquisitions	= 0;
+		protected long			numContentions	= 0;
+		protected long			numFailures		= 0;
+		protected long			waitNanos		= 0;
+
+		protected Door() { /* empty */ }
+
+		// sync: caller must have sync on this
+		protected boolean isAvailable( boolean exclusive, Thread me, int myShared )
+		{
+			if( exclOwner == me ) return true;					// re-entrance
+			if( exclOwner != null ) return false;
+			if( exclusive ) {
+				return( sharedCount == myShared );				// upgrade if we're the only reader
+			} else {
+				return( (exclWaiters == 0) || (myShared > 0) );	// writers come first
+			}
+		}
 	}
-}
\ No newline at end of file
+}
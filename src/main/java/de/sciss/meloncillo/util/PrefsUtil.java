@@ -166,6 +166,14 @@ public class PrefsUtil
 	 *  Node: 
 	 */
 	public static final String KEY_INSERTIONFOLLOWSPLAY	= "insertionfollowsplay";		// boolean
+	/**
+	 *  Value: Boolean indicating whether receiver
+	 *  sensitivities are interpolated from a cached grid
+	 *  (fast) instead of being calculated exactly.<br>
+	 *  Has default value: yes!<br>
+	 *  Node: root
+	 */
+	public static final String KEY_FASTRCVSENSE	= "fastrcvsense";		// boolean
 
 	public static final int TIME_SAMPLES		= 0;
 	public static final int TIME_MINSECS		= 1;
@@ -264,6 +272,33 @@ public class PrefsUtil
 	 *  Node: plugins
 	 */
 	public static final String KEY_RTMAXSENSERATE = "rtmaxsenserate";	// integer : maximum sense rate
+	/**
+	 *  Value: Boolean indicating whether the realtime
+	 *  transport is clocked by absolute tick deadlines
+	 *  (nano time and thread parking) instead of the
+	 *  legacy yield-and-sleep rate estimation.
+	 *  Has default value: yes!<br>
+	 *  Node: plugins
+	 */
+	public static final String KEY_RTDEADLINECLOCK = "rtdeadlineclock";	// boolean : deadline driven transport
+	/**
+	 *  Value: Integer representing the number of
+	 *  threads among which the realtime sensitivity
+	 *  calculation is distributed. Zero means one
+	 *  thread per available processor.
+	 *  Has default value: yes!<br>
+	 *  Node: plugins
+	 */
+	public static final String KEY_RTPARALLELISM = "rtparallelism";	// integer : sense calculation threads
+	/**
+	 *  Value: Integer representing the maximum size
+	 *  in bytes of the OSC bundles into which realtime
+	 *  plug-ins pack their stream messages. Zero means
+	 *  each message is sent as a datagram of its own.
+	 *  Has default value: yes!<br>
+	 *  Node: plugins
+	 */
+	public static final String KEY_RTOSCBUNDLESIZE = "rtoscbundlesize";	// integer : max. bundle size in bytes
 
 	/**
 	 *  Value: Integer representing the size of
@@ -451,6 +486,7 @@ public class PrefsUtil
 		putDontOverwrite( mainPrefs, KEY_LOOKANDFEEL, UIManager.getSystemLookAndFeelClassName() );
 		putBooleanDontOverwrite( mainPrefs, KEY_INTRUDINGSIZE, isMacOS );
 		putBooleanDontOverwrite( mainPrefs, KEY_INSERTIONFOLLOWSPLAY, true );
+		putBooleanDontOverwrite( mainPrefs, KEY_FASTRCVSENSE, false );
 //		putBooleanDontOverwrite( mainPrefs, KEY_VIEWCHANMETERS , true );
 		putBooleanDontOverwrite( mainPrefs, KEY_VIEWMARKERS , true );
 		putBooleanDontOverwrite( mainPrefs, KEY_VIEWNULLLINIE , true );
@@ -480,6 +516,9 @@ public class PrefsUtil
 		putIntDontOverwrite( childPrefs, KEY_AUDIORATE, 44100 );
 		putIntDontOverwrite( childPrefs, KEY_RTSENSEBUFSIZE, 512 );
 		putIntDontOverwrite( childPrefs, KEY_RTMAXSENSERATE, 690 );
+		putBooleanDontOverwrite( childPrefs, KEY_RTDEADLINECLOCK, true );
+		putIntDontOverwrite( childPrefs, KEY_RTPARALLELISM, 0 );
+		putIntDontOverwrite( childPrefs, KEY_RTOSCBUNDLESIZE, 0 );
 		putIntDontOverwrite( childPrefs, KEY_OLSENSEBUFSIZE, 512 );
 		putDontOverwrite( childPrefs, KEY_LISPBOUNCELIST, new File( f, "bouncelist.xml" ).getPath() );
 		putDontOverwrite( childPrefs, KEY_LISPFILTERLIST, new File( f, "filterlist.xml" ).getPath() );